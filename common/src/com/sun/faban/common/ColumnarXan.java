@@ -0,0 +1,581 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.common;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The columnar xan is a binary companion to a Xan file, such as detail.xan.
+ * It holds the same title, sections, headers, and rows. But each column is
+ * stored contiguously. Numeric columns are stored as doubles together with
+ * the number of decimals used in the text form, so the text can be
+ * reproduced exactly. The file is memory-mapped when read, so numeric
+ * columns can be accessed directly without parsing any text.<p>
+ * The file layout, all big endian, is:
+ * <pre>
+ * int     magic
+ * short   version
+ * string  title
+ * int     section count
+ * per section:
+ *   string  name
+ *   string  display
+ *   int     header count, or -1 if no headers
+ *   string  headers...
+ *   int     row count
+ *   int     column count
+ *   int     row lengths... (one per row)
+ *   per column:
+ *     byte    'D' for doubles, 'S' for strings
+ *     'D':    byte decimals, double values... (one per row)
+ *     'S':    int end offsets... (one per row), byte UTF-8 text
+ * </pre>
+ * A string is an int byte length, or -1 for null, followed by the UTF-8
+ * bytes. Cells missing from short rows are stored as NaN or empty strings
+ * and are not returned by the row accessors.
+ *
+ * @author Akara Sucharitakul
+ */
+public class ColumnarXan {
+
+    /** The file extension of the columnar xan, replacing ".xan". */
+    public static final String EXTENSION = ".xcol";
+
+    static final String TITLE = "Title:";
+    static final String SECTION = "Section:";
+    static final String DISPLAY = "Display:";
+
+    static final int MAGIC = 0x58434f4c; // "XCOL"
+    static final short VERSION = 1;
+    static final String NULL_CELL = "-";
+
+    private static final Pattern DECIMAL = Pattern.compile("-?\\d+(\\.\\d+)?");
+    private static final int MAX_DECIMALS = 15;
+
+    private String title;
+    private Section[] sections;
+
+    private ColumnarXan() {
+    }
+
+    /**
+     * Obtains the columnar companion file of a Xan file. The companion
+     * replaces the first ".xan" in the name, or adds the extension
+     * if there is none. So detail.xan.host becomes detail.xcol.host.
+     * @param xanFile The xan file
+     * @return The companion file
+     */
+    public static File companionOf(File xanFile) {
+        String name = xanFile.getName();
+        int idx = name.indexOf(".xan");
+        if (idx < 0)
+            name += EXTENSION;
+        else
+            name = name.substring(0, idx) + EXTENSION +
+                    name.substring(idx + 4);
+        return new File(xanFile.getParentFile(), name);
+    }
+
+    /**
+     * Opens the columnar companion of a Xan file. If the companion does not
+     * exist or is older than the Xan file, it is (re-)created from the
+     * Xan file first.
+     * @param xanFile The xan file
+     * @return The memory-mapped columnar xan
+     * @throws IOException If the companion cannot be read or created
+     */
+    public static ColumnarXan openCompanion(File xanFile) throws IOException {
+        File companion = companionOf(xanFile);
+        if (!companion.isFile() ||
+                companion.lastModified() < xanFile.lastModified()) {
+            BufferedReader reader = new BufferedReader(
+                                                new FileReader(xanFile));
+            try {
+                write(reader, companion);
+            } finally {
+                reader.close();
+            }
+        }
+        return open(companion);
+    }
+
+    /**
+     * Writes the columnar form of Xan text into a file.
+     * @param xan The Xan text
+     * @param file The output file
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(CharSequence xan, File file) throws IOException {
+        write(new StringReader(xan.toString()), file);
+    }
+
+    /**
+     * Reads Xan text and writes its columnar form into a file. The text
+     * is parsed with the same rules the Xan viewer uses.
+     * @param xan The reader of the Xan text
+     * @param file The output file
+     * @throws IOException If the text cannot be read or the file written
+     */
+    public static void write(Reader xan, File file) throws IOException {
+        BufferedReader reader = xan instanceof BufferedReader ?
+                (BufferedReader) xan : new BufferedReader(xan);
+        String title = null;
+        ArrayList<SectionData> sections = new ArrayList<SectionData>();
+        SectionData current = null;
+        boolean freshSection = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(TITLE)) {
+                title = line.substring(TITLE.length()).trim();
+            } else if (line.startsWith(SECTION)) {
+                current = new SectionData();
+                current.name = line.substring(SECTION.length()).trim();
+                freshSection = true;
+                sections.add(current);
+            } else if (line.startsWith(DISPLAY) && freshSection) {
+                current.display = line.substring(DISPLAY.length()).trim();
+            } else if (current != null) {
+                line = line.trim();
+                if (line.length() == 0 || isDivider(line))
+                    continue;
+                String[] cells = line.split("\t| {2,}");
+                if (freshSection) {
+                    freshSection = false;
+                    current.headers = cells;
+                } else {
+                    current.rows.add(cells);
+                    if (cells.length > current.columns)
+                        current.columns = cells.length;
+                }
+            }
+        }
+
+        // Write to a temporary file and rename, so readers never see a
+        // partially written file. Each writer gets its own temporary file
+        // so concurrent writers of the same file do not mix their output.
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+        boolean written = false;
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                    new FileOutputStream(tmpFile), 65536));
+            try {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                writeString(out, title);
+                out.writeInt(sections.size());
+                for (SectionData section : sections)
+                    section.write(out);
+            } finally {
+                out.close();
+            }
+            written = true;
+        } finally {
+            if (!written)
+                tmpFile.delete();
+        }
+        if (!tmpFile.renameTo(file)) {
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Cannot rename " + tmpFile + " to " +
+                                      file);
+            }
+        }
+    }
+
+    private static boolean isDivider(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c != '-' && c != ' ')
+                return false;
+        }
+        return true;
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Memory-maps a columnar xan file.
+     * @param file The columnar xan file
+     * @return The columnar xan
+     * @throws IOException If the file cannot be read or is not valid
+     */
+    public static ColumnarXan open(File file) throws IOException {
+        MappedByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                 channel.size());
+        } finally {
+            raf.close(); // The mapping stays valid after close.
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION)
+                throw new IOException(file + " is not a columnar xan file.");
+            ColumnarXan xan = new ColumnarXan();
+            xan.title = readString(buffer);
+            xan.sections = new Section[buffer.getInt()];
+            for (int i = 0; i < xan.sections.length; i++)
+                xan.sections[i] = new Section(buffer);
+            return xan;
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, IllegalArgumentException, etc.
+            IOException ex = new IOException(file + " is corrupted.");
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    private static String readString(ByteBuffer buffer)
+            throws UnsupportedEncodingException {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Obtains the title of the Xan.
+     * @return The title, or null if there is none
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Obtains the number of sections.
+     * @return The number of sections
+     */
+    public int getSectionCount() {
+        return sections.length;
+    }
+
+    /**
+     * Obtains a section.
+     * @param idx The section index
+     * @return The section
+     */
+    public Section getSection(int idx) {
+        return sections[idx];
+    }
+
+    /**
+     * A section of the Xan, holding a table of data by column.
+     */
+    public static class Section {
+
+        private String name;
+        private String display;
+        private List<String> headers;
+        private int rows;
+        private IntBuffer rowLengths;
+        private Column[] columns;
+
+        Section(ByteBuffer buffer) throws UnsupportedEncodingException {
+            name = readString(buffer);
+            display = readString(buffer);
+            int headerCount = buffer.getInt();
+            if (headerCount >= 0) {
+                String[] h = new String[headerCount];
+                for (int i = 0; i < headerCount; i++)
+                    h[i] = readString(buffer);
+                headers = Collections.unmodifiableList(Arrays.asList(h));
+            }
+            rows = buffer.getInt();
+            columns = new Column[buffer.getInt()];
+            rowLengths = slice(buffer, rows * 4).asIntBuffer();
+            for (int i = 0; i < columns.length; i++) {
+                Column column = new Column();
+                column.type = buffer.get();
+                if (column.type == 'D') {
+                    column.decimals = buffer.get();
+                    column.values = slice(buffer, rows * 8).asDoubleBuffer();
+                } else if (column.type == 'S') {
+                    column.offsets = slice(buffer, rows * 4).asIntBuffer();
+                    int length = rows == 0 ? 0 : column.offsets.get(rows - 1);
+                    column.text = slice(buffer, length);
+                } else {
+                    throw new IllegalArgumentException(
+                            "Invalid column type " + column.type);
+                }
+                columns[i] = column;
+            }
+        }
+
+        /**
+         * Obtains the section name.
+         * @return The name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Obtains the display type, such as "Line".
+         * @return The display type, or null if not given
+         */
+        public String getDisplay() {
+            return display;
+        }
+
+        /**
+         * Obtains the column headers.
+         * @return The headers, or null if the section has no data
+         */
+        public List<String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Obtains the number of data rows.
+         * @return The number of rows
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * Obtains the number of columns, which is the length of the
+         * longest row.
+         * @return The number of columns
+         */
+        public int getColumns() {
+            return columns.length;
+        }
+
+        /**
+         * Obtains the number of cells in a row.
+         * @param row The row index
+         * @return The number of cells in the row
+         */
+        public int getRowLength(int row) {
+            return rowLengths.get(row);
+        }
+
+        /**
+         * Checks whether a column is stored as numbers. A column is numeric
+         * if all its cells are decimals with the same number of fraction
+         * digits, or "-" for no value.
+         * @param column The column index
+         * @return True if numeric, false otherwise
+         */
+        public boolean isNumeric(int column) {
+            return columns[column].type == 'D';
+        }
+
+        /**
+         * Obtains the values of a numeric column. The buffer is a view
+         * of the mapped file. Cells without a value are NaN.
+         * @param column The column index
+         * @return The values, one per row
+         * @throws IllegalStateException If the column is not numeric
+         */
+        public DoubleBuffer getDoubles(int column) {
+            Column c = columns[column];
+            if (c.type != 'D')
+                throw new IllegalStateException("Column " + column +
+                        " of section " + name + " is not numeric.");
+            return c.values.duplicate();
+        }
+
+        /**
+         * Obtains the value of a cell as a double.
+         * @param row The row index
+         * @param column The column index
+         * @return The value, or NaN if the cell has no numeric value
+         */
+        public double getDouble(int row, int column) {
+            Column c = columns[column];
+            if (c.type == 'D')
+                return c.values.get(row);
+            try {
+                return Double.parseDouble(getText(row, column));
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        /**
+         * Obtains the text of a cell, exactly as it is in the Xan file.
+         * @param row The row index
+         * @param column The column index
+         * @return The text
+         */
+        public String getText(int row, int column) {
+            Column c = columns[column];
+            if (c.type == 'D') {
+                double value = c.values.get(row);
+                if (Double.isNaN(value))
+                    return NULL_CELL;
+                return String.format(Locale.US, "%." + c.decimals + 'f',
+                                     value);
+            }
+            int start = row == 0 ? 0 : c.offsets.get(row - 1);
+            int end = c.offsets.get(row);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer text = c.text.duplicate();
+            text.position(start);
+            text.get(bytes);
+            try {
+                return new String(bytes, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int length) {
+            ByteBuffer slice = buffer.slice();
+            slice.limit(length);
+            buffer.position(buffer.position() + length);
+            return slice;
+        }
+    }
+
+    static class Column {
+        byte type;
+        byte decimals;
+        DoubleBuffer values;
+        IntBuffer offsets;
+        ByteBuffer text;
+    }
+
+    /**
+     * The parsed section, before writing.
+     */
+    static class SectionData {
+        String name;
+        String display;
+        String[] headers;
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        int columns;
+
+        void write(DataOutputStream out) throws IOException {
+            writeString(out, name);
+            writeString(out, display);
+            if (headers == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(headers.length);
+                for (String header : headers)
+                    writeString(out, header);
+            }
+            out.writeInt(rows.size());
+            out.writeInt(columns);
+            for (String[] row : rows)
+                out.writeInt(row.length);
+            for (int i = 0; i < columns; i++) {
+                int decimals = getDecimals(i);
+                if (decimals >= 0) {
+                    out.writeByte('D');
+                    out.writeByte(decimals);
+                    for (String[] row : rows) {
+                        if (row.length <= i || NULL_CELL.equals(row[i]))
+                            out.writeDouble(Double.NaN);
+                        else
+                            out.writeDouble(Double.parseDouble(row[i]));
+                    }
+                } else {
+                    out.writeByte('S');
+                    byte[][] cells = new byte[rows.size()][];
+                    int offset = 0;
+                    for (int j = 0; j < cells.length; j++) {
+                        String[] row = rows.get(j);
+                        cells[j] = row.length <= i ? new byte[0] :
+                                                row[i].getBytes("UTF-8");
+                        offset += cells[j].length;
+                        out.writeInt(offset);
+                    }
+                    for (byte[] cell : cells)
+                        out.write(cell);
+                }
+            }
+        }
+
+        /**
+         * Checks whether a column can be stored as doubles and still be
+         * reproduced as the same text.
+         * @param column The column index
+         * @return The number of decimals, or -1 if the column is text
+         */
+        int getDecimals(int column) {
+            int decimals = -1;
+            boolean hasValue = false;
+            for (String[] row : rows) {
+                if (row.length <= column || NULL_CELL.equals(row[column]))
+                    continue;
+                String cell = row[column];
+                if (!DECIMAL.matcher(cell).matches())
+                    return -1;
+                int dot = cell.indexOf('.');
+                int d = dot < 0 ? 0 : cell.length() - dot - 1;
+                if (hasValue && d != decimals)
+                    return -1;
+                if (d > MAX_DECIMALS)
+                    return -1;
+                decimals = d;
+                hasValue = true;
+                String text = String.format(Locale.US, "%." + d + 'f',
+                                            Double.parseDouble(cell));
+                if (!text.equals(cell))
+                    return -1;
+            }
+            return hasValue ? decimals : -1;
+        }
+    }
+}
@@ -24,8 +24,21 @@
 package com.sun.faban.common;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * The FileTransfer class represents a file to be transferred via RMI from
@@ -34,21 +47,50 @@ import java.util.logging.Level;
  * memory bloat. This is useful for transferring large files over RMI.
  * As this object gets serialized, deserialized, the file transfer happens
  * internally and the destination file gets created as a result of the
- * deserialization. The file size limit is Long.MAX_VALUE (64bit).
+ * deserialization. The file size limit is Long.MAX_VALUE (64bit).<p>
+ *
+ * Files larger than the streaming threshold do not go through the RMI
+ * stream at all. Instead, the sender opens a socket and only sends the
+ * address in the serialized form. The receiver connects to the sender
+ * while deserializing and the file content streams directly from the
+ * sender's file channel to the socket and into the receiver's file
+ * channel. The content can optionally be compressed on the fly. If the
+ * connection breaks, the receiver reconnects and resumes from the offset
+ * already received.
  *
  * @author Akara Sucharitakul
  */
 public class FileTransfer implements Externalizable {
 
-    private static final long serialVersionUID = 20090812L;    
+    private static final long serialVersionUID = 20100301L;
 
     private static final int MAX_BUFFER_SIZE = 8192;
+
+    /** Files larger than this size are streamed through a socket. */
+    private static final long STREAM_THRESHOLD = 1024 * 1024;
+
+    /** Buffer size for compressed streaming. */
+    private static final int STREAM_BUFFER_SIZE = 65536;
+
+    /** Time the sender waits for the receiver to connect, in ms. */
+    private static final int ACCEPT_TIMEOUT = 120000;
+
+    /** Maximum connections, including reconnects, for a stream. */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** Transfer modes in the serialized form. */
+    private static final byte INLINE = 0;
+    private static final byte STREAM = 1;
+
+    private static final SecureRandom tokenGenerator = new SecureRandom();
+
     private static final Logger logger =
                             Logger.getLogger(FileTransfer.class.getName());
 
     private String src;
     private String dest;
     private long size; // Size only gets populated once file transfer happens.
+    private boolean compressed = Boolean.getBoolean("faban.transfer.compress");
 
     private transient long transferSize;
     private transient byte[] buffer;
@@ -152,6 +194,17 @@ public class FileTransfer implements Externalizable {
         return transferSize;
     }
 
+    /**
+     * Sets whether the file content gets compressed when streamed. The
+     * default is set by the faban.transfer.compress system property.
+     * Compression pays off on slow networks with compressible files
+     * such as logs. Small files never get compressed.
+     * @param compressed Whether to compress the streamed content
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
     public void writeExternal(ObjectOutput out) throws IOException {
 
         // Flush headers and the first chunk.
@@ -159,6 +212,28 @@ public class FileTransfer implements Externalizable {
         out.writeObject(src);
         out.writeObject(dest);
         out.writeLong(size);
+
+        // Large files get streamed through the side channel.
+        if (size > STREAM_THRESHOLD && dataIn != null) {
+            Sender sender = null;
+            try {
+                sender = new Sender();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Cannot open stream for " + src +
+                        ", transferring inline.", e);
+            }
+            if (sender != null) {
+                out.writeByte(STREAM);
+                out.writeUTF(sender.host);
+                out.writeInt(sender.port);
+                out.writeLong(sender.token);
+                out.writeBoolean(compressed);
+                sender.start();
+                buffer = null;
+                return;
+            }
+        }
+        out.writeByte(INLINE);
         out.write(buffer);
 
         // Then stream the rest, if any
@@ -210,6 +285,19 @@ public class FileTransfer implements Externalizable {
         // Convert destination file name to OS path name
         dest = Utilities.convertPath(dest);
 
+        if (in.readByte() == STREAM) {
+            String host = in.readUTF();
+            int port = in.readInt();
+            long token = in.readLong();
+            compressed = in.readBoolean();
+            receive(host, port, token);
+            if (transferSize < size)
+                throw new IOException("Error receiving " + dest + " from " +
+                        host + ", received " + transferSize + " out of " +
+                        size + " bytes.");
+            return;
+        }
+
         // We need to ensure we read everything out in order not to
         // cause an rmi stream corruption, even if our file write bails.
         // Create the file
@@ -263,4 +351,186 @@ public class FileTransfer implements Externalizable {
         }
         buffer = null;
     }
+
+    /**
+     * Receives the streamed file content from the sender. The content
+     * has already been removed from the RMI stream so we can just give up
+     * on errors, leaving the transfer size short. The caller reports the
+     * short transfer.
+     * @param host The sender host
+     * @param port The sender port
+     * @param token The token identifying this transfer to the sender
+     */
+    private void receive(String host, int port, long token) {
+        transferSize = 0l;
+        RandomAccessFile file;
+        try {
+            file = new RandomAccessFile(dest, "rw");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error opening file " + dest, e);
+            return;
+        }
+        FileChannel dataOut = file.getChannel();
+        try {
+            file.setLength(0l);
+            for (int attempt = 1; transferSize < size &&
+                    attempt <= MAX_ATTEMPTS; attempt++) {
+                SocketChannel channel = null;
+                try {
+                    channel = SocketChannel.open(
+                            new InetSocketAddress(host, port));
+                    ByteBuffer request = ByteBuffer.allocate(16);
+                    request.putLong(token).putLong(transferSize).flip();
+                    while (request.hasRemaining())
+                        channel.write(request);
+                    if (compressed) {
+                        InputStream dataIn = new InflaterInputStream(
+                                channel.socket().getInputStream());
+                        ByteBuffer chunk =
+                                ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+                        int count;
+                        while ((count = dataIn.read(chunk.array())) > 0) {
+                            chunk.limit(count);
+                            while (chunk.hasRemaining())
+                                transferSize +=
+                                        dataOut.write(chunk, transferSize);
+                            chunk.clear();
+                        }
+                    } else {
+                        long count;
+                        do {
+                            count = dataOut.transferFrom(channel,
+                                    transferSize, size - transferSize);
+                            transferSize += count;
+                        } while (count > 0 && transferSize < size);
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Error receiving " + dest +
+                            " from " + host + ", received " + transferSize +
+                            " out of " + size + " bytes.", e);
+                } finally {
+                    if (channel != null)
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            logger.log(Level.FINE, "Error closing channel", e);
+                        }
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error writing to file " + dest, e);
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error closing file " + dest, e);
+            }
+        }
+    }
+
+    /**
+     * The sender thread serves the file content to the receiver over
+     * the side channel. It accepts connections until the whole file has
+     * been sent or the receiver stops connecting.
+     */
+    private class Sender extends Thread {
+
+        ServerSocket server;
+        String host;
+        int port;
+        long token;
+
+        Sender() throws IOException {
+            host = System.getProperty("java.rmi.server.hostname");
+            if (host == null)
+                host = InetAddress.getLocalHost().getHostAddress();
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            server = channel.socket();
+            server.bind(new InetSocketAddress(0));
+            server.setSoTimeout(ACCEPT_TIMEOUT);
+            port = server.getLocalPort();
+            token = tokenGenerator.nextLong();
+            setName("FileTransfer-" + port);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                    Socket socket = server.accept();
+                    try {
+                        if (send(socket.getChannel()))
+                            break;
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Error sending " + src, e);
+                    } finally {
+                        socket.close();
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                logger.warning("Timed out waiting for receiver of " + src);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error streaming " + src, e);
+            } finally {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Error closing socket", e);
+                }
+                try {
+                    dataIn.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Error closing file " + src, e);
+                }
+            }
+        }
+
+        /**
+         * Sends the file from the offset requested by the receiver.
+         * @param channel The connected channel
+         * @return true if the file got sent completely, false otherwise
+         * @throws IOException Error sending the file
+         */
+        private boolean send(SocketChannel channel) throws IOException {
+            ByteBuffer request = ByteBuffer.allocate(16);
+            while (request.hasRemaining())
+                if (channel.read(request) < 0)
+                    return false;
+            request.flip();
+            if (request.getLong() != token) {
+                logger.warning("Invalid token from " +
+                        channel.socket().getRemoteSocketAddress() +
+                        " transferring " + src);
+                return false;
+            }
+            long position = request.getLong();
+            FileChannel fileChannel = dataIn.getChannel();
+            if (compressed) {
+                DeflaterOutputStream out = new DeflaterOutputStream(
+                        channel.socket().getOutputStream(),
+                        new Deflater(Deflater.BEST_SPEED), STREAM_BUFFER_SIZE);
+                ByteBuffer chunk = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+                while (position < size) {
+                    int count = fileChannel.read(chunk, position);
+                    if (count < 0)
+                        break;
+                    out.write(chunk.array(), 0, count);
+                    position += count;
+                    chunk.clear();
+                }
+                out.finish();
+                out.flush();
+            } else {
+                while (position < size) {
+                    long count = fileChannel.transferTo(position,
+                            size - position, channel);
+                    if (count <= 0 && position >= fileChannel.size())
+                        break;
+                    position += count;
+                }
+            }
+            return position >= size;
+        }
+    }
 }
@@ -0,0 +1,124 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.BenchmarkDriver;
+import com.sun.faban.driver.BenchmarkOperation;
+import com.sun.faban.driver.CycleType;
+import com.sun.faban.driver.RunControl;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A do-nothing driver used as the fixture for the driver micro-benchmarks.
+ * It only exists so the benchmarks can obtain a real driver configuration
+ * through the regular benchmark definition path.
+ *
+ * @author Akara Sucharitakul
+ */
+@com.sun.faban.driver.BenchmarkDefinition (
+    name    = "Driver Micro-Benchmark Fixture",
+    version = "1.0"
+)
+@BenchmarkDriver (
+    name             = "BenchDriver",
+    threadPerScale   = 1,
+    percentiles      = { "90", "99" },
+    responseTimeUnit = TimeUnit.MILLISECONDS
+)
+@com.sun.faban.driver.FlatMix (
+    operations = { "Op1", "Op2", "Op3", "Op4" },
+    mix        = { 40, 30, 20, 10 },
+    deviation  = 2
+)
+@com.sun.faban.driver.NegativeExponential (
+    cycleType      = CycleType.THINKTIME,
+    cycleMean      = 1000,
+    cycleDeviation = 2
+)
+public class BenchDriver {
+
+    /** Number of operations in the fixture mix. */
+    static final int OPERATIONS = 4;
+
+    /**
+     * Obtains the driver configuration of this fixture.
+     * @return The driver configuration
+     * @throws Exception If the definition cannot be read
+     */
+    static RunInfo.DriverConfig getDriverConfig() throws Exception {
+        BenchmarkDefinition def = BenchmarkDefinition.read(
+                BenchDriver.class.getName());
+        return new RunInfo.DriverConfig(def.drivers[0]);
+    }
+
+    /**
+     * Obtains the run information of this fixture, as an agent would have
+     * it for a 10 minute run with runtime stats enabled. The instance is
+     * also registered as the RunInfo singleton of this JVM.
+     * @return The run information
+     * @throws Exception If the definition cannot be read
+     */
+    static RunInfo getRunInfo() throws Exception {
+        RunInfo runInfo = RunInfo.getInstance();
+        if (runInfo != null)
+            return runInfo;
+
+        // Agents get the RunInfo from the master, there is no public
+        // constructor.
+        Constructor<RunInfo> c = RunInfo.class.getDeclaredConstructor();
+        c.setAccessible(true);
+        runInfo = c.newInstance();
+        runInfo.rampUp = 60;
+        runInfo.stdyState = 480;
+        runInfo.rampDown = 60;
+        runInfo.runtimeStatsEnabled = true;
+        runInfo.driverConfig = getDriverConfig();
+        runInfo.driverConfig.runControl = RunControl.TIME;
+        runInfo.driverConfig.graphInterval = runInfo.graphInterval;
+        runInfo.postDeserialize();
+        return runInfo;
+    }
+
+    /** First operation. */
+    @BenchmarkOperation(name = "Op1", percentileLimits = { 100, 200 })
+    public void doOp1() {
+    }
+
+    /** Second operation. */
+    @BenchmarkOperation(name = "Op2", percentileLimits = { 100, 200 })
+    public void doOp2() {
+    }
+
+    /** Third operation. */
+    @BenchmarkOperation(name = "Op3", percentileLimits = { 100, 200 })
+    public void doOp3() {
+    }
+
+    /** Fourth operation. */
+    @BenchmarkOperation(name = "Op4", percentileLimits = { 100, 200 })
+    public void doOp4() {
+    }
+}
@@ -0,0 +1,251 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Micro-benchmarks for the per-operation statistics paths. Each agent
+ * thread records into its own Metrics, so Metrics.recordTx and
+ * recordDelayTime run against thread-confined state, except for the
+ * runtime counters which are shared by all threads in the agent. The
+ * timing info is filled in the way the DriverContext does around each
+ * operation, from a simulated clock. The histogram, sum of squares, and
+ * runtime counter updates are also measured on their own.
+ * Run with -prof gc to verify these paths do not allocate.
+ *
+ * @author Akara Sucharitakul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MetricsBenchmark {
+
+    /** Size of the pre-generated response time table, a power of 2. */
+    static final int SAMPLES = 1024;
+
+    /**
+     * State shared by all benchmark threads, like the agent.
+     */
+    @State(Scope.Benchmark)
+    public static class AgentState {
+
+        RunInfo runInfo;
+        AgentImpl agent;
+        RuntimeCounters counters;
+        long respBucketSize;
+        AtomicInteger threadIds = new AtomicInteger();
+
+        /**
+         * Sets up the agent and its shared runtime counters.
+         * @throws Exception If the fixture cannot be set up
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            runInfo = BenchDriver.getRunInfo();
+            RunInfo.DriverConfig driverConfig = runInfo.driverConfig;
+            respBucketSize = Metrics.getRespBucketSize(driverConfig);
+            counters = new RuntimeCounters(0, driverConfig,
+                                           runInfo.respHistDigits);
+            agent = new AgentImpl(driverConfig.name, "0");
+            agent.host = "localhost";
+            agent.startTime = 0l;
+            agent.runtimeCounters = counters;
+        }
+
+        /**
+         * Unexports the agent.
+         * @throws Exception If the agent cannot be unexported
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            UnicastRemoteObject.unexportObject(agent, true);
+        }
+    }
+
+    /**
+     * State confined to each benchmark thread, like the agent thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        int id;
+        int sample;
+        long[] respTimes = new long[SAMPLES];
+        long[] delayTimes = new long[SAMPLES];
+        int[] txTypes = new int[SAMPLES];
+        TimeThread thread;
+        DriverContext.TimingInfo timingInfo;
+        Metrics metrics;
+        long clock;
+        LatencyHistogram hist;
+        double respSum;
+        double sumSquares;
+        int txCnt;
+
+        /**
+         * Sets up the per-thread histogram and response time samples.
+         * @param agent The shared agent state
+         */
+        @Setup(Level.Trial)
+        public void setUp(AgentState agent) {
+            id = agent.threadIds.getAndIncrement();
+            hist = new LatencyHistogram(agent.respBucketSize, 2);
+            com.sun.faban.driver.util.Random random =
+                    new com.sun.faban.driver.util.Random(id);
+
+            // Exponential response times with a 20ms mean and think
+            // times with a 1s mean, in ns.
+            for (int i = 0; i < SAMPLES; i++) {
+                double x = random.drandom(1e-20d, 1d);
+                respTimes[i] = (long) (20000000d * -Math.log(x));
+                x = random.drandom(1e-20d, 1d);
+                delayTimes[i] = (long) (1000000000d * -Math.log(x));
+                txTypes[i] = random.random(0, BenchDriver.OPERATIONS - 1);
+            }
+
+            // An agent thread in steady state, as the metrics see it.
+            thread = new TimeThread();
+            thread.id = id;
+            thread.name = "MetricsBenchmark-" + id;
+            thread.logger = Logger.getLogger(MetricsBenchmark.class.getName());
+            thread.agent = agent.agent;
+            thread.runInfo = agent.runInfo;
+            thread.driverConfig = agent.runInfo.driverConfig;
+            thread.inRamp = false;
+            thread.startTimeSet = true;
+            thread.endRampUp = 0l;
+            thread.endStdyState = Long.MAX_VALUE;
+            thread.previousOperation = new int[1];
+            thread.delayTime = new long[1];
+            thread.startTime = new long[1];
+            thread.endTime = new long[1];
+            thread.driverContext = new DriverContext(thread, null);
+            timingInfo = thread.driverContext.timingInfo;
+            metrics = new Metrics(thread);
+
+            // Start one second into the run, just finished an operation.
+            clock = 1000000000l;
+            thread.currentOperation = txTypes[0];
+            timingInfo.invokeTime = clock - respTimes[0];
+            timingInfo.respondTime = clock;
+        }
+
+        int next() {
+            return sample++ & (SAMPLES - 1);
+        }
+    }
+
+    /**
+     * Records a successful operation into the thread's Metrics. The timing
+     * info is set as the DriverContext sets it around the operation.
+     * @param t The thread state
+     */
+    @Benchmark
+    public void metricsRecordTx(ThreadState t) {
+        int i = t.next();
+        DriverContext.TimingInfo timingInfo = t.timingInfo;
+        t.thread.currentOperation = t.txTypes[i];
+        timingInfo.invokeTime = t.clock;
+        t.clock += t.respTimes[i];
+        timingInfo.respondTime = t.clock;
+        timingInfo.pauseTime = 0l;
+        t.metrics.recordTx();
+        t.clock += t.delayTimes[i];
+    }
+
+    /**
+     * Records the think time before an operation into the thread's
+     * Metrics. The thread's start, end, and delay times are set as the
+     * agent thread sets them between operations.
+     * @param t The thread state
+     */
+    @Benchmark
+    public void metricsRecordDelayTime(ThreadState t) {
+        int i = t.next();
+        TimeThread thread = t.thread;
+        DriverContext.TimingInfo timingInfo = t.timingInfo;
+        thread.previousOperation[0] = thread.currentOperation;
+        thread.startTime[0] = timingInfo.invokeTime;
+        thread.endTime[0] = timingInfo.respondTime;
+        thread.delayTime[0] = t.delayTimes[i];
+        thread.currentOperation = t.txTypes[i];
+        timingInfo.invokeTime = timingInfo.respondTime + t.delayTimes[i];
+        timingInfo.respondTime = timingInfo.invokeTime + t.respTimes[i];
+        t.metrics.recordDelayTime();
+    }
+
+    /**
+     * Records a response time into the thread's histogram.
+     * @param t The thread state
+     */
+    @Benchmark
+    public void histogramRecord(ThreadState t) {
+        t.hist.record(t.respTimes[t.next()]);
+    }
+
+    /**
+     * Accumulates the response time sum and sum of squares.
+     * @param t The thread state
+     * @return The sum of squares, to defeat dead code elimination
+     */
+    @Benchmark
+    public double sumSquares(ThreadState t) {
+        long responseTime = t.respTimes[t.next()];
+        ++t.txCnt;
+        t.respSum += responseTime;
+        t.sumSquares = Metrics.addSumSquare(t.sumSquares, t.txCnt, t.respSum,
+                                            responseTime);
+        return t.sumSquares;
+    }
+
+    /**
+     * Records a transaction into the shared runtime counters.
+     * @param agent The shared agent state
+     * @param t The thread state
+     */
+    @Benchmark
+    public void runtimeCountersRecordTx(AgentState agent, ThreadState t) {
+        int i = t.next();
+        agent.counters.recordTx(t.id, t.txTypes[i], t.respTimes[i], true);
+    }
+
+    /**
+     * Records an error into the shared runtime counters.
+     * @param agent The shared agent state
+     * @param t The thread state
+     */
+    @Benchmark
+    public void runtimeCountersRecordError(AgentState agent, ThreadState t) {
+        agent.counters.recordError(t.id, t.txTypes[t.next()], true);
+    }
+}
@@ -0,0 +1,123 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmarks for the mix selectors. Each agent thread has its own
+ * selector and random value generator, so the selectors are benchmarked
+ * with thread-confined state. The mixes are normalized to fractions as
+ * they would be after Mix.normalize() and the alias tables are built
+ * the same way the mixes build them for their selectors.
+ *
+ * @author Akara Sucharitakul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Thread)
+public class MixBenchmark {
+
+    /** The number of operations in the mix. */
+    @Param({ "4", "16" })
+    public int operations;
+
+    FlatMix.Selector flat;
+    MatrixMix.Selector matrix;
+    FlatSequenceMix.Selector flatSequence;
+
+    /**
+     * Sets up the selectors with a skewed mix over the operations.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random();
+
+        // Weights proportional to 1/(i+1), normalized to a sum of 1.
+        double[] mix = new double[operations];
+        double sum = 0d;
+        for (int i = 0; i < operations; i++) {
+            mix[i] = 1d / (i + 1);
+            sum += mix[i];
+        }
+        for (int i = 0; i < operations; i++)
+            mix[i] /= sum;
+
+        // Each row of the matrix is the same mix, rotated by the row.
+        double[][] matrixMix = new double[operations][operations];
+        for (int i = 0; i < operations; i++)
+            for (int j = 0; j < operations; j++)
+                matrixMix[i][(i + j) % operations] = mix[j];
+
+        // Sequences of three operations each.
+        int[][] sequences = new int[operations][3];
+        for (int i = 0; i < operations; i++)
+            for (int j = 0; j < 3; j++)
+                sequences[i][j] = (i + j) % operations;
+
+        AliasTable aliasTable = new AliasTable(mix);
+        AliasTable[] aliasTables = new AliasTable[operations];
+        for (int i = 0; i < operations; i++)
+            aliasTables[i] = new AliasTable(matrixMix[i]);
+
+        flat = new FlatMix.Selector(random, aliasTable);
+        matrix = new MatrixMix.Selector(random, matrixMix, aliasTables);
+        flatSequence = new FlatSequenceMix.Selector(random, aliasTable,
+                                                    sequences);
+    }
+
+    /**
+     * Selects the next operation from the flat mix.
+     * @return The operation selected
+     */
+    @Benchmark
+    public int flatMix() {
+        return flat.select();
+    }
+
+    /**
+     * Selects the next operation from the matrix mix.
+     * @return The operation selected
+     */
+    @Benchmark
+    public int matrixMix() {
+        return matrix.select();
+    }
+
+    /**
+     * Selects the next operation from the flat sequence mix.
+     * @return The operation selected
+     */
+    @Benchmark
+    public int flatSequenceMix() {
+        return flatSequence.select();
+    }
+}
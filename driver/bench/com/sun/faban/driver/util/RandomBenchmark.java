@@ -0,0 +1,122 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmarks for the random value generator. Drivers normally get
+ * their own generator from the driver context, but drivers sharing a
+ * generator between threads are common enough that the shared case is
+ * measured as well. Run with -prof gc to see the allocation rate of the
+ * string generators.
+ *
+ * @author Akara Sucharitakul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RandomBenchmark {
+
+    /**
+     * A generator confined to each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        Random random = new Random();
+    }
+
+    /**
+     * A generator shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedRandom {
+        Random random = new Random();
+    }
+
+    /**
+     * Generates a uniform random int.
+     * @param s The thread-confined generator
+     * @return The random value
+     */
+    @Benchmark
+    public int random(ThreadRandom s) {
+        return s.random.random(1, 1000);
+    }
+
+    /**
+     * Generates a uniform random double.
+     * @param s The thread-confined generator
+     * @return The random value
+     */
+    @Benchmark
+    public double drandom(ThreadRandom s) {
+        return s.random.drandom(0d, 1d);
+    }
+
+    /**
+     * Generates a uniform random double from a shared generator.
+     * @param s The shared generator
+     * @return The random value
+     */
+    @Benchmark
+    public double drandomShared(SharedRandom s) {
+        return s.random.drandom(0d, 1d);
+    }
+
+    /**
+     * Generates a TPC-C style non-uniform random int.
+     * @param s The thread-confined generator
+     * @return The random value
+     */
+    @Benchmark
+    public int nuRand(ThreadRandom s) {
+        return s.random.NURand(1023, 1, 3000);
+    }
+
+    /**
+     * Generates a random alphanumeric string.
+     * @param s The thread-confined generator
+     * @return The random string
+     */
+    @Benchmark
+    public String makeAString(ThreadRandom s) {
+        return s.random.makeAString(8, 24);
+    }
+
+    /**
+     * Generates a random numeric string.
+     * @param s The thread-confined generator
+     * @return The random string
+     */
+    @Benchmark
+    public String makeNString(ThreadRandom s) {
+        return s.random.makeNString(8, 24);
+    }
+}
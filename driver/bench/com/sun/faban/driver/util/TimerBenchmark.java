@@ -0,0 +1,72 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmarks for the timer. The wakeupAt benchmark samples the time
+ * from scheduling a wakeup to actually waking up. The sample distribution
+ * less the requested delay is the wakeup error seen by the agent threads.
+ * Note the timer is not calibrated here, so the default compensation
+ * applies.
+ *
+ * @author Akara Sucharitakul
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TimerBenchmark {
+
+    /** The delay to wake up after, in microseconds. */
+    @Param({ "100", "1000", "20000" })
+    public int delay;
+
+    Timer timer;
+
+    /**
+     * Sets up the timer.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        timer = new Timer();
+    }
+
+    /**
+     * Sleeps until the requested delay from now.
+     * @return The wakeup error, in ns
+     */
+    @Benchmark
+    public long wakeupAt() {
+        long wakeupTime = System.nanoTime() + delay * 1000l;
+        timer.wakeupAt(wakeupTime);
+        return System.nanoTime() - wakeupTime;
+    }
+}
@@ -311,6 +311,52 @@ public class HttpTransport {
         return delegate.readURL(url, postRequest, headers);
     }
 
+    /**
+     * Reads data from the URL and passes it to the consumer as it arrives,
+     * keeping just the size of the total read. The response is neither
+     * buffered nor decoded to characters. This is useful for counting,
+     * digesting, or matching responses without the cost of fetching them.
+     * @param url The URL to read from
+     * @param headers The request headers, or null
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, Map<String, String> headers,
+                       ResponseConsumer consumer) throws IOException {
+        return delegate.readURL(url, headers, consumer);
+    }
+
+    /**
+     * Reads data from the URL and passes it to the consumer as it arrives,
+     * keeping just the size of the total read.
+     * @param url The URL to read from
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, ResponseConsumer consumer)
+            throws IOException {
+        return delegate.readURL(url, consumer);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and passes it to the
+     * consumer as it arrives, keeping just the size of the total read.
+     * Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers, or null
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest,
+                       Map<String, String> headers, ResponseConsumer consumer)
+            throws IOException {
+        return delegate.readURL(url, postRequest, headers, consumer);
+    }
+
     /**
      * Reads data from the URL and returns the data read. Note that this
      * method only works with text data as it does the byte-to-char
@@ -487,8 +533,38 @@ public class HttpTransport {
     }
 
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+     * Makes a GET request. Fetches the main page and all other image or
+     * resource pages based on the given URLs. The resource data is read
+     * and discarded.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+	public StringBuilder fetchPage(URL page, URL[] images) throws IOException {
+        return delegate.fetchPage(page, images);
+    }
+
+    /**
+     * Makes a GET request. Fetches the main page and all other image or
+     * resource pages based on the given URLs. The resource data is read
+     * and discarded.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+    public StringBuilder fetchPage(String page, String[] images)
+            throws IOException {
+        return delegate.fetchPage(page, images);
+    }
+
+    /**
+     * Makes a POST request. Fetches the main page and all other image or
+     * resource pages based on the given URLs. The resource data is read
+     * and discarded.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
@@ -0,0 +1,51 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver;
+
+/**
+ * A response consumer processes the body of an HTTP response while it is
+ * being read, without the transport keeping or decoding the data. Pass a
+ * consumer to the readURL methods of the HttpTransport to count, digest,
+ * or match the response on the fly. See the consumers in the
+ * com.sun.faban.driver.util package for ready-made implementations.
+ *
+ * @author Akara Sucharitakul
+ * @see HttpTransport#readURL(java.net.URL, java.util.Map, ResponseConsumer)
+ */
+public interface ResponseConsumer {
+
+    /**
+     * Resets the consumer before the body of a new response is consumed.
+     */
+    void reset();
+
+    /**
+     * Consumes a piece of the response body. The buffer gets reused once
+     * this method returns so the consumer must not keep a reference to it.
+     * @param buffer The buffer holding the data
+     * @param offset The offset of the data in the buffer
+     * @param length The length of the data
+     */
+    void consume(byte[] buffer, int offset, int length);
+}
@@ -34,7 +34,6 @@ import java.rmi.RMISecurityManager;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.rmi.server.Unreferenced;
-import java.util.ArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -85,6 +84,12 @@ public class AgentImpl extends UnicastRemoteObject
     // All threads should run at start.
     volatile int runningThreads = Integer.MAX_VALUE;
 
+    // Arrival schedule shared by all threads in open-loop mode, else null.
+    ArrivalSchedule arrivals;
+
+    // Counters for runtime stats, null if runtime stats are disabled.
+    RuntimeCounters runtimeCounters;
+
     VariableLoadHandlerThread threadController;
     private long earliestStartTime = Long.MIN_VALUE;
 
@@ -246,9 +251,29 @@ public class AgentImpl extends UnicastRemoteObject
         timer.adjustBaseTime(offset + minLatency / 2);
     }
 
+    /**
+     * Obtains this agent's share of a driver-wide arrival rate. The rate is
+     * distributed among the agents proportional to their thread counts.
+     * @param driverRate The arrival rate for the whole driver, in ops/sec
+     * @return The arrival rate for this agent, in ops/sec
+     */
+    double getArrivalRate(double driverRate) {
+        int driverThreads = runInfo.driverConfig.numThreads;
+        if (driverThreads <= 0)
+            return driverRate;
+        return driverRate * runInfo.agentInfo.threads / driverThreads;
+    }
+
     private void doPreRun() {
         numThreads = runInfo.agentInfo.threads;
         agentThreads = new AgentThread[numThreads];
+        if (runInfo.runtimeStatsEnabled)
+            runtimeCounters = new RuntimeCounters(driverType,
+                    runInfo.driverConfig, runInfo.respHistDigits);
+        if (runInfo.driverConfig.arrivalRate > 0d)
+            arrivals = new ArrivalSchedule(
+                    getArrivalRate(runInfo.driverConfig.arrivalRate),
+                    !runInfo.driverConfig.fixedArrivals);
         try {
             if (runInfo.agentInfo.startThreadNumber == 0 &&
                     runInfo.driverConfig.preRun != null) {
@@ -437,7 +462,7 @@ public class AgentImpl extends UnicastRemoteObject
         runAborted = true;
         logger.warning(displayName + ": Killing benchmark run");
         for (int i = 0; i < numThreads; i++) {
-			if (agentThreads[i] != null && agentThreads[i].isAlive()) {
+			if (agentThreads[i] != null && agentThreads[i].isExecuting()) {
 				try {
                     agentThreads[i].stopExecution();
                 } catch (Throwable t) {
@@ -462,7 +487,7 @@ public class AgentImpl extends UnicastRemoteObject
         int terminationCount = 0;
         Throwable t = null;
         for (int i = numThreads - 1; i > 0; i--) {
-			if (agentThreads[i] != null && agentThreads[i].isAlive()) {
+			if (agentThreads[i] != null && agentThreads[i].isExecuting()) {
 				try {
                     if (!terminationLogged) { // Log this only once.
                         logger.warning(displayName +
@@ -515,7 +540,7 @@ public class AgentImpl extends UnicastRemoteObject
                         "Interrupted waiting for thread 0 to finish run. " +
                         "PostRun may not get executed.");
             }
-        } else if (agentThreads[0] != null && agentThreads[0].isAlive()) {
+        } else if (agentThreads[0] != null && agentThreads[0].isExecuting()) {
             try { // Just terminate it like any other thread.
                 if (!terminationLogged) { // Log this only once.
                     logger.warning(displayName +
@@ -572,7 +597,13 @@ public class AgentImpl extends UnicastRemoteObject
     public Metrics getResults() {
         PairwiseAggregator<Metrics> aggregator = new
                 PairwiseAggregator<Metrics>(numThreads, new MetricsProvider());
-        return aggregator.collectStats();
+        Metrics m = aggregator.collectStats();
+        if (m != null) {
+            m.wakeupCnt = timer.getWakeupCount();
+            m.wakeupLateSum = timer.getWakeupLatenessSum();
+            m.wakeupLateMax = timer.getWakeupLatenessMax();
+        }
+        return m;
     }
 
     /**
@@ -580,9 +611,9 @@ public class AgentImpl extends UnicastRemoteObject
      */
     public void join() {
         for (int i = agentThreads.length - 1; i > 0; i--) {
-			while(agentThreads[i] != null && agentThreads[i].isAlive()) {
+			while(agentThreads[i] != null && agentThreads[i].isExecuting()) {
 				try {
-                    agentThreads[i].join();
+                    agentThreads[i].joinExecution();
                 } catch (InterruptedException e) {
                 	logger.log(Level.FINE, e.getMessage(), e);
                 }
@@ -596,15 +627,21 @@ public class AgentImpl extends UnicastRemoteObject
             } catch (InterruptedException e) {
             	logger.log(Level.FINE, e.getMessage(), e);
             }            
-        } else if (agentThreads[0] != null && agentThreads[0].isAlive()) {
+        } else if (agentThreads[0] != null && agentThreads[0].isExecuting()) {
             try {
-                agentThreads[0].join();
+                agentThreads[0].joinExecution();
             } catch (InterruptedException e) {
             	logger.log(Level.FINE, e.getMessage(), e);
             }
         }
         if (statsCollector != null)
             statsCollector.cancel();
+        if (timer.getWakeupCount() > 0l)
+            logger.info(displayName + ": Timer wakeups: " +
+                    timer.getWakeupCount() + ", lateness mean: " +
+                    Math.round(timer.getWakeupLatenessMean() / 1000d) +
+                    " us, max: " + timer.getWakeupLatenessMax() / 1000l +
+                    " us.");
     }
 
     /**
@@ -618,7 +655,7 @@ public class AgentImpl extends UnicastRemoteObject
             logger.finest(agentType + "Releasing postRun latch.");
             postRunLatch.countDown();
             try {
-                agentThreads[0].join();
+                agentThreads[0].joinExecution();
                 logger.finest(agentType + " Thread 0 completed postRun");
             } catch (InterruptedException e) {
                 logger.warning(agentType +
@@ -671,44 +708,9 @@ public class AgentImpl extends UnicastRemoteObject
         }
     }
 
-    private class RuntimeMetricsProvider
-            implements PairwiseAggregator.Provider<RuntimeMetrics> {
-
-        public ArrayList<RuntimeMetrics> pool = new ArrayList<RuntimeMetrics>();
-
-        public RuntimeMetrics getMutableMetrics(int idx) {
-
-            RuntimeMetrics rtm;
-            int size = pool.size();
-            if (size > 0) {
-                rtm = pool.remove(size - 1);
-            } else {
-                rtm = new RuntimeMetrics();
-            }
-            rtm.copy(agentThreads[idx].metrics);
-            return rtm;
-        }
-
-        public void add(RuntimeMetrics instance, int idx) {
-            instance.add(agentThreads[idx].metrics);
-        }
-
-        public Class getComponentClass() {
-            return RuntimeMetrics.class;
-        }
-
-        public void recycle(RuntimeMetrics r) {
-            pool.add(r);
-        }
-    }
-
-
     private class StatsCollector extends Thread {
 
         long interval = runInfo.runtimeStatsInterval * 1000000000l;
-        PairwiseAggregator<RuntimeMetrics> aggregator =
-                new PairwiseAggregator<RuntimeMetrics>(
-                agentThreads.length, new RuntimeMetricsProvider());
         boolean terminated = false;
 
         StatsCollector() {
@@ -729,13 +731,15 @@ public class AgentImpl extends UnicastRemoteObject
                     break;
                 try {
                     timer.wakeupAt(wakeupTime);
-                    rtm = aggregator.collectStats();
+                    rtm = runtimeCounters.snapshot();
                     if (rtm == null)
                         logger.warning("Null RuntimeStats");
                     try {
                         rtm.timestamp = (int) ((System.nanoTime() - startTime) /
                                 Utilities.TO_NANOS);
                         rtm.sequence = sequence;
+                        rtm.wakeupCnt = timer.getWakeupCount();
+                        rtm.wakeupLateSum = timer.getWakeupLatenessSum();
                         master.updateMetrics(rtm);
                     } catch (RemoteException e) {
                         logger.log(Level.SEVERE, "Communication error " +
@@ -124,6 +124,12 @@ public abstract class AgentThread extends Thread {
 
     boolean stopped = false;
 
+    /**
+     * The thread actually executing the driver loop. This is this
+     * AgentThread itself unless the run is configured to use virtual threads.
+     */
+    private volatile Thread carrier = this;
+
     /** Constant value for specifying that the time is not set. */
     public static final long TIME_NOT_SET = Long.MIN_VALUE;
 
@@ -145,6 +151,8 @@ public abstract class AgentThread extends Thread {
         switch (driverConfig.runControl) {
            case TIME : if (driverConfig.mix[1] != null) {
 			agentThread = new TimeThreadWithBackground();
+		} else if (driverConfig.arrivalRate > 0d) {
+			agentThread = new OpenLoopThread();
 		} else {
 			agentThread = new TimeThread();
 		}
@@ -191,6 +199,91 @@ public abstract class AgentThread extends Thread {
      */
     abstract void initTimes();
 
+    /**
+     * Starts the execution of this agent thread. If the run is configured
+     * for virtual threads and the JVM supports them, the driver loop is
+     * executed on a newly created virtual thread instead of this platform
+     * thread. The per-thread driver context, metrics, and timing are the
+     * same in both cases.
+     */
+    @Override
+    public synchronized void start() {
+        if (runInfo.virtualThreads) {
+            Thread virtualThread = newVirtualThread(this, name);
+            if (virtualThread != null) {
+                carrier = virtualThread;
+                virtualThread.start();
+                return;
+            }
+            logger.warning(name + ": Virtual threads not supported by " +
+                    "this JVM. Using platform threads instead.");
+            runInfo.virtualThreads = false; // Warn only once.
+        }
+        super.start();
+    }
+
+    /**
+     * Creates an unstarted virtual thread for the given task. Virtual
+     * threads are only available on newer JVMs, so we use reflection.
+     * @param task The task to run on the virtual thread
+     * @param name The name of the virtual thread
+     * @return The unstarted virtual thread, or null if not supported
+     */
+    private static Thread newVirtualThread(Runnable task, String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class).
+                    invoke(builder, name);
+            return (Thread) builderClass.getMethod("unstarted",
+                    Runnable.class).invoke(builder, task);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tests whether the driver loop of this agent thread is still executing,
+     * regardless of whether it runs on this thread or on a virtual thread.
+     * @return true if still executing, false otherwise
+     */
+    public boolean isExecuting() {
+        return carrier.isAlive();
+    }
+
+    /**
+     * Waits for the driver loop of this agent thread to terminate.
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void joinExecution() throws InterruptedException {
+        if (carrier == this)
+            join();
+        else
+            carrier.join();
+    }
+
+    /**
+     * Interrupts the thread executing the driver loop.
+     */
+    @Override
+    public void interrupt() {
+        if (carrier == this)
+            super.interrupt();
+        else
+            carrier.interrupt();
+    }
+
+    /**
+     * Obtains the stack trace of the thread executing the driver loop.
+     * @return The stack trace
+     */
+    @Override
+    public StackTraceElement[] getStackTrace() {
+        if (carrier == this)
+            return super.getStackTrace();
+        return carrier.getStackTrace();
+    }
+
     /**
      * Entry point for starting the thread. Subclasses do not override this
      * method but override doRun instead. Run implicitly calls doRun.
@@ -0,0 +1,113 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.FastRandom;
+
+/**
+ * The alias table selects an index according to given probabilities in
+ * constant time, using Vose's alias method. The table is built once from
+ * the mix and is immutable, so it is shared by the selectors of all the
+ * threads. Each selection takes a single 64-bit random value: the high
+ * bits pick a column and the low bits decide between the column and its
+ * alias.
+ *
+ * @author Akara Sucharitakul
+ */
+final class AliasTable {
+
+    /** The probability thresholds, scaled to 2^32. */
+    private final long[] threshold;
+
+    /** The alias of each column. */
+    private final int[] alias;
+
+    /**
+     * Builds the alias table. The probabilities do not need to be
+     * normalized.
+     * @param probabilities The probability of each index
+     */
+    AliasTable(double[] probabilities) {
+        int n = probabilities.length;
+        double total = 0d;
+        for (double p : probabilities)
+            total += p;
+        if (n == 0 || !(total > 0d)) {
+            threshold = null;
+            alias = null;
+            return;
+        }
+
+        threshold = new long[n];
+        alias = new int[n];
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = probabilities[i] * n / total;
+            if (scaled[i] < 1d)
+                small[smallCount++] = i;
+            else
+                large[largeCount++] = i;
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int s = small[--smallCount];
+            int l = large[--largeCount];
+            threshold[s] = (long) (scaled[s] * 0x1.0p32);
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1d;
+            if (scaled[l] < 1d)
+                small[smallCount++] = l;
+            else
+                large[largeCount++] = l;
+        }
+        // The rest are 1 except for rounding errors.
+        while (largeCount > 0) {
+            int l = large[--largeCount];
+            threshold[l] = 1l << 32;
+            alias[l] = l;
+        }
+        while (smallCount > 0) {
+            int s = small[--smallCount];
+            threshold[s] = 1l << 32;
+            alias[s] = s;
+        }
+    }
+
+    /**
+     * Selects an index.
+     * @param random The thread's random generator
+     * @return The selected index, or -1 if all probabilities are 0
+     */
+    int select(FastRandom random) {
+        if (threshold == null)
+            return -1;
+        long bits = random.nextLong();
+        int column = (int) (((bits >>> 32) * threshold.length) >>> 32);
+        return (bits & 0xffffffffl) < threshold[column] ?
+                column : alias[column];
+    }
+}
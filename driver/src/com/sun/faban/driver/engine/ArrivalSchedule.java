@@ -0,0 +1,115 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The arrival schedule hands out intended start times for operations in
+ * an open-loop run. The schedule is shared by all the agent threads in an
+ * agent, which act as a pool of executors. Each executor claims the next
+ * arrival and advances the schedule by the inter-arrival time, so the
+ * arrival rate is independent of the number of threads and of how fast
+ * the system under test responds.
+ *
+ * @author Akara Sucharitakul
+ */
+public class ArrivalSchedule {
+
+    /** The next arrival time, or TIME_NOT_SET before the first arrival. */
+    private final AtomicLong nextArrival =
+            new AtomicLong(AgentThread.TIME_NOT_SET);
+
+    /** The mean time between arrivals, in ns. 0 if idle. */
+    private volatile double meanInterArrival;
+
+    /** Whether arrivals follow a Poisson process or a fixed rate. */
+    private final boolean poisson;
+
+    /**
+     * Constructs the arrival schedule.
+     * @param rate The arrival rate, in operations per second
+     * @param poisson True for Poisson arrivals, false for a fixed rate
+     */
+    ArrivalSchedule(double rate, boolean poisson) {
+        this.poisson = poisson;
+        setRate(rate);
+    }
+
+    /**
+     * Sets the arrival rate. The new rate applies from the next arrival on.
+     * When coming out of an idle period, the schedule restarts from the
+     * current time so we do not fire a burst of missed arrivals.
+     * @param rate The arrival rate, in operations per second
+     */
+    void setRate(double rate) {
+        boolean wasIdle = meanInterArrival == 0d;
+        if (rate > 0d) {
+            if (wasIdle) {
+                long now = System.nanoTime();
+                long next;
+                do {
+                    next = nextArrival.get();
+                } while (next != AgentThread.TIME_NOT_SET && next < now &&
+                         !nextArrival.compareAndSet(next, now));
+            }
+            meanInterArrival = 1e9d / rate;
+        } else {
+            meanInterArrival = 0d;
+        }
+    }
+
+    /**
+     * Tests whether the schedule currently has an arrival rate of 0.
+     * @return true if idle, false otherwise
+     */
+    boolean isIdle() {
+        return meanInterArrival == 0d;
+    }
+
+    /**
+     * Claims the next arrival.
+     * @param random The random value generator of the calling thread
+     * @return The intended start time of the claimed arrival, in ns
+     */
+    long next(Random random) {
+        long interArrival;
+        double mean = meanInterArrival;
+        if (poisson) {
+            double x = random.drandom(0.0, 1.0);
+            if (x == 0) {
+                x = 1e-20d;
+            }
+            interArrival = (long) (mean * -Math.log(x));
+        } else {
+            interArrival = (long) mean;
+        }
+        if (nextArrival.get() == AgentThread.TIME_NOT_SET)
+            nextArrival.compareAndSet(AgentThread.TIME_NOT_SET,
+                                      System.nanoTime());
+        return nextArrival.getAndAdd(interArrival);
+    }
+}
@@ -499,7 +499,8 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
 
     /**
      * The refillOperations method re-establishes the non-serializable
-     * parts of the operations array.
+     * parts of the operations array. This includes binding the invokers
+     * used to call the operations.
      * @param driverClass The driver class
      * @param operations  The operation array
      */
@@ -508,9 +509,9 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
         {  // Use a separate code block as the vars in here are not used later
             int i;
 
-            // Find a method in the list that is null
+            // Find a method or invoker in the list that is null
             for (i = 0; i < operations.length; i++ ) {
-				if (operations[i].m == null) {
+				if (operations[i].m == null || operations[i].invoker == null) {
 					break;
 				}
 			}
@@ -535,10 +536,14 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
 		}
 
         // Then we check each operation and get the method from the map.
+        InvokerGenerator generator = new InvokerGenerator(driverClass);
         for (Operation o : operations) {
 			if (o.m == null) {
 				o.m = methodMap.get(o.name);
 			}
+            if (o.invoker == null) {
+                o.invoker = generator.getInvoker(o.m);
+            }
 		}
     }
 
@@ -775,6 +780,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
 
 		String genericName;
         transient Method m;
+        transient Invoker invoker;
 
         /**
          * Creates s shallow clone of this object.
@@ -806,6 +812,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
         Cycle cycle;
 
         transient Method m;
+        transient Invoker invoker;
 
         /**
          * Creates an exact deep clone of this object.
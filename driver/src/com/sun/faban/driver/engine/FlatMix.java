@@ -25,6 +25,7 @@ package com.sun.faban.driver.engine;
 
 import com.sun.faban.driver.ConfigurationException;
 import com.sun.faban.driver.DefinitionException;
+import com.sun.faban.driver.util.FastRandom;
 import com.sun.faban.driver.util.Random;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -44,6 +45,9 @@ public class FlatMix extends Mix {
 
 	double[] mix;
 
+    /** The alias table shared by all selectors, built on first use. */
+    private transient AliasTable aliasTable;
+
     /**
      * Initializes this mix according to the annotation.
      *
@@ -134,6 +138,7 @@ public class FlatMix extends Mix {
         FlatMix clone = (FlatMix) super.clone();
         clone.mix = new double[mix.length];
         System.arraycopy(mix, 0, clone.mix, 0, mix.length);
+        clone.aliasTable = null;
         return clone;
     }
 
@@ -309,7 +314,11 @@ public class FlatMix extends Mix {
      * @return The selector to be used by the driver
      */
 	public Selector selector(Random random) {
-        return new Selector(random, mix);
+        synchronized (this) {
+            if (aliasTable == null)
+                aliasTable = new AliasTable(mix);
+        }
+        return new Selector(random, aliasTable);
     }
 
     /**
@@ -317,16 +326,12 @@ public class FlatMix extends Mix {
      */
     public static class Selector extends Mix.Selector {
 
-        private Random random;
-        private double[] selectMix;
+        private FastRandom random;
+        private AliasTable aliasTable;
 
-        Selector(Random random, double[] mix) {
-            this.random = random;
-            selectMix = new double[mix.length];
-            selectMix[0] = mix[0];
-            for (int i = 1; i < selectMix.length; i++) {
-                selectMix[i] = mix[i] + selectMix[i - 1];
-            }
+        Selector(Random random, AliasTable aliasTable) {
+            this.random = new FastRandom(random);
+            this.aliasTable = aliasTable;
         }
 
         /**
@@ -335,13 +340,7 @@ public class FlatMix extends Mix {
          * @return The operation index selected to run next
          */
 		public int select() {
-            double val = random.drandom(0, 1);
-            for (int i = 0; i < selectMix.length; i++) {
-				if (val <= selectMix[i]) {
-					return i;
-				}
-			}
-            return -1;
+            return aliasTable.select(random);
         }
 
         /**
@@ -26,6 +26,7 @@ package com.sun.faban.driver.engine;
 import com.sun.faban.driver.ConfigurationException;
 import com.sun.faban.driver.DefinitionException;
 import com.sun.faban.driver.OperationSequence;
+import com.sun.faban.driver.util.FastRandom;
 import com.sun.faban.driver.util.Random;
 import org.w3c.dom.Element;
 
@@ -71,6 +72,9 @@ public class FlatSequenceMix extends Mix {
     double[] mix;
     double[] normalizedMix;
 
+    /** The alias table of the sequences, built on first use. */
+    private transient AliasTable aliasTable;
+
     /**
      * Initializes this mix according to the annotation.
      *
@@ -173,6 +177,7 @@ public class FlatSequenceMix extends Mix {
     @Override
 	public Object clone() {
         FlatSequenceMix clone = (FlatSequenceMix) super.clone();
+        clone.aliasTable = null;
         if (mix != null) {
             clone.mix = new double[mix.length];
             System.arraycopy(mix, 0, clone.mix, 0, mix.length);
@@ -294,7 +299,11 @@ public class FlatSequenceMix extends Mix {
      * @return The selector to be used by the driver
      */
 	public Selector selector(Random random) {
-        return new Selector(random, mix, operationSequences);
+        synchronized (this) {
+            if (aliasTable == null)
+                aliasTable = new AliasTable(mix);
+        }
+        return new Selector(random, aliasTable, operationSequences);
     }
 
     /**
@@ -302,20 +311,17 @@ public class FlatSequenceMix extends Mix {
      */
     public static class Selector extends Mix.Selector {
 
-        private Random random;
-        private double[] selectMix;
+        private FastRandom random;
+        private AliasTable aliasTable;
         private int curSequence;
         private int curIndex;
         private int[][] operationSequences;
 
-        Selector(Random random, double[] mix, int[][] operationSequences) {
+        Selector(Random random, AliasTable aliasTable,
+                 int[][] operationSequences) {
             this.operationSequences = operationSequences;
-            this.random = random;
-            selectMix = new double[mix.length];
-            selectMix[0] = mix[0];
-            for (int i = 1; i < selectMix.length; i++) {
-                selectMix[i] = mix[i] + selectMix[i - 1];
-            }
+            this.random = new FastRandom(random);
+            this.aliasTable = aliasTable;
             // Resets the selector to starting position.
             reset();
         }
@@ -328,12 +334,7 @@ public class FlatSequenceMix extends Mix {
 		public int select() {
             if (curIndex == operationSequences[curSequence].length) {
                 curIndex = 0;
-                double val = random.drandom(0, 1);
-                for (curSequence = 0; curSequence < selectMix.length; curSequence++) {
-					if (val <= selectMix[curSequence]) {
-						break;
-					}
-				}
+                curSequence = aliasTable.select(random);
             }
             return operationSequences[curSequence][curIndex++];
         }
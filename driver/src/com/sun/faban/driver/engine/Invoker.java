@@ -0,0 +1,44 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+/**
+ * An invoker calls a benchmark operation on a driver instance. Unlike
+ * Method.invoke, exceptions thrown by the operation are propagated as is
+ * and not wrapped into an InvocationTargetException. Invokers are bound
+ * to the operations by the InvokerGenerator at load time. This interface
+ * needs to be public as the generated invokers are defined in their own
+ * class loader.
+ *
+ * @author Akara Sucharitakul
+ */
+public interface Invoker {
+
+    /**
+     * Invokes the operation on the driver.
+     * @param driver The driver instance
+     * @throws Throwable Any exception thrown by the operation
+     */
+    void invoke(Object driver) throws Throwable;
+}
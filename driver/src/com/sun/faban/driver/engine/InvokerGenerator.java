@@ -0,0 +1,314 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.FatalException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The invoker generator binds benchmark operations to invokers. For each
+ * operation it generates a small class implementing Invoker that calls
+ * the operation method directly, e.g.:<pre>
+ *     public void invoke(Object driver) {
+ *         ((MyDriver) driver).doMyOperation();
+ *     }
+ * </pre>
+ * The driver loop then calls the operation through an interface call and
+ * a direct virtual call, without the argument array, the access checks,
+ * and the exception wrapping of Method.invoke. Operations that
+ * cannot be called directly from generated code, such as operations of
+ * non-public driver classes, fall back to a reflective invoker.
+ *
+ * @author Akara Sucharitakul
+ */
+class InvokerGenerator extends ClassLoader {
+
+    private static Logger logger =
+            Logger.getLogger(InvokerGenerator.class.getName());
+
+    private static final String INVOKER =
+            Invoker.class.getName().replace('.', '/');
+
+    private static int invokerCount = 0;
+
+    private Class<?> driverClass;
+
+    /**
+     * Constructs the invoker generator for a driver class. The invokers
+     * are defined in this class loader, which delegates to the driver
+     * class' loader.
+     * @param driverClass The driver class
+     */
+    InvokerGenerator(Class<?> driverClass) {
+        super(driverClass.getClassLoader());
+        this.driverClass = driverClass;
+    }
+
+    /**
+     * Makes sure the generated invokers see the same Invoker interface as
+     * the driver framework, regardless of the driver class loader setup.
+     * @param name The class name
+     * @param resolve Whether to resolve the class
+     * @return The class
+     * @throws ClassNotFoundException If the class is not found
+     */
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException {
+        if (Invoker.class.getName().equals(name))
+            return Invoker.class;
+        if (driverClass.getName().equals(name))
+            return driverClass;
+        return super.loadClass(name, resolve);
+    }
+
+    /**
+     * Obtains the invoker for an operation method of the driver class.
+     * @param m The operation method
+     * @return The invoker
+     */
+    Invoker getInvoker(Method m) {
+        int modifiers = m.getModifiers();
+        if (Modifier.isPublic(driverClass.getModifiers()) &&
+                Modifier.isPublic(modifiers) && !Modifier.isStatic(modifiers) &&
+                m.getParameterTypes().length == 0)
+            try {
+                String name;
+                synchronized (InvokerGenerator.class) {
+                    name = "com.sun.faban.driver.engine.GeneratedInvoker" +
+                            invokerCount++;
+                }
+                byte[] b = generate(name.replace('.', '/'), m);
+                Class<?> c = defineClass(name, b, 0, b.length);
+                return (Invoker) c.newInstance();
+            } catch (Throwable e) {
+                logger.log(Level.FINE, "Cannot generate invoker for " +
+                        m.getName() + ", using reflection.", e);
+            }
+        return new ReflectiveInvoker(m);
+    }
+
+    /**
+     * Generates the class file for the invoker.
+     * @param name The internal name of the invoker class
+     * @param m The operation method
+     * @return The class file
+     * @throws IOException Should not happen when writing to a byte array
+     */
+    private byte[] generate(String name, Method m) throws IOException {
+        String owner = driverClass.getName().replace('.', '/');
+        boolean isInterface = driverClass.isInterface();
+        Class<?> returnType = m.getReturnType();
+
+        ConstantPool cp = new ConstantPool();
+        int thisClass = cp.classRef(name);
+        int superClass = cp.classRef("java/lang/Object");
+        int invokerClass = cp.classRef(INVOKER);
+        int superInit = cp.methodRef(superClass, "<init>", "()V", false);
+        int ownerClass = cp.classRef(owner);
+        int target = cp.methodRef(ownerClass, m.getName(),
+                "()" + descriptor(returnType), isInterface);
+        int initName = cp.utf8("<init>");
+        int initDesc = cp.utf8("()V");
+        int invokeName = cp.utf8("invoke");
+        int invokeDesc = cp.utf8("(Ljava/lang/Object;)V");
+        int code = cp.utf8("Code");
+
+        // Constructor: aload_0; invokespecial Object.<init>; return
+        ByteArrayOutputStream initCode = new ByteArrayOutputStream();
+        initCode.write(0x2a);
+        initCode.write(0xb7);
+        initCode.write(superInit >>> 8);
+        initCode.write(superInit);
+        initCode.write(0xb1);
+
+        // Invoke: aload_1; checkcast owner; invoke target; [pop]; return
+        ByteArrayOutputStream invokeCode = new ByteArrayOutputStream();
+        invokeCode.write(0x2b);
+        invokeCode.write(0xc0);
+        invokeCode.write(ownerClass >>> 8);
+        invokeCode.write(ownerClass);
+        invokeCode.write(isInterface ? 0xb9 : 0xb6);
+        invokeCode.write(target >>> 8);
+        invokeCode.write(target);
+        if (isInterface) {
+            invokeCode.write(1);
+            invokeCode.write(0);
+        }
+        if (returnType == long.class || returnType == double.class)
+            invokeCode.write(0x58);
+        else if (returnType != void.class)
+            invokeCode.write(0x57);
+        invokeCode.write(0xb1);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xcafebabe);
+        out.writeShort(0);  // Minor version
+        out.writeShort(49); // Java 5 class file, needs no stack maps.
+        cp.write(out);
+        out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(invokerClass);
+        out.writeShort(0); // No fields
+        out.writeShort(2);
+        writeMethod(out, initName, initDesc, code, 1, 1, initCode);
+        writeMethod(out, invokeName, invokeDesc, code, 2, 2, invokeCode);
+        out.writeShort(0); // No class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int desc,
+                                    int codeAttr, int maxStack, int maxLocals,
+                                    ByteArrayOutputStream code)
+            throws IOException {
+        out.writeShort(0x0001); // ACC_PUBLIC
+        out.writeShort(name);
+        out.writeShort(desc);
+        out.writeShort(1);
+        out.writeShort(codeAttr);
+        out.writeInt(12 + code.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        out.writeShort(0); // No exception table
+        out.writeShort(0); // No code attributes
+    }
+
+    private static String descriptor(Class<?> type) {
+        if (type.isArray())
+            return type.getName().replace('.', '/');
+        if (type == void.class)
+            return "V";
+        if (type == boolean.class)
+            return "Z";
+        if (type == byte.class)
+            return "B";
+        if (type == char.class)
+            return "C";
+        if (type == short.class)
+            return "S";
+        if (type == int.class)
+            return "I";
+        if (type == long.class)
+            return "J";
+        if (type == float.class)
+            return "F";
+        if (type == double.class)
+            return "D";
+        return 'L' + type.getName().replace('.', '/') + ';';
+    }
+
+    /**
+     * The constant pool of the generated class. All entries take a single
+     * slot as we never add long or double constants.
+     */
+    private static class ConstantPool {
+
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private DataOutputStream out = new DataOutputStream(bytes);
+        private int count = 1;
+
+        int utf8(String s) throws IOException {
+            out.writeByte(1);
+            out.writeUTF(s);
+            return count++;
+        }
+
+        int classRef(String name) throws IOException {
+            int nameIdx = utf8(name);
+            out.writeByte(7);
+            out.writeShort(nameIdx);
+            return count++;
+        }
+
+        int methodRef(int classIdx, String name, String desc,
+                      boolean isInterface) throws IOException {
+            int nameIdx = utf8(name);
+            int descIdx = utf8(desc);
+            out.writeByte(12);
+            out.writeShort(nameIdx);
+            out.writeShort(descIdx);
+            int nameAndType = count++;
+            out.writeByte(isInterface ? 11 : 10);
+            out.writeShort(classIdx);
+            out.writeShort(nameAndType);
+            return count++;
+        }
+
+        void write(DataOutputStream classOut) throws IOException {
+            out.flush();
+            classOut.writeShort(count);
+            bytes.writeTo(classOut);
+        }
+    }
+
+    /**
+     * The fallback invoker using reflection. It unwraps the exceptions
+     * thrown by the operation so the behavior is the same as for the
+     * generated invokers.
+     */
+    static class ReflectiveInvoker implements Invoker {
+
+        private Method m;
+
+        ReflectiveInvoker(Method m) {
+            this.m = m;
+            try {
+                m.setAccessible(true);
+            } catch (SecurityException e) {
+                logger.log(Level.FINE, "Cannot suppress access checks for " +
+                        m.getName(), e);
+            }
+        }
+
+        /**
+         * Invokes the operation on the driver.
+         * @param driver The driver instance
+         * @throws Throwable Any exception thrown by the operation
+         */
+        public void invoke(Object driver) throws Throwable {
+            try {
+                m.invoke(driver);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } catch (IllegalAccessException e) {
+                // Cannot call the operation at all, this is fatal.
+                throw new FatalException(e);
+            }
+        }
+    }
+}
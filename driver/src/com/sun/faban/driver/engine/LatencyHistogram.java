@@ -0,0 +1,421 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A log-linear, mergeable latency histogram in the spirit of the
+ * HDR histogram. Values are recorded in units of a configured base
+ * resolution. The first bucket covers the lower value range linearly at
+ * the base resolution. Each subsequent bucket covers twice the range of
+ * the previous one with the same number of sub-buckets, keeping the
+ * relative error within the configured number of significant digits
+ * regardless of the value range. There is no overflow bucket.<p>
+ *
+ * Buckets are allocated lazily as values fall into them, so operations that
+ * are never executed and value ranges that are never reached do not cost
+ * any memory. Recording a value into an already allocated bucket does not
+ * allocate.<p>
+ *
+ * Like the rest of the metrics, a histogram is written by a single thread.
+ * Readers from other threads may see slightly stale counts.
+ *
+ * @author Akara Sucharitakul
+ */
+public class LatencyHistogram implements Serializable, Cloneable {
+
+    private static final long serialVersionUID = 1l;
+
+    /** The initial number of bucket slots. Grows as needed. */
+    private static final int INITIAL_BUCKETS = 2;
+
+    /** The base resolution of the histogram, in ns. */
+    private long unit;
+
+    /** Magnitude of half the sub-bucket count. */
+    private int subBucketHalfCountMagnitude;
+
+    /** Half the number of sub-buckets in each bucket. */
+    private int subBucketHalfCount;
+
+    /** Mask for finding the bucket of a value. */
+    private long subBucketMask;
+
+    /**
+     * The counts. The first bucket has the full sub-bucket count, all
+     * subsequent buckets only have the upper half as the lower half is
+     * covered by the previous buckets. Null buckets have no counts.
+     */
+    private int[][] counts;
+
+    /** The total count of recorded values. */
+    private int totalCount;
+
+    /**
+     * Constructs a latency histogram.
+     * @param unit The base resolution, in ns
+     * @param significantDigits The number of significant decimal digits
+     *        to maintain, between 1 and 5
+     */
+    public LatencyHistogram(long unit, int significantDigits) {
+        if (significantDigits < 1 || significantDigits > 5)
+            throw new IllegalArgumentException("Significant digits must " +
+                    "be between 1 and 5, got " + significantDigits);
+        if (unit < 1l)
+            unit = 1l;
+        this.unit = unit;
+
+        // The largest value with single unit resolution
+        long largestSingleUnit = 2 * (long) Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = (int) Math.ceil(
+                Math.log(largestSingleUnit) / Math.log(2));
+        subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        subBucketHalfCount = 1 << subBucketHalfCountMagnitude;
+        subBucketMask = (1l << subBucketCountMagnitude) - 1;
+        counts = new int[INITIAL_BUCKETS][];
+    }
+
+    /**
+     * Obtains the base resolution of this histogram.
+     * @return The base resolution, in ns
+     */
+    public long getUnit() {
+        return unit;
+    }
+
+    /**
+     * Obtains the total count of values recorded in this histogram.
+     * @return The total count
+     */
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Records a value into the histogram.
+     * @param value The value, in ns
+     */
+    public void record(long value) {
+        if (value < 0l)
+            value = 0l;
+        long units = value / unit;
+        int bucket = getBucketIndex(units);
+        int subBucket = (int) (units >>> bucket);
+        if (bucket > 0)
+            subBucket -= subBucketHalfCount;
+        int[] bucketCounts = getBucket(bucket);
+        ++bucketCounts[subBucket];
+        ++totalCount;
+    }
+
+    private int getBucketIndex(long units) {
+        return 63 - subBucketHalfCountMagnitude -
+                Long.numberOfLeadingZeros(units | subBucketMask);
+    }
+
+    /**
+     * Obtains the bucket array, allocating if needed.
+     * @param bucket The bucket index
+     * @return The bucket array
+     */
+    private int[] getBucket(int bucket) {
+        if (bucket >= counts.length) {
+            int[][] newCounts = new int[bucket + 1][];
+            System.arraycopy(counts, 0, newCounts, 0, counts.length);
+            counts = newCounts;
+        }
+        int[] bucketCounts = counts[bucket];
+        if (bucketCounts == null) {
+            if (bucket == 0)
+                bucketCounts = new int[subBucketHalfCount << 1];
+            else
+                bucketCounts = new int[subBucketHalfCount];
+            counts[bucket] = bucketCounts;
+        }
+        return bucketCounts;
+    }
+
+    /**
+     * Obtains the index of a value in the flattened counts of this histogram
+     * layout. Flattened counts are used by concurrent collectors keeping
+     * their own counts in this layout.
+     * @param value The value, in ns
+     * @return The flat index
+     */
+    int getFlatIndex(long value) {
+        if (value < 0l)
+            value = 0l;
+        long units = value / unit;
+        int bucket = getBucketIndex(units);
+        int subBucket = (int) (units >>> bucket);
+        if (bucket == 0)
+            return subBucket;
+        return (subBucketHalfCount << 1) + (bucket - 1) * subBucketHalfCount +
+                subBucket - subBucketHalfCount;
+    }
+
+    /**
+     * Adds a count at a flat index as returned by getFlatIndex.
+     * @param index The flat index
+     * @param count The count to add
+     */
+    void addAtFlatIndex(int index, int count) {
+        int bucket = 0;
+        int subBucket = index;
+        if (index >= subBucketHalfCount << 1) {
+            index -= subBucketHalfCount << 1;
+            bucket = index / subBucketHalfCount + 1;
+            subBucket = index % subBucketHalfCount;
+        }
+        getBucket(bucket)[subBucket] += count;
+        totalCount += count;
+    }
+
+    /**
+     * Obtains the lowest value, in units, of a sub-bucket.
+     * @param bucket The bucket index
+     * @param subBucket The index into the bucket array
+     * @return The lowest value in the sub-bucket, in units
+     */
+    private long lowestUnits(int bucket, int subBucket) {
+        if (bucket > 0)
+            subBucket += subBucketHalfCount;
+        return ((long) subBucket) << bucket;
+    }
+
+    /**
+     * Adds the counts of another histogram to this one. Both histograms
+     * must have the same unit and significant digits.
+     * @param other The other histogram
+     */
+    public void add(LatencyHistogram other) {
+        checkCompatible(other);
+        int[][] otherCounts = other.counts;
+        for (int i = 0; i < otherCounts.length; i++) {
+            int[] src = otherCounts[i];
+            if (src == null)
+                continue;
+            int[] dest = getBucket(i);
+            for (int j = 0; j < src.length; j++)
+                dest[j] += src[j];
+        }
+        totalCount += other.totalCount;
+    }
+
+    /**
+     * Copies the counts of another histogram into this one, reusing the
+     * already allocated buckets. Both histograms must have the same unit
+     * and significant digits.
+     * @param other The other histogram
+     */
+    public void copy(LatencyHistogram other) {
+        checkCompatible(other);
+        int[][] otherCounts = other.counts;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != null && (i >= otherCounts.length ||
+                    otherCounts[i] == null))
+                Arrays.fill(counts[i], 0);
+        }
+        for (int i = 0; i < otherCounts.length; i++) {
+            int[] src = otherCounts[i];
+            if (src != null)
+                System.arraycopy(src, 0, getBucket(i), 0, src.length);
+        }
+        totalCount = other.totalCount;
+    }
+
+    private void checkCompatible(LatencyHistogram other) {
+        if (unit != other.unit ||
+                subBucketHalfCount != other.subBucketHalfCount)
+            throw new IllegalArgumentException(
+                    "Incompatible histogram layout");
+    }
+
+    private int getCount(int bucket, int subBucket) {
+        if (bucket >= counts.length || counts[bucket] == null)
+            return 0;
+        return counts[bucket][subBucket];
+    }
+
+    /**
+     * Obtains the response time at the given percentile. Consistent with
+     * the former linear histograms, this reports the upper bound of the
+     * sub-bucket the percentile falls into.
+     * @param percentile The percentile, between 0 and 100
+     * @return The value at the percentile, in ns
+     */
+    public long getValueAtPercentile(double percentile) {
+        return getValueAtPercentile(percentile, null);
+    }
+
+    /**
+     * Obtains the response time at the given percentile for the values
+     * recorded after the base histogram was taken. This is used to find
+     * the percentiles over a time interval.
+     * @param percentile The percentile, between 0 and 100
+     * @param base The earlier state of this histogram, or null
+     * @return The value at the percentile, in ns
+     */
+    public long getValueAtPercentile(double percentile,
+                                     LatencyHistogram base) {
+        int count = totalCount;
+        if (base != null)
+            count -= base.totalCount;
+        int countAtPct = (int) (count * (percentile / 100d));
+        int sum = 0;
+        int bucket = 0;
+        int subBucket = 0;
+        bucketLoop:
+        for (; bucket < counts.length; bucket++) {
+            int size = bucket == 0 ? subBucketHalfCount << 1 :
+                                     subBucketHalfCount;
+            for (subBucket = 0; subBucket < size; subBucket++) {
+                sum += getCount(bucket, subBucket);
+                if (base != null)
+                    sum -= base.getCount(bucket, subBucket);
+                if (sum >= countAtPct)
+                    break bucketLoop;
+            }
+        }
+        if (bucket == counts.length) { // Should only happen on races.
+            --bucket;
+            subBucket = bucket == 0 ? (subBucketHalfCount << 1) - 1 :
+                                      subBucketHalfCount - 1;
+        }
+        // We report the base of the next sub-bucket.
+        return (lowestUnits(bucket, subBucket) + (1l << bucket)) * unit;
+    }
+
+    /**
+     * Estimates the standard deviation from the histogram, using the
+     * midpoint of each sub-bucket as its representative value. This is
+     * primarily used for cross-checking the more accurate algorithms.
+     * @param mean The mean value, in ns
+     * @param base The earlier state of this histogram, or null
+     * @return The estimated standard deviation, in ns
+     */
+    public double estimateStdDev(double mean, LatencyHistogram base) {
+        double sumDev2 = 0d;
+        int count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == null)
+                continue;
+            for (int j = 0; j < counts[i].length; j++) {
+                int frequency = counts[i][j];
+                if (base != null)
+                    frequency -= base.getCount(i, j);
+                if (frequency == 0)
+                    continue;
+                double dev = (lowestUnits(i, j) + (1l << i) / 2d) * unit -
+                             mean;
+                sumDev2 += dev * dev * frequency;
+                count += frequency;
+            }
+        }
+        return Math.sqrt(sumDev2 / count);
+    }
+
+    /**
+     * Flattens the histogram into a linear histogram with buckets the size
+     * of the unit of this histogram. Counts of sub-buckets wider than a unit
+     * are spread evenly across the linear buckets they cover. The last
+     * linear bucket receives the counts of all values beyond the range.
+     * @param buckets The number of linear buckets
+     * @return The linear histogram
+     */
+    public int[] toLinear(int buckets) {
+        int[] linear = new int[buckets];
+        int last = buckets - 1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == null)
+                continue;
+            long width = 1l << i;
+            for (int j = 0; j < counts[i].length; j++) {
+                int count = counts[i][j];
+                if (count == 0)
+                    continue;
+                long lowest = lowestUnits(i, j);
+                if (lowest >= last) {
+                    linear[last] += count;
+                    continue;
+                }
+                // Spread the count among the covered buckets.
+                // The lower buckets get the remainder.
+                long base = count / width;
+                long remainder = count % width;
+                int end = (int) Math.min(lowest + width, last);
+                int spread = 0;
+                for (int k = (int) lowest; k < end; k++) {
+                    int c = (int) base;
+                    if (k - lowest < remainder)
+                        ++c;
+                    linear[k] += c;
+                    spread += c;
+                }
+                linear[last] += count - spread;
+            }
+        }
+        return linear;
+    }
+
+    /**
+     * Makes a deep copy of this histogram.
+     * @return The copy of this histogram
+     */
+    @Override
+    public LatencyHistogram clone() {
+        LatencyHistogram clone = null;
+        try {
+            clone = (LatencyHistogram) super.clone();
+            clone.counts = new int[counts.length][];
+            for (int i = 0; i < counts.length; i++)
+                if (counts[i] != null)
+                    clone.counts[i] = counts[i].clone();
+        } catch (CloneNotSupportedException e) {
+            // This should not happen as we already implement cloneable.
+        }
+        return clone;
+    }
+
+    /**
+     * Provides a string presentation of the non-empty sub-buckets in
+     * the form of lowest value:count, with values in ns.
+     * @return The string representing the histogram
+     */
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == null)
+                continue;
+            for (int j = 0; j < counts[i].length; j++)
+                if (counts[i][j] != 0)
+                    b.append(' ').append(lowestUnits(i, j) * unit).
+                            append(':').append(counts[i][j]);
+        }
+        return b.toString();
+    }
+}
@@ -23,6 +23,7 @@
  */
 package com.sun.faban.driver.engine;
 
+import com.sun.faban.common.ColumnarXan;
 import com.sun.faban.common.Registry;
 import com.sun.faban.common.RegistryLocator;
 import com.sun.faban.driver.ConfigurationException;
@@ -41,7 +42,13 @@ import java.rmi.server.UnicastRemoteObject;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.FileHandler;
@@ -162,6 +169,10 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 
     private static final String HASH_ALGORITHM = "SHA-512";
 
+    /** The max number of threads gathering and aggregating results. */
+    private static final int COLLECTOR_THREADS = Integer.getInteger(
+            "faban.results.threads", 16);
+
     /**
      * Creates and exports a new Master.
      *
@@ -917,63 +928,97 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
                                    new LinkedHashMap<String, MetricsProvider>();
         LinkedHashMap<String, Metrics> hostMetrics =
                                    new LinkedHashMap<String, Metrics>();
+        int numAgents = runInfo.driverConfigs[driverType].numAgents;
+        if (numAgents <= 0)
+            return hostMetrics;
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(numAgents, COLLECTOR_THREADS), new ThreadFactory() {
+            int count = 0;
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ResultCollector-" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
         try {
-            if (runInfo.driverConfigs[driverType].numAgents > 0) {
-                Agent[] agents = agentRefs[driverType];
-                logger.info("Gathering " +
-                        benchDef.drivers[driverType].name + "Stats ...");
-
-                // Add the results on a per-host basis and grand summary
-                MetricsProvider grandSumProvider = new MetricsProvider(
-                        runInfo.driverConfigs[driverType].numAgents);
-
-                for (Agent agent : agents) {
-                    Metrics r = agent.getResults();
-                    if (r == null)
-                        continue;
-                    MetricsProvider hostResult = hostProviders.get(r.host);
-                    if (hostResult == null) {
-                        hostResult = new MetricsProvider();
-                        hostProviders.put(r.host, hostResult);
-                    } 
-                    hostResult.add(r);
-                    grandSumProvider.add(r);
-
-                    // Once we have the metrics, we have to set it's start time
-                    // Since this is set after all threads have started, it will
-                    // be 0 in all the metrices we receive.
-                    r.startTime = runInfo.start;
+            Agent[] agents = agentRefs[driverType];
+            logger.info("Gathering " +
+                    benchDef.drivers[driverType].name + "Stats ...");
+
+            // Fetch the results from all agents in parallel, but keep
+            // them in agent order.
+            ArrayList<Future<Metrics>> futures =
+                    new ArrayList<Future<Metrics>>(agents.length);
+            for (final Agent agent : agents)
+                futures.add(executor.submit(new Callable<Metrics>() {
+                    public Metrics call() throws RemoteException {
+                        return agent.getResults();
+                    }
+                }));
 
+            for (Future<Metrics> future : futures) {
+                Metrics r;
+                try {
+                    r = future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RemoteException)
+                        throw (RemoteException) e.getCause();
+                    throw e;
+                }
+                if (r == null)
+                    continue;
+                MetricsProvider hostResult = hostProviders.get(r.host);
+                if (hostResult == null) {
+                    hostResult = new MetricsProvider();
+                    hostProviders.put(r.host, hostResult);
                 }
+                hostResult.add(r);
 
-                Metrics result = null;
+                // Once we have the metrics, we have to set it's start time
+                // Since this is set after all threads have started, it will
+                // be 0 in all the metrices we receive.
+                r.startTime = runInfo.start;
+            }
 
-                // Aggregate the per driver host metrics, calculate results.
-                for (MetricsProvider r : hostProviders.values()) {
-                    PairwiseAggregator<Metrics> aggregator = new
-                            PairwiseAggregator<Metrics>(r.metrices.size(), r);
-                    result = aggregator.collectStats();
-                    hostMetrics.put(result.host, result);
-                }
+            // Aggregate in a tree, first the agents on each driver host,
+            // then the host results into the final metrics. Each level
+            // adds its pairs in parallel.
+            MetricsProvider grandSumProvider =
+                    new MetricsProvider(hostProviders.size());
+            for (MetricsProvider r : hostProviders.values()) {
+                PairwiseAggregator<Metrics> aggregator = new
+                        PairwiseAggregator<Metrics>(r.metrices.size(), r);
+                Metrics result = aggregator.collectStats(executor);
+                hostMetrics.put(result.host, result);
+                grandSumProvider.add(result);
+            }
 
-                // Aggregate the final metrics, calculate results.
-                if (grandSumProvider.metrices.size() > 0) {
-                    PairwiseAggregator<Metrics> aggregator =
-                            new PairwiseAggregator<Metrics>(
-                                    grandSumProvider.metrices.size(),
-                                    grandSumProvider);
+            // Aggregate the final metrics, calculate results.
+            if (grandSumProvider.metrices.size() > 0) {
+                PairwiseAggregator<Metrics> aggregator =
+                        new PairwiseAggregator<Metrics>(
+                                grandSumProvider.metrices.size(),
+                                grandSumProvider);
 
-                    result = aggregator.collectStats();
+                Metrics result = aggregator.collectStats(executor);
 
-                    // And finally set it for the final result, too.
-					result.startTime =  runInfo.start;
-                    // Set it in the map, under the name __MASTER__
-                    // This is an invalid host name so it will never conflict.
-                    hostMetrics.put("__MASTER__", result);
-				}
+                // And finally set it for the final result, too.
+                result.startTime =  runInfo.start;
+                // Set it in the map, under the name __MASTER__
+                // This is an invalid host name so it will never conflict.
+                hostMetrics.put("__MASTER__", result);
             }
         } catch (RemoteException re) {
             logger.log(Level.WARNING, "Master: RemoteException got " + re, re);
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Master: Error gathering results.",
+                       e.getCause());
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Master: Interrupted gathering " +
+                       "results.", e);
+        } finally {
+            executor.shutdownNow();
         }
         return hostMetrics;
     }
@@ -1023,9 +1068,12 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 
                     logger.info("Summary finished. Now printing detail for " + 
                             host + " ...");
-                    detail.append(createDetailReport(
-                                        getHostMetrics(results, host), host));
+                    CharSequence detailContent = createDetailReport(
+                                        getHostMetrics(results, host), host);
+                    detail.append(detailContent);
                     detail.close();
+                    writeColumnar(detailContent, runOutputDir +
+                                  "detail.xan." + host);
 
                     logger.info("Detail for " + host + " finished.");
                 }
@@ -1046,9 +1094,11 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
             summary.close();
 
             logger.info("Summary finished. Now printing detail ...");
-            detail.append(createDetailReport(
-                                getHostMetrics(results, "__MASTER__"), null));
+            CharSequence detailContent = createDetailReport(
+                                getHostMetrics(results, "__MASTER__"), null);
+            detail.append(detailContent);
             detail.close();
+            writeColumnar(detailContent, runOutputDir + "detail.xan");
 
             logger.info("Detail finished. Results written to " +
                     runInfo.resultsDir + '.');
@@ -1074,6 +1124,23 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
         }
     }
 
+    /**
+     * Writes the columnar companion of a detail report. The companion is
+     * what the harness reads for graphs and run comparisons. If writing it
+     * fails, the harness will create it from the text report instead.
+     * @param detailContent The detail report
+     * @param xanPath The path of the detail report file
+     */
+    private void writeColumnar(CharSequence detailContent, String xanPath) {
+        File xanFile = new File(xanPath);
+        try {
+            ColumnarXan.write(detailContent, ColumnarXan.companionOf(xanFile));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error writing columnar detail for " +
+                    xanFile.getName(), e);
+        }
+    }
+
     /**
      * Aggregates results of incompatible stats and prints the benchmark
      * summary report header.
@@ -1239,8 +1306,25 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
         boolean terminated = false;
         LinkedBlockingQueue<RuntimeMetrics> queue =
                 new LinkedBlockingQueue<RuntimeMetrics>();
+        RuntimeStatsSeries series;
+        String[][] operationNames;
 
         private StatsWriter() {
+            operationNames = new String[benchDef.drivers.length][];
+            for (int i = 0; i < operationNames.length; i++) {
+                BenchmarkDefinition.Operation[] ops =
+                        benchDef.drivers[i].operations;
+                operationNames[i] = new String[ops.length];
+                for (int j = 0; j < ops.length; j++)
+                    operationNames[i][j] = ops[j].name;
+            }
+            try {
+                series = new RuntimeStatsSeries(runInfo.resultsDir,
+                                                runInfo.runtimeStatsPort);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot write runtime stats " +
+                        "series. Runtime stats go to the log only.", e);
+            }
             setName("StatsWriter");
             setDaemon(true);
             start();
@@ -1314,6 +1398,8 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
                             "metrics. Stats writer terminating!", e);
                 }
             }
+            if (series != null)
+                series.close();
         }
 
         void dumpStats(int type, RuntimeMetrics[] previous,
@@ -1324,6 +1410,10 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
                 return;
 
             double[][] s = current[type].getResults(runInfo, previous[type]);
+            if (series != null)
+                series.write(current[type].timestamp / 1000d,
+                        benchDef.drivers[type].name, operationNames[type], s);
+
             StringBuilder b = new StringBuilder();
             Formatter formatter = new Formatter(b);
 
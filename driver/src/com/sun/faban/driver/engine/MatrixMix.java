@@ -26,6 +26,7 @@ package com.sun.faban.driver.engine;
 import com.sun.faban.driver.ConfigurationException;
 import com.sun.faban.driver.DefinitionException;
 import com.sun.faban.driver.Row;
+import com.sun.faban.driver.util.FastRandom;
 import com.sun.faban.driver.util.Random;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -47,6 +48,9 @@ public class MatrixMix extends Mix {
 
 	double[][] mix;
 
+    /** The alias tables, one per row, built on first use. */
+    private transient AliasTable[] aliasTables;
+
     /**
      * Initializes this mix according to the annotation.
      *
@@ -131,6 +135,7 @@ public class MatrixMix extends Mix {
             clone.mix[i] = new double[mix[i].length];
             System.arraycopy(mix[i], 0, clone.mix[i], 0, mix[i].length);
         }
+        clone.aliasTables = null;
         return clone;
     }
 
@@ -447,7 +452,15 @@ public class MatrixMix extends Mix {
      */
 	public Selector selector(Random random) {
         getLogger().finest("Get selector: " + toString());
-        Selector s = new Selector(random, mix);
+        synchronized (this) {
+            if (aliasTables == null) {
+                AliasTable[] tables = new AliasTable[mix.length];
+                for (int i = 0; i < mix.length; i++)
+                    tables[i] = new AliasTable(mix[i]);
+                aliasTables = tables;
+            }
+        }
+        Selector s = new Selector(random, mix, aliasTables);
         getLogger().finest(s.toString());
         return s;
     }
@@ -457,19 +470,14 @@ public class MatrixMix extends Mix {
      */
     public static class Selector extends Mix.Selector {
         private int op = -1;
-        private Random random;
+        private FastRandom random;
         private double[][] selectMix;
+        private AliasTable[] aliasTables;
 
-        Selector(Random random, double[][] mix) {
-            this.random = random;
-            selectMix = new double[mix.length][mix.length];
-
-            for (int i = 0; i < mix.length; i++) {
-                selectMix[i][0] = mix[i][0];
-                for (int j = 1; j < selectMix.length; j++) {
-                    selectMix[i][j] = mix[i][j] + selectMix[i][j - 1];
-                }
-            }
+        Selector(Random random, double[][] mix, AliasTable[] aliasTables) {
+            this.random = new FastRandom(random);
+            this.selectMix = mix;
+            this.aliasTables = aliasTables;
         }
 
         /**
@@ -481,14 +489,7 @@ public class MatrixMix extends Mix {
             if (op == -1) { // first selection
                 op = 0;
             } else { // Any subsequent selection
-                double val = random.drandom(0, 1);
-                int i;
-                for (i = 0; i < selectMix.length; i++) {
-					if (val <= selectMix[op][i]) {
-						break;
-					}
-				}
-                op = i;
+                op = aliasTables[op].select(random);
             }
             return op;
         }
@@ -51,51 +51,58 @@ import java.util.logging.Level;
 public class Metrics implements Serializable, Cloneable,
         PairwiseAggregator.Aggregable<Metrics> {
 
-	private static final long serialVersionUID = 32009l;
+	private static final long serialVersionUID = 32010l;
 
     /*
     Response Histogram
     ~~~~~~~~~~~~~~~~~~
-    Use fine and coarse bucket sizes for response time.
-    Use fine buckets for up to 1.5 * Max90th
-    Use coarse bucket sizes for 1.5 * Max90th to 5 * Max90th
-    We do not care much about accuracy when we're far beyond the Max90th.
-    We use 200 buckets up to Max90th. This means 300 buckets for up to
-    1.5 * Max90th. Beyond that, we reduce the accuracy by 10x so only 70
-    coarse buckets are needed. Altogether, we use 370 buckets, which is
-    63% savings when compared to 1000 buckets. The logic will be slightly
-    more complicated but by not much.
+    Response times are recorded into a log-linear LatencyHistogram per
+    operation. The base resolution is 1/200 of the max percentile, the
+    same as the fine buckets we used before. Beyond the linear range, each
+    doubling of the response time uses the same number of sub-buckets so
+    the relative accuracy is kept at the configured significant digits
+    all the way up. There is no overflow bucket, so tail percentiles such
+    as the 99.9th and 99.99th are accurate even far beyond the max
+    percentile. Buckets are allocated lazily so we do not spend memory on
+    response time ranges never reached or operations never executed.
+
+    Intended Response Times
+    ~~~~~~~~~~~~~~~~~~~~~~~
+    If enabled, response times are also recorded from the intended invoke
+    time instead of the actual invoke time. When the SUT stalls, the
+    operations that should have been started during the stall start late.
+    The classic response time does not see this delay, it only shows up
+    as longer cycle times. Users arriving during the stall would have seen
+    it, though. This is known as coordinated omission. The intended
+    response times include the delay and are reported next to the classic
+    response times.
+
+    Memory Layout
+    ~~~~~~~~~~~~~
+    Each thread keeps its own metrics, so the per-operation arrays are
+    multiplied by the operation and thread counts. The rows of the delay
+    histograms and the graphs are therefore allocated only once the
+    operation gets recorded, and null rows mean all zeros. The graph rows
+    are allocated up to the elapsed bucket and grown by doubling as the
+    run goes, never beyond graphBuckets. Aggregation and cloning skip the
+    missing rows. The rows are expanded to the full size only for
+    reporting, so the output does not change.
     */
 
-    /** The bucket size ratio between coarse and fine response time buckets. */
-    public static final int RESPBUCKET_SIZE_RATIO = 10;
-
-    /** The number and percentage of coarse response time buckets. */
-    public static final int COARSE_RESPBUCKETS = 70;
-
-    /** The number of fine response time buckets. */
-    public static final int FINE_RESPBUCKETS = (100 - COARSE_RESPBUCKETS) *
-                                                    RESPBUCKET_SIZE_RATIO;
-
-    /** The total number of response time buckets. */
-    public static final int RESPBUCKETS = FINE_RESPBUCKETS + COARSE_RESPBUCKETS;
+    /**
+     * The number of linear response time buckets in the detail output,
+     * covering up to 5x the max percentile. The last bucket also counts
+     * all response times beyond.
+     */
+    public static final int DETAIL_RESPBUCKETS = 1000;
 
     /** Number of delay time buckets in histogram. */
     public static final int DELAYBUCKETS = 100;
 
     // We use double here to prevent cumulative errors
 
-    /** Size of the fine response time bucket. */
-    protected long fineRespBucketSize;  // Size of the fine and coarse
-
-    /** Size of the coarse response time bucket. */
-    protected long coarseRespBucketSize; // response time buckets, in ns.
-
-    /** Max fine response time. */
-    protected long fineRespHistMax;
-
-    /** Max coarse response time. */
-    protected long coarseRespHistMax;
+    /** Base resolution of the response time histogram, in ns. */
+    protected long respBucketSize;
 
     /** Size of each delay time bucket, in ns. */
     protected long delayBucketSize;
@@ -159,13 +166,6 @@ public class Metrics implements Serializable, Cloneable,
      */
     protected double[] respSumTotal;
 
-    /**
-     * Sum of high response times that fall into the overflow
-     * bucket. This is used for calculating the representative value
-     * for the overflow bucket to establish a reasonable standard deviation.
-     */
-    protected double[] hiRespSumStdy;
-
     /** Sum of squares of the deviation during steady state. */
     protected double[] sumSquaresStdy;
 
@@ -190,13 +190,31 @@ public class Metrics implements Serializable, Cloneable,
     /** Sum of cycle time (not think time) for little's law verification. */
     protected long cycleSum = 0;
 
+    /** Number of timer wakeups on the agents. */
+    protected long wakeupCnt = 0;
+
+    /** Sum of the timer wakeup lateness, in ns. */
+    protected long wakeupLateSum = 0;
+
+    /** Maximum timer wakeup lateness, in ns. */
+    protected long wakeupLateMax = 0;
+
     /** Response time histogram. */
-    protected int[][] respHist;
+    protected LatencyHistogram[] respHist;
+
+    /** Intended response time histogram, null if not enabled. */
+    protected LatencyHistogram[] intendedHist;
 
-    /** Histogram of actual delay times. */
+    /** Sum of intended response times. */
+    protected double[] intendedSumStdy;
+
+    /** Maximum intended response times. */
+    protected long[] intendedMax;
+
+    /** Histogram of actual delay times, rows allocated on use. */
     protected int[][] delayHist;
 
-    /** Histogram of selected delay times. */
+    /** Histogram of selected delay times, rows allocated on use. */
     protected int[][] targetedDelayHist;
 
     /** Start time as absolute time, in ms. */
@@ -211,14 +229,16 @@ public class Metrics implements Serializable, Cloneable,
     /**
      * The thruput graph. This is updated throughout the run, not only
      * in steady state. The graph accumulates tx count during the run. The
-     * final results need to be divided by the graph bucket size.
+     * final results need to be divided by the graph bucket size. Rows
+     * are allocated on use and may be shorter than graphBuckets.
      */
     protected int[][] thruputGraph;	/* Thruput graph */
 
     /**
      * Graph of accumulated response times over the course of the run.
      * This data need to be divided by the accumulated tx count for the
-     * bucket to get the avg response time in that bucket.
+     * bucket to get the avg response time in that bucket. Rows are
+     * allocated on use and may be shorter than graphBuckets.
      */
     protected long[][] respGraph;
 
@@ -287,7 +307,6 @@ public class Metrics implements Serializable, Cloneable,
         delayCntStdy = new int[txTypes];
         respSumStdy = new double[txTypes];
         respSumTotal = new double[txTypes];
-        hiRespSumStdy = new double[txTypes];
         sumSquaresStdy = new double[txTypes];
         sumSquaresTotal = new double[txTypes];
         respMax = new long[txTypes];
@@ -298,9 +317,8 @@ public class Metrics implements Serializable, Cloneable,
 			delayMin[i] = Integer.MAX_VALUE; // init to the largest number
 		}
         targetedDelaySum = new long[txTypes];
-        respHist = new int[txTypes][RESPBUCKETS];
-        delayHist = new int[txTypes][DELAYBUCKETS];
-        targetedDelayHist = new int[txTypes][DELAYBUCKETS];
+        delayHist = new int[txTypes][];
+        targetedDelayHist = new int[txTypes][];
 
         // The actual run configuration is used in case it represents time.
         // This prevents us from over-allocating the thruput histogram.
@@ -314,19 +332,23 @@ public class Metrics implements Serializable, Cloneable,
 
         // Convert to ns.
         graphBucketSize = driverConfig.graphInterval * 1000000000l;
-        thruputGraph = new int[txTypes][graphBuckets];
-        respGraph = new long[txTypes][graphBuckets];
+        thruputGraph = new int[txTypes][];
+        respGraph = new long[txTypes][];
 
         // Calculate the response time histograms.
-        double precision = driverConfig.responseTimeUnit.toNanos(1l);
-        long maxPctNanos = Math.round(driverConfig.maxPercentile * precision);
-        fineRespBucketSize = maxPctNanos / 200l;  // 20% of scale of 1000
-        fineRespHistMax = fineRespBucketSize * FINE_RESPBUCKETS;
-        coarseRespBucketSize = fineRespBucketSize * RESPBUCKET_SIZE_RATIO;
-
-        // The last coarse response bucket is used for overflow.
-        coarseRespHistMax = coarseRespBucketSize * (COARSE_RESPBUCKETS - 1) +
-                                                    fineRespHistMax;
+        respBucketSize = getRespBucketSize(driverConfig);
+        respHist = new LatencyHistogram[txTypes];
+        for (int i = 0; i < txTypes; i++)
+            respHist[i] = new LatencyHistogram(respBucketSize,
+                                               runInfo.respHistDigits);
+        if (runInfo.intendedRespEnabled) {
+            intendedHist = new LatencyHistogram[txTypes];
+            for (int i = 0; i < txTypes; i++)
+                intendedHist[i] = new LatencyHistogram(respBucketSize,
+                                                   runInfo.respHistDigits);
+            intendedSumStdy = new double[txTypes];
+            intendedMax = new long[txTypes];
+        }
 
         double delayHistMax = driverConfig.operations[0].
                 cycle.getHistogramMax();
@@ -342,6 +364,20 @@ public class Metrics implements Serializable, Cloneable,
         delayBucketSize = (int) Math.ceil(delayHistMax / DELAYBUCKETS);
     }
 
+    /**
+     * Obtains the base resolution of the response time histograms.
+     * @param driverConfig The driver configuration
+     * @return The histogram resolution, in ns
+     */
+    static long getRespBucketSize(RunInfo.DriverConfig driverConfig) {
+        double precision = driverConfig.responseTimeUnit.toNanos(1l);
+        long maxPctNanos = Math.round(driverConfig.maxPercentile * precision);
+        long respBucketSize = maxPctNanos / 200l;  // 20% of scale of 1000
+        if (respBucketSize < 1l)
+            respBucketSize = 1l;
+        return respBucketSize;
+    }
+
     /**
      * Updates the various stats for a successful transaction.
      */
@@ -371,14 +407,19 @@ public class Metrics implements Serializable, Cloneable,
             elapsedTime = endTimeNanos - thread.agent.startTime;
 
         if(elapsedTime > 0l) {
+            int bucket;
             if ((elapsedTime / graphBucketSize) >= graphBuckets) {
-                thruputGraph[txType][graphBuckets - 1]++;
-                respGraph[txType][graphBuckets - 1] += responseTime;
+                bucket = graphBuckets - 1;
             } else {
-                int bucket = (int) (elapsedTime / graphBucketSize);
-                thruputGraph[txType][bucket]++;
-                respGraph[txType][bucket] += responseTime;
+                bucket = (int) (elapsedTime / graphBucketSize);
+            }
+            int[] thruputRow = thruputGraph[txType];
+            if (thruputRow == null || bucket >= thruputRow.length) {
+                thruputRow = thruputGraph[txType] = grow(thruputRow, bucket);
+                respGraph[txType] = grow(respGraph[txType], bucket);
             }
+            thruputRow[bucket]++;
+            respGraph[txType][bucket] += responseTime;
         }
 
         txCntTotal[txType]++;
@@ -386,6 +427,10 @@ public class Metrics implements Serializable, Cloneable,
         sumSquaresTotal[txType] = addSumSquare(sumSquaresTotal[txType], 
                 txCntTotal[txType], respSumTotal[txType], responseTime);
 
+        RuntimeCounters counters = thread.agent.runtimeCounters;
+        if (counters != null)
+            counters.recordTx(thread.id, txType, responseTime, !thread.inRamp);
+
         if (!thread.inRamp) {
             txCntStdy[txType]++;
             respSumStdy[txType] += responseTime;
@@ -393,21 +438,26 @@ public class Metrics implements Serializable, Cloneable,
                 txCntStdy[txType], respSumStdy[txType], responseTime);
 
             // post in histogram of response times
-            int bucket;
-            if (responseTime < fineRespHistMax) {
-                bucket = (int) (responseTime / fineRespBucketSize);
-            } else if (responseTime < coarseRespHistMax) {
-                bucket = (int) (((responseTime - fineRespHistMax) /
-                        coarseRespBucketSize) + FINE_RESPBUCKETS);
-            } else {
-                bucket = RESPBUCKETS - 1;
-                hiRespSumStdy[txType] += responseTime;
-            }
-            respHist[txType][bucket]++;
+            respHist[txType].record(responseTime);
 
             if (responseTime > respMax[txType]) {
 				respMax[txType] = responseTime;
 			}
+
+            if (intendedHist != null) {
+                // Operations invoked before their intended time, or
+                // without one, have no delay to correct for.
+                long intendedTime = responseTime;
+                if (timingInfo.intendedInvokeTime !=
+                        AgentThread.TIME_NOT_SET && timingInfo.invokeTime >
+                        timingInfo.intendedInvokeTime)
+                    intendedTime += timingInfo.invokeTime -
+                                    timingInfo.intendedInvokeTime;
+                intendedHist[txType].record(intendedTime);
+                intendedSumStdy[txType] += intendedTime;
+                if (intendedTime > intendedMax[txType])
+                    intendedMax[txType] = intendedTime;
+            }
         }
     }
 
@@ -428,6 +478,10 @@ public class Metrics implements Serializable, Cloneable,
             errCntStdy[txType]++;
 		}
 
+        RuntimeCounters counters = thread.agent.runtimeCounters;
+        if (counters != null)
+            counters.recordError(thread.id, txType, !thread.inRamp);
+
         if (thread.driverContext.timingInfo.respondTime !=
                 AgentThread.TIME_NOT_SET)
             endTimeNanos = thread.driverContext.timingInfo.respondTime;
@@ -496,6 +550,10 @@ public class Metrics implements Serializable, Cloneable,
             delayMin[txType] = actualDelayTime;
 		}
 
+        if (delayHist[txType] == null) {
+            delayHist[txType] = new int[DELAYBUCKETS];
+            targetedDelayHist[txType] = new int[DELAYBUCKETS];
+        }
         long bucket = actualDelayTime / delayBucketSize;
         if (bucket >= DELAYBUCKETS) {
             delayHist[txType][DELAYBUCKETS - 1]++;
@@ -536,6 +594,10 @@ public class Metrics implements Serializable, Cloneable,
         logger.finest("Adding cycleSum " + cycleSum + " and " + s.cycleSum);
 
         cycleSum += s.cycleSum;
+        wakeupCnt += s.wakeupCnt;
+        wakeupLateSum += s.wakeupLateSum;
+        if (s.wakeupLateMax > wakeupLateMax)
+            wakeupLateMax = s.wakeupLateMax;
         // Standard statistics
 		for (int i = 0; i < txTypes; i++) {
             // Add the sum squares before adding the count and response sum.
@@ -553,7 +615,6 @@ public class Metrics implements Serializable, Cloneable,
             delayCntStdy[i] += s.delayCntStdy[i];
 			respSumStdy[i] += s.respSumStdy[i];
             respSumTotal[i] += s.respSumTotal[i];
-            hiRespSumStdy[i] += s.hiRespSumStdy[i];
 			delaySum[i] += s.delaySum[i];
 			targetedDelaySum[i] += s.targetedDelaySum[i];
 			if (s.respMax[i] > respMax[i]) {
@@ -567,19 +628,18 @@ public class Metrics implements Serializable, Cloneable,
 			}
 
 			// sum up histogram buckets
-			for (int j = 0; j < RESPBUCKETS; j++) {
-				respHist[i][j] += s.respHist[i][j];
-			}
-			for (int j = 0; j < graphBuckets; j++) {
-				thruputGraph[i][j] += s.thruputGraph[i][j];
-                respGraph[i][j] += s.respGraph[i][j];
-            }
-			for (int j = 0; j < DELAYBUCKETS; j++) {
-				delayHist[i][j] += s.delayHist[i][j];
-			}
-			for (int j = 0; j < DELAYBUCKETS; j++) {
-				targetedDelayHist[i][j] += s.targetedDelayHist[i][j];
+			respHist[i].add(s.respHist[i]);
+            if (intendedHist != null && s.intendedHist != null) {
+                intendedHist[i].add(s.intendedHist[i]);
+                intendedSumStdy[i] += s.intendedSumStdy[i];
+                if (s.intendedMax[i] > intendedMax[i])
+                    intendedMax[i] = s.intendedMax[i];
             }
+            thruputGraph[i] = addRow(thruputGraph[i], s.thruputGraph[i]);
+            respGraph[i] = addRow(respGraph[i], s.respGraph[i]);
+            delayHist[i] = addRow(delayHist[i], s.delayHist[i]);
+            targetedDelayHist[i] = addRow(targetedDelayHist[i],
+                                          s.targetedDelayHist[i]);
         }
 
         if (s.startTime < startTime) {
@@ -786,30 +846,26 @@ public class Metrics implements Serializable, Cloneable,
             clone.delayCntStdy = delayCntStdy.clone();
             clone.respSumStdy = respSumStdy.clone();
             clone.respSumTotal = respSumTotal.clone();
-            clone.hiRespSumStdy = hiRespSumStdy.clone();
             clone.respMax = respMax.clone();
             clone.delaySum = delaySum.clone();
             clone.targetedDelaySum = targetedDelaySum.clone();
             clone.delayMax = delayMax.clone();
             clone.delayMin = delayMin.clone();
-            clone.respHist = new int[respHist.length][];
+            clone.respHist = new LatencyHistogram[respHist.length];
             for (int i = 0; i < respHist.length; i++) {
                 clone.respHist[i] = respHist[i].clone();
 			}
-            clone.delayHist = new int[delayHist.length][];
-            for (int i = 0; i < delayHist.length; i++) {
-                clone.delayHist[i] = delayHist[i].clone();
-			}
-            clone.targetedDelayHist = new int[targetedDelayHist.length][];
-            for (int i = 0; i < targetedDelayHist.length; i++) {
-                clone.targetedDelayHist[i] = targetedDelayHist[i].clone();
-			}
-            clone.thruputGraph = new int[thruputGraph.length][];
-            clone.respGraph = new long[respGraph.length][];
-            for (int i = 0; i < thruputGraph.length; i++) {
-                clone.thruputGraph[i] = thruputGraph[i].clone();
-                clone.respGraph[i] = respGraph[i].clone();
+            if (intendedHist != null) {
+                clone.intendedHist = new LatencyHistogram[intendedHist.length];
+                for (int i = 0; i < intendedHist.length; i++)
+                    clone.intendedHist[i] = intendedHist[i].clone();
+                clone.intendedSumStdy = intendedSumStdy.clone();
+                clone.intendedMax = intendedMax.clone();
             }
+            clone.delayHist = cloneRows(delayHist);
+            clone.targetedDelayHist = cloneRows(targetedDelayHist);
+            clone.thruputGraph = cloneRows(thruputGraph);
+            clone.respGraph = cloneRows(respGraph);
             if (metricAttachments != null) {
                 clone.metricAttachments =
                         new LinkedHashMap<String, CustomMetrics>();
@@ -878,11 +934,12 @@ public class Metrics implements Serializable, Cloneable,
         buffer.append("Total cycle time = ").append(cycleSum);
 
         /* Now print out the histogram data */
+        int[][] thruputGraph = expand(this.thruputGraph, graphBuckets);
+        long[][] respGraph = expand(this.respGraph, graphBuckets);
+        int[][] delayHist = expand(this.delayHist, DELAYBUCKETS);
         for (int i = 0; i < txTypes; i++) {
             buffer.append(txNames[i]).append(" Response Times Histogram\n");
-            for (int j = 0; j < RESPBUCKETS; j++) {
-                buffer.append(' ').append(respHist[i][j]);
-			}
+            buffer.append(respHist[i]);
             buffer.append('\n');
             buffer.append(txNames[i]).append(" Throughput Graph\n");
             for (int j = 0; j < graphBuckets; j++) {
@@ -920,7 +977,6 @@ public class Metrics implements Serializable, Cloneable,
         boolean success = true;
         double avg, tavg;
         long respPct, resp99;
-        int sumtx, cntPct, cnt99;
         RunInfo runInfo = RunInfo.getInstance();
         Formatter formatter = new Formatter(buffer);
         double[] ckSD = null;
@@ -985,6 +1041,18 @@ public class Metrics implements Serializable, Cloneable,
         formatter.format("<rtXtps>%.04f</rtXtps>\n",
                 cycleSum / (runInfo.stdyState * 1e9d));
 
+        if (wakeupCnt > 0l) {
+            space(8, buffer).append("<wakeupLateness unit=\"us\">\n");
+            space(12, buffer).append("<count>").append(wakeupCnt).
+                    append("</count>\n");
+            space(12, buffer);
+            formatter.format("<avg>%.03f</avg>\n",
+                    wakeupLateSum / (wakeupCnt * 1e3d));
+            space(12, buffer);
+            formatter.format("<max>%.03f</max>\n", wakeupLateMax / 1e3d);
+            space(8, buffer).append("</wakeupLateness>\n");
+        }
+
         space(8, buffer).append("<passed>");
         int passStrOffset = buffer.length();
         buffer.append("true</passed>\n"); // We first assume passed
@@ -1085,30 +1153,10 @@ public class Metrics implements Serializable, Cloneable,
                     ckSD[i] = estimateStdev(i, result.avgResp[i], precision);
                 }
 
-                int k;
                 if (driver.percentiles.length > 0) {
                     for (int j = 0; j < driver.percentiles.length; j++) {
                         double pct = driver.percentiles[j];
-                        sumtx = 0;
-                        cntPct = (int)(txCntStdy[i] * (pct / 100d));
-                        k = 0;
-                        for (; k < respHist[i].length; k++) {
-                            sumtx += respHist[i][k];
-                            if (sumtx >= cntPct)	{	/* n% of tx. got */
-                                break;
-                            }
-                        }
-                        // We report the base of the next bucket.
-                        ++k;
-                        if (k < FINE_RESPBUCKETS)
-                            respPct = k * fineRespBucketSize;
-                        else if (k < RESPBUCKETS)
-                            respPct = (k - FINE_RESPBUCKETS) *
-                                    coarseRespBucketSize + fineRespHistMax;
-                        else // Report the overflow bucket.
-                             // Ensure no mistakes due to floating point errors.
-                            respPct =
-                                  2 * coarseRespBucketSize + coarseRespHistMax;
+                        respPct = respHist[i].getValueAtPercentile(pct);
 
                         double limit = driver.operations[i].percentileLimits[j];
                         String limitString = "";
@@ -1118,22 +1166,14 @@ public class Metrics implements Serializable, Cloneable,
 
                         space(16, buffer);
 
-                        String indicator;
-                        if (respPct > coarseRespHistMax + coarseRespBucketSize){
-                            result.percentiles[i][j] =
-                                                coarseRespHistMax / precision;
-                            indicator = "&gt; ";
-                        } else {
-                            result.percentiles[i][j] = respPct / precision;
-                            indicator = "";
-                        }
+                        result.percentiles[i][j] = respPct / precision;
                         String pctSuffix = driver.pctSuffix[j];
                         if (pctSuffix == null)
                             pctSuffix = getSuffix(driver.pctString[j]);
                         formatter.format("<percentile nth=\"%s\" " +
-                                "suffix=\"%s\"%s>%s%5.3f</percentile>\n",
+                                "suffix=\"%s\"%s>%5.3f</percentile>\n",
                                 driver.pctString[j], pctSuffix, limitString,
-                                indicator, result.percentiles[i][j]);
+                                result.percentiles[i][j]);
 
                         if (limit > 0d) {
                             long limitNanos = Math.round(limit * precision);
@@ -1146,36 +1186,11 @@ public class Metrics implements Serializable, Cloneable,
                     space(16, buffer).append("<passed>").append(passPct).
                             append("</passed>\n");
                 } else {
-                    sumtx = 0;
-                    cntPct = (int)(txCntStdy[i] * .90d);
-                    k = 0;
-                    for (; k < respHist[i].length; k++) {
-                        sumtx += respHist[i][k];
-                        if (sumtx >= cntPct)	{	/* 90% of tx. got */
-                            break;
-                        }
-                    }
-                    // We report the base of the next bucket.
-                    ++k;
-                    if (k < FINE_RESPBUCKETS)
-                        respPct = k * fineRespBucketSize;
-                    else if (k < RESPBUCKETS)
-                        respPct = (k - FINE_RESPBUCKETS) *
-                                coarseRespBucketSize + fineRespHistMax;
-                    else // Report the overflow bucket.
-                         // Ensure no mistakes due to floating point errors.
-                        respPct = 2 * coarseRespBucketSize + coarseRespHistMax;
-
+                    respPct = respHist[i].getValueAtPercentile(90d);
                     space(16, buffer);
-                    if (respPct > coarseRespHistMax + coarseRespBucketSize) {
-                        result.p90Resp[i] = coarseRespHistMax / precision;
-                        formatter.format("<p90th>&gt; %5.3f</p90th>\n",
-                                         result.p90Resp[i]);
-                    } else {
-                        result.p90Resp[i] = respPct / precision;
-                        formatter.format("<p90th>%5.3f</p90th>\n",
-                                         result.p90Resp[i]);
-                    }
+                    result.p90Resp[i] = respPct / precision;
+                    formatter.format("<p90th>%5.3f</p90th>\n",
+                                     result.p90Resp[i]);
                     if (respPct > max90nanos) {
                         passPct = false;
                         success = false;
@@ -1184,33 +1199,10 @@ public class Metrics implements Serializable, Cloneable,
                             append("</passed>\n");
 
                     // 99th% hack for Berkeley.
-                    sumtx = 0;
-                    cnt99 = (int)(txCntStdy[i] * .99d);
-                    k = 0;
-                    for (; k < respHist[i].length; k++) {
-                        sumtx += respHist[i][k];
-                        if (sumtx >= cnt99)	{	/* 90% of tx. got */
-                            break;
-                        }
-                    }
-                    // We report the base of the next bucket.
-                    ++k;
-                    if (k < FINE_RESPBUCKETS)
-                        resp99 = k * fineRespBucketSize;
-                    else if (k < RESPBUCKETS)
-                        resp99 = (k - FINE_RESPBUCKETS) * coarseRespBucketSize +
-                                fineRespHistMax;
-                    else // Report the overflow bucket
-                    // Ensure no mistakes due to floating point errors.
-                        resp99 = 2 * coarseRespBucketSize + coarseRespHistMax;
-
+                    resp99 = respHist[i].getValueAtPercentile(99d);
                     space(16, buffer);
-                    if (resp99 > coarseRespHistMax + coarseRespBucketSize)
-                        formatter.format("<p99th>&gt; %5.3f</p99th>\n",
-                                coarseRespHistMax / precision);
-                    else
-                        formatter.format("<p99th>%5.3f</p99th>\n",
-                                resp99 / precision);
+                    formatter.format("<p99th>%5.3f</p99th>\n",
+                            resp99 / precision);
                     // end hack.
                 }
             } else {
@@ -1227,6 +1219,10 @@ public class Metrics implements Serializable, Cloneable,
         }
         space(8, buffer).append("</responseTimes>\n");
 
+        if (intendedHist != null)
+            printIntendedResponseTimes(buffer, formatter, driver, precision,
+                                       responseTimeUnit, fgTxTypes);
+
         if (logger.isLoggable(crosscheck) && !Double.isNaN(ckSD[0])) {
             StringBuilder b = new StringBuilder();
             Formatter f = new Formatter(b);
@@ -1441,37 +1437,9 @@ public class Metrics implements Serializable, Cloneable,
      * @return The estimated standard deviation.
      */
     private double estimateStdev(int type, double avg, double precision) {
-                        // Overall standard deviation, for checking only.
-        double sumDev2 = 0d;
-        for (int j = 0; j < respHist[type].length; j++) {
-            if (respHist[type][j] == 0) {
-                continue;
-            }
-            long bucketRep = getBucketRepValue(j);
-            double dev;
-            if (bucketRep == Long.MIN_VALUE) {
-                dev = hiRespSumStdy[type] / respHist[type][j];
-            } else {
-                dev = bucketRep;
-            }
-            dev = dev / precision - avg;
-            sumDev2 += dev * dev * respHist[type][j];
-        }
-        return Math.sqrt(sumDev2 / txCntStdy[type]);
-    }
-
-    private long getBucketRepValue(int bucketId) {
-        long resp;
-        if (bucketId < Metrics.FINE_RESPBUCKETS) {
-            resp = bucketId * fineRespBucketSize + (fineRespBucketSize/2);
-        } else if (bucketId < Metrics.RESPBUCKETS) {
-            resp = (bucketId - Metrics.FINE_RESPBUCKETS) *
-                    coarseRespBucketSize + fineRespHistMax +
-                    (coarseRespBucketSize/2);
-        } else {
-            resp = Long.MIN_VALUE;
-        }
-        return resp;
+        // Overall standard deviation, for checking only.
+        return respHist[type].estimateStdDev(avg * precision, null) /
+                precision;
     }
 
 
@@ -1523,69 +1491,67 @@ public class Metrics implements Serializable, Cloneable,
     }
 
     /**
-     * The respHist, or response histogram has a special structure:
-     * The lower buckets are fine-grained buckets. The higher buckets
-     * are coarse-grained bucket covering 10x as much time. It is done this
-     * way to save memory (from 1000 entries per thread per operation, down to
-     * 370 entries). For low response times, we care a lot about the exact
-     * response time and therefore we use fine-grained buckets. For large
-     * response times we just want to know the ballpark, but not the exact
-     * number. So it does not make sense to keep the same bucket size
-     * throughout. We use fine granularity below 1.5x largest set 90th% and
-     * coarse granularity for anything beyond that.
-     *
-     * Now, we need to flatten the response time histogram into a flat one
-     * before plotting. We do this, here. We'll end up with more entries, but
-     * we really don't care since this is one copy, once per run at report time.
+     * Prints the response times from the intended invoke times into the
+     * summary. These are informational, the pass/fail criteria still
+     * apply to the classic response times.
      */
-    private void flattenRespHist() {
-        int limit = getBucketLimit(respHist);
-
-        // If all buckets are used, the last one does not get extrapolated
-        // as it has the data of that bucket and beyond.
-        boolean spareLastBucket = false;
-        if (limit == respHist[0].length)
-            spareLastBucket = true;
-
-        if (limit > FINE_RESPBUCKETS) {
-            int size;
-            if (spareLastBucket) {
-                --limit;
-                size = (COARSE_RESPBUCKETS - 1) * RESPBUCKET_SIZE_RATIO +
-                                                        FINE_RESPBUCKETS + 1;
-            } else {
-                size = (limit - FINE_RESPBUCKETS) * RESPBUCKET_SIZE_RATIO +
-                                                        FINE_RESPBUCKETS;
-            }
-            int[][] respHist = new int[txTypes][size];
-            for (int i = 0; i < txTypes; i++) {
-
-                // Copy the fine buckets unchanged.
-                System.arraycopy(this.respHist[i], 0, respHist[i], 0,
-                                 FINE_RESPBUCKETS);
-
-                for (int j = FINE_RESPBUCKETS; j < limit; j++) {
-                    int count = this.respHist[i][j];
-                    // Spread the count among all 10 flat buckets.
-                    int base = count / RESPBUCKET_SIZE_RATIO;
-                    int remainder = count % RESPBUCKET_SIZE_RATIO;
-                    int baseIdx = (j - FINE_RESPBUCKETS) *
-                                    RESPBUCKET_SIZE_RATIO + FINE_RESPBUCKETS;
-                    int k = 9;
-                    // The higher buckets get the base
-                    for (; k >= remainder; k--)
-                        respHist[i][baseIdx + k] = base;
-                    // The lower remaining buckets get the base + 1
-                    ++base;
-                    for (; k >= 0; k--)
-                        respHist[i][baseIdx + k] = base;
+    private void printIntendedResponseTimes(StringBuilder buffer,
+                         Formatter formatter, BenchmarkDefinition.Driver driver,
+                         double precision, String responseTimeUnit,
+                         int fgTxTypes) {
+        double[] pcts = driver.percentiles;
+        String[] pctStrings = driver.pctString;
+        String[] pctSuffixes = driver.pctSuffix;
+        if (pcts.length == 0) { // Old format, 90th and 99th only.
+            pcts = new double[] { 90d, 99d };
+            pctStrings = new String[] { "90", "99" };
+            pctSuffixes = new String[] { "th", "th" };
+        }
+        space(8, buffer).append("<intendedResponseTimes unit=\"").
+                append(responseTimeUnit).append("\">\n");
+        for (int i = 0; i < txNames.length; i++) {
+            space(12, buffer);
+            formatter.format("<operation name=\"%s%s\">\n", txNames[i],
+                             i < fgTxTypes ? "" : " &amp;");
+            if (txCntStdy[i] > 0) {
+                space(16, buffer);
+                formatter.format("<avg>%5.3f</avg>\n",
+                        (intendedSumStdy[i] / txCntStdy[i]) / precision);
+                space(16, buffer);
+                formatter.format("<max>%5.3f</max>\n",
+                        intendedMax[i] / precision);
+                for (int j = 0; j < pcts.length; j++) {
+                    String pctSuffix = pctSuffixes[j];
+                    if (pctSuffix == null)
+                        pctSuffix = getSuffix(pctStrings[j]);
+                    space(16, buffer);
+                    formatter.format("<percentile nth=\"%s\" suffix=\"%s\">" +
+                            "%5.3f</percentile>\n", pctStrings[j], pctSuffix,
+                            intendedHist[i].getValueAtPercentile(pcts[j]) /
+                            precision);
                 }
-                if (spareLastBucket)
-                    // Just copy the last bucket.
-                    respHist[i][size - 1] = this.respHist[i][limit];
+            } else {
+                space(16, buffer).append("<avg/>\n");
+                space(16, buffer).append("<max/>\n");
             }
-            this.respHist = respHist;
+            space(12, buffer).append("</operation>\n");
         }
+        space(8, buffer).append("</intendedResponseTimes>\n");
+    }
+
+    /**
+     * The respHist, or response histogram is log-linear. For plotting, we
+     * flatten it into a linear histogram with the base resolution as the
+     * bucket size. Wider sub-buckets are spread evenly across the linear
+     * buckets they cover. We'll end up with more entries, but we really
+     * don't care since this is one copy, once per run at report time.
+     * @return The flattened response time histogram
+     */
+    private int[][] flattenRespHist() {
+        int[][] flatHist = new int[txTypes][];
+        for (int i = 0; i < txTypes; i++)
+            flatHist[i] = respHist[i].toLinear(DETAIL_RESPBUCKETS);
+        return flatHist;
     }
 
     /**
@@ -1599,8 +1565,8 @@ public class Metrics implements Serializable, Cloneable,
         double graphBucketSize = this.graphBucketSize / 1e9d;
         String responseTimeUnit = driver.responseTimeUnit.toString().
                 toLowerCase();
-
-        flattenRespHist();
+        int[][] thruputGraph = expand(this.thruputGraph, graphBuckets);
+        long[][] respGraph = expand(this.respGraph, graphBuckets);
 
         printGraph(b, "Throughput", graphBucketSize,
                 "%.0f", "%.2f", thruputGraph, graphBucketSize);
@@ -1610,15 +1576,25 @@ public class Metrics implements Serializable, Cloneable,
                 thruputGraph, precision);
 
         printHistogram(b, "Frequency Distribution of Response Times (" +
-                responseTimeUnit + ")", fineRespBucketSize / precision, "%.5f",
-                respHist);
+                responseTimeUnit + ")", respBucketSize / precision, "%.5f",
+                flattenRespHist());
+
+        if (intendedHist != null) {
+            int[][] flatHist = new int[txTypes][];
+            for (int i = 0; i < txTypes; i++)
+                flatHist[i] = intendedHist[i].toLinear(DETAIL_RESPBUCKETS);
+            printHistogram(b, "Frequency Distribution of Intended Response " +
+                    "Times (" + responseTimeUnit + ")",
+                    respBucketSize / precision, "%.5f", flatHist);
+        }
 
         printHistogram(b, "Frequency Distribution of Cycle/Think Times " +
-                "(seconds)", delayBucketSize / 1e9d, "%.3f", delayHist);
+                "(seconds)", delayBucketSize / 1e9d, "%.3f",
+                expand(delayHist, DELAYBUCKETS));
 
         printHistogram(b, "Frequency Distribution of Targeted Cycle/Think " +
                 "Times (seconds)", delayBucketSize / 1e9d, "%.3f",
-                targetedDelayHist);
+                expand(targetedDelayHist, DELAYBUCKETS));
     }
 
     @SuppressWarnings("boxing")
@@ -1744,6 +1720,112 @@ public class Metrics implements Serializable, Cloneable,
         b.append('\n');
     }
 
+    /**
+     * Grows a graph row to hold the given bucket. The row grows by
+     * doubling, but never beyond graphBuckets.
+     * @param row The row, or null if not yet allocated
+     * @param bucket The bucket to hold
+     * @return The grown row
+     */
+    private int[] grow(int[] row, int bucket) {
+        int[] newRow = new int[newRowLength(row == null ? 0 : row.length,
+                                            bucket)];
+        if (row != null)
+            System.arraycopy(row, 0, newRow, 0, row.length);
+        return newRow;
+    }
+
+    private long[] grow(long[] row, int bucket) {
+        long[] newRow = new long[newRowLength(row == null ? 0 : row.length,
+                                              bucket)];
+        if (row != null)
+            System.arraycopy(row, 0, newRow, 0, row.length);
+        return newRow;
+    }
+
+    private int newRowLength(int length, int bucket) {
+        if (length >= bucket + 1)
+            return length;
+        length = Math.max(Math.max(length * 2, 16), bucket + 1);
+        return Math.min(length, graphBuckets);
+    }
+
+    /**
+     * Adds a row into another. Either row may be null or shorter.
+     * @param row The row to add to
+     * @param other The row to add
+     * @return The resulting row, which may be a new one
+     */
+    private static int[] addRow(int[] row, int[] other) {
+        if (other == null)
+            return row;
+        if (row == null)
+            return other.clone();
+        if (row.length < other.length) {
+            int[] newRow = other.clone();
+            for (int i = 0; i < row.length; i++)
+                newRow[i] += row[i];
+            return newRow;
+        }
+        for (int i = 0; i < other.length; i++)
+            row[i] += other[i];
+        return row;
+    }
+
+    private static long[] addRow(long[] row, long[] other) {
+        if (other == null)
+            return row;
+        if (row == null)
+            return other.clone();
+        if (row.length < other.length) {
+            long[] newRow = other.clone();
+            for (int i = 0; i < row.length; i++)
+                newRow[i] += row[i];
+            return newRow;
+        }
+        for (int i = 0; i < other.length; i++)
+            row[i] += other[i];
+        return row;
+    }
+
+    private static int[][] cloneRows(int[][] rows) {
+        int[][] clone = new int[rows.length][];
+        for (int i = 0; i < rows.length; i++)
+            if (rows[i] != null)
+                clone[i] = rows[i].clone();
+        return clone;
+    }
+
+    private static long[][] cloneRows(long[][] rows) {
+        long[][] clone = new long[rows.length][];
+        for (int i = 0; i < rows.length; i++)
+            if (rows[i] != null)
+                clone[i] = rows[i].clone();
+        return clone;
+    }
+
+    /**
+     * Expands the rows to the full length for reporting.
+     * @param rows The rows, which may be null or shorter
+     * @param length The full length
+     * @return The full rows
+     */
+    private static int[][] expand(int[][] rows, int length) {
+        int[][] full = new int[rows.length][length];
+        for (int i = 0; i < rows.length; i++)
+            if (rows[i] != null)
+                System.arraycopy(rows[i], 0, full[i], 0, rows[i].length);
+        return full;
+    }
+
+    private static long[][] expand(long[][] rows, int length) {
+        long[][] full = new long[rows.length][length];
+        for (int i = 0; i < rows.length; i++)
+            if (rows[i] != null)
+                System.arraycopy(rows[i], 0, full[i], 0, rows[i].length);
+        return full;
+    }
+
     static StringBuilder space(int space, StringBuilder buffer) {
         for (int i = 0; i < space; i++) {
             buffer.append(' ');
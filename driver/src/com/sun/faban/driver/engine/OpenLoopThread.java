@@ -0,0 +1,202 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.util.logging.Level;
+
+
+/**
+ * A driver thread for open-loop runs. Instead of deriving the start of the
+ * next operation from the cycle time after the previous operation, the
+ * thread claims the next arrival from the agent's arrival schedule. All
+ * agent threads of an agent form the pool of executors serving the
+ * arrivals. The response time is measured from the intended start time so
+ * any queuing delay caused by a slow system under test is accounted for.
+ *
+ * @author Akara Sucharitakul
+ */
+public class OpenLoopThread extends TimeThread {
+
+    /**
+     * Each thread executes in the doRun method until the benchmark time is up
+     * The main loop chooses a tx. type according to the mix specified in
+     * the parameter file and calls the appropriate transaction
+     * method at the next arrival time.
+   	 * The stats for the entire run are stored in a Metrics object
+   	 * which is returned to the Agent via the getResult() method.
+     * @see Metrics
+     */
+    @Override
+	void doRun() {
+
+        driverContext = new DriverContext(this, timer);
+
+        try {
+            driver = driverClass.newInstance();
+        } catch (Throwable t) {
+            Throwable cause = t.getCause();
+            while (cause != null) {
+                t = cause;
+                cause = t.getCause();
+            }
+            logger.log(Level.SEVERE, name +
+                    ": Error initializing driver object.", t);
+            agent.abortRun();
+            return; // Terminate this thread immediately
+        }
+
+        // Call the preRun.
+        preRun();
+
+        // Notify the agent that we have started successfully.
+        agent.threadStartLatch.countDown();
+
+        selector = new Mix.Selector[1];
+        selector[0] = driverConfig.mix[0].selector(random);
+
+        if (runInfo.simultaneousStart) {
+            waitStartTime();
+
+            // Calculate time periods
+            // Note that the time periods are in secs, need to convert
+            endRampUp = agent.startTime + runInfo.rampUp * 1000000000l;
+            endStdyState = endRampUp + runInfo.stdyState * 1000000000l;
+            endRampDown = endStdyState + runInfo.rampDown * 1000000000l;
+        }
+
+        logger.fine(name + ": Start of run.");
+
+        // Loop until time is up
+        driverLoop:
+        while (!stopped) {
+
+            if (agent.arrivals.isIdle()) {
+                logger.log(Level.FINE, "Current arrival rate is 0. Thread " +
+                        id + " sleeping.");
+                timer.wakeupAt(agent.loadSwitchTime);
+                continue;
+            }
+
+            if (!runInfo.simultaneousStart && !startTimeSet &&
+                    agent.timeSetLatch.getCount() == 0) {
+                startTimeSet = true;
+
+                // Calculate time periods
+                // Note that the time periods are in secs, need to convert
+                endRampUp = agent.startTime + runInfo.rampUp * 1000000000l;
+                endStdyState = endRampUp + runInfo.stdyState * 1000000000l;
+                endRampDown = endStdyState + runInfo.rampDown * 1000000000l;
+            }
+
+            // Select the operation
+            currentOperation = selector[0].select();
+            BenchmarkDefinition.Operation op =
+                    driverConfig.operations[currentOperation];
+
+            // The invoke time is the next arrival, regardless of
+            // when the previous operation finished.
+            long invokeTime = agent.arrivals.next(random);
+
+            // endRampDown is only valid if start time is set.
+            // If the start time of next tx is beyond the end
+            // of the ramp down, just stop right here.
+            if (startTimeSet && invokeTime >= endRampDown) {
+                break driverLoop;
+            }
+
+            logger.finest(name + ": Invoking " + op.name + " at time " +
+                    invokeTime + ". Ramp down ends at time " +
+                    endRampDown + '.');
+
+            driverContext.setInvokeTime(invokeTime);
+
+            // Invoke the operation
+            Throwable cause = null;
+            try {
+                op.invoker.invoke(driver);
+            } catch (Throwable e) {
+                cause = e;
+            }
+            if (cause == null) {
+                validateTimeCompletion(op);
+                adjustInvokeTime();
+                checkRamp();
+                metrics.recordTx();
+            } else {
+                checkFatal(cause, op);
+
+                // We have to fix up the invoke/respond times to have valid
+                // values and not TIME_NOT_SET.
+                DriverContext.TimingInfo timingInfo =
+                        driverContext.timingInfo;
+
+                // The lastRespondTime may be set, though. if so, propagate
+                // it back to respondTime.
+                if (timingInfo.respondTime == TIME_NOT_SET &&
+                        timingInfo.lastRespondTime != TIME_NOT_SET) {
+                    logger.fine("Potential open request in operation " +
+                            op.m.getName() + ".");
+                    timingInfo.respondTime = timingInfo.lastRespondTime;
+                }
+
+                if (timingInfo.invokeTime == TIME_NOT_SET) {
+                    long currentTime = System.nanoTime();
+                    if (currentTime < timingInfo.intendedInvokeTime) {
+                        // No time change, no need to checkRamp
+                        metrics.recordError();
+                        logError(cause, op);
+                        continue driverLoop;
+                    }
+                    timingInfo.invokeTime = currentTime;
+                    timingInfo.respondTime = currentTime;
+                } else if (timingInfo.respondTime == TIME_NOT_SET) {
+                    timingInfo.respondTime = System.nanoTime();
+                }
+                adjustInvokeTime();
+                checkRamp();
+                metrics.recordError();
+                logError(cause, op);
+            }
+
+            if (startTimeSet &&
+                    driverContext.timingInfo.respondTime >= endRampDown) {
+                break driverLoop;
+            }
+        }
+        logger.fine(name + ": End of run.");
+    }
+
+    /**
+     * Moves the invoke time back to the intended invoke time. In an open
+     * loop the request was due at its arrival time. Any delay until it
+     * actually got sent, whether waiting for a free thread or for the
+     * previous request to complete, is part of the response time.
+     */
+    private void adjustInvokeTime() {
+        DriverContext.TimingInfo timingInfo = driverContext.timingInfo;
+        if (timingInfo.intendedInvokeTime != TIME_NOT_SET &&
+                timingInfo.intendedInvokeTime < timingInfo.invokeTime)
+            timingInfo.invokeTime = timingInfo.intendedInvokeTime;
+    }
+}
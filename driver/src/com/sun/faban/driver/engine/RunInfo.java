@@ -93,6 +93,9 @@ public class RunInfo implements Serializable {
     
     /** Whether agents start in parallel. */
     public boolean parallelAgentThreadStart = false;
+
+    /** Whether agent threads run on virtual threads, if supported. */
+    public boolean virtualThreads = false;
     
     /**
      * Milliseconds between thread start.
@@ -111,12 +114,27 @@ public class RunInfo implements Serializable {
     /** The time interval for graphing. */
     public int graphInterval = 10; // 30 seconds
 
+    /** Significant digits kept by the response time histograms. */
+    public int respHistDigits = 2;
+
+    /**
+     * Whether to also record response times from the intended invoke
+     * time, correcting for coordinated omission.
+     */
+    public boolean intendedRespEnabled = false;
+
     /** Whether the runtime stats are enabled. */
     public boolean runtimeStatsEnabled = false;
 
     /** Interval for runtime stats. */
     public int runtimeStatsInterval = 10;
 
+    /**
+     * Local port publishing the runtime stats, 0 for any free port,
+     * or -1 to not publish.
+     */
+    public int runtimeStatsPort = -1;
+
     /** The current driver config object. */
     public DriverConfig driverConfig;
 
@@ -300,6 +318,15 @@ public class RunInfo implements Serializable {
         /** Driver level variable load file. */
         public String variableLoadFile;
 
+        /**
+         * Open-loop arrival rate for the whole driver, in ops/sec.
+         * 0 means closed-loop operation driven by the cycle times.
+         */
+        public double arrivalRate = 0d;
+
+        /** Whether open-loop arrivals are at a fixed rate or Poisson. */
+        public boolean fixedArrivals = false;
+
         /** Property element of the configuration DOM tree. */
         public Element properties;
 
@@ -460,7 +487,9 @@ public class RunInfo implements Serializable {
             // We can add more providers here.
             SUN ("com.sun.faban.driver.transport.sunhttp.SunHttpTransport"),
 
-            APACHE3 ("com.sun.faban.driver.transport.hc3.ApacheHC3Transport");
+            APACHE3 ("com.sun.faban.driver.transport.hc3.ApacheHC3Transport"),
+
+            NIO ("com.sun.faban.driver.transport.nio.NioHttpTransport");
 
 
             final String providerClass;
@@ -1103,6 +1132,16 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:threadStart/fd:virtual", runConfigNode);
+            if (v != null && v.length() > 0) {
+				try {
+                    runInfo.virtualThreads = relaxedParseBoolean(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<virtual> must be true or false.");
+                }
+			}
+
             v = xp.evaluate("fd:stats/fd:maxRunTime", runConfigNode);
             if (v!= null && v.length() > 0) {
 				try {
@@ -1123,6 +1162,29 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:stats/fd:significantDigits", runConfigNode);
+            if (v!= null && v.length() > 0) {
+				try {
+                    runInfo.respHistDigits = Integer.parseInt(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<significantDigits> must be an integer.");
+                }
+                if (runInfo.respHistDigits < 1 || runInfo.respHistDigits > 5)
+                    throw new ConfigurationException(
+                            "<significantDigits> must be between 1 and 5.");
+			}
+
+            v = xp.evaluate("fd:stats/fd:intendedResponseTimes", runConfigNode);
+            if (v != null && v.length() > 0) {
+				try {
+                    runInfo.intendedRespEnabled = relaxedParseBoolean(v);
+                } catch (Exception e) {
+                    throw new ConfigurationException(
+                            "<intendedResponseTimes> must be true or false.");
+                }
+			}
+
             v = xp.evaluate("fd:runtimeStats/@enabled", runConfigNode);
             if (v != null && v.length() > 0) {
 				try {
@@ -1143,6 +1205,16 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:runtimeStats/fd:port", runConfigNode);
+            if (v != null && v.length() > 0) {
+				try {
+                    runInfo.runtimeStatsPort = Integer.parseInt(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<port> must be an integer.");
+                }
+			}
+
             runInfo.driverConfigs = new DriverConfig[benchDef.drivers.length];
             for (int i = 0; i < benchDef.drivers.length; i++) {
                 DriverConfig driverConfig =
@@ -1225,6 +1297,40 @@ public class RunInfo implements Serializable {
                     }
                 }
 
+                v = xp.evaluate("fd:arrivalRate", driverConfigNode);
+                if (v != null && v.length() > 0) {
+                    try {
+                        driverConfig.arrivalRate = Double.parseDouble(v);
+                    } catch (NumberFormatException e) {
+                        throw new ConfigurationException(
+                                "<arrivalRate> must be a number.");
+                    }
+                    if (driverConfig.arrivalRate < 0d)
+                        throw new ConfigurationException(
+                                "<arrivalRate> must not be negative.");
+                    if (driverConfig.arrivalRate > 0d &&
+                            driverConfig.runControl != RunControl.TIME)
+                        throw new ConfigurationException(
+                                "<arrivalRate> is only supported for " +
+                                "time-based run control.");
+                    if (driverConfig.arrivalRate > 0d &&
+                            driverConfig.mix[1] != null)
+                        throw new ConfigurationException(
+                                "<arrivalRate> is not supported with " +
+                                "background operations.");
+                    v = xp.evaluate("fd:arrivalRate/@distribution",
+                            driverConfigNode);
+                    if (v != null && v.length() > 0) {
+                        v = v.trim();
+                        if ("fixed".equalsIgnoreCase(v))
+                            driverConfig.fixedArrivals = true;
+                        else if (!"poisson".equalsIgnoreCase(v))
+                            throw new ConfigurationException(
+                                    "<arrivalRate distribution=\"" + v +
+                                    "\"> must be poisson or fixed.");
+                    }
+                }
+
                 if (runInfo.variableLoad) {
                     driverConfig.variableLoadFile = xp.evaluate(
                             "fd:variableLoadFile", driverConfigNode);
@@ -0,0 +1,271 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The runtime counters collect the runtime stats for all threads in an
+ * agent concurrently. The agent threads record into the counters as they
+ * complete operations. The stats collector takes a snapshot of the counters
+ * at each interval without touching the per-thread metrics. The cost of a
+ * snapshot depends on the number of operations, not the number of threads.
+ * <p>
+ * The counters are striped by thread id to reduce contention. Each stripe
+ * of each operation occupies its own cache line. Squares of raw response
+ * times in ns are so large that the raw sum of squares loses the variance
+ * to rounding. So the squares are taken of the distance from a reference
+ * value per operation, the first response time recorded for it, and
+ * converted to the sum of squared deviations used by the metrics at
+ * snapshot time. Histogram counts are kept in the flattened
+ * layout of the runtime histogram, striped the same way. The histogram of
+ * a stripe and operation is allocated on first use and the stripes are
+ * only merged when taking a snapshot.
+ *
+ * @author Akara Sucharitakul
+ */
+class RuntimeCounters {
+
+    /** Number of longs per stripe and operation, one cache line. */
+    private static final int FIELDS = 8;
+
+    private static final int TX_STDY = 0;
+    private static final int TX_TOTAL = 1;
+    private static final int ERR_STDY = 2;
+    private static final int ERR_TOTAL = 3;
+    private static final int RESP_STDY = 4;
+    private static final int RESP_TOTAL = 5;
+    private static final int SQ_STDY = 6;   // Double bits
+    private static final int SQ_TOTAL = 7;  // Double bits
+
+    /**
+     * The maximum significant digits of the runtime histograms. The runtime
+     * stats only show the 90th percentile, more digits just cost memory
+     * in each stripe.
+     */
+    private static final int MAX_DIGITS = 2;
+
+    /** The range of the runtime histograms, in histogram units. */
+    private static final long MAX_UNITS = 1l << 20;
+
+    private int driverType;
+    private int txTypes;
+    private int stripeMask;
+    private AtomicLongArray counters;
+    private AtomicLongArray refs;
+    private LatencyHistogram layout;
+    private int histSize;
+    private AtomicReferenceArray<AtomicIntegerArray> hist;
+
+    /**
+     * Constructs the runtime counters.
+     * @param driverType The driver type
+     * @param driverConfig The driver configuration
+     * @param digits The significant digits of the response time histograms
+     */
+    RuntimeCounters(int driverType, RunInfo.DriverConfig driverConfig,
+                    int digits) {
+        this.driverType = driverType;
+        txTypes = driverConfig.operations.length;
+
+        int stripes = 1;
+        int target = 2 * Runtime.getRuntime().availableProcessors();
+        while (stripes < target && stripes < 64)
+            stripes <<= 1;
+        stripeMask = stripes - 1;
+        counters = new AtomicLongArray(stripes * txTypes * FIELDS);
+        refs = new AtomicLongArray(txTypes);
+        for (int i = 0; i < txTypes; i++)
+            refs.set(i, -1l);
+
+        long unit = Metrics.getRespBucketSize(driverConfig);
+        layout = new LatencyHistogram(unit, Math.min(digits, MAX_DIGITS));
+        histSize = layout.getFlatIndex(MAX_UNITS * unit) + 1;
+        hist = new AtomicReferenceArray<AtomicIntegerArray>(stripes * txTypes);
+    }
+
+    private int base(int threadId, int txType) {
+        return ((threadId & stripeMask) * txTypes + txType) * FIELDS;
+    }
+
+    /**
+     * Obtains the histogram counts of a stripe and operation, allocating
+     * them on first use.
+     * @param threadId The id of the recording thread
+     * @param txType The operation index
+     * @return The histogram counts
+     */
+    private AtomicIntegerArray getHist(int threadId, int txType) {
+        int idx = (threadId & stripeMask) * txTypes + txType;
+        AtomicIntegerArray counts = hist.get(idx);
+        if (counts == null) {
+            hist.compareAndSet(idx, null, new AtomicIntegerArray(histSize));
+            counts = hist.get(idx);
+        }
+        return counts;
+    }
+
+    /**
+     * Obtains the reference value of an operation, setting it to the
+     * given response time if no reference has been set yet.
+     * @param txType The operation index
+     * @param responseTime The response time, in ns
+     * @return The reference value, in ns
+     */
+    private long getRef(int txType, long responseTime) {
+        long ref = refs.get(txType);
+        if (ref < 0l) {
+            refs.compareAndSet(txType, -1l, responseTime);
+            ref = refs.get(txType);
+        }
+        return ref;
+    }
+
+    private void addDouble(int idx, double value) {
+        long current;
+        do {
+            current = counters.get(idx);
+        } while (!counters.compareAndSet(idx, current, Double.doubleToLongBits(
+                Double.longBitsToDouble(current) + value)));
+    }
+
+    /**
+     * Records a successful transaction.
+     * @param threadId The id of the recording thread
+     * @param txType The operation index
+     * @param responseTime The response time, in ns
+     * @param steadyState Whether the transaction is in steady state
+     */
+    void recordTx(int threadId, int txType, long responseTime,
+                  boolean steadyState) {
+        int base = base(threadId, txType);
+        double delta = responseTime - getRef(txType, responseTime);
+        double square = delta * delta;
+        counters.incrementAndGet(base + TX_TOTAL);
+        counters.addAndGet(base + RESP_TOTAL, responseTime);
+        addDouble(base + SQ_TOTAL, square);
+        if (steadyState) {
+            counters.incrementAndGet(base + TX_STDY);
+            counters.addAndGet(base + RESP_STDY, responseTime);
+            addDouble(base + SQ_STDY, square);
+            int idx = layout.getFlatIndex(responseTime);
+            if (idx >= histSize)
+                idx = histSize - 1;
+            getHist(threadId, txType).incrementAndGet(idx);
+        }
+    }
+
+    /**
+     * Records a failed transaction.
+     * @param threadId The id of the recording thread
+     * @param txType The operation index
+     * @param steadyState Whether the transaction is in steady state
+     */
+    void recordError(int threadId, int txType, boolean steadyState) {
+        int base = base(threadId, txType);
+        counters.incrementAndGet(base + ERR_TOTAL);
+        if (steadyState)
+            counters.incrementAndGet(base + ERR_STDY);
+    }
+
+    /**
+     * Takes a snapshot of the counters. Values recorded concurrently with
+     * the snapshot may or may not be included, and the fields of a single
+     * transaction may be split between snapshots. This is fine for
+     * runtime stats.
+     * @return The runtime metrics representing the snapshot
+     */
+    RuntimeMetrics snapshot() {
+        RuntimeMetrics m = new RuntimeMetrics();
+        m.driverType = driverType;
+        m.txTypes = txTypes;
+        m.txCntStdy = new int[txTypes];
+        m.txCntTotal = new int[txTypes];
+        m.errCntStdy = new int[txTypes];
+        m.errCntTotal = new int[txTypes];
+        m.respSumStdy = new double[txTypes];
+        m.respSumTotal = new double[txTypes];
+        m.sumSquaresStdy = new double[txTypes];
+        m.sumSquaresTotal = new double[txTypes];
+        m.respHist = new LatencyHistogram[txTypes];
+
+        int stripes = stripeMask + 1;
+        for (int i = 0; i < txTypes; i++) {
+            long ref = refs.get(i);
+            double sqStdy = 0d;
+            double sqTotal = 0d;
+            for (int j = 0; j < stripes; j++) {
+                int base = (j * txTypes + i) * FIELDS;
+                m.txCntStdy[i] += (int) counters.get(base + TX_STDY);
+                m.txCntTotal[i] += (int) counters.get(base + TX_TOTAL);
+                m.errCntStdy[i] += (int) counters.get(base + ERR_STDY);
+                m.errCntTotal[i] += (int) counters.get(base + ERR_TOTAL);
+                m.respSumStdy[i] += counters.get(base + RESP_STDY);
+                m.respSumTotal[i] += counters.get(base + RESP_TOTAL);
+                sqStdy += Double.longBitsToDouble(counters.get(base + SQ_STDY));
+                sqTotal += Double.longBitsToDouble(
+                        counters.get(base + SQ_TOTAL));
+            }
+            m.sumSquaresStdy[i] = sumSquaredDeviations(sqStdy,
+                    m.txCntStdy[i], m.respSumStdy[i], ref);
+            m.sumSquaresTotal[i] = sumSquaredDeviations(sqTotal,
+                    m.txCntTotal[i], m.respSumTotal[i], ref);
+
+            LatencyHistogram h = layout.clone();
+            for (int j = 0; j < stripes; j++) {
+                AtomicIntegerArray counts = hist.get(j * txTypes + i);
+                if (counts == null)
+                    continue;
+                for (int k = 0; k < histSize; k++) {
+                    int count = counts.get(k);
+                    if (count > 0)
+                        h.addAtFlatIndex(k, count);
+                }
+            }
+            m.respHist[i] = h;
+        }
+        return m;
+    }
+
+    /**
+     * Converts a sum of squares taken from the reference value to the sum
+     * of squared deviations from the mean.
+     * @param sumSquares The sum of squares from the reference value
+     * @param count The count
+     * @param sum The sum
+     * @param ref The reference value
+     * @return The sum of squared deviations
+     */
+    private static double sumSquaredDeviations(double sumSquares, int count,
+                                               double sum, long ref) {
+        if (count == 0)
+            return 0d;
+        double shifted = sum - (double) count * ref;
+        double deviations = sumSquares - shifted * shifted / count;
+        // Rounding may get us slightly negative.
+        return deviations < 0d ? 0d : deviations;
+    }
+}
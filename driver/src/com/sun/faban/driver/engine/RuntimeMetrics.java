@@ -38,7 +38,7 @@ import java.util.logging.Logger;
 public class RuntimeMetrics implements Serializable, 
         PairwiseAggregator.Aggregable<RuntimeMetrics> {
 
-    private static final long serialVersionUID = 33009l;
+    private static final long serialVersionUID = 33010l;
 
     /** Index for current thruput label. */
     public static final int C_THRUPUT = 0;
@@ -67,10 +67,14 @@ public class RuntimeMetrics implements Serializable,
     /** Index for overall 90th% response time label. */
     public static final int O_RESP90 = 8;
 
+    /** Index for current timer wakeup lateness label. */
+    public static final int C_LATE = 9;
+
     /** The output labels for the runtime metrics. */
     public static final String[] LABELS = { "CThru", "OThru", "CErr",
                                             "CResp", "OResp", "CSD",
-                                            "OSD", "C90%Resp", "O90%Resp"};
+                                            "OSD", "C90%Resp", "O90%Resp",
+                                            "CLate"};
 
 
     int sequence = 0; // The sequence number of this runtime stats.
@@ -85,18 +89,6 @@ public class RuntimeMetrics implements Serializable,
 
     int txTypes; // The tx types for the current metrics.
 
-    /** Size of the fine response time buckets. */
-    protected long fineRespBucketSize;  // Size of the fine and coarse
-
-    /** Size of the coarse response time buckets. */
-    protected long coarseRespBucketSize; // response time buckets, in ns.
-
-    /** Max fine response time. */
-    protected long fineRespHistMax;
-
-    /** Max coarse response time. */
-    protected long coarseRespHistMax;
-
 	/**
      * Number of successful transactions during steady state.
      * This is used for final reporting and in-flight reporting of averages.
@@ -127,9 +119,6 @@ public class RuntimeMetrics implements Serializable,
     /** Sum of response times total. */
     protected double[] respSumTotal;
 
-    /** Sum of the overflow response time. */
-    protected double[] hiRespSumStdy;
-
     /** The sum squares of the deviations in steady state. */
     protected double[] sumSquaresStdy;
 
@@ -137,81 +126,19 @@ public class RuntimeMetrics implements Serializable,
     protected double[] sumSquaresTotal;
 
     /** Response time histogram. */
-    protected int[][] respHist;
-
-    /**
-     * Only classes in this package can instantiate the RuntimeMetrics.
-     */
-    RuntimeMetrics() {
-    }
+    protected LatencyHistogram[] respHist;
 
-    /**
-     * Copies the necessary members of Metrics into this RuntimeMetrics.
-     * @param m The metrics to copy
-     */
-    public void copy(Metrics m) {
-        if (txCntTotal == null) { // Needs initialization
-            driverType = m.driverType;
-            txTypes = m.txCntTotal.length;
-            fineRespBucketSize = m.fineRespBucketSize;
-            coarseRespBucketSize = m.coarseRespBucketSize;
-            fineRespHistMax = m.fineRespHistMax;
-            coarseRespHistMax = m.coarseRespHistMax;
-
-            txCntStdy = new int[txTypes];
-            txCntTotal = new int[txTypes];
-            errCntStdy = new int[txTypes];
-            errCntTotal = new int[txTypes];
-            respSumStdy = new double[txTypes];
-            respSumTotal = new double[txTypes];
-            hiRespSumStdy = new double[txTypes];
-            sumSquaresStdy = new double[txTypes];
-            sumSquaresTotal = new double [txTypes];
-            respHist = new int[txTypes][m.respHist[0].length];
-        }
+    /** Number of timer wakeups on the agents. */
+    protected long wakeupCnt;
 
-        for (int i = 0; i < txTypes; i++) {
-            // Add the sum squares before adding the count and response sum.
-            // The values of count and sum have to be unchanged at this point.
-            sumSquaresStdy[i] = m.sumSquaresStdy[i];
-            sumSquaresTotal[i] = m.sumSquaresTotal[i];
-            txCntStdy[i] = m.txCntStdy[i];
-            txCntTotal[i] = m.txCntTotal[i];
-            errCntStdy[i] = m.errCntStdy[i];
-            errCntTotal[i] = m.errCntTotal[i];
-            respSumStdy[i] = m.respSumStdy[i];
-            respSumTotal[i] = m.respSumTotal[i];
-            hiRespSumStdy[i] = m.hiRespSumStdy[i];
-            for (int j = 0; j < m.respHist[i].length; j++)
-                respHist[i][j] = m.respHist[i][j];
-        }
-    }
+    /** Sum of the timer wakeup lateness, in ns. */
+    protected long wakeupLateSum;
 
     /**
-     * Adds a metrics to this RuntimeMetrics.
-     * @param m The metrics to add
+     * Only classes in this package can instantiate the RuntimeMetrics.
+     * The agents obtain them from their RuntimeCounters.
      */
-    public void add(Metrics m) {
-
-        for (int i = 0; i < txTypes; i++) {
-            // Add the sum squares before adding the count and response sum.
-            // The values of count and sum have to be unchanged at this point.
-            sumSquaresStdy[i] = Metrics.addSumSquare(
-                    sumSquaresStdy[i], txCntStdy[i], respSumStdy[i],
-                    m.sumSquaresStdy[i], m.txCntStdy[i], m.respSumStdy[i]);
-            sumSquaresTotal[i] = Metrics.addSumSquare(
-                    sumSquaresTotal[i], txCntTotal[i], respSumTotal[i],
-                    m.sumSquaresTotal[i], m.txCntTotal[i], m.respSumTotal[i]);
-            txCntStdy[i] += m.txCntStdy[i];
-            txCntTotal[i] += m.txCntTotal[i];
-            errCntStdy[i] += m.errCntStdy[i];
-            errCntTotal[i] += m.errCntTotal[i];
-            respSumStdy[i] += m.respSumStdy[i];
-            respSumTotal[i] += m.respSumTotal[i];
-            hiRespSumStdy[i] += m.hiRespSumStdy[i];
-            for (int j = 0; j < m.respHist[i].length; j++)
-                respHist[i][j] += m.respHist[i][j];
-        }
+    RuntimeMetrics() {
     }
 
     /**
@@ -237,10 +164,10 @@ public class RuntimeMetrics implements Serializable,
             errCntTotal[i] += m.errCntTotal[i];
             respSumStdy[i] += m.respSumStdy[i];
             respSumTotal[i] += m.respSumTotal[i];
-            hiRespSumStdy[i] += m.hiRespSumStdy[i];
-            for (int j = 0; j < m.respHist[i].length; j++)
-                respHist[i][j] += m.respHist[i][j];
+            respHist[i].add(m.respHist[i]);
         }
+        wakeupCnt += m.wakeupCnt;
+        wakeupLateSum += m.wakeupLateSum;
     }
 
     @Override
@@ -273,23 +200,12 @@ public class RuntimeMetrics implements Serializable,
         for (int i = 1; i < txTypes; i++) {
             b.append('/').append(respSumTotal[i]);
         }
-        b.append("\nhiRespSumStdy:").append(hiRespSumStdy[0]);
-        for (int i = 1; i < txTypes; i++) {
-            b.append('/').append(hiRespSumStdy[i]);
-        }
-        b.append("\nrespHist:").append('[').append(respHist[0][0]);
-
-        for (int j = 1; j < respHist[0].length; j++) {
-            b.append(',').append(respHist[0][j]);            
-        }
-        b.append(']');
+        b.append("\nrespHist:").append('[').append(respHist[0]).append(']');
         for (int i = 1; i < respHist.length; i++) {
-            b.append("/[").append(respHist[i][0]);
-            for (int j = 1; j < respHist[i].length; j++) {
-                b.append(',').append(respHist[i][j]);
-            }
-            b.append(']');
+            b.append("/[").append(respHist[i]).append(']');
         }
+        b.append("\nwakeupCnt:").append(wakeupCnt);
+        b.append("\nwakeupLateSum:").append(wakeupLateSum);
         return b.toString();
     }
 
@@ -337,6 +253,15 @@ public class RuntimeMetrics implements Serializable,
 
         int timeDiff = timestamp - prev.timestamp;
 
+        // Current timer wakeup lateness (last n secs), per agent not per tx.
+        long nWakeups = wakeupCnt - prev.wakeupCnt;
+        if (nWakeups > 0l) {
+            double late = (wakeupLateSum - prev.wakeupLateSum) /
+                    (nWakeups * precision);
+            for (int i = 0; i < txTypes; i++)
+                s[C_LATE][i] = late;
+        }
+
         for (int i = 0; i < txTypes; i++) {
             int nTx = txCntTotal[i] - prev.txCntTotal[i];
             // Current Thruput (last n secs)
@@ -386,56 +311,20 @@ public class RuntimeMetrics implements Serializable,
                                precision;
 
                 // Current 90th% response time (last n secs)
-                int sumtx, cnt90, j;
                 if (txCntStdy[i] > prev.txCntStdy[i]) {
-                    sumtx = 0;
-                    cnt90 = (int) ((txCntStdy[i] - prev.txCntStdy[i]) * .90d);
-                    j = 0;
-                    for (; j < respHist[i].length; j++) {
-                        sumtx += respHist[i][j] - prev.respHist[i][j];
-                        if (sumtx >= cnt90) {	/* 90% of tx. got */
-                            break;
-                        }
-                    }
-                    // We report the base of the next bucket.
-                    ++j;
-                    s[C_RESP90][i] = getBucketValue(j) / precision;
+                    s[C_RESP90][i] = respHist[i].getValueAtPercentile(90d,
+                            prev.respHist[i]) / precision;
                 }
 
                 // Overall 90th% response time
-                sumtx = 0;
-                cnt90 = (int) (txCntStdy[i] * .90d);
-                j = 0;
-                for (; j < respHist[i].length; j++) {
-                    sumtx += respHist[i][j];
-                    if (sumtx >= cnt90) {	/* 90% of tx. got */
-                        break;
-                    }
-                }
-                // We report the base of the next bucket.
-                ++j;
-                s[O_RESP90][i] = getBucketValue(j) / precision;
+                s[O_RESP90][i] = respHist[i].getValueAtPercentile(90d) /
+                        precision;
 
                 if (logger.isLoggable(crosscheck)) {
-                    // Overall standard deviation check from histogram
-                    double sumDev2 = 0d;
-                    for (j = 0; j < respHist[i].length; j++) {
-                        int frequency = respHist[i][j] - prev.respHist[i][j];
-                        if (frequency == 0) {
-                            continue;
-                        }
-                        long bucketRep = getBucketRepValue(j);
-                        double dev;
-                        if (bucketRep == Long.MIN_VALUE) {
-                            dev = (hiRespSumStdy[i] - prev.hiRespSumStdy[i]) /
-                                    frequency;
-                        } else {
-                            dev = bucketRep;
-                        }
-                        dev = dev / precision - s[C_RESP][i];
-                        sumDev2 += dev * dev * frequency;
-                    }
-                    ckSD[i] = Math.sqrt(sumDev2 / nTx);
+                    // Current standard deviation check from histogram
+                    ckSD[i] = respHist[i].estimateStdDev(
+                            s[C_RESP][i] * precision, prev.respHist[i]) /
+                            precision;
                 }
             }
         }
@@ -454,31 +343,4 @@ public class RuntimeMetrics implements Serializable,
 
         return s;
     }
-
-    private long getBucketValue(int bucketId) {
-        long resp;
-        if (bucketId < Metrics.FINE_RESPBUCKETS) {
-            resp = bucketId * fineRespBucketSize;
-        } else if (bucketId < Metrics.RESPBUCKETS) {
-            resp = (bucketId - Metrics.FINE_RESPBUCKETS) *
-                    coarseRespBucketSize + fineRespHistMax;
-        } else {
-            resp = coarseRespHistMax + coarseRespBucketSize;
-        }
-        return resp;
-    }
-
-    private long getBucketRepValue(int bucketId) {
-        long resp;
-        if (bucketId < Metrics.FINE_RESPBUCKETS) {
-            resp = bucketId * fineRespBucketSize + (fineRespBucketSize/2);
-        } else if (bucketId < Metrics.RESPBUCKETS) {
-            resp = (bucketId - Metrics.FINE_RESPBUCKETS) *
-                    coarseRespBucketSize + fineRespHistMax +
-                    (coarseRespBucketSize/2);
-        } else {
-            resp = Long.MIN_VALUE;
-        }
-        return resp;
-    }
-}
\ No newline at end of file
+}
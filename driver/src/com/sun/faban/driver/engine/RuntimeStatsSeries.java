@@ -0,0 +1,258 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The runtime stats series writes the aggregated runtime stats of each
+ * interval as CSV rows, one row per driver and operation. The rows are
+ * appended to the runtimestats.csv file in the run output and flushed
+ * every interval so the file can be tailed while the run is in progress.
+ * If a port is configured, the same rows are also published to local
+ * TCP clients. A client receives the header line upon connecting and
+ * each new row thereafter. Clients that do not keep up are dropped
+ * so they never hold up the stats writer.
+ *
+ * @author Akara Sucharitakul
+ */
+class RuntimeStatsSeries {
+
+    /** The name of the time series file in the run output. */
+    static final String FILE_NAME = "runtimestats.csv";
+
+    private static Logger logger =
+            Logger.getLogger(RuntimeStatsSeries.class.getName());
+
+    private final byte[] header;
+    private OutputStream out;
+    private Listener listener;
+    private final ArrayList<SocketChannel> clients =
+            new ArrayList<SocketChannel>();
+    private final StringBuilder buffer = new StringBuilder(1024);
+    private final Formatter formatter = new Formatter(buffer, Locale.US);
+
+    /**
+     * Constructs the series and opens the time series file. Failing to
+     * publish on the port is logged and does not stop the file from
+     * being written.
+     * @param outputDir The run output directory
+     * @param port The local port to publish on, 0 for any free port,
+     *             or -1 to not publish
+     * @throws IOException If the file cannot be opened
+     */
+    RuntimeStatsSeries(String outputDir, int port) throws IOException {
+        StringBuilder h = new StringBuilder("time,driver,operation");
+        for (String label : RuntimeMetrics.LABELS)
+            h.append(',').append(label);
+        h.append('\n');
+        header = h.toString().getBytes("UTF-8");
+        File file = new File(outputDir, FILE_NAME);
+        boolean exists = file.exists() && file.length() > 0;
+        out = new FileOutputStream(file, true);
+        if (!exists)
+            out.write(header);
+        out.flush();
+        if (port >= 0)
+            try {
+                listener = new Listener(port);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot publish runtime stats " +
+                        "on port " + port + ". Writing " + FILE_NAME +
+                        " only.", e);
+            }
+    }
+
+    /**
+     * Obtains the port the series is published on.
+     * @return The port, or -1 if not published
+     */
+    int getPort() {
+        return listener == null ? -1 :
+                listener.server.socket().getLocalPort();
+    }
+
+    /**
+     * Writes the stats of one interval for one driver.
+     * @param time The time of the interval in seconds from the start
+     * @param driverName The driver name
+     * @param operations The operation names
+     * @param stats The stats, indexed by label and operation
+     */
+    void write(double time, String driverName, String[] operations,
+               double[][] stats) {
+        buffer.setLength(0);
+        for (int j = 0; j < operations.length; j++) {
+            formatter.format("%.03f", time);
+            buffer.append(',').append(driverName);
+            buffer.append(',').append(operations[j]);
+            for (int i = 0; i < stats.length; i++) {
+                buffer.append(',');
+                if (!Double.isNaN(stats[i][j]))
+                    formatter.format("%.03f", stats[i][j]);
+            }
+            buffer.append('\n');
+        }
+        byte[] row;
+        try {
+            row = buffer.toString().getBytes("UTF-8");
+        } catch (IOException e) { // Never happens, UTF-8 is always there.
+            throw new RuntimeException(e);
+        }
+        if (out != null)
+            try {
+                out.write(row);
+                out.flush();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error writing " + FILE_NAME +
+                        ". Stop writing runtime stats series.", e);
+                closeFile();
+            }
+        publish(row);
+    }
+
+    private void publish(byte[] row) {
+        synchronized (clients) {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                SocketChannel client = clients.get(i);
+                if (!send(client, ByteBuffer.wrap(row))) {
+                    clients.remove(i);
+                    close(client);
+                }
+            }
+        }
+    }
+
+    private boolean send(SocketChannel client, ByteBuffer data) {
+        try {
+            // Non-blocking. A full socket buffer means the client
+            // does not keep up.
+            client.write(data);
+            return !data.hasRemaining();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing " + FILE_NAME, e);
+            }
+            out = null;
+        }
+    }
+
+    private static void close(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.log(Level.FINER, "Error closing runtime stats client", e);
+        }
+    }
+
+    /**
+     * Closes the file and all clients.
+     */
+    void close() {
+        closeFile();
+        if (listener != null)
+            listener.quit();
+        synchronized (clients) {
+            for (SocketChannel client : clients)
+                close(client);
+            clients.clear();
+        }
+    }
+
+    /**
+     * The listener accepts the clients of the runtime stats.
+     */
+    private class Listener extends Thread {
+
+        ServerSocketChannel server;
+
+        Listener(int port) throws IOException {
+            server = ServerSocketChannel.open();
+            try {
+                server.socket().setReuseAddress(true);
+                server.socket().bind(new InetSocketAddress(
+                        InetAddress.getByName(null), port));
+            } catch (IOException e) {
+                server.close();
+                throw e;
+            }
+            setName("RuntimeStatsListener");
+            setDaemon(true);
+            start();
+            logger.info("Runtime stats published on port " +
+                    server.socket().getLocalPort() + '.');
+        }
+
+        @Override
+        public void run() {
+            while (server.isOpen()) {
+                try {
+                    SocketChannel client = server.accept();
+                    client.configureBlocking(false);
+                    client.socket().setTcpNoDelay(true);
+                    synchronized (clients) {
+                        if (send(client, ByteBuffer.wrap(header)))
+                            clients.add(client);
+                        else
+                            RuntimeStatsSeries.close(client);
+                    }
+                } catch (IOException e) {
+                    if (server.isOpen())
+                        logger.log(Level.WARNING, "Error accepting " +
+                                "runtime stats client.", e);
+                }
+            }
+        }
+
+        void quit() {
+            try {
+                server.close();
+            } catch (IOException e) {
+                logger.log(Level.FINER, "Error closing runtime stats " +
+                        "listener.", e);
+            }
+        }
+    }
+}
@@ -25,7 +25,6 @@ package com.sun.faban.driver.engine;
 
 import com.sun.faban.driver.FatalException;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.logging.Level;
 
 
@@ -162,11 +161,16 @@ public class TimeThread extends AgentThread {
             driverContext.setInvokeTime(invokeTime);
 
             // Invoke the operation
+            if (id == 0)
+                logger.finest("Invoking " + op.name + " at " +
+                        System.nanoTime());
+            Throwable cause = null;
             try {
-                if (id == 0)
-                    logger.finest("Invoking " + op.name + " at " +
-                            System.nanoTime());
-                op.m.invoke(driver);
+                op.invoker.invoke(driver);
+            } catch (Throwable e) {
+                cause = e;
+            }
+            if (cause == null) {
                 if (id == 0)
                     logger.finest("Returned from " + op.name + " (OK) at " +
                             System.nanoTime());
@@ -179,13 +183,10 @@ public class TimeThread extends AgentThread {
                 checkRamp();
                 metrics.recordTx();
                 metrics.recordDelayTime();
-            } catch (InvocationTargetException e) {
+            } else {
                 if (id == 0)
                     logger.finest("Returned from " + op.name + " (Err) at " +
                             System.nanoTime());
-                // An invocation target exception is caused by another
-                // exception thrown by the operation directly.
-                Throwable cause = e.getCause();
                 checkFatal(cause, op);
 
                 // We have to fix up the invoke/respond times to have valid
@@ -236,11 +237,6 @@ public class TimeThread extends AgentThread {
                     logError(cause, op);
                     metrics.recordDelayTime();
                 }
-            } catch (IllegalAccessException e) {
-                logger.log(Level.SEVERE, name + "." + op.m.getName() +
-                        ": " + e.getMessage(), e);
-                agent.abortRun();
-                return;
             }
 
             startTime[mixId] = driverContext.timingInfo.invokeTime;
@@ -23,7 +23,6 @@
  */
 package com.sun.faban.driver.engine;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.logging.Level;
 
 
@@ -193,16 +192,18 @@ public class TimeThreadWithBackground extends TimeThread {
             driverContext.setInvokeTime(invokeTime[mixId]);
 
             // Invoke the operation
+            Throwable cause = null;
             try {
-                op[mixId].m.invoke(driver);
+                op[mixId].invoker.invoke(driver);
+            } catch (Throwable e) {
+                cause = e;
+            }
+            if (cause == null) {
                 validateTimeCompletion(op[mixId]);
                 checkRamp();
                 metrics.recordTx();
                 metrics.recordDelayTime();
-            } catch (InvocationTargetException e) {
-                // An invocation target exception is caused by another
-                // exception thrown by the operation directly.
-                Throwable cause = e.getCause();
+            } else {
                 checkFatal(cause, op[mixId]);
 
                 // We have to fix up the invoke/respond times to have valid
@@ -252,11 +253,6 @@ public class TimeThreadWithBackground extends TimeThread {
                     logError(cause, op[mixId]);
                     metrics.recordDelayTime();
                 }
-            } catch (IllegalAccessException e) {
-                logger.log(Level.SEVERE, name + "." +
-                        op[mixId].m.getName() + ": " + e.getMessage(), e);
-                agent.abortRun();
-                return;
             }
 
             startTime[mixId] = driverContext.timingInfo.invokeTime;
@@ -58,10 +58,20 @@ public class VariableLoadHandlerThread extends Thread {
 			while(agent.runInfo.variableLoadHandler.hasNext()) {
 				VariableLoadHandler.VariableLoad load =
                         agent.runInfo.variableLoadHandler.next();
-				agent.runningThreads = load.threadCount;
+                if (agent.arrivals != null) {
+                    // Open-loop, the load level is the driver arrival rate.
+                    agent.arrivals.setRate(
+                            agent.getArrivalRate(load.threadCount));
+                    logger.log(Level.INFO, "Arrival rate: " +
+                            load.threadCount + " ops/sec next " +
+                            load.runTime + " seconds.");
+                } else {
+                    agent.runningThreads = load.threadCount;
+                    logger.log(Level.INFO, "Active threads: " +
+                            load.threadCount + " next " + load.runTime +
+                            " seconds.");
+                }
                 agent.loadSwitchTime += load.runTime * 1000000000l;
-                logger.log(Level.INFO, "Active threads: " + load.threadCount +
-                                       " next " + load.runTime + " seconds.");
                 agent.timer.wakeupAt(agent.loadSwitchTime);
 			}
 		} catch(InterruptedException e) {
@@ -24,6 +24,7 @@
 package com.sun.faban.driver.transport.hc3;
 
 import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.ResponseConsumer;
 
 import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
@@ -345,6 +346,73 @@ public class ApacheHC3Transport extends HttpTransport {
         return readURL(url.toString(), postRequest, headers);
     }
 
+    /**
+     * Reads data from the URL and passes it to the consumer as it arrives,
+     * keeping just the size of the total read. The response is neither
+     * buffered nor decoded to characters.
+     * @param url The URL to read from
+     * @param headers The request headers, or null
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws java.io.IOException
+     */
+    @Override
+    public int readURL(URL url, Map<String, String> headers,
+                       ResponseConsumer consumer) throws IOException {
+        GetMethod method = new GetMethod(url.toString());
+        method.setFollowRedirects(followRedirects);
+        setHeaders(method, headers);
+        try {
+            responseCode = hc.executeMethod(method);
+            buildResponseHeaders(method);
+            return readResponse(method, consumer);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Reads data from the URL and passes it to the consumer as it arrives,
+     * keeping just the size of the total read.
+     * @param url The URL to read from
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws java.io.IOException
+     */
+    @Override
+    public int readURL(String url, ResponseConsumer consumer)
+            throws IOException {
+        return readURL(new URL(url), null, consumer);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and passes it to the
+     * consumer as it arrives, keeping just the size of the total read.
+     * Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers, or null
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws java.io.IOException
+     */
+    @Override
+    public int readURL(URL url, String postRequest,
+                       Map<String, String> headers, ResponseConsumer consumer)
+            throws IOException {
+        PostMethod method = new PostMethod(url.toString());
+        method.setFollowRedirects(followRedirects);
+        setHeaders(method, headers);
+        setParameters(method, postRequest);
+        try {
+            responseCode = hc.executeMethod(method);
+            buildResponseHeaders(method);
+            return readResponse(method, consumer);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
     /**
      * Makes a POST request to the URL without encoding the data (the
      * header type is application/octet-stream).
@@ -806,24 +874,32 @@ public class ApacheHC3Transport extends HttpTransport {
         return fetchURL(url.toString(), parts, headers);
     }
 
-    /*
-     * Method not implemented. Makes a GET request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+    /**
+     * Makes a GET request. Fetches the main page and all other image or
+     * resource pages based on the given URLs. The resources are fetched
+     * one after the other.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
      * @return The buffer of the main page
      * @throws IOException If an I/O error occurred
-     *
+     */
 	public StringBuilder fetchPage(URL page, URL[] images) throws IOException {
-        // TODO: implement method
-        return null;
+        StringBuilder buffer = fetchURL(page);
+        for (URL image : images)
+            readURL(image);
+        return buffer;
     }
-    */
 
-    /*
-     * Fetch page and images in the same call. Currently not used.
+    /**
+     * Makes a GET request. Fetches the main page and all other image or
+     * resource pages based on the given URLs.
      *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
     public StringBuilder fetchPage(String page, String[] images)
             throws IOException {
         URL[] imgURLs = new URL[images.length];
@@ -831,11 +907,11 @@ public class ApacheHC3Transport extends HttpTransport {
             imgURLs[i] = new URL(images[i]);
         return fetchPage(new URL(page), imgURLs);
     }
-    */
 
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+     * Makes a POST request. Fetches the main page and all other image or
+     * resource pages based on the given URLs. The resources are fetched
+     * one after the other.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
@@ -845,8 +921,10 @@ public class ApacheHC3Transport extends HttpTransport {
      */
 	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
             throws IOException {
-        // TODO: implement method
-        return null;
+        StringBuilder buffer = fetchURL(page, postRequest);
+        for (URL image : images)
+            readURL(image);
+        return buffer;
     }
 
     /**
@@ -939,6 +1017,21 @@ public class ApacheHC3Transport extends HttpTransport {
      */
 
     private int readResponse(HttpMethod method) throws IOException {
+        return readResponse(method, null);
+    }
+
+    /**
+     * Reads the http response from a connection, passes the data to the
+     * consumer if any, and counts the size of the resulting document.
+     * @param method The HttpMethod to read from
+     * @param consumer The consumer of the data, or null to discard
+     * @return The number of bytes read
+     * @throws java.io.IOException
+     */
+    private int readResponse(HttpMethod method, ResponseConsumer consumer)
+            throws IOException {
+        if (consumer != null)
+            consumer.reset();
         int totalLength = 0;
         InputStream in;
 
@@ -946,6 +1039,8 @@ public class ApacheHC3Transport extends HttpTransport {
         if (in != null) {
            int length = in.read(byteReadBuffer);
             while (length != -1) {
+                if (consumer != null)
+                    consumer.consume(byteReadBuffer, 0, length);
                 totalLength += length;
                 length = in.read(byteReadBuffer);
             }
@@ -0,0 +1,282 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.HttpTransport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking connection to one host. A connection runs one exchange
+ * at a time. All the I/O happens on the reactor thread. Between exchanges
+ * the connection stays registered for reads so a close from the server
+ * gets noticed without any thread watching the connection.
+ *
+ * @author Akara Sucharitakul
+ */
+class Connection implements Comparable<Connection> {
+
+    private static Logger logger =
+            Logger.getLogger(Connection.class.getName());
+
+    /** The max bytes written at a time when throttling uploads. */
+    private static final int THROTTLE_SLICE = 1024;
+
+    final String host;
+    final int port;
+    final Reactor reactor;
+    private final SocketChannel channel;
+    private SelectionKey key;
+    private final ByteBuffer readBuffer =
+            ByteBuffer.allocate(HttpTransport.BUFFER_SIZE);
+
+    /** The current exchange, reactor thread only. */
+    Exchange exchange;
+
+    /** The time of the last I/O progress, for timeouts. */
+    long lastProgress;
+
+    /** The time a throttled connection resumes I/O. */
+    long resumeAt;
+
+    /** The earliest time the next throttled read or write may complete. */
+    private long throttleBase;
+
+    /** The interest to resume with after throttling. */
+    private int resumeOps;
+
+    /** The time the connection became idle, driver thread only. */
+    long idleSince;
+
+    /** Set once the connection is closed. */
+    volatile boolean closed = false;
+
+    /**
+     * Opens a connection and initiates connecting to the host.
+     * @param host The host
+     * @param port The port
+     * @throws IOException If the connection cannot be opened
+     */
+    Connection(String host, int port) throws IOException {
+        this.host = host;
+        this.port = port;
+        reactor = Reactor.getInstance();
+        channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(new InetSocketAddress(host, port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether the connection is established.
+     * @return True if connected, false otherwise
+     */
+    boolean isConnected() {
+        return channel.isConnected();
+    }
+
+    /**
+     * Starts an exchange on this connection. Called on the reactor thread.
+     * @param exchange The exchange
+     */
+    void start(Exchange exchange) {
+        this.exchange = exchange;
+        lastProgress = System.nanoTime();
+        throttleBase = lastProgress;
+        try {
+            if (closed)
+                throw new EOFException("Connection closed by server");
+            int ops = channel.isConnected() ? SelectionKey.OP_WRITE :
+                                              SelectionKey.OP_CONNECT;
+            if (key == null)
+                key = channel.register(reactor.selector(), ops, this);
+            else
+                key.interestOps(ops);
+            if (ops == SelectionKey.OP_WRITE)
+                write(); // Save a select round trip.
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Completes connecting and starts writing the request.
+     * @throws IOException If the connection cannot be established
+     */
+    void finishConnect() throws IOException {
+        if (channel.finishConnect()) {
+            lastProgress = System.nanoTime();
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Writes as much of the request as the channel takes.
+     * @throws IOException If the request cannot be written
+     */
+    void write() throws IOException {
+        ByteBuffer request = exchange.request;
+        long nanoPerByte = exchange.upNanoPerByte;
+        int limit = request.limit();
+        if (nanoPerByte > 0 && request.remaining() > THROTTLE_SLICE)
+            request.limit(request.position() + THROTTLE_SLICE);
+        int count = channel.write(request);
+        request.limit(limit);
+        if (count > 0)
+            lastProgress = System.nanoTime();
+        int next = request.hasRemaining() ? SelectionKey.OP_WRITE :
+                                            SelectionKey.OP_READ;
+        if (nanoPerByte > 0 && count > 0)
+            throttle(count, nanoPerByte, next);
+        else
+            key.interestOps(next);
+    }
+
+    /**
+     * Reads the available response data and hands it to the exchange.
+     * @throws IOException If the response cannot be read
+     */
+    void read() throws IOException {
+        Exchange ex = exchange;
+        readBuffer.clear();
+        int count = channel.read(readBuffer);
+        if (ex == null) { // Idle connection, closed by server or garbage.
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("Closing idle connection to " + host + ':' +
+                        port + ", read " + count);
+            close();
+            return;
+        }
+        if (count == -1) {
+            if (ex.endOfStream())
+                complete();
+            else
+                throw new EOFException("Connection closed by server after " +
+                        ex.received + " bytes");
+            return;
+        }
+        if (count == 0)
+            return;
+        lastProgress = System.nanoTime();
+        if (ex.ctx != null)
+            ex.ctx.recordEndTime();
+        readBuffer.flip();
+        if (ex.consume(readBuffer)) {
+            complete();
+        } else if (ex.downNanoPerByte > 0) {
+            throttle(count, ex.downNanoPerByte, SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Suspends I/O so the transfer of count bytes takes as long as the
+     * bandwidth allows, then resumes with the given interest.
+     */
+    private void throttle(int count, long nanoPerByte, int ops) {
+        long now = System.nanoTime();
+        if (throttleBase < now)
+            throttleBase = now;
+        throttleBase += count * nanoPerByte;
+        if (throttleBase <= now) {
+            key.interestOps(ops);
+            return;
+        }
+        key.interestOps(0);
+        resumeAt = throttleBase;
+        resumeOps = ops;
+        reactor.schedule(this);
+    }
+
+    /**
+     * Resumes I/O after throttling. Called on the reactor thread.
+     */
+    void resume() {
+        if (exchange == null || closed)
+            return;
+        lastProgress = System.nanoTime();
+        try {
+            key.interestOps(resumeOps);
+        } catch (RuntimeException e) { // Cancelled key.
+            fail(new IOException("Connection closed"));
+        }
+    }
+
+    private void complete() {
+        Exchange ex = exchange;
+        exchange = null;
+        if (!ex.keepAlive)
+            close();
+        else
+            key.interestOps(SelectionKey.OP_READ); // Watch for close.
+        ex.complete(null);
+    }
+
+    /**
+     * Fails the current exchange, if any, and closes the connection.
+     * @param e The cause
+     */
+    void fail(IOException e) {
+        close();
+        Exchange ex = exchange;
+        exchange = null;
+        if (ex != null)
+            ex.complete(e);
+        else
+            logger.log(Level.FINER, "Idle connection failed", e);
+    }
+
+    /**
+     * Closes the connection.
+     */
+    void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Error closing connection", e);
+        }
+    }
+
+    /**
+     * Orders throttled connections by their resume time.
+     * @param other The other connection
+     * @return The order
+     */
+    public int compareTo(Connection other) {
+        return resumeAt < other.resumeAt ? -1 :
+               (resumeAt == other.resumeAt ? 0 : 1);
+    }
+}
@@ -0,0 +1,318 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.ResponseConsumer;
+import com.sun.faban.driver.engine.DriverContext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An exchange is one HTTP request and its response. The driver thread
+ * sets up the exchange, submits it to the reactor of the connection, and
+ * waits for its completion. The reactor thread writes the request and
+ * parses the response as the data arrives. Response bodies are either
+ * kept, up to a limit, or just counted.
+ *
+ * @author Akara Sucharitakul
+ */
+class Exchange {
+
+    private static final int STATUS = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+    private static final int BODY_TO_EOF = 3;
+    private static final int CHUNK_SIZE = 4;
+    private static final int CHUNK_END = 5;
+    private static final int TRAILERS = 6;
+    private static final int DONE = 7;
+
+    /** The connection this exchange runs on. */
+    Connection connection;
+
+    /** The driver context to attribute the timing to, or null. */
+    DriverContext ctx;
+
+    /** The request, ready to be written. */
+    ByteBuffer request;
+
+    /** Whether this is a HEAD request, which has no response body. */
+    boolean head;
+
+    /** Upload and download throttle, in ns per byte, 0 if unthrottled. */
+    long upNanoPerByte;
+    long downNanoPerByte;
+
+    /** The max body bytes to keep. */
+    int bodyLimit;
+
+    /** The consumer of the body, or null. */
+    ResponseConsumer consumer;
+
+    /** The kept body. */
+    byte[] body = new byte[8192];
+
+    /** The number of body bytes kept. */
+    int bodyLength;
+
+    /** The total body size, including the bytes not kept. */
+    int contentSize;
+
+    /** The total response bytes received. */
+    long received;
+
+    int status;
+    String statusLine;
+    Map<String, List<String>> headers;
+    boolean keepAlive;
+
+    private int state;
+    private long remaining;
+    private boolean chunked;
+    private StringBuilder line = new StringBuilder(256);
+
+    private boolean done;
+    private IOException failure;
+
+    /**
+     * Prepares this exchange for a new request.
+     * @param connection The connection to run on
+     * @param request The request bytes
+     * @param head Whether this is a HEAD request
+     * @param bodyLimit The max body bytes to keep
+     */
+    void reset(Connection connection, ByteBuffer request, boolean head,
+               int bodyLimit) {
+        this.connection = connection;
+        this.request = request;
+        this.head = head;
+        this.bodyLimit = bodyLimit;
+        bodyLength = 0;
+        contentSize = 0;
+        received = 0;
+        status = -1;
+        statusLine = null;
+        headers = new LinkedHashMap<String, List<String>>();
+        keepAlive = true;
+        state = STATUS;
+        line.setLength(0);
+        done = false;
+        failure = null;
+        if (consumer != null)
+            consumer.reset();
+    }
+
+    /**
+     * Consumes response data. Called on the reactor thread.
+     * @param buffer The data
+     * @return True if the response is complete, false otherwise
+     * @throws IOException If the response is invalid
+     */
+    boolean consume(ByteBuffer buffer) throws IOException {
+        received += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            switch (state) {
+                case BODY:
+                    int n = (int) Math.min(remaining, buffer.remaining());
+                    keep(buffer, n);
+                    remaining -= n;
+                    if (remaining == 0)
+                        state = chunked ? CHUNK_END : DONE;
+                    break;
+                case BODY_TO_EOF:
+                    keep(buffer, buffer.remaining());
+                    break;
+                case DONE:
+                    // Data beyond the response. Do not reuse.
+                    keepAlive = false;
+                    buffer.position(buffer.limit());
+                    break;
+                default:
+                    byte b = buffer.get();
+                    if (b == '\n')
+                        processLine();
+                    else if (b != '\r')
+                        line.append((char) (b & 0xff));
+            }
+        }
+        return state == DONE;
+    }
+
+    /**
+     * Notifies the exchange that the server closed the connection.
+     * @return True if this completes the response, false if the response
+     *         is truncated
+     */
+    boolean endOfStream() {
+        keepAlive = false;
+        if (state == BODY_TO_EOF) {
+            state = DONE;
+            return true;
+        }
+        return state == DONE;
+    }
+
+    private void keep(ByteBuffer buffer, int n) {
+        contentSize += n;
+        if (consumer != null)
+            consumer.consume(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), n);
+        int keep = Math.min(n, bodyLimit - bodyLength);
+        if (keep > 0) {
+            if (bodyLength + keep > body.length) {
+                byte[] newBody = new byte[Math.max(body.length * 2,
+                                                   bodyLength + keep)];
+                System.arraycopy(body, 0, newBody, 0, bodyLength);
+                body = newBody;
+            }
+            buffer.get(body, bodyLength, keep);
+            bodyLength += keep;
+            n -= keep;
+        }
+        buffer.position(buffer.position() + n);
+    }
+
+    private void processLine() throws IOException {
+        String s = line.toString();
+        line.setLength(0);
+        switch (state) {
+            case STATUS:
+                if (s.length() == 0) // Stray CRLF before the status line.
+                    return;
+                int idx = s.indexOf(' ');
+                try {
+                    status = Integer.parseInt(s.substring(idx + 1, idx + 4));
+                } catch (RuntimeException e) {
+                    throw new IOException("Invalid status line: " + s);
+                }
+                statusLine = s;
+                headers.clear();
+                ArrayList<String> value = new ArrayList<String>(1);
+                value.add(s);
+                headers.put(null, value);
+                keepAlive = !s.startsWith("HTTP/1.0");
+                chunked = false;
+                remaining = -1;
+                state = HEADERS;
+                break;
+            case HEADERS:
+                if (s.length() > 0) {
+                    addHeader(s);
+                } else if (status >= 100 && status < 200) {
+                    state = STATUS;
+                } else if (head || status == 204 || status == 304) {
+                    state = DONE;
+                } else if (chunked) {
+                    state = CHUNK_SIZE;
+                } else if (remaining >= 0) {
+                    state = remaining == 0 ? DONE : BODY;
+                } else {
+                    keepAlive = false;
+                    state = BODY_TO_EOF;
+                }
+                break;
+            case CHUNK_SIZE:
+                int semi = s.indexOf(';');
+                if (semi >= 0)
+                    s = s.substring(0, semi);
+                try {
+                    remaining = Long.parseLong(s.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size: " + s);
+                }
+                state = remaining == 0 ? TRAILERS : BODY;
+                break;
+            case CHUNK_END:
+                state = CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if (s.length() == 0)
+                    state = DONE;
+                break;
+        }
+    }
+
+    private void addHeader(String s) throws IOException {
+        int idx = s.indexOf(':');
+        if (idx < 0)
+            return;
+        String name = s.substring(0, idx).trim();
+        String value = s.substring(idx + 1).trim();
+        List<String> values = headers.get(name);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            headers.put(name, values);
+        }
+        values.add(value);
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            try {
+                remaining = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length: " + value);
+            }
+        } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+            chunked = value.toLowerCase().contains("chunked");
+        } else if ("Connection".equalsIgnoreCase(name)) {
+            if ("close".equalsIgnoreCase(value))
+                keepAlive = false;
+            else if ("keep-alive".equalsIgnoreCase(value))
+                keepAlive = true;
+        }
+    }
+
+    /**
+     * Completes the exchange and wakes up the driver thread.
+     * @param e The failure, or null if successful
+     */
+    synchronized void complete(IOException e) {
+        failure = e;
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the exchange to complete.
+     * @throws IOException If the exchange failed
+     */
+    synchronized void await() throws IOException {
+        while (!done)
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                InterruptedIOException ie = new InterruptedIOException(
+                        "Interrupted waiting for response");
+                ie.initCause(e);
+                connection.close();
+                throw ie;
+            }
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,1232 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.ResponseConsumer;
+import com.sun.faban.driver.engine.DriverContext;
+import org.apache.commons.httpclient.Cookie;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The NioHttpTransport is an event-driven HTTP transport provider. It
+ * implements the same API as the SunHttpTransport but runs all network
+ * I/O on a small number of reactor threads using NIO selectors. Idle
+ * keep-alive connections are held by the reactors and do not tie up any
+ * thread, and connection handling does not allocate socket streams per
+ * request. Select this provider by calling
+ * HttpTransport.setProvider("com.sun.faban.driver.transport.nio.NioHttpTransport")
+ * before creating the transports.<p>
+ *
+ * The driver thread calling the transport still waits for each response
+ * so the operation semantics stay the same. The start time is recorded
+ * on the driver thread before the request is sent, and the end time is
+ * recorded by the reactor for each read, both on the driver context of
+ * the calling thread. Bandwidth limits are applied by suspending reads
+ * and writes on the connection instead of sleeping.<p>
+ *
+ * This transport supports http URLs only. Use the SunHttpTransport for
+ * https.
+ *
+ * @author Akara Sucharitakul
+ */
+public class NioHttpTransport extends HttpTransport {
+
+    /** The max idle time for a keep-alive connection to be reused, in ms. */
+    private static final long KEEPALIVE_TIMEOUT =
+            Long.getLong("faban.http.keepalive.timeout", 5000l);
+
+    private static final String USER_AGENT = "Java/" +
+            System.getProperty("java.version");
+
+    /** The max data kept by downloadURL. */
+    private static final int DOWNLOAD_LIMIT = 1048576;
+
+    private static final int MAX_REDIRECTS = 20;
+
+    /** The main appendable buffer for the total results. */
+    private StringBuilder charBuffer;
+
+    /** The response code of the last response. */
+    private int responseCode;
+
+    /** The response headers of the last response. */
+    private Map<String, List<String>> responseHeader;
+
+    /** The content size of the last read page. */
+    private int contentSize;
+
+    /** The char used for the reads in fetch* methods. */
+    private char[] charReadBuffer = new char[BUFFER_SIZE];
+
+    /** A cache for already-compiled regex patterns. */
+    private HashMap<String, Pattern> patternCache;
+
+    private boolean followRedirects = false;
+
+    private HashSet<String> texttypes;
+
+    /** The idle keep-alive connections, one per host and port. */
+    private HashMap<String, Connection> connections =
+            new HashMap<String, Connection>();
+
+    /** The exchange used for all requests of this transport. */
+    private Exchange exchange = new Exchange();
+
+    /** The buffer to build requests. */
+    private StringBuilder requestBuilder = new StringBuilder(1024);
+
+    private byte[] requestBytes = new byte[1024];
+
+    private CookieJar cookies = new CookieJar();
+
+    /**
+     * Constructs a new NioHttpTransport object.
+     */
+    public NioHttpTransport() {
+    	texttypes = new HashSet<String>();
+        texttypes.add("application/json");
+    }
+
+    /**
+     * Sets the http connections managed by this transport to follow or
+     * not follow HTTP redirects.
+     * @param follow True if HTTP redirects should be automatically followed,
+     *        false otherwise
+     */
+    public void setFollowRedirects(boolean follow) {
+        followRedirects = follow;
+    }
+
+    /**
+     * Add a MIME type to the list of text types. If the response is of this
+     * type the fetchULR() methods will return the response data.
+     *
+     * @param texttype The content type of a HTTP response that contains text.
+     */
+    public void addTextType(String texttype) {
+    	texttypes.add(texttype);
+    }
+
+    /**
+     * Checks whether the connections managed by this transport follows
+     * redirects or not.
+     * @return True if redirects are followed, false otherwise
+     */
+    public boolean isFollowRedirects() {
+        return followRedirects;
+    }
+
+    /**
+     * Obtains the reference of the current response buffer.
+     * @return The response buffer
+     */
+    public StringBuilder getResponseBuffer() {
+        return charBuffer;
+    }
+
+    /**
+     * Runs a request and waits for the response. Redirects are followed
+     * if so configured. A failure on a reused keep-alive connection before
+     * any response data arrives is retried once on a new connection, as
+     * the server may have closed the idle connection.
+     * @param method The request method
+     * @param url The URL
+     * @param headers The request headers, or null
+     * @param content The request content, or null
+     * @param bodyLimit The max response body bytes to keep
+     * @return The completed exchange
+     * @throws IOException If the request fails
+     */
+    private Exchange execute(String method, URL url,
+                             Map<String, String> headers, byte[] content,
+                             int bodyLimit) throws IOException {
+        return execute(method, url, headers, content, bodyLimit, null);
+    }
+
+    /**
+     * Runs a request and waits for the response, passing the response
+     * body to the consumer on the reactor thread as it arrives.
+     * @param method The request method
+     * @param url The URL
+     * @param headers The request headers, or null
+     * @param content The request content, or null
+     * @param bodyLimit The max response body bytes to keep
+     * @param consumer The consumer of the response body, or null
+     * @return The completed exchange
+     * @throws IOException If the request fails
+     */
+    private Exchange execute(String method, URL url,
+                             Map<String, String> headers, byte[] content,
+                             int bodyLimit, ResponseConsumer consumer)
+            throws IOException {
+        exchange.consumer = consumer;
+        for (int redirects = 0;; redirects++) {
+            if (!"http".equals(url.getProtocol()))
+                throw new IOException("The NIO transport does not support " +
+                        url.getProtocol() + ": " + url);
+            String host = url.getHost();
+            int port = url.getPort() == -1 ? url.getDefaultPort() :
+                                             url.getPort();
+            String key = host + ':' + port;
+            ByteBuffer request = buildRequest(method, url, headers, content);
+
+            DriverContext ctx = DriverContext.getContext();
+            exchange.ctx = ctx;
+            exchange.upNanoPerByte = 0l;
+            exchange.downNanoPerByte = 0l;
+            if (ctx != null) {
+                exchange.upNanoPerByte = nanoPerByte(ctx.getUploadSpeed());
+                exchange.downNanoPerByte =
+                        nanoPerByte(ctx.getDownloadSpeed());
+                ctx.recordStartTime();
+            }
+
+            Connection c;
+            for (;;) {
+                c = connections.remove(key);
+                boolean reused = false;
+                if (c != null) {
+                    if (c.closed || System.currentTimeMillis() - c.idleSince >
+                            KEEPALIVE_TIMEOUT)
+                        c.close();
+                    else
+                        reused = true;
+                }
+                if (!reused)
+                    c = new Connection(host, port);
+                request.rewind();
+                exchange.reset(c, request, "HEAD".equals(method), bodyLimit);
+                c.reactor.submit(exchange);
+                try {
+                    exchange.await();
+                    break;
+                } catch (IOException e) {
+                    c.close();
+                    if (!reused || exchange.received > 0 ||
+                            e instanceof InterruptedIOException)
+                        throw e;
+                }
+            }
+            if (exchange.keepAlive && !c.closed) {
+                c.idleSince = System.currentTimeMillis();
+                Connection old = connections.put(key, c);
+                if (old != null)
+                    old.close();
+            } else {
+                c.close();
+            }
+
+            responseCode = exchange.status;
+            responseHeader = exchange.headers;
+            List<String> setCookies = getHeader("Set-Cookie");
+            if (setCookies != null)
+                for (String setCookie : setCookies)
+                    cookies.add(url, setCookie);
+
+            List<String> location = getHeader("Location");
+            if (!followRedirects || location == null ||
+                    redirects >= MAX_REDIRECTS || (responseCode != 301 &&
+                    responseCode != 302 && responseCode != 303 &&
+                    responseCode != 307))
+                return exchange;
+            url = new URL(url, location.get(0));
+            if (responseCode != 307 && "POST".equals(method)) {
+                method = "GET";
+                content = null;
+            }
+        }
+    }
+
+    private static long nanoPerByte(int kbps) {
+        if (kbps <= 0)
+            return 0l;
+        return Math.max(1l, Math.round(1e9d / (kbps * 1024d)));
+    }
+
+    private ByteBuffer buildRequest(String method, URL url,
+                                    Map<String, String> headers,
+                                    byte[] content) {
+        StringBuilder b = requestBuilder;
+        b.setLength(0);
+        String file = url.getFile();
+        b.append(method).append(' ').append(file.length() == 0 ? "/" : file).
+                append(" HTTP/1.1\r\nHost: ").append(url.getHost());
+        if (url.getPort() != -1)
+            b.append(':').append(url.getPort());
+        b.append("\r\nUser-Agent: ").append(USER_AGENT).
+                append("\r\nAccept: */*\r\n");
+        boolean hasLanguage = false;
+        if (headers != null)
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                String name = entry.getKey();
+                if ("Accept-Language".equalsIgnoreCase(name))
+                    hasLanguage = true;
+                else if ("Content-Length".equalsIgnoreCase(name))
+                    continue;
+                b.append(name).append(": ").append(entry.getValue()).
+                        append("\r\n");
+            }
+        if (!hasLanguage)
+            b.append("Accept-Language: en-us,en;q=0.5\r\n");
+        cookies.appendHeader(url, b);
+        if (content != null)
+            b.append("Content-Length: ").append(content.length).
+                    append("\r\n");
+        b.append("\r\n");
+
+        int length = b.length();
+        int total = length + (content == null ? 0 : content.length);
+        if (requestBytes.length < total)
+            requestBytes = new byte[Math.max(total, requestBytes.length * 2)];
+        for (int i = 0; i < length; i++)
+            requestBytes[i] = (byte) b.charAt(i);
+        if (content != null)
+            System.arraycopy(content, 0, requestBytes, length,
+                             content.length);
+        return ByteBuffer.wrap(requestBytes, 0, total);
+    }
+
+    /**
+     * Obtains a header from the last response, ignoring the case of the
+     * header name.
+     * @param name The header name
+     * @return The header values, or null if there is no such header
+     */
+    private List<String> getHeader(String name) {
+        if (responseHeader == null)
+            return null;
+        List<String> values = responseHeader.get(name);
+        if (values != null)
+            return values;
+        for (Map.Entry<String, List<String>> entry :
+                responseHeader.entrySet())
+            if (name.equalsIgnoreCase(entry.getKey()))
+                return entry.getValue();
+        return null;
+    }
+
+    private static Map<String, String> postHeaders(Map<String, String> headers,
+                                                   String type) {
+        if (headers == null) {
+            headers = new HashMap<String, String>();
+        } else {
+            for (String name : headers.keySet())
+                if ("Content-Type".equalsIgnoreCase(name))
+                    return headers;
+        }
+        headers.put("Content-Type", type);
+        return headers;
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url,
+                       Map<String, String> headers) throws IOException {
+        contentSize = execute("GET", url, headers, null, 0).contentSize;
+        return contentSize;
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url) throws IOException {
+        return readURL(url, (Map<String, String>) null);
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, Map<String, String> headers)
+            throws IOException {
+        return readURL(new URL(url), headers);
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url) throws IOException {
+        return readURL(new URL(url));
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest) throws IOException {
+        return readURL(url, postRequest, null);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     * Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest, Map<String, String> headers)
+            throws IOException {
+        headers = postHeaders(headers, "application/x-www-form-urlencoded");
+        contentSize = execute("POST", url, headers,
+                postRequest.getBytes("UTF-8"), 0).contentSize;
+        return contentSize;
+    }
+
+    /**
+     * Makes a POST request to the URL without encoding the data (the
+     * header type is application/octet-stream).
+     *
+     * @param url The URL to read from
+     * @param postRequest The binary data to send
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, byte[] postRequest, Map<String, String> headers)
+            throws IOException {
+        headers = postHeaders(headers, "application/octet-stream");
+        contentSize = execute("POST", url, headers, postRequest, 0).
+                contentSize;
+        return contentSize;
+    }
+
+    /**
+     * Reads data from the URL and passes it to the consumer as it arrives,
+     * keeping just the size of the total read. The response is neither
+     * buffered nor decoded to characters.
+     * @param url The URL to read from
+     * @param headers The request headers, or null
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    @Override
+    public int readURL(URL url, Map<String, String> headers,
+                       ResponseConsumer consumer) throws IOException {
+        contentSize = execute("GET", url, headers, null, 0, consumer).
+                contentSize;
+        return contentSize;
+    }
+
+    /**
+     * Reads data from the URL and passes it to the consumer as it arrives,
+     * keeping just the size of the total read.
+     * @param url The URL to read from
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    @Override
+    public int readURL(String url, ResponseConsumer consumer)
+            throws IOException {
+        return readURL(new URL(url), null, consumer);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and passes it to the
+     * consumer as it arrives, keeping just the size of the total read.
+     * Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers, or null
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    @Override
+    public int readURL(URL url, String postRequest,
+                       Map<String, String> headers, ResponseConsumer consumer)
+            throws IOException {
+        headers = postHeaders(headers, "application/x-www-form-urlencoded");
+        contentSize = execute("POST", url, headers,
+                postRequest.getBytes("UTF-8"), 0, consumer).contentSize;
+        return contentSize;
+    }
+
+    /**
+     * Makes a POST request to the URL without encoding the data (the
+     * header type is application/octet-stream).
+     *
+     * @param url The URL to read from
+     * @param postRequest The binary data to send
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, byte[] postRequest) throws IOException {
+        return readURL(new URL(url), postRequest, null);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, String postRequest) throws IOException {
+        return readURL(new URL(url), postRequest);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, String postRequest,
+                       Map<String, String> headers) throws IOException {
+        return readURL(new URL(url), postRequest, headers);
+    }
+
+    /**
+     * Decodes the kept body of the last exchange if it is text.
+     * @param ex The exchange
+     * @return The decoded text, or null if the response is binary
+     * @throws UnsupportedEncodingException The charset is not supported
+     */
+    private StringBuilder fetchResponse(Exchange ex)
+            throws UnsupportedEncodingException {
+        List<String> types = getHeader("Content-Type");
+        String contentType = types == null ? null : types.get(0);
+        String hdr = "charset=";
+        int hdrLen = hdr.length();
+        String encoding = "ISO-8859-1";
+        if (contentType != null) {
+            StringTokenizer t = new StringTokenizer(contentType, ";");
+            contentType = t.nextToken().trim();
+            while (t.hasMoreTokens()) {
+                String param = t.nextToken().trim();
+                if (param.startsWith(hdr)) {
+                    encoding = param.substring(hdrLen);
+                    break;
+                }
+            }
+        }
+        if (contentType != null && (contentType.startsWith("text/") ||
+                                    texttypes.contains(contentType))) {
+            String text = new String(ex.body, 0, ex.bodyLength, encoding);
+            reInitBuffer(text.length());
+            charBuffer.append(text);
+            contentSize = text.length();
+            return charBuffer;
+        }
+        contentSize = ex.contentSize;
+        return null;
+    }
+
+    /**
+     * Initializes or re-initializes the buffer.
+     * @param size The size of the buffer
+     */
+    private void reInitBuffer(int size) {
+        if (charBuffer == null)
+            charBuffer = new StringBuilder(size);
+        else
+            charBuffer.setLength(0);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types.
+     *
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, Map<String, String> headers)
+            throws IOException {
+        return fetchResponse(execute("GET", url, headers, null,
+                                     Integer.MAX_VALUE));
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url)
+            throws IOException {
+        return fetchURL(url, (Map<String, String>) null);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, Map<String, String> headers)
+            throws IOException {
+        return fetchURL(new URL(url), headers);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url) throws IOException {
+        return fetchURL(new URL(url));
+    }
+
+    /**
+     * Retrieve large response from the URL and returns the data read. Use this
+     * method for any arbitrary return data type e.g. file downloads. This method will only
+     * download upto 1 MB to conserve memory. However, it will read all of the response and
+     * update contentSize appropriately.
+     *
+     * @param url The URL to read from
+     * @return The byte array containing the resulting data
+     * @throws java.io.IOException
+     * @see #getContentSize()
+     */
+    public byte[] downloadURL(String url) throws IOException {
+        Exchange ex = execute("GET", new URL(url), null, null,
+                              DOWNLOAD_LIMIT);
+        contentSize = ex.contentSize;
+        return Arrays.copyOf(ex.body, ex.bodyLength);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, String postRequest)
+            throws IOException {
+        return fetchURL(new URL(url), postRequest);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, String postRequest,
+                                  Map<String, String> headers)
+            throws IOException {
+        return fetchURL(new URL(url), postRequest, headers);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, String postRequest,
+                                  Map<String, String> headers)
+            throws IOException {
+        headers = postHeaders(headers, "application/x-www-form-urlencoded");
+        return fetchResponse(execute("POST", url, headers,
+                postRequest.getBytes("UTF-8"), Integer.MAX_VALUE));
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, String postRequest)
+            throws IOException {
+        return fetchURL(url, postRequest, null);
+    }
+
+    /**
+     * Makes a GET request. Fetches the main page and all other image or
+     * resource pages based on the given URLs. The response code, headers,
+     * and content size reflect the main page.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+	public StringBuilder fetchPage(URL page, URL[] images) throws IOException {
+        StringBuilder buffer = fetchURL(page);
+        fetchResources(images);
+        return buffer;
+    }
+
+    /**
+     * Makes a GET request. Fetches the main page and all other image or
+     * resource pages based on the given URLs.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+    public StringBuilder fetchPage(String page, String[] images)
+            throws IOException {
+        URL[] imgURLs = new URL[images.length];
+        for (int i = 0; i < imgURLs.length; i++)
+            imgURLs[i] = new URL(images[i]);
+        return fetchPage(new URL(page), imgURLs);
+    }
+
+    /**
+     * Makes a POST request. Fetches the main page and all other image or
+     * resource pages based on the given URLs. The response code, headers,
+     * and content size reflect the main page.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @param postRequest The post string
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
+            throws IOException {
+        StringBuilder buffer = fetchURL(page, postRequest);
+        fetchResources(images);
+        return buffer;
+    }
+
+    /**
+     * Makes a POST request, fetches the main page and all other image or
+     * resource pages.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @param postRequest The post string
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+    public StringBuilder fetchPage(String page, String[] images,
+                                  String postRequest) throws IOException {
+        URL[] imgURLs = new URL[images.length];
+        for (int i = 0; i < imgURLs.length; i++)
+            imgURLs[i] = new URL(images[i]);
+        return fetchURL(new URL(page), imgURLs, postRequest);
+    }
+
+    private void fetchResources(URL[] resources) throws IOException {
+        int pageResponseCode = responseCode;
+        Map<String, List<String>> pageResponseHeader = responseHeader;
+        int pageContentSize = contentSize;
+        try {
+            for (URL resource : resources)
+                readURL(resource);
+        } finally {
+            responseCode = pageResponseCode;
+            responseHeader = pageResponseHeader;
+            contentSize = pageContentSize;
+        }
+    }
+
+    /**
+     * Obtains the size of the last read page or resource. The result is in
+     * bytes for non-decoded content and in characters for decoded content.
+     * All binary content is not decoded. Text content is decoded only using
+     * the fetch or match commands.
+     * @return The size, in bytes, of the last page read
+     */
+    public int getContentSize() {
+        return contentSize;
+    }
+
+    /**
+     * Fetches the data from the stream, converts to char, and returns it as
+     * a StringBuilder.
+     * @param stream The stream to read from
+     * @return The resulting data
+     * @throws IOException
+     */
+    public StringBuilder fetchResponseData(InputStream stream)
+            throws IOException {
+        return fetchResponseData(new InputStreamReader(stream));
+    }
+
+    /**
+     * Fetches the data from the reader and returns it as a StringBuilder.
+     * @param reader The reader to read from
+     * @return The resulting data
+     * @throws IOException
+     */
+    public StringBuilder fetchResponseData(Reader reader) throws IOException {
+        int totalLength = 0;
+        int length = reader.read(charReadBuffer, 0, charReadBuffer.length);
+        if (length > 0)
+            reInitBuffer(length);
+        else
+            reInitBuffer(2048);
+
+        while (length != -1) {
+            totalLength += length;
+            charBuffer.append(charReadBuffer, 0, length);
+            length = reader.read(charReadBuffer, 0, charReadBuffer.length);
+        }
+        contentSize = totalLength;
+        return charBuffer;
+    }
+
+    /**
+     * Matches the regular expression against the data in the response
+     * buffer.
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     */
+    public boolean matchResponse(String regex) {
+        if (charBuffer == null)
+            return false;
+        if (patternCache == null)
+            patternCache = new HashMap<String, Pattern>();
+        Pattern pattern = patternCache.get(regex);
+        if (pattern == null) {
+            pattern = Pattern.compile(regex);
+            patternCache.put(regex, pattern);
+        }
+        Matcher matcher = pattern.matcher(charBuffer);
+        return matcher.find();
+    }
+
+    /**
+     * Matches the regular expression against the data read from the stream.
+     * @param stream The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchResponse(InputStream stream, String regex)
+            throws IOException {
+        fetchResponseData(stream);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the data read from the reader.
+     * @param reader The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchResponse(Reader reader, String regex)
+            throws IOException {
+        fetchResponseData(reader);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex THe regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String regex) throws IOException {
+        return fetchURL(url) != null && matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String regex, Map<String, String> headers)
+            throws IOException {
+        return fetchURL(url, headers) != null && matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String regex) throws IOException {
+        return fetchURL(url) != null && matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String regex, Map<String, String> headers)
+            throws IOException {
+        return fetchURL(url, headers) != null && matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String postRequest, String regex)
+            throws IOException {
+        return fetchURL(url, postRequest) != null && matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String postRequest, String regex,
+                            Map<String, String> headers) throws IOException {
+        return fetchURL(url, postRequest, headers) != null &&
+                matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String postRequest, String regex) throws IOException {
+        return fetchURL(url, postRequest) != null && matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String postRequest, String regex,
+                            Map<String, String> headers) throws IOException {
+        return fetchURL(url, postRequest, headers) != null &&
+                matchResponse(regex);
+    }
+
+    /**
+     * Obtains the list of cookie values by the name of the cookies.
+     * @param name The cookie name
+     * @return An array of non-duplicating cookie values.
+     */
+    public String[] getCookieValuesByName(String name) {
+        return cookies.getValuesByName(name);
+    }
+
+    /**
+     * Obtains the list of all cookies
+     * @return array of Cookie objects
+     */
+    public Cookie[] getCookies() {
+        return cookies.getCookies();
+    }
+
+    /**
+     * Obtains the header fields of the last request's response.
+     * @param name The response header field of interest
+     * @return An array of response header values
+     */
+    public String[] getResponseHeader(String name) {
+        List<String> values = getHeader(name);
+        if (values == null)
+            return new String[0];
+        String[] v = new String[values.size()];
+        return values.toArray(v);
+    }
+
+    /**
+     * Utility class to get responseHeaders as a string.  The formatting is
+     * not localized
+     *
+     * @return responseHeaders
+     */
+    public String dumpResponseHeaders() {
+        StringBuilder s = new StringBuilder();
+        if (responseHeader == null)
+            return s.toString();
+        for (Iterator<Map.Entry<String, List<String>>> iter =
+                responseHeader.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<String, List<String>> entry = iter.next();
+            String name = entry.getKey();
+            List<String> values = entry.getValue();
+            for (Iterator<String> iter2 = values.iterator(); iter2.hasNext();) {
+                if (name != null) {
+                    s.append(name);
+                    s.append(": ");
+                }
+                s.append(iter2.next());
+                s.append('\n');
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * Obtains the response code of the previous request.
+     * @return responseCode The response code
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * A simple cookie store for the transport. Cookies are kept for the
+     * life of the transport, which is the life of the simulated user.
+     */
+    static class CookieJar {
+
+        private ArrayList<Cookie> cookies = new ArrayList<Cookie>();
+
+        /**
+         * Adds or replaces a cookie from a Set-Cookie header.
+         * @param url The URL the header came from
+         * @param header The Set-Cookie header value
+         */
+        void add(URL url, String header) {
+            String[] parts = header.split(";");
+            int idx = parts[0].indexOf('=');
+            if (idx <= 0)
+                return;
+            String name = parts[0].substring(0, idx).trim();
+            String value = parts[0].substring(idx + 1).trim();
+            String domain = url.getHost();
+            String path = url.getPath();
+            int slash = path.lastIndexOf('/');
+            path = slash <= 0 ? "/" : path.substring(0, slash);
+            boolean expired = false;
+            for (int i = 1; i < parts.length; i++) {
+                String attr = parts[i].trim();
+                int eq = attr.indexOf('=');
+                String attrName = eq < 0 ? attr : attr.substring(0, eq).trim();
+                String attrValue = eq < 0 ? "" : attr.substring(eq + 1).trim();
+                if ("Domain".equalsIgnoreCase(attrName) &&
+                        attrValue.length() > 0) {
+                    domain = attrValue.startsWith(".") ?
+                            attrValue.substring(1) : attrValue;
+                } else if ("Path".equalsIgnoreCase(attrName) &&
+                        attrValue.length() > 0) {
+                    path = attrValue;
+                } else if ("Max-Age".equalsIgnoreCase(attrName)) {
+                    try {
+                        expired = Long.parseLong(attrValue) <= 0;
+                    } catch (NumberFormatException e) {
+                        // Ignore invalid max age.
+                    }
+                }
+            }
+            for (Iterator<Cookie> iter = cookies.iterator(); iter.hasNext();) {
+                Cookie c = iter.next();
+                if (c.getName().equals(name) && c.getDomain().equals(domain) &&
+                        c.getPath().equals(path))
+                    iter.remove();
+            }
+            if (!expired)
+                cookies.add(new Cookie(domain, name, value, path, null,
+                                       false));
+        }
+
+        /**
+         * Appends the Cookie header for the URL, if there are matching
+         * cookies.
+         * @param url The URL
+         * @param b The request buffer
+         */
+        void appendHeader(URL url, StringBuilder b) {
+            String host = url.getHost();
+            String path = url.getPath();
+            if (path.length() == 0)
+                path = "/";
+            boolean first = true;
+            for (Cookie c : cookies) {
+                String domain = c.getDomain();
+                if (!(host.equals(domain) || host.endsWith('.' + domain)) ||
+                        !path.startsWith(c.getPath()))
+                    continue;
+                b.append(first ? "Cookie: " : "; ").append(c.getName()).
+                        append('=').append(c.getValue());
+                first = false;
+            }
+            if (!first)
+                b.append("\r\n");
+        }
+
+        String[] getValuesByName(String name) {
+            ArrayList<String> values = new ArrayList<String>();
+            for (Cookie c : cookies)
+                if (c.getName().equals(name) && !values.contains(c.getValue()))
+                    values.add(c.getValue());
+            return values.toArray(new String[values.size()]);
+        }
+
+        Cookie[] getCookies() {
+            return cookies.toArray(new Cookie[cookies.size()]);
+        }
+    }
+}
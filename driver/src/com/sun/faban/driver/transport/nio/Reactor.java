@@ -0,0 +1,211 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The reactor runs the I/O of the NIO HTTP transport. Each reactor is one
+ * thread with its own selector. The connections are spread round-robin
+ * over a small number of reactors per JVM, given by the
+ * faban.http.nio.threads system property, default 2. Idle keep-alive
+ * connections stay registered with their reactor and do not tie up any
+ * thread. The reactor also enforces the connect and read timeouts and
+ * resumes throttled connections.
+ *
+ * @author Akara Sucharitakul
+ */
+class Reactor implements Runnable {
+
+    private static Logger logger = Logger.getLogger(Reactor.class.getName());
+
+    /** Connect and read timeout, matching the TimedSocket. */
+    static final long TIMEOUT = 30000000000l; // 30 seconds
+
+    private static Reactor[] reactors;
+    private static final AtomicInteger nextReactor = new AtomicInteger();
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Exchange> pending =
+            new ConcurrentLinkedQueue<Exchange>();
+
+    /** The connections with exchanges in progress, reactor thread only. */
+    private final HashSet<Connection> active = new HashSet<Connection>();
+
+    /** Connections waiting to be resumed after throttling. */
+    private final PriorityQueue<Connection> throttled =
+            new PriorityQueue<Connection>();
+
+    private long nextSweep = System.nanoTime() + 1000000000l;
+
+    /**
+     * Obtains a reactor for a new connection.
+     * @return The reactor
+     * @throws IOException If the reactors cannot be started
+     */
+    static Reactor getInstance() throws IOException {
+        Reactor[] r = reactors;
+        if (r == null)
+            r = start();
+        return r[(nextReactor.getAndIncrement() & 0x7fffffff) % r.length];
+    }
+
+    private static synchronized Reactor[] start() throws IOException {
+        if (reactors == null) {
+            int count = Integer.getInteger("faban.http.nio.threads", 2);
+            Reactor[] r = new Reactor[count < 1 ? 1 : count];
+            for (int i = 0; i < r.length; i++)
+                r[i] = new Reactor(i);
+            reactors = r;
+        }
+        return reactors;
+    }
+
+    private Reactor(int id) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this);
+        thread.setName("NioHttpReactor-" + id);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Obtains the selector of this reactor.
+     * @return The selector
+     */
+    Selector selector() {
+        return selector;
+    }
+
+    /**
+     * Submits an exchange to be run on its connection.
+     * @param exchange The exchange
+     */
+    void submit(Exchange exchange) {
+        pending.add(exchange);
+        selector.wakeup();
+    }
+
+    /**
+     * Schedules a throttled connection to resume I/O. Only called from
+     * the reactor thread.
+     * @param connection The connection
+     */
+    void schedule(Connection connection) {
+        throttled.add(connection);
+    }
+
+    /**
+     * The reactor loop.
+     */
+    public void run() {
+        for (;;) {
+            try {
+                long timeout = 0l;
+                Connection next = throttled.peek();
+                if (next != null)
+                    timeout = Math.max(1l,
+                            (next.resumeAt - System.nanoTime()) / 1000000l);
+                if (!active.isEmpty() && (timeout == 0l || timeout > 1000l))
+                    timeout = 1000l;
+                selector.select(timeout);
+
+                Exchange exchange;
+                while ((exchange = pending.poll()) != null) {
+                    Connection c = exchange.connection;
+                    active.add(c);
+                    c.start(exchange);
+                }
+
+                Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        int ready = key.readyOps();
+                        if ((ready & SelectionKey.OP_CONNECT) != 0)
+                            c.finishConnect();
+                        if ((ready & SelectionKey.OP_WRITE) != 0)
+                            c.write();
+                        if ((ready & SelectionKey.OP_READ) != 0)
+                            c.read();
+                    } catch (CancelledKeyException e) {
+                        c.fail(new IOException("Connection closed"));
+                    } catch (IOException e) {
+                        c.fail(e);
+                    }
+                    if (c.exchange == null)
+                        active.remove(c);
+                }
+
+                long now = System.nanoTime();
+                while ((next = throttled.peek()) != null &&
+                        next.resumeAt <= now) {
+                    throttled.poll();
+                    next.resume();
+                }
+
+                if (now >= nextSweep) {
+                    nextSweep = now + 1000000000l;
+                    sweep(now);
+                }
+            } catch (Throwable e) {
+                logger.log(Level.SEVERE, "Unexpected error in reactor", e);
+            }
+        }
+    }
+
+    /**
+     * Times out the active connections that made no progress.
+     * @param now The current time
+     */
+    private void sweep(long now) {
+        Iterator<Connection> iter = active.iterator();
+        while (iter.hasNext()) {
+            Connection c = iter.next();
+            if (c.exchange == null) {
+                iter.remove();
+            } else if (now - c.lastProgress > TIMEOUT) {
+                iter.remove();
+                throttled.remove(c);
+                c.fail(new SocketTimeoutException(c.isConnected() ?
+                        "Read timed out" : "Connect timed out"));
+            }
+        }
+    }
+}
@@ -190,6 +190,24 @@ public class HttpClient extends sun.net.www.http.HttpClient {
         return s;
     }
 
+    /**
+     * Checks whether this idle connection can no longer be used. A
+     * connection is stale if the socket got closed or shut down, or if
+     * there is unread data which cannot belong to any request we sent.
+     * @return True if the connection is stale, false otherwise
+     */
+    protected boolean isStale() {
+        if (serverSocket == null || serverSocket.isClosed() ||
+                serverSocket.isInputShutdown() ||
+                serverSocket.isOutputShutdown())
+            return true;
+        try {
+            return serverInput != null && serverInput.available() > 0;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
     /**
      * Sets the socket factory for creating sockets used by this client.
      * @param sf The socket factory
@@ -0,0 +1,234 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.sunhttp;
+
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.net.www.http.HttpClient;
+
+/**
+ * This is a ThreadLocal pool used by the HTTP client keepalive.
+ * Each driver thread keeps its own idle connections per protocol, host,
+ * and port. The number of idle connections per host is bounded by the
+ * faban.http.keepalive.max system property, default 4. A value of 0
+ * disables the keepalive cache altogether. Connections idle
+ * for longer than faban.http.keepalive.timeout ms, default 5000, are
+ * considered stale as the server most likely closed them already and
+ * are discarded instead of being reused.
+ * @author Scott Oaks
+ */
+class KeepAliveCache extends sun.net.www.http.KeepAliveCache {
+
+	private static final long serialVersionUID = 1L;
+
+    private static Logger logger =
+            Logger.getLogger(KeepAliveCache.class.getName());
+
+    /** The max idle connections kept per host and thread. */
+    static final int MAX_CONNECTIONS =
+            Math.max(0, Integer.getInteger("faban.http.keepalive.max", 4));
+
+    /** The max time a connection may stay idle before reuse, in ms. */
+    static final long TIMEOUT =
+            Long.getLong("faban.http.keepalive.timeout", 5000l);
+
+	/** The thread local pool. */
+    static ThreadLocal<Pool> localPool = new ThreadLocal<Pool>() {
+        @Override
+		protected Pool initialValue() {
+            return new Pool();
+        }
+    };
+
+    /**
+     * Gets an object from the keepalive cache. It will get the most
+     * recently used healthy connection to the host of this URL.
+     * @param url The URL to match
+     * @param obj An additional key, ignored
+     * @return An object in the cache, or null if there is none.
+     */
+    @Override
+	public HttpClient get(URL url, Object obj) {
+        Route route = localPool.get().find(url, false);
+        HttpClient ret = null;
+        if (route != null)
+            ret = route.pop();
+        if (ret == null) {
+            if (logger.isLoggable(Level.FINE))
+                logger.fine("No connection in cache for " + url + ".");
+        } else if (logger.isLoggable(Level.FINEST)) {
+            logger.finest("Obtained " + ret + " from cache.");
+        }
+        return ret;
+    }
+
+    /**
+     * Puts an object back in the cache based on the given URL. If the
+     * host already has the maximum number of idle connections, the
+     * connection idle the longest gets closed. If the cache is disabled,
+     * the connection is closed right away.
+     * @param url The URL to match
+     * @param obj An additional key, ignored
+     * @param http The http client to put into the cache
+     */
+    @Override
+	public void put(URL url, Object obj, HttpClient http) {
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("Putting " + http + "in cache for URL " + url);
+        if (http == null)
+            return;
+        if (MAX_CONNECTIONS == 0)
+            http.closeServer();
+        else
+            localPool.get().find(url, true).push(http);
+    }
+
+    /**
+     * Clears the connection cache for the given URL for this thread.
+     * @param url The URL to be cleared.
+     */
+    public static void clear(URL url) {
+        Route route = localPool.get().find(url, false);
+        if (route != null)
+            route.clear();
+    }
+
+    /**
+     * The per-thread pool, holding the routes this thread connects to.
+     * A driver thread only talks to a handful of hosts so a linear
+     * search is cheaper than hashing, and does not allocate a key per
+     * lookup.
+     */
+    static class Pool {
+        private Route[] routes = new Route[4];
+        private int routeCount = 0;
+
+        /**
+         * Finds the route for the given URL.
+         * @param url The URL
+         * @param create Whether to create the route if it does not exist
+         * @return The route, or null if not found and not created
+         */
+        Route find(URL url, boolean create) {
+            String protocol = url.getProtocol();
+            String host = url.getHost();
+            int port = url.getPort();
+            for (int i = 0; i < routeCount; i++) {
+                Route route = routes[i];
+                if (route.port == port && route.host.equals(host) &&
+                        route.protocol.equals(protocol))
+                    return route;
+            }
+            if (!create)
+                return null;
+            if (routeCount == routes.length) {
+                Route[] newRoutes = new Route[routes.length * 2];
+                System.arraycopy(routes, 0, newRoutes, 0, routeCount);
+                routes = newRoutes;
+            }
+            Route route = new Route(protocol, host, port);
+            routes[routeCount++] = route;
+            return route;
+        }
+    }
+
+    /**
+     * The idle connections to one protocol, host, and port. The
+     * connections are kept in a stack so the most recently used and
+     * therefore least likely stale connection gets reused first.
+     */
+    static class Route {
+        final String protocol;
+        final String host;
+        final int port;
+        private HttpClient[] clients = new HttpClient[MAX_CONNECTIONS];
+        private long[] idleSince = new long[MAX_CONNECTIONS];
+        private int count = 0;
+
+        Route(String protocol, String host, int port) {
+            this.protocol = protocol;
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Pops the most recently used connection that is not stale.
+         * Stale connections are closed.
+         * @return The connection, or null if there is none
+         */
+        HttpClient pop() {
+            long now = System.currentTimeMillis();
+            while (count > 0) {
+                HttpClient client = clients[--count];
+                clients[count] = null;
+                if (now - idleSince[count] > TIMEOUT) {
+                    logger.finer("Discarding timed out connection " + client);
+                    client.closeServer();
+                    clear(); // The older connections are even more idle.
+                    break;
+                }
+                if (!isStale(client))
+                    return client;
+                logger.finer("Discarding stale connection " + client);
+                client.closeServer();
+            }
+            return null;
+        }
+
+        /**
+         * Pushes an idle connection onto the stack.
+         * @param client The connection
+         */
+        void push(HttpClient client) {
+            if (count == clients.length) {
+                clients[0].closeServer();
+                System.arraycopy(clients, 1, clients, 0, count - 1);
+                System.arraycopy(idleSince, 1, idleSince, 0, count - 1);
+                --count;
+            }
+            clients[count] = client;
+            idleSince[count++] = System.currentTimeMillis();
+        }
+
+        /**
+         * Closes and removes all the idle connections.
+         */
+        void clear() {
+            while (count > 0) {
+                clients[--count].closeServer();
+                clients[count] = null;
+            }
+        }
+
+        private static boolean isStale(HttpClient client) {
+            if (client instanceof com.sun.faban.driver.transport.sunhttp.
+                    HttpClient)
+                return ((com.sun.faban.driver.transport.sunhttp.HttpClient)
+                        client).isStale();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.sunhttp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.CookieHandler;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The pipeline fetches resources such as the images embedded in a page
+ * using HTTP/1.1 pipelining. All the requests to a host are written to
+ * the connection at once, and the responses are read back in order. The
+ * response bodies are discarded. The connections are created by the
+ * same socket factory used by the HttpURLConnection, so the TimedSocket
+ * timing applies just as with the other requests. A pipeline keeps one
+ * connection per host alive for later pages.<p>
+ *
+ * Servers may close the connection before responding to all requests
+ * in the pipeline. The requests not responded to are then resent on a
+ * new connection.
+ *
+ * @author Akara Sucharitakul
+ */
+class Pipeline {
+
+    private static Logger logger = Logger.getLogger(Pipeline.class.getName());
+
+    private static final String USER_AGENT = "Java/" +
+            System.getProperty("java.version");
+
+    private static final Map<String, List<String>> NO_HEADERS =
+            Collections.emptyMap();
+
+    private HashMap<String, Connection> connections =
+            new HashMap<String, Connection>();
+
+    private StringBuilder request = new StringBuilder(1024);
+
+    /**
+     * Fetches the given resources from the same host and port, pipelined.
+     * @param urls The resources to fetch
+     * @return The total number of body bytes read
+     * @throws IOException If the resources cannot be fetched
+     */
+    int fetch(List<URL> urls) throws IOException {
+        URL first = urls.get(0);
+        String host = first.getHost();
+        int port = first.getPort();
+        if (port == -1)
+            port = first.getDefaultPort();
+        String key = host + ':' + port;
+
+        int totalLength = 0;
+        int done = 0;
+        while (done < urls.size()) {
+            Connection c = connections.get(key);
+            if (c != null && !c.isUsable()) {
+                c.close();
+                c = null;
+            }
+            boolean reused = c != null;
+            if (c == null) {
+                c = new Connection(host, port);
+                connections.put(key, c);
+            }
+            int progress = 0;
+            try {
+                writeRequests(c, urls, done);
+                while (done < urls.size()) {
+                    URL url = urls.get(done);
+                    int length = c.readResponse(url);
+                    totalLength += length;
+                    ++done;
+                    ++progress;
+                    if (c.closeAfterResponse) {
+                        connections.remove(key);
+                        c.close();
+                        break;
+                    }
+                }
+            } catch (PipelineResponseException e) {
+                connections.remove(key);
+                c.close();
+                throw e;
+            } catch (IOException e) {
+                connections.remove(key);
+                c.close();
+                // A fresh connection that fails right away is a real error.
+                if (progress == 0 && !reused)
+                    throw e;
+                logger.log(Level.FINER, "Pipeline to " + key + " broken " +
+                        "after " + progress + " responses, resending.", e);
+            }
+        }
+        return totalLength;
+    }
+
+    private void writeRequests(Connection c, List<URL> urls, int from)
+            throws IOException {
+        CookieHandler cookieHandler = CookieHandler.getDefault();
+        request.setLength(0);
+        for (int i = from; i < urls.size(); i++) {
+            URL url = urls.get(i);
+            String file = url.getFile();
+            request.append("GET ").append(file.length() == 0 ? "/" : file).
+                    append(" HTTP/1.1\r\nHost: ").append(url.getHost());
+            if (url.getPort() != -1)
+                request.append(':').append(url.getPort());
+            request.append("\r\nUser-Agent: ").append(USER_AGENT).
+                    append("\r\nAccept: */*\r\n").
+                    append("Accept-Language: en-us,en;q=0.5\r\n");
+            if (cookieHandler != null) {
+                Map<String, List<String>> cookies =
+                        cookieHandler.get(toURI(url), NO_HEADERS);
+                for (Map.Entry<String, List<String>> entry :
+                        cookies.entrySet()) {
+                    for (String value : entry.getValue())
+                        request.append(entry.getKey()).append(": ").
+                                append(value).append("\r\n");
+                }
+            }
+            request.append("\r\n");
+        }
+        int length = request.length();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) request.charAt(i);
+        c.out.write(bytes);
+        c.out.flush();
+    }
+
+    private static URI toURI(URL url) throws IOException {
+        try {
+            return url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + url + ": " +
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Closes all connections held by this pipeline.
+     */
+    void close() {
+        for (Connection c : connections.values())
+            c.close();
+        connections.clear();
+    }
+
+    /**
+     * A pipelined connection to one host, with its own read buffer.
+     */
+    static class Connection {
+        Socket socket;
+        InputStream in;
+        OutputStream out;
+        boolean closeAfterResponse;
+        long idleSince;
+
+        private byte[] buffer = new byte[SunHttpTransport.BUFFER_SIZE];
+        private int pos = 0;
+        private int limit = 0;
+        private StringBuilder line = new StringBuilder(256);
+        private ArrayList<String> setCookies = new ArrayList<String>();
+
+        Connection(String host, int port) throws IOException {
+            socket = HttpURLConnection.getDefaultSocketFactory().
+                    createSocket(Proxy.NO_PROXY);
+            socket.connect(new InetSocketAddress(host, port));
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        /**
+         * Checks whether this idle connection can still be used.
+         * @return True if usable, false if stale
+         */
+        boolean isUsable() {
+            if (socket.isClosed() || socket.isInputShutdown() ||
+                    System.currentTimeMillis() - idleSince >
+                    KeepAliveCache.TIMEOUT)
+                return false;
+            try {
+                return pos == limit && in.available() == 0;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Reads the next response and discards the body.
+         * @param url The URL requested, for reporting and cookies
+         * @return The number of body bytes read
+         * @throws IOException If the response cannot be read
+         */
+        int readResponse(URL url) throws IOException {
+            int status;
+            boolean http10;
+            do { // Skip informational responses.
+                String statusLine = readLine();
+                if (statusLine == null)
+                    throw new IOException("Connection closed before " +
+                            "response for " + url);
+                http10 = statusLine.startsWith("HTTP/1.0");
+                int idx = statusLine.indexOf(' ');
+                try {
+                    status = Integer.parseInt(statusLine.substring(idx + 1,
+                            idx + 4));
+                } catch (RuntimeException e) {
+                    throw new IOException("Invalid status line: " +
+                            statusLine);
+                }
+                readHeaders(http10);
+            } while (status >= 100 && status < 200);
+
+            if (!setCookies.isEmpty()) {
+                CookieHandler cookieHandler = CookieHandler.getDefault();
+                if (cookieHandler != null) {
+                    Map<String, List<String>> headers =
+                            new HashMap<String, List<String>>(2);
+                    headers.put("Set-Cookie", setCookies);
+                    cookieHandler.put(toURI(url), headers);
+                }
+            }
+
+            int length;
+            if (status == 204 || status == 304)
+                length = 0;
+            else if (chunked)
+                length = skipChunked();
+            else if (contentLength >= 0)
+                length = skip(contentLength);
+            else {
+                length = skipToEOF();
+                closeAfterResponse = true;
+            }
+            idleSince = System.currentTimeMillis();
+
+            if (status >= 400) {
+                closeAfterResponse = true;
+                throw new PipelineResponseException(
+                        "Server returned HTTP response code: " + status +
+                        " for URL: " + url);
+            }
+            return length;
+        }
+
+        private long contentLength;
+        private boolean chunked;
+
+        private void readHeaders(boolean http10) throws IOException {
+            contentLength = -1;
+            chunked = false;
+            closeAfterResponse = http10;
+            setCookies.clear();
+            String header;
+            while ((header = readLine()) != null && header.length() > 0) {
+                int idx = header.indexOf(':');
+                if (idx < 0)
+                    continue;
+                String name = header.substring(0, idx).trim();
+                String value = header.substring(idx + 1).trim();
+                if ("Content-Length".equalsIgnoreCase(name)) {
+                    try {
+                        contentLength = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid Content-Length: " +
+                                value);
+                    }
+                } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                    chunked = value.toLowerCase().contains("chunked");
+                } else if ("Connection".equalsIgnoreCase(name)) {
+                    if ("close".equalsIgnoreCase(value))
+                        closeAfterResponse = true;
+                    else if ("keep-alive".equalsIgnoreCase(value))
+                        closeAfterResponse = false;
+                } else if ("Set-Cookie".equalsIgnoreCase(name)) {
+                    setCookies.add(value);
+                }
+            }
+            if (header == null)
+                throw new IOException("Connection closed in headers");
+        }
+
+        private int skipChunked() throws IOException {
+            int length = 0;
+            for (;;) {
+                String sizeLine = readLine();
+                if (sizeLine == null)
+                    throw new IOException("Connection closed in chunk");
+                int idx = sizeLine.indexOf(';');
+                if (idx >= 0)
+                    sizeLine = sizeLine.substring(0, idx);
+                long size;
+                try {
+                    size = Long.parseLong(sizeLine.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size: " + sizeLine);
+                }
+                if (size == 0)
+                    break;
+                length += skip(size);
+                readLine(); // CRLF after the chunk.
+            }
+            // Trailers, up to the empty line.
+            String trailer;
+            while ((trailer = readLine()) != null && trailer.length() > 0);
+            return length;
+        }
+
+        private int skip(long size) throws IOException {
+            long remaining = size;
+            while (remaining > 0) {
+                if (pos == limit && fill() == -1)
+                    throw new IOException("Connection closed in body");
+                int n = (int) Math.min(remaining, limit - pos);
+                pos += n;
+                remaining -= n;
+            }
+            return (int) size;
+        }
+
+        private int skipToEOF() throws IOException {
+            int length = limit - pos;
+            pos = limit;
+            int n;
+            while ((n = fill()) != -1)
+                length += n;
+            pos = limit;
+            return length;
+        }
+
+        private int fill() throws IOException {
+            int n = in.read(buffer);
+            if (n == -1)
+                return -1;
+            pos = 0;
+            limit = n;
+            return n;
+        }
+
+        private String readLine() throws IOException {
+            line.setLength(0);
+            for (;;) {
+                if (pos == limit && fill() == -1)
+                    return line.length() == 0 ? null : line.toString();
+                int b = buffer[pos++] & 0xff;
+                if (b == '\n')
+                    break;
+                if (b != '\r')
+                    line.append((char) b);
+            }
+            return line.toString();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing pipeline socket", e);
+            }
+        }
+    }
+
+    /**
+     * Thrown if the server returns an error status for a pipelined
+     * request. The connection is not retried in this case.
+     */
+    static class PipelineResponseException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        PipelineResponseException(String message) {
+            super(message);
+        }
+    }
+}
@@ -25,6 +25,7 @@
 package com.sun.faban.driver.transport.sunhttp;
 
 import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.ResponseConsumer;
 
 import java.io.*;
 import java.net.HttpURLConnection;
@@ -105,6 +106,12 @@ public class SunHttpTransport extends HttpTransport {
 
     private HashSet<String> texttypes;
 
+    /** Whether resources of a page get fetched pipelined. */
+    private boolean pipelining = Boolean.getBoolean("faban.http.pipelining");
+
+    /** The pipeline, created on first use. */
+    private Pipeline pipeline;
+
     /**
      * Constructs a new SunHttpTransport object.
      */
@@ -362,6 +369,66 @@ public class SunHttpTransport extends HttpTransport {
         return readURL(new URL(url), postRequest, headers);
     }
 
+    /**
+     * Reads data from the URL and passes it to the consumer as it arrives,
+     * keeping just the size of the total read. The response is neither
+     * buffered nor decoded to characters.
+     * @param url The URL to read from
+     * @param headers The request headers, or null
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    @Override
+    public int readURL(URL url, Map<String, String> headers,
+                       ResponseConsumer consumer) throws IOException {
+        HttpURLConnection huc = getConnection(url);
+        setHeaders(huc, headers);
+        responseCode = huc.getResponseCode();
+        responseHeader = huc.getHeaderFields();
+        return readResponse(huc, consumer);
+    }
+
+    /**
+     * Reads data from the URL and passes it to the consumer as it arrives,
+     * keeping just the size of the total read.
+     * @param url The URL to read from
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    @Override
+    public int readURL(String url, ResponseConsumer consumer)
+            throws IOException {
+        return readURL(new URL(url), null, consumer);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and passes it to the
+     * consumer as it arrives, keeping just the size of the total read.
+     * Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers, or null
+     * @param consumer The consumer of the response body
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    @Override
+    public int readURL(URL url, String postRequest,
+                       Map<String, String> headers, ResponseConsumer consumer)
+            throws IOException {
+        HttpURLConnection c = getConnection(url);
+        if (headers != null) {
+            checkContentType(headers);
+        } else headers = postHeadersForm;
+        setHeaders(c, headers);
+        postRequest(c, postRequest.getBytes("UTF-8"));
+        responseCode = c.getResponseCode();
+        responseHeader = c.getHeaderFields();
+        return readResponse(c, consumer);
+    }
+
     /**
      * Reads data from the URL and returns the data read. Note that this
      * method only works with text data as it does the byte-to-char
@@ -577,24 +644,33 @@ public class SunHttpTransport extends HttpTransport {
         return fetchURL(url, postRequest, null);
     }
 
-    /*
-     * Method not implemented. Makes a GET request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+    /**
+     * Makes a GET request. Fetches the main page and all other image or
+     * resource pages based on the given URLs. The resources are fetched
+     * pipelined if pipelining is enabled, and sequentially otherwise.
+     * The response code, headers, and content size reflect the main page.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
      * @return The buffer of the main page
      * @throws IOException If an I/O error occurred
-     *
+     * @see #setPipelining(boolean)
+     */
 	public StringBuilder fetchPage(URL page, URL[] images) throws IOException {
-        // TODO: implement method
-        return null;
+        StringBuilder buffer = fetchURL(page);
+        fetchResources(images);
+        return buffer;
     }
-    */
 
-    /*
-     * Fetch page and images in the same call. Currently not used.
+    /**
+     * Makes a GET request. Fetches the main page and all other image or
+     * resource pages based on the given URLs.
      *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
     public StringBuilder fetchPage(String page, String[] images)
             throws IOException {
         URL[] imgURLs = new URL[images.length];
@@ -602,22 +678,93 @@ public class SunHttpTransport extends HttpTransport {
             imgURLs[i] = new URL(images[i]);
         return fetchPage(new URL(page), imgURLs);
     }
-    */
 
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+     * Makes a POST request. Fetches the main page and all other image or
+     * resource pages based on the given URLs. The resources are fetched
+     * pipelined if pipelining is enabled, and sequentially otherwise.
+     * The response code, headers, and content size reflect the main page.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
      * @param postRequest The post string
      * @return The buffer of the main page
      * @throws IOException If an I/O error occurred
+     * @see #setPipelining(boolean)
      */
 	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
             throws IOException {
-        // TODO: implement method
-        return null;
+        StringBuilder buffer = fetchURL(page, postRequest);
+        fetchResources(images);
+        return buffer;
+    }
+
+    /**
+     * Fetches the resources of a page and discards the data, leaving the
+     * response state of the page intact.
+     * @param resources The resource URLs
+     * @throws IOException If an I/O error occurred
+     */
+    private void fetchResources(URL[] resources) throws IOException {
+        if (resources == null || resources.length == 0)
+            return;
+        int pageResponseCode = responseCode;
+        Map<String, List<String>> pageResponseHeader = responseHeader;
+        int pageContentSize = contentSize;
+        try {
+            if (pipelining) {
+                // Group the resources by host, keeping the order.
+                LinkedHashMap<String, List<URL>> hosts =
+                        new LinkedHashMap<String, List<URL>>();
+                for (URL resource : resources) {
+                    if (!"http".equals(resource.getProtocol())) {
+                        readURL(resource);
+                        continue;
+                    }
+                    String key = resource.getHost() + ':' + resource.getPort();
+                    List<URL> urls = hosts.get(key);
+                    if (urls == null) {
+                        urls = new ArrayList<URL>(resources.length);
+                        hosts.put(key, urls);
+                    }
+                    urls.add(resource);
+                }
+                if (pipeline == null)
+                    pipeline = new Pipeline();
+                for (List<URL> urls : hosts.values())
+                    pipeline.fetch(urls);
+            } else {
+                for (URL resource : resources)
+                    readURL(resource);
+            }
+        } finally {
+            responseCode = pageResponseCode;
+            responseHeader = pageResponseHeader;
+            contentSize = pageContentSize;
+        }
+    }
+
+    /**
+     * Enables or disables HTTP/1.1 pipelining of the image or resource
+     * requests in fetchPage. Pipelining is disabled by default unless
+     * the faban.http.pipelining system property is set to true. Only
+     * enable pipelining if the server under test supports it.
+     * @param pipelining True to pipeline, false otherwise
+     */
+    public void setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+        if (!pipelining && pipeline != null) {
+            pipeline.close();
+            pipeline = null;
+        }
+    }
+
+    /**
+     * Checks whether the resource requests in fetchPage are pipelined.
+     * @return True if pipelined, false otherwise
+     */
+    public boolean isPipelining() {
+        return pipelining;
     }
 
     /**
@@ -696,6 +843,21 @@ public class SunHttpTransport extends HttpTransport {
      * @throws IOException
      */
     private int readResponse(HttpURLConnection connection) throws IOException {
+        return readResponse(connection, null);
+    }
+
+    /**
+     * Reads the http response from a connection, passes the data to the
+     * consumer if any, and counts the size of the resulting document.
+     * @param connection The connection to read from
+     * @param consumer The consumer of the data, or null to discard
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    private int readResponse(HttpURLConnection connection,
+                             ResponseConsumer consumer) throws IOException {
+        if (consumer != null)
+            consumer.reset();
         InputStream is = connection.getInputStream();
         /*
         Map<String, List<String>> m = connection.getHeaderFields();
@@ -705,6 +867,8 @@ public class SunHttpTransport extends HttpTransport {
         int totalLength = 0;
         int length = is.read(byteReadBuffer);
         while (length != -1) {
+            if (consumer != null)
+                consumer.consume(byteReadBuffer, 0, length);
             totalLength += length;
             length = is.read(byteReadBuffer);
         }
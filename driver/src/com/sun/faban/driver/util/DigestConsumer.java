@@ -0,0 +1,94 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.driver.ResponseConsumer;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes a message digest over a response body while it is read. This
+ * allows verifying large downloads without keeping them in memory.
+ *
+ * @author Akara Sucharitakul
+ */
+public class DigestConsumer implements ResponseConsumer {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private MessageDigest digest;
+    private byte[] result;
+
+    /**
+     * Constructs a digest consumer.
+     * @param algorithm The digest algorithm, i.e. MD5 or SHA-1
+     * @throws NoSuchAlgorithmException If the algorithm is not available
+     */
+    public DigestConsumer(String algorithm) throws NoSuchAlgorithmException {
+        digest = MessageDigest.getInstance(algorithm);
+    }
+
+    /**
+     * Resets the digest for a new response.
+     */
+    public void reset() {
+        digest.reset();
+        result = null;
+    }
+
+    /**
+     * Adds a piece of the response body to the digest.
+     * @param buffer The buffer holding the data
+     * @param offset The offset of the data in the buffer
+     * @param length The length of the data
+     */
+    public void consume(byte[] buffer, int offset, int length) {
+        digest.update(buffer, offset, length);
+    }
+
+    /**
+     * Obtains the digest of the response consumed.
+     * @return The digest
+     */
+    public byte[] getDigest() {
+        if (result == null)
+            result = digest.digest();
+        return result;
+    }
+
+    /**
+     * Obtains the digest of the response consumed as a hex string.
+     * @return The digest, in hex
+     */
+    public String getHexDigest() {
+        byte[] d = getDigest();
+        char[] hex = new char[d.length * 2];
+        for (int i = 0; i < d.length; i++) {
+            hex[2 * i] = HEX[(d[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[d[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,93 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+/**
+ * A fast random number generator for use by a single thread. It is a
+ * xorshift64* generator with a period of 2^64 - 1. Unlike java.util.Random
+ * it has no atomic updates or memory fences, so it is meant to be kept
+ * confined to the thread using it, such as in a per-thread mix selector.
+ * This class is not thread-safe.
+ *
+ * @author Akara Sucharitakul
+ */
+public final class FastRandom {
+
+    private long state;
+
+    /**
+     * Constructs a fast random generator with the given seed. Similar seeds
+     * still produce unrelated sequences.
+     * @param seed The seed
+     */
+    public FastRandom(long seed) {
+        // Mix the seed bits (SplitMix64 finalizer), state must not be 0.
+        seed += 0x9e3779b97f4a7c15l;
+        seed = (seed ^ (seed >>> 30)) * 0xbf58476d1ce4e5b9l;
+        seed = (seed ^ (seed >>> 27)) * 0x94d049bb133111ebl;
+        seed ^= seed >>> 31;
+        state = seed == 0l ? 0x9e3779b97f4a7c15l : seed;
+    }
+
+    /**
+     * Constructs a fast random generator seeded from another random value
+     * generator, which is typically the per-thread generator.
+     * @param random The random value generator to seed from
+     */
+    public FastRandom(Random random) {
+        this(Double.doubleToLongBits(random.drandom(0d, 1d)));
+    }
+
+    /**
+     * Obtains the next 64 random bits.
+     * @return The random bits
+     */
+    public long nextLong() {
+        long x = state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state = x;
+        return x * 0x2545f4914f6cdd1dl;
+    }
+
+    /**
+     * Obtains a random double uniformly distributed between 0, inclusive,
+     * and 1, exclusive.
+     * @return The random value
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Obtains a random int uniformly distributed between 0, inclusive,
+     * and n, exclusive.
+     * @param n The bound, must be positive
+     * @return The random value
+     */
+    public int nextInt(int n) {
+        return (int) (((nextLong() >>> 32) * n) >>> 32);
+    }
+}
@@ -24,6 +24,11 @@
 package com.sun.faban.driver.util;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -157,6 +162,78 @@ public class PairwiseAggregator<T extends PairwiseAggregator.Aggregable<T>> {
         return levelStore[levelStore.length - 1];
     }
 
+    /**
+     * Aggregates all the metrices in a tree, adding the pairs at each
+     * level of the tree in parallel. The additions are still pairwise, so
+     * the results are numerically as stable as the sequential algorithm.
+     * The elapsed time is proportional to the depth of the tree, the log
+     * of the node count, given enough threads. The provider must support
+     * concurrent access to different indexes and objects.
+     * @param executor The executor running the additions
+     * @return The aggregated metric
+     * @throws InterruptedException Interrupted waiting for the additions
+     */
+    public T collectStats(ExecutorService executor)
+            throws InterruptedException {
+        if (nodeCount < 4)
+            return collectStats();
+
+        // The first level adds the provided objects by index.
+        ArrayList<Callable<T>> tasks = new ArrayList<Callable<T>>();
+        for (int i = 0; i < nodeCount; i += 2) {
+            final int idx = i;
+            tasks.add(new Callable<T>() {
+                public T call() {
+                    T m = provider.getMutableMetrics(idx);
+                    if (idx + 1 < nodeCount)
+                        provider.add(m, idx + 1);
+                    return m;
+                }
+            });
+        }
+        List<T> level = invokeAll(executor, tasks);
+
+        // Each further level adds the pairs from the level below.
+        while (level.size() > 1) {
+            tasks.clear();
+            for (int i = 0; i < level.size(); i += 2) {
+                final T m0 = level.get(i);
+                final T m1 = i + 1 < level.size() ? level.get(i + 1) : null;
+                tasks.add(new Callable<T>() {
+                    public T call() {
+                        if (m1 != null) {
+                            m0.add(m1);
+                            provider.recycle(m1);
+                        }
+                        return m0;
+                    }
+                });
+            }
+            level = invokeAll(executor, tasks);
+        }
+        return level.get(0);
+    }
+
+    private static <T> List<T> invokeAll(ExecutorService executor,
+                                         List<Callable<T>> tasks)
+            throws InterruptedException {
+        List<Future<T>> futures = executor.invokeAll(tasks);
+        ArrayList<T> results = new ArrayList<T>(futures.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new RuntimeException(cause);
+            }
+        }
+        return results;
+    }
+
     /**
      * Provider interface to provide objects to aggregate.
      */
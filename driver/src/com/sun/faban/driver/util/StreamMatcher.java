@@ -0,0 +1,215 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.driver.ResponseConsumer;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Finds which of the candidate strings occur in a response body while it
+ * is read. The candidates are encoded to bytes once and matched at the
+ * byte level in a single pass using an Aho-Corasick automaton, so the
+ * response is never decoded to characters. The cost per byte is one table
+ * lookup no matter how many candidates there are. Matches across the
+ * read boundaries are found.
+ *
+ * @author Akara Sucharitakul
+ */
+public class StreamMatcher extends StringMatcher implements ResponseConsumer {
+
+    /** The transition table, [state * 256 + byte] to the next state. */
+    private int[] delta;
+
+    /** The candidates matching at each state, or null. */
+    private int[][] output;
+
+    private int state;
+    private boolean[] found;
+    private int foundCount;
+    private int firstMatch;
+
+    /**
+     * Constructs a stream matcher matching the UTF-8 encoded candidates.
+     * @param candidates The candidates to match
+     */
+    public StreamMatcher(String[] candidates) {
+        this(candidates, "UTF-8");
+    }
+
+    /**
+     * Constructs a stream matcher matching the candidates in the given
+     * encoding.
+     * @param candidates The candidates to match
+     * @param charset The charset of the responses
+     * @throws IllegalArgumentException If the charset is not supported
+     */
+    public StreamMatcher(String[] candidates, String charset) {
+        super(candidates);
+        byte[][] patterns = new byte[candidates.length][];
+        try {
+            for (int i = 0; i < candidates.length; i++)
+                patterns[i] = candidates[i].getBytes(charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        build(patterns);
+        found = new boolean[candidates.length];
+        reset();
+    }
+
+    private void build(byte[][] patterns) {
+        // Build the trie, -1 is no transition.
+        int maxStates = 1;
+        for (byte[] p : patterns)
+            maxStates += p.length;
+        delta = new int[maxStates * 256];
+        Arrays.fill(delta, -1);
+        ArrayList<int[]> outputs = new ArrayList<int[]>(maxStates);
+        outputs.add(null);
+        int states = 1;
+        for (int i = 0; i < patterns.length; i++) {
+            int s = 0;
+            for (byte b : patterns[i]) {
+                int idx = s * 256 + (b & 0xff);
+                if (delta[idx] == -1) {
+                    delta[idx] = states++;
+                    outputs.add(null);
+                }
+                s = delta[idx];
+            }
+            outputs.set(s, append(outputs.get(s), i));
+        }
+
+        // Breadth first, fill in the failure transitions so the
+        // automaton becomes a DFA.
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < 256; c++) {
+            int next = delta[c];
+            if (next == -1) {
+                delta[c] = 0;
+            } else {
+                fail[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            int[] failOutput = outputs.get(fail[s]);
+            if (failOutput != null)
+                for (int i : failOutput)
+                    outputs.set(s, append(outputs.get(s), i));
+            for (int c = 0; c < 256; c++) {
+                int idx = s * 256 + c;
+                int next = delta[idx];
+                int failNext = delta[fail[s] * 256 + c];
+                if (next == -1) {
+                    delta[idx] = failNext;
+                } else {
+                    fail[next] = failNext;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        if (states < maxStates)
+            delta = Arrays.copyOf(delta, states * 256);
+        output = outputs.toArray(new int[states][]);
+    }
+
+    private static int[] append(int[] a, int i) {
+        if (a == null)
+            return new int[] { i };
+        for (int j : a)
+            if (j == i)
+                return a;
+        int[] b = Arrays.copyOf(a, a.length + 1);
+        b[a.length] = i;
+        return b;
+    }
+
+    /**
+     * Resets the matcher for a new response.
+     */
+    public void reset() {
+        state = 0;
+        Arrays.fill(found, false);
+        foundCount = 0;
+        firstMatch = -1;
+    }
+
+    /**
+     * Matches a piece of the response body.
+     * @param buffer The buffer holding the data
+     * @param offset The offset of the data in the buffer
+     * @param length The length of the data
+     */
+    public void consume(byte[] buffer, int offset, int length) {
+        if (foundCount == found.length)
+            return; // Found all, nothing more to do.
+        int s = state;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            s = delta[(s << 8) | (buffer[i] & 0xff)];
+            int[] matches = output[s];
+            if (matches != null)
+                for (int m : matches)
+                    if (!found[m]) {
+                        found[m] = true;
+                        if (foundCount++ == 0)
+                            firstMatch = m;
+                    }
+        }
+        state = s;
+    }
+
+    /**
+     * Checks whether any candidate was found in the response.
+     * @return True if found, false otherwise
+     */
+    public boolean isFound() {
+        return foundCount > 0;
+    }
+
+    /**
+     * Checks whether the given candidate was found in the response.
+     * @param index The index of the candidate
+     * @return True if found, false otherwise
+     */
+    public boolean isFound(int index) {
+        return found[index];
+    }
+
+    /**
+     * Obtains the candidate found first in the response.
+     * @return The index of the candidate, or -1 if none was found
+     */
+    public int getFirstMatch() {
+        return firstMatch;
+    }
+}
@@ -0,0 +1,169 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.driver.ResponseConsumer;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a regular expression against a response body while it is read.
+ * The response bytes are matched as ISO-8859-1 characters without any
+ * decoding, which works for patterns in ASCII also on UTF-8 responses.
+ * Only a window of the response is kept. The last maxMatchLength bytes
+ * of each read are carried over to the next so matches up to that length
+ * are found across read boundaries. Matching stops at the first match.
+ *
+ * @author Akara Sucharitakul
+ */
+public class StreamRegexMatcher implements ResponseConsumer {
+
+    private Pattern pattern;
+    private Matcher matcher;
+    private int maxMatchLength;
+    private byte[] window;
+    private int length;
+    private ByteSequence sequence = new ByteSequence();
+    private String match;
+
+    /**
+     * Constructs a stream regex matcher.
+     * @param regex The regular expression
+     * @param maxMatchLength The max length of a match, in bytes
+     */
+    public StreamRegexMatcher(String regex, int maxMatchLength) {
+        this(Pattern.compile(regex), maxMatchLength);
+    }
+
+    /**
+     * Constructs a stream regex matcher.
+     * @param pattern The compiled pattern
+     * @param maxMatchLength The max length of a match, in bytes
+     */
+    public StreamRegexMatcher(Pattern pattern, int maxMatchLength) {
+        this.pattern = pattern;
+        this.maxMatchLength = maxMatchLength;
+        window = new byte[maxMatchLength + 8192];
+        matcher = pattern.matcher(sequence);
+    }
+
+    /**
+     * Resets the matcher for a new response.
+     */
+    public void reset() {
+        length = 0;
+        match = null;
+    }
+
+    /**
+     * Matches a piece of the response body.
+     * @param buffer The buffer holding the data
+     * @param offset The offset of the data in the buffer
+     * @param len The length of the data
+     */
+    public void consume(byte[] buffer, int offset, int len) {
+        if (match != null)
+            return;
+        if (length + len > window.length) {
+            byte[] newWindow = new byte[length + len];
+            System.arraycopy(window, 0, newWindow, 0, length);
+            window = newWindow;
+        }
+        System.arraycopy(buffer, offset, window, length, len);
+        length += len;
+        sequence.set(window, 0, length);
+        matcher.reset(sequence);
+        if (matcher.find()) {
+            match = matcher.group();
+            return;
+        }
+        // Keep the tail for matches across reads.
+        int keep = Math.min(maxMatchLength, length);
+        System.arraycopy(window, length - keep, window, 0, keep);
+        length = keep;
+    }
+
+    /**
+     * Checks whether the pattern was found in the response.
+     * @return True if found, false otherwise
+     */
+    public boolean isFound() {
+        return match != null;
+    }
+
+    /**
+     * Obtains the text of the first match.
+     * @return The match, or null if not found
+     */
+    public String getMatch() {
+        return match;
+    }
+
+    /**
+     * Obtains the pattern of this matcher.
+     * @return The pattern
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * A char sequence view of a byte array. Each byte is a ISO-8859-1
+     * character.
+     */
+    static class ByteSequence implements CharSequence {
+        private byte[] bytes;
+        private int offset;
+        private int length;
+
+        void set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xff);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            ByteSequence s = new ByteSequence();
+            s.set(bytes, offset + start, end - start);
+            return s;
+        }
+
+        @Override
+        public String toString() {
+            char[] c = new char[length];
+            for (int i = 0; i < length; i++)
+                c[i] = (char) (bytes[offset + i] & 0xff);
+            return new String(c);
+        }
+    }
+}
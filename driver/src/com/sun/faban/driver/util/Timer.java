@@ -27,8 +27,12 @@ import com.sun.faban.common.Utilities;
 import com.sun.faban.driver.FatalException;
 import com.sun.faban.driver.util.timermeter.TimerMeter;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Logger;
 
 /**
@@ -51,6 +55,28 @@ public class Timer implements Serializable {
     private double deviation = 5000000d; // for both fields.
     private Boolean debug = null;
 
+    /** The minimum time to spin before the wakeup time, in ns. */
+    private static final long MIN_SPIN = 50000l;
+
+    /** The maximum time to spin before the wakeup time, in ns. */
+    private static final long MAX_SPIN = 2000000l;
+
+    /** Longs per stripe of the lateness stats, one cache line. */
+    private static final int STRIPE_FIELDS = 8;
+
+    /** Wakeup modes selected by the faban.timer.wakeup property. */
+    private static final int PARK = 0;
+    private static final int SPIN = 1;
+    private static final int SLEEP = 2;
+
+    // Wakeup state, local to each agent. Set up by initWakeup.
+    private transient int wakeupMode;
+    private transient volatile long spinThreshold;
+    private transient volatile double sleepOvershoot;
+    private transient volatile double sleepOvershootDev;
+    private transient int stripeMask;
+    private transient AtomicLongArray lateness; // count, sum, max per stripe
+
     /**
      * Default Constructor which saves the current time
      * as epochMillis and epochNanos (the start of the benchmark).
@@ -73,8 +99,52 @@ public class Timer implements Serializable {
 
         logger.fine("Timer: baseTime ms: " + epochMillis +
                          ", ns: " + epochNanos);
+        initWakeup();
 	}
 
+    /**
+     * Re-establishes the wakeup state when the timer arrives at the agent.
+     * @param in The object input stream
+     * @throws IOException Error reading the stream
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initWakeup();
+    }
+
+    /**
+     * Sets up the wakeup strategy and the wakeup lateness stats. The
+     * system property faban.timer.wakeup selects the strategy, park
+     * (default), spin, or sleep.
+     */
+    private void initWakeup() {
+        String mode = System.getProperty("faban.timer.wakeup", "park");
+        if ("spin".equals(mode)) {
+            wakeupMode = SPIN;
+        } else if ("sleep".equals(mode)) {
+            wakeupMode = SLEEP;
+        } else {
+            if (!"park".equals(mode))
+                logger.warning("Unknown faban.timer.wakeup mode " + mode +
+                        ", using park.");
+            wakeupMode = PARK;
+        }
+
+        // Start with a typical park overshoot, this adapts quickly.
+        sleepOvershoot = 4 * MIN_SPIN;
+        sleepOvershootDev = MIN_SPIN;
+        spinThreshold = 8 * MIN_SPIN;
+
+        int stripes = 1;
+        int target = 2 * Runtime.getRuntime().availableProcessors();
+        while (stripes < target && stripes < 64)
+            stripes <<= 1;
+        stripeMask = stripes - 1;
+        lateness = new AtomicLongArray(stripes * STRIPE_FIELDS);
+    }
+
     /**
      * Calibrates the difference of the nanosec timer from the millisec
      * timer using 100 iterations. This is probably the most accurate
@@ -387,7 +457,19 @@ public class Timer implements Serializable {
 
     /**
      * Causes this thread to sleep until the wakeup time as referenced
-     * by this timer. Timer.sleep is not a minimum sleep time as in
+     * by this timer. By default, the thread parks until the wakeup time.
+     * It is never woken up early but late by the park granularity of
+     * the system.<p>
+     *
+     * With the system property faban.timer.wakeup set to spin, the
+     * thread parks until shortly before the wakeup time and then spins,
+     * yielding, until the wakeup time. How long before the wakeup time
+     * we start spinning adapts to the parking accuracy observed on this
+     * system. So the wakeup is only late by the spin granularity, at the
+     * cost of burning CPU on the driver system.<p>
+     *
+     * With the system property faban.timer.wakeup set to sleep,
+     * Timer.sleep is not a minimum sleep time as in
      * Thread.sleep, but rather a calibrated and compensated sleep
      * time which gives the best statistical opportunity to wake up
      * at the required time. The actual wakeup can be slightly before
@@ -396,8 +478,30 @@ public class Timer implements Serializable {
      * @param wakeupTime The time this thread is supposed to wakeup.
      */
     public void wakeupAt(long wakeupTime) {
+        switch (wakeupMode) {
+            case SPIN  : parkAndSpin(wakeupTime); break;
+            case SLEEP : sleep(wakeupTime); break;
+            default    : park(wakeupTime);
+        }
+    }
+
+    private void park(long wakeupTime) {
+        long currentTime = System.nanoTime();
+        if (currentTime >= wakeupTime)
+            return;
+        do { // parkNanos may return spuriously.
+            LockSupport.parkNanos(wakeupTime - currentTime);
+            if (Thread.interrupted())
+                throw new RuntimeException(
+                        "Sleep interrupted. Run terminating.");
+            currentTime = System.nanoTime();
+        } while (currentTime < wakeupTime);
+        recordLateness(currentTime - wakeupTime);
+    }
+
+    private void sleep(long wakeupTime) {
         long currentTime;
-        if ((currentTime = System.nanoTime()) < wakeupTime - compensation)
+        if ((currentTime = System.nanoTime()) < wakeupTime - compensation) {
             try {
                 long sleepTime = wakeupTime - currentTime - compensation;
                 Thread.sleep(sleepTime / Utilities.TO_NANOS, (int) (sleepTime % Utilities.TO_NANOS));
@@ -407,6 +511,125 @@ public class Timer implements Serializable {
                 // If we get an interrupt, the run is killed/terminated.
                 // Just stop sleeping.
             }
+            recordLateness(System.nanoTime() - wakeupTime);
+        }
+    }
+
+    private void parkAndSpin(long wakeupTime) {
+        long currentTime = System.nanoTime();
+        if (currentTime >= wakeupTime)
+            return;
+        long parkEnd = wakeupTime - spinThreshold;
+        if (currentTime < parkEnd) {
+            do { // parkNanos may return spuriously.
+                LockSupport.parkNanos(parkEnd - currentTime);
+                if (Thread.interrupted())
+                    throw new RuntimeException(
+                            "Sleep interrupted. Run terminating.");
+                currentTime = System.nanoTime();
+            } while (currentTime < parkEnd);
+            adjustSpinThreshold(currentTime - parkEnd);
+        }
+        while (currentTime < wakeupTime) {
+            Thread.yield();
+            currentTime = System.nanoTime();
+        }
+        recordLateness(currentTime - wakeupTime);
+    }
+
+    /**
+     * Adapts the spin threshold to the overshoot of the park. We keep
+     * moving averages of the overshoot and its deviation and spin for
+     * the average plus 4 times the deviation. The updates from concurrent
+     * threads may race. Losing an update now and then does not matter.
+     * @param overshoot How late the thread came back from parking, in ns
+     */
+    private void adjustSpinThreshold(long overshoot) {
+        double mean = sleepOvershoot;
+        mean += (overshoot - mean) / 16d;
+        double dev = sleepOvershootDev;
+        dev += (Math.abs(overshoot - mean) - dev) / 16d;
+        sleepOvershoot = mean;
+        sleepOvershootDev = dev;
+        long threshold = (long) (mean + 4d * dev);
+        if (threshold < MIN_SPIN)
+            threshold = MIN_SPIN;
+        else if (threshold > MAX_SPIN)
+            threshold = MAX_SPIN;
+        spinThreshold = threshold;
+    }
+
+    private void recordLateness(long late) {
+        int base = ((int) Thread.currentThread().getId() & stripeMask) *
+                STRIPE_FIELDS;
+        lateness.incrementAndGet(base);
+        lateness.addAndGet(base + 1, late);
+        long max;
+        do {
+            max = lateness.get(base + 2);
+        } while (late > max && !lateness.compareAndSet(base + 2, max, late));
+    }
+
+    /**
+     * Obtains the number of waits recorded in the wakeup lateness stats.
+     * @return The number of waits
+     */
+    public long getWakeupCount() {
+        long count = 0l;
+        for (int i = 0; i < lateness.length(); i += STRIPE_FIELDS)
+            count += lateness.get(i);
+        return count;
+    }
+
+    /**
+     * Obtains the sum of the wakeup lateness of all recorded waits.
+     * @return The total wakeup lateness, in ns
+     */
+    public long getWakeupLatenessSum() {
+        long sum = 0l;
+        for (int i = 1; i < lateness.length(); i += STRIPE_FIELDS)
+            sum += lateness.get(i);
+        return sum;
+    }
+
+    /**
+     * Obtains the mean wakeup lateness, the time between the requested
+     * wakeup time and the actual wakeup. This is negative if threads
+     * wake up early on average.
+     * @return The mean wakeup lateness, in ns
+     */
+    public double getWakeupLatenessMean() {
+        long count = 0l;
+        long sum = 0l;
+        for (int i = 0; i < lateness.length(); i += STRIPE_FIELDS) {
+            count += lateness.get(i);
+            sum += lateness.get(i + 1);
+        }
+        if (count == 0l)
+            return 0d;
+        return (double) sum / count;
+    }
+
+    /**
+     * Obtains the maximum wakeup lateness.
+     * @return The maximum wakeup lateness, in ns
+     */
+    public long getWakeupLatenessMax() {
+        long max = 0l;
+        for (int i = 0; i < lateness.length(); i += STRIPE_FIELDS)
+            if (lateness.get(i + 2) > max)
+                max = lateness.get(i + 2);
+        return max;
+    }
+
+    /**
+     * Obtains the current time before the wakeup time at which the
+     * thread stops parking and starts spinning. This is only used
+     * in the spin wakeup mode.
+     * @return The spin threshold, in ns
+     */
+    public long getSpinThreshold() {
+        return spinThreshold;
     }
 
     public void idleTimerCheck(String id) {
@@ -0,0 +1,42 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.FastRandom;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author akara
+ */
+public class AliasTableTest {
+
+    /**
+     * Test of select method, of class AliasTable.
+     */
+    @Test
+    public void testSelect() {
+        double[] mix = { 0.5d, 0d, 0.2d, 0.05d, 0.25d };
+        AliasTable table = new AliasTable(mix);
+        FastRandom random = new FastRandom(1234l);
+        int[] counts = new int[mix.length];
+        int n = 1000000;
+        for (int i = 0; i < n; i++)
+            ++counts[table.select(random)];
+        for (int i = 0; i < mix.length; i++)
+            assertEquals(mix[i], counts[i] / (double) n, 0.002d);
+    }
+
+    /**
+     * Test of select method with all zero probabilities.
+     */
+    @Test
+    public void testSelectEmpty() {
+        AliasTable table = new AliasTable(new double[] { 0d, 0d });
+        assertEquals(-1, table.select(new FastRandom(1l)));
+    }
+}
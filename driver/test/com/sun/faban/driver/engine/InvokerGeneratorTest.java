@@ -0,0 +1,67 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.sun.faban.driver.engine;
+
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author akara
+ */
+public class InvokerGeneratorTest {
+
+    /**
+     * Test driver class with operations of different signatures.
+     */
+    public static class TestDriver {
+        int count;
+
+        public void doVoid() {
+            ++count;
+        }
+
+        public long doLong() {
+            return ++count;
+        }
+
+        public String doString() {
+            return String.valueOf(++count);
+        }
+
+        public void doThrow() throws IOException {
+            throw new IOException("Expected");
+        }
+    }
+
+    /**
+     * Test of getInvoker method, of class InvokerGenerator.
+     */
+    @Test
+    public void testGetInvoker() throws Throwable {
+        InvokerGenerator generator = new InvokerGenerator(TestDriver.class);
+        TestDriver driver = new TestDriver();
+        String[] ops = { "doVoid", "doLong", "doString" };
+        for (String op : ops) {
+            Invoker invoker = generator.getInvoker(
+                    TestDriver.class.getMethod(op));
+            assertFalse(invoker instanceof InvokerGenerator.ReflectiveInvoker);
+            invoker.invoke(driver);
+        }
+        assertEquals(3, driver.count);
+    }
+
+    /**
+     * Test that exceptions are not wrapped by the invoker.
+     */
+    @Test(expected=IOException.class)
+    public void testThrow() throws Throwable {
+        InvokerGenerator generator = new InvokerGenerator(TestDriver.class);
+        generator.getInvoker(TestDriver.class.getMethod("doThrow")).
+                invoke(new TestDriver());
+    }
+}
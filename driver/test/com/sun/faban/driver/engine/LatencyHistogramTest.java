@@ -0,0 +1,80 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.sun.faban.driver.engine;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author akara
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Test of getValueAtPercentile method, of class LatencyHistogram.
+     */
+    @Test
+    public void testGetValueAtPercentile() {
+        LatencyHistogram h = new LatencyHistogram(1000l, 2);
+        for (long i = 1; i <= 10000; i++)
+            h.record(i * 1000000l); // 1ms to 10s
+        assertEquals(10000, h.getTotalCount());
+        long p99 = h.getValueAtPercentile(99d);
+        assertEquals(9.9e9d, p99, 9.9e9d / 100d);
+        long p9999 = h.getValueAtPercentile(99.99d);
+        assertEquals(1e10d, p9999, 1e10d / 100d);
+    }
+
+    /**
+     * Test of add method, of class LatencyHistogram.
+     */
+    @Test
+    public void testAdd() {
+        LatencyHistogram h1 = new LatencyHistogram(1000l, 2);
+        LatencyHistogram h2 = new LatencyHistogram(1000l, 2);
+        h1.record(5000l);
+        h2.record(5000000000l);
+        h1.add(h2);
+        assertEquals(2, h1.getTotalCount());
+        assertEquals(5e9d, h1.getValueAtPercentile(100d), 5e9d / 100d);
+        assertEquals(6000l, h1.getValueAtPercentile(50d));
+        assertEquals(1, h1.getValueAtPercentile(100d, h2) / 6000l);
+    }
+
+    /**
+     * Test of toLinear method, of class LatencyHistogram.
+     */
+    @Test
+    public void testToLinear() {
+        LatencyHistogram h = new LatencyHistogram(1l, 1);
+        for (int i = 0; i < 100; i++)
+            h.record(i);
+        int[] linear = h.toLinear(50);
+        int sum = 0;
+        for (int i = 0; i < linear.length; i++) {
+            sum += linear[i];
+            if (i < 49)
+                assertEquals(1, linear[i]);
+        }
+        assertEquals(100, sum);
+    }
+
+    /**
+     * Test of getFlatIndex and addAtFlatIndex, of class LatencyHistogram.
+     */
+    @Test
+    public void testFlatIndex() {
+        LatencyHistogram h1 = new LatencyHistogram(1000l, 2);
+        LatencyHistogram h2 = new LatencyHistogram(1000l, 2);
+        for (long v = 1000l; v < 100000000000l; v = v * 3 / 2) {
+            h1.record(v);
+            h2.addAtFlatIndex(h2.getFlatIndex(v), 1);
+        }
+        assertEquals(h1.getTotalCount(), h2.getTotalCount());
+        assertEquals(h1.toString(), h2.toString());
+    }
+}
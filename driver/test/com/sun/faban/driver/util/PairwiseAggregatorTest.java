@@ -5,6 +5,8 @@
 
 package com.sun.faban.driver.util;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 import junit.framework.TestCase;
 import static org.junit.Assert.*;
@@ -30,6 +32,21 @@ public class PairwiseAggregatorTest extends TestCase {
         }
     }
 
+    public void testCollectStatsParallel() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int count = 1; count <= 2000; count++) {
+                ElementProvider provider = new ElementProvider();
+                PairwiseAggregator<Element> aggregator =
+                        new PairwiseAggregator<Element>(count, provider);
+                Element el = aggregator.collectStats(executor);
+                assertEquals(count, el.value);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     private class Element implements PairwiseAggregator.Aggregable<Element> {
 
         public int value;
@@ -0,0 +1,312 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.agent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Handler sending log records to the log server in a compact binary form
+ * instead of XML. It can be used in place of the SocketHandler with the
+ * RemoteLogFormatter. Records are batched into frames and are rendered to
+ * XML only on the log server. A frame starts with the MAGIC bytes, the
+ * VERSION, and the length of the frame body as an int. The body contains
+ * the host name and the records, which are written by writeRecord. All
+ * names are interned per frame. The first occurrence of a name is written
+ * out, subsequent occurrences are just referenced by index.<p>
+ *
+ * The handler is configured by the following LogManager properties:<ul>
+ * <li>com.sun.faban.harness.agent.BinaryLogHandler.host - the log server
+ *     host, defaults to java.util.logging.SocketHandler.host</li>
+ * <li>com.sun.faban.harness.agent.BinaryLogHandler.port - the log server
+ *     port, defaults to java.util.logging.SocketHandler.port</li>
+ * <li>com.sun.faban.harness.agent.BinaryLogHandler.level - the handler
+ *     level, defaults to ALL</li>
+ * <li>com.sun.faban.harness.agent.BinaryLogHandler.batchSize - the frame
+ *     size at which the frame gets sent, defaults to 16384 bytes</li>
+ * <li>com.sun.faban.harness.agent.BinaryLogHandler.flushInterval - the
+ *     max time records are held, defaults to 500 ms</li>
+ * </ul>
+ * SEVERE records are always sent right away.
+ *
+ * @author Akara Sucharitakul
+ */
+public class BinaryLogHandler extends Handler {
+
+    /** The protocol header of each frame. */
+    public static final byte[] MAGIC = { 'F', 'B', 'L', 'G' };
+
+    /** The protocol version. */
+    public static final int VERSION = 1;
+
+    /** The header length: magic, version, and body length. */
+    public static final int HEADER_LENGTH = MAGIC.length + 5;
+
+    private static final Formatter messageFormatter = new SimpleFormatter();
+
+    private String host;
+    private int port;
+    private String localHost;
+    private int batchSize;
+    private long flushInterval;
+
+    private Socket socket;
+    private OutputStream out;
+
+    private ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private DataOutputStream data = new DataOutputStream(body);
+    private HashMap<String, Integer> strings = new HashMap<String, Integer>();
+    private int recordCount = 0;
+    private Thread flusher;
+    private boolean closed = false;
+
+    /**
+     * Constructs the handler based on the LogManager properties.
+     */
+    public BinaryLogHandler() {
+        LogManager manager = LogManager.getLogManager();
+        String prefix = getClass().getName();
+        host = getProperty(manager, prefix + ".host",
+                "java.util.logging.SocketHandler.host", "localhost");
+        port = Integer.parseInt(getProperty(manager, prefix + ".port",
+                "java.util.logging.SocketHandler.port", "9999"));
+        batchSize = Integer.parseInt(getProperty(manager, prefix +
+                ".batchSize", null, "16384"));
+        flushInterval = Long.parseLong(getProperty(manager, prefix +
+                ".flushInterval", null, "500"));
+        setLevel(Level.parse(getProperty(manager, prefix + ".level", null,
+                "ALL")));
+        try {
+            localHost = InetAddress.getLocalHost().getHostName();
+        } catch (java.net.UnknownHostException uhe) {
+            localHost = "unknown";
+        }
+        startFrame();
+
+        flusher = new Thread() {
+            public void run() {
+                while (!closed) {
+                    try {
+                        Thread.sleep(flushInterval);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    flush();
+                }
+            }
+        };
+        flusher.setName("BinaryLogHandler");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private static String getProperty(LogManager manager, String name,
+                                      String fallback, String defaultValue) {
+        String value = manager.getProperty(name);
+        if (value == null && fallback != null)
+            value = manager.getProperty(fallback);
+        if (value == null)
+            value = defaultValue;
+        return value.trim();
+    }
+
+    private void startFrame() {
+        body.reset();
+        strings.clear();
+        recordCount = 0;
+        try {
+            writeString(data, localHost);
+        } catch (IOException e) { // Does not happen on a byte array.
+            reportError(e.getMessage(), e, ErrorManager.GENERIC_FAILURE);
+        }
+    }
+
+    /**
+     * Publishes a log record by adding it to the current frame.
+     * @param record The log record
+     */
+    public synchronized void publish(LogRecord record) {
+        if (closed || !isLoggable(record))
+            return;
+        try {
+            writeRecord(record);
+            ++recordCount;
+        } catch (IOException e) {
+            reportError(e.getMessage(), e, ErrorManager.FORMAT_FAILURE);
+        }
+        if (body.size() >= batchSize ||
+                record.getLevel().intValue() >= Level.SEVERE.intValue())
+            flush();
+    }
+
+    /**
+     * Writes a record to the current frame. The fields are:<ol>
+     * <li>millis as long</li>
+     * <li>sequence number as long</li>
+     * <li>level name as string, followed by the level value as int</li>
+     * <li>logger name, source class name, source method name as strings</li>
+     * <li>thread id as int</li>
+     * <li>formatted message as text</li>
+     * <li>a boolean whether there is a throwable. If so, the throwable
+     *     description as text, the frame count as int, and for each
+     *     frame the class name, method name, file name as strings and
+     *     the line number as int</li>
+     * </ol>
+     * Strings are interned names written by writeString, text is written
+     * as an int UTF-8 byte length, or -1 for null, followed by the bytes.
+     * @param record The log record
+     * @throws IOException Does not happen on a byte array
+     */
+    private void writeRecord(LogRecord record) throws IOException {
+        data.writeLong(record.getMillis());
+        data.writeLong(record.getSequenceNumber());
+        writeString(data, record.getLevel().getName());
+        data.writeInt(record.getLevel().intValue());
+        writeString(data, record.getLoggerName());
+        writeString(data, record.getSourceClassName());
+        writeString(data, record.getSourceMethodName());
+        data.writeInt(record.getThreadID());
+        writeText(data, messageFormatter.formatMessage(record));
+        Throwable thrown = record.getThrown();
+        data.writeBoolean(thrown != null);
+        if (thrown != null) {
+            writeText(data, thrown.toString());
+            StackTraceElement[] frames = thrown.getStackTrace();
+            data.writeInt(frames.length);
+            for (StackTraceElement frame : frames) {
+                writeString(data, frame.getClassName());
+                writeString(data, frame.getMethodName());
+                writeString(data, frame.getFileName());
+                data.writeInt(frame.getLineNumber());
+            }
+        }
+    }
+
+    /**
+     * Writes an interned string. Index 0 is null. An index equal to the
+     * number of strings seen so far is followed by the new string.
+     * @param out The output
+     * @param s The string
+     * @throws IOException Does not happen on a byte array
+     */
+    private void writeString(DataOutputStream out, String s)
+            throws IOException {
+        if (s == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        Integer idx = strings.get(s);
+        if (idx != null) {
+            writeVarInt(out, idx);
+        } else {
+            idx = strings.size() + 1;
+            strings.put(s, idx);
+            writeVarInt(out, idx);
+            out.writeUTF(s);
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String s)
+            throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] b = s.getBytes("UTF-8");
+            out.writeInt(b.length);
+            out.write(b);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int v)
+            throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    /**
+     * Sends the current frame to the log server.
+     */
+    public synchronized void flush() {
+        if (recordCount == 0)
+            return;
+        try {
+            if (out == null) {
+                socket = new Socket(host, port);
+                out = socket.getOutputStream();
+            }
+            byte[] header = new byte[HEADER_LENGTH];
+            System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+            int length = body.size();
+            header[MAGIC.length] = (byte) VERSION;
+            header[MAGIC.length + 1] = (byte) (length >>> 24);
+            header[MAGIC.length + 2] = (byte) (length >>> 16);
+            header[MAGIC.length + 3] = (byte) (length >>> 8);
+            header[MAGIC.length + 4] = (byte) length;
+            out.write(header);
+            body.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            reportError("Cannot send " + recordCount + " log records to " +
+                    host + ':' + port, e, ErrorManager.WRITE_FAILURE);
+            closeSocket(); // Try reconnecting on the next flush.
+        }
+        startFrame();
+    }
+
+    /**
+     * Sends the remaining records and closes the connection.
+     */
+    public synchronized void close() {
+        flush();
+        closed = true;
+        flusher.interrupt();
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        if (socket != null)
+            try {
+                socket.close();
+            } catch (IOException e) {
+                reportError(e.getMessage(), e, ErrorManager.CLOSE_FAILURE);
+            }
+        socket = null;
+        out = null;
+    }
+}
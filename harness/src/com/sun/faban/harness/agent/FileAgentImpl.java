@@ -294,7 +294,7 @@ public class FileAgentImpl extends UnicastRemoteObject
                     transfer.getDest() + ", " +
                     transfer.getTransferSize() + " out of " +
                     transfer.getSize() + " bytes");
-        return transfer.getSize();
+        return transfer.getTransferSize();
     }
 
     /**
@@ -43,9 +43,16 @@ import java.rmi.RemoteException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -87,9 +94,22 @@ final public class CmdService { 	// The final keyword prevents clones
     /** Parallel flag in FG mode. */
     public static final int PARALLEL = 2;
 
+    /** Maximum number of hosts to talk to concurrently. */
+    private static final int MAX_FANOUT = 32;
+
+    /** Timeout for agent setup and lookup calls on each host, in secs. */
+    private static final long HOST_TIMEOUT = 300l;
+
     private static Logger logger = Logger.getLogger(CmdService.class.getName());
     private static CmdService cmds;
 
+    /** Pool for calls fanning out to multiple hosts. */
+    private ExecutorService fanOutPool;
+
+    /** Locks serializing file operations on each host. */
+    private ConcurrentHashMap<String, Object> hostLocks =
+            new ConcurrentHashMap<String, Object>();
+
     private ArrayList<CmdAgent> cmdp = new ArrayList<CmdAgent>();
     private ArrayList<FileAgent> filep = new ArrayList<FileAgent>();
 
@@ -119,6 +139,19 @@ final public class CmdService { 	// The final keyword prevents clones
             logger.severe("CmdService <init> failed " + e);
             logger.log(Level.FINE, "Exception", e);
         }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_FANOUT,
+                MAX_FANOUT, 60l, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "CmdService-" +
+                                count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        fanOutPool = pool;
         cmds = this;
     }
 
@@ -472,11 +505,13 @@ final public class CmdService { 	// The final keyword prevents clones
 
         // cycles through benchmark machines starting up agents and
         // configuring them
+        ArrayList<String> newMachines = new ArrayList<String>();
         for (ParamRepository.HostConfig hostConfig : hostConfigs) {
             String[] machines = hostConfig.hosts;
             for (int i = 0; i < machines.length; i++) {
                 // Do not start duplicate Cmd agent
-                if (machinesList.contains(machines[i])) {
+                if (machinesList.contains(machines[i]) ||
+                        newMachines.contains(machines[i])) {
                     continue;
                 }
 
@@ -485,24 +520,57 @@ final public class CmdService { 	// The final keyword prevents clones
                 if (interfaceAddress == null || interfaceAddress.length() == 0) {
                     return false;
                 }
+                newMachines.add(machines[i]);
+            }
+        }
 
-                if (!startCmdAgent(benchName, machines[i], interfaceAddress)) {
-                    return false;
+        // Start the agents on all machines concurrently.
+        final String bench = benchName;
+        List<Boolean> started;
+        try {
+            started = fanOut(newMachines.toArray(
+                    new String[newMachines.size()]), new HostTask<Boolean>() {
+                public Boolean call(String machine) {
+                    return startCmdAgent(bench, machine, ifMap.get(machine));
                 }
-
-                // By adding the mach to the list we prevent multiple
-                // agents being started on the same server
-                machinesList.add(machines[i]);
-            }
+            }, HOST_TIMEOUT);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, e.getMessage(), e);
+            return false;
         }
+        if (started.contains(Boolean.FALSE))
+            return false;
+
+        // By adding the mach to the list we prevent multiple
+        // agents being started on the same server
+        machinesList.addAll(newMachines);
+
         try {
             Thread.sleep(20000);
         } catch (InterruptedException e) {
         }
-        for (int i = 0; i < machinesList.size(); i++) {
-            if (!getCmdAgent((String) machinesList.get(i))) {
+
+        // Connect to all agents concurrently, but keep the agent lists
+        // in the order of the machines list.
+        List<AgentRefs> refs;
+        try {
+            String[] machines = machinesList.toArray(
+                    new String[machinesList.size()]);
+            refs = fanOut(machines, new HostTask<AgentRefs>() {
+                public AgentRefs call(String machine) {
+                    return getCmdAgent(machine);
+                }
+            }, HOST_TIMEOUT);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, e.getMessage(), e);
+            return false;
+        }
+        for (AgentRefs ref : refs) {
+            if (ref == null) {
                 return false;
             }
+            cmdp.add(ref.cmdAgent);
+            filep.add(ref.fileAgent);
         }
 
         if (par.getBooleanValue("fa:runConfig/fh:timeSync", true)) {
@@ -592,7 +660,135 @@ final public class CmdService { 	// The final keyword prevents clones
         return complete;
     }
 
-    private boolean getCmdAgent(String mach) {
+    /**
+     * The command and file agents of a host.
+     */
+    static class AgentRefs {
+        CmdAgent cmdAgent;
+        FileAgent fileAgent;
+    }
+
+    /**
+     * A task to be run against a single host as part of a fan-out.
+     * @param <V> The result type
+     */
+    interface HostTask<V> {
+
+        /**
+         * Runs the task against the given host.
+         * @param machine The host
+         * @return The result
+         * @throws Exception Any error running the task
+         */
+        V call(String machine) throws Exception;
+    }
+
+    /**
+     * Runs a task against each of the given hosts concurrently and waits
+     * for all of them to complete. Null or empty host names are skipped
+     * and yield a null result. If only one host fails, the exception from
+     * that host is thrown as is. If multiple hosts fail, the errors are
+     * logged and an IOException listing all failed hosts is thrown.
+     * @param machines The hosts
+     * @param task The task to run against each host
+     * @param timeout The timeout for each host, in seconds, 0 for no timeout
+     * @return The results, in the order of the hosts
+     * @throws Exception The failure on one or more hosts
+     */
+    private <V> List<V> fanOut(String[] machines, final HostTask<V> task,
+                               long timeout) throws Exception {
+        ArrayList<NameValuePair<Future<V>>> tasks =
+                new ArrayList<NameValuePair<Future<V>>>(machines.length);
+        for (final String machine : machines) {
+            NameValuePair<Future<V>> future = new NameValuePair<Future<V>>();
+            future.name = machine;
+            if (machine != null && machine.length() > 0)
+                future.value = fanOutPool.submit(new Callable<V>() {
+                    public V call() throws Exception {
+                        return task.call(machine);
+                    }
+                });
+            tasks.add(future);
+        }
+
+        ArrayList<V> results = new ArrayList<V>(machines.length);
+        ArrayList<NameValuePair<Throwable>> errors =
+                new ArrayList<NameValuePair<Throwable>>();
+        long deadline = System.nanoTime() +
+                TimeUnit.SECONDS.toNanos(timeout);
+        try {
+            for (NameValuePair<Future<V>> future : tasks) {
+                V result = null;
+                if (future.value != null) {
+                    try {
+                        if (timeout > 0)
+                            result = future.value.get(Math.max(0l,
+                                    deadline - System.nanoTime()),
+                                    TimeUnit.NANOSECONDS);
+                        else
+                            result = future.value.get();
+                    } catch (ExecutionException e) {
+                        errors.add(new NameValuePair<Throwable>(future.name,
+                                e.getCause()));
+                    } catch (TimeoutException e) {
+                        future.value.cancel(true);
+                        errors.add(new NameValuePair<Throwable>(future.name,
+                                new TimeoutException("Timed out after " +
+                                timeout + " seconds on " + future.name)));
+                    }
+                }
+                results.add(result);
+            }
+        } catch (InterruptedException e) {
+            for (NameValuePair<Future<V>> future : tasks)
+                if (future.value != null)
+                    future.value.cancel(true);
+            throw e;
+        }
+
+        if (errors.size() == 1) {
+            Throwable t = errors.get(0).value;
+            if (t instanceof Exception)
+                throw (Exception) t;
+            throw (Error) t;
+        } else if (errors.size() > 1) {
+            StringBuilder msg = new StringBuilder("Failed on ");
+            msg.append(errors.size()).append(" of ").append(machines.length).
+                    append(" hosts:");
+            for (NameValuePair<Throwable> error : errors) {
+                msg.append(' ').append(error.name);
+                logger.log(Level.WARNING, "Error on host " + error.name,
+                        error.value);
+            }
+            IOException e = new IOException(msg.toString());
+            e.initCause(errors.get(0).value);
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Rethrows exceptions from fan-out calls matching the signature of
+     * command execution methods.
+     * @param e The exception
+     * @return Never returns, declared for use in throw statements
+     * @throws IOException The exception if it is an IOException or wrapped
+     * @throws InterruptedException The exception if it is one
+     */
+    private static IOException rethrow(Exception e)
+            throws IOException, InterruptedException {
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e instanceof InterruptedException)
+            throw (InterruptedException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        IOException ex = new IOException(e.getMessage());
+        ex.initCause(e);
+        throw ex;
+    }
+
+    private AgentRefs getCmdAgent(String mach) {
 
         try {
             String s = Config.CMD_AGENT + "@" + mach;
@@ -607,11 +803,9 @@ final public class CmdService { 	// The final keyword prevents clones
             }
             if (c == null) {
                 logger.severe("Could not connect to " + s);
-                return (false);
+                return null;
             }
 
-            cmdp.add(c);
-
             /* Note the agent registration process:
              * 1. Create and register the command agent.
              * 2. Download benchmark code
@@ -633,18 +827,20 @@ final public class CmdService { 	// The final keyword prevents clones
             }
             if (f == null) {
                 logger.severe("Timed out obtaining file service from " + s);
-                return (false);
+                return null;
             }
-            filep.add(f);
 
             // Added by Ramesh to get the real hostnames of the servers
             logger.info("CmdService: Configured " + s + " on server " +
                     c.getHostName());
-            return true;
+            AgentRefs refs = new AgentRefs();
+            refs.cmdAgent = c;
+            refs.fileAgent = f;
+            return refs;
 
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error accessing command agent on system " + mach, e);
-            return (false);
+            return null;
         }
     }
 
@@ -1061,15 +1257,25 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param svcPath The service path, if any
      * @return The actual command paths to execute, or null elements if not found.
      */
-    public String[] which(String[] machines, String cmd, String svcPath) {
+    public String[] which(String[] machines, final String cmd,
+                          final String svcPath) {
         String[] paths = new String[machines.length];
-        for (int i = 0; i < machines.length; i++)
-            try {
-                paths[i] = which(machines[i], cmd, svcPath);
-            } catch (RemoteException e) {
-                logger.warning("Error searching for command " + cmd + " on " +
-                                machines[i] + '.');
-            }
+        try {
+            fanOut(machines, new HostTask<String>() {
+                public String call(String machine) {
+                    try {
+                        return which(machine, cmd, svcPath);
+                    } catch (RemoteException e) {
+                        logger.warning("Error searching for command " + cmd +
+                                " on " + machine + '.');
+                        return null;
+                    }
+                }
+            }, HOST_TIMEOUT).toArray(paths);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Error searching for command " + cmd +
+                    ".", e);
+        }
         return paths;
     }
 
@@ -1115,12 +1321,19 @@ final public class CmdService { 	// The final keyword prevents clones
      * @throws RemoteException If there is a communication error to the
      *                         remote agent
      */
-    public CommandHandle[] execute(String[] machines, Command c, String svcPath)
+    public CommandHandle[] execute(String[] machines, final Command c,
+                                   final String svcPath)
             throws IOException, InterruptedException {
         CommandHandle[] result = new CommandHandle[machines.length];
-        for (int i = 0; i < machines.length; i++)
-            result[i] = findCmdAgent(machines[i]).execute(c, svcPath);
-        return result;
+        try {
+            return fanOut(machines, new HostTask<CommandHandle>() {
+                public CommandHandle call(String machine) throws Exception {
+                    return findCmdAgent(machine).execute(c, svcPath);
+                }
+            }, 0l).toArray(result);
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
     }
 
     /**
@@ -1165,12 +1378,19 @@ final public class CmdService { 	// The final keyword prevents clones
      * @throws RemoteException If there is a communication error to the
      *                         remote agent
      */
-    public CommandHandle[] java(String[] machines, Command c, String svcPath)
+    public CommandHandle[] java(String[] machines, final Command c,
+                                final String svcPath)
             throws IOException, InterruptedException {
         CommandHandle[] result = new CommandHandle[machines.length];
-        for (int i = 0; i < machines.length; i++)
-            result[i] = findCmdAgent(machines[i]).java(c, svcPath);
-        return result;
+        try {
+            return fanOut(machines, new HostTask<CommandHandle>() {
+                public CommandHandle call(String machine) throws Exception {
+                    return findCmdAgent(machine).java(c, svcPath);
+                }
+            }, 0l).toArray(result);
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
     }
 
     /**
@@ -1197,14 +1417,14 @@ final public class CmdService { 	// The final keyword prevents clones
      * @throws Exception An error occurred executing the job
      */
     public <V extends Serializable> List<V> execute(String[] machines,
-                                                    RemoteCallable<V> callable,
-                                                    String svcPath)
+                                            final RemoteCallable<V> callable,
+                                            final String svcPath)
             throws Exception {
-
-        ArrayList<V> rl = new ArrayList<V>();
-        for (int i = 0; i < machines.length; i++)
-            rl.add(findCmdAgent(machines[i]).exec(callable, svcPath));
-        return rl;
+        return fanOut(machines, new HostTask<V>() {
+            public V call(String machine) throws Exception {
+                return findCmdAgent(machine).exec(callable, svcPath);
+            }
+        }, 0l);
     }
 
     /**
@@ -1233,19 +1453,16 @@ final public class CmdService { 	// The final keyword prevents clones
      * @return true if all commands completed successfully, else false
      * @throws Exception An error occurred starting the commands
      */
-    public boolean startAgent(String machines[], Class agentClass,
-                              String identifier) throws Exception {
-        boolean result = true;
-
-        for (int i = 0; i < machines.length; i++) {
-            if ((machines[i] == null) || (machines[i].equals(""))) {
-                continue;
+    public boolean startAgent(String machines[], final Class agentClass,
+                              final String identifier) throws Exception {
+        List<Boolean> results = fanOut(machines, new HostTask<Boolean>() {
+            public Boolean call(String machine) throws Exception {
+                //Change the identifier to agent@host
+                return findCmdAgent(machine).startAgent(agentClass,
+                        identifier + "@" + machine);
             }
-            //Change the identifier to agent@host
-            result = result && findCmdAgent(machines[i]).
-                    startAgent(agentClass, identifier + "@" + machines[i]);
-        }
-        return result;
+        }, HOST_TIMEOUT);
+        return !results.contains(Boolean.FALSE);
     }
 
     /**
@@ -1320,7 +1537,13 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param destfile The destination file name
      * @return true if successful, false otherwise
      */
-    public synchronized boolean push(String srcfile,
+    public boolean push(String srcfile, String destmachine, String destfile) {
+        synchronized (hostLock(destmachine)) {
+            return doPush(srcfile, destmachine, destfile);
+        }
+    }
+
+    private boolean doPush(String srcfile,
             String destmachine, String destfile) {
         int didx = machinesList.indexOf(destmachine);
         if (didx == -1) {
@@ -1385,7 +1608,13 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param destfile The destination file name, always full path
      * @return true if successful, false otherwise
      */
-    public synchronized boolean get(String srcmachine, String srcfile,
+    public boolean get(String srcmachine, String srcfile, String destfile) {
+        synchronized (hostLock(srcmachine)) {
+            return doGet(srcmachine, srcfile, destfile);
+        }
+    }
+
+    private boolean doGet(String srcmachine, String srcfile,
             String destfile) {
         int sidx = machinesList.indexOf(srcmachine);
         if (sidx == -1) {
@@ -1448,9 +1677,27 @@ final public class CmdService { 	// The final keyword prevents clones
      * @return true/false if copy was successful/failed
      * @deprecated
      */
-    @Deprecated public synchronized boolean copy(String srcmachine, String destmachine,
+    @Deprecated public boolean copy(String srcmachine, String destmachine,
             String srcfile, String destfile,
             boolean append) {
+        // Always lock the hosts in the same order to avoid deadlocks.
+        Object lock1 = hostLock(srcmachine);
+        Object lock2 = hostLock(destmachine);
+        if (srcmachine.compareTo(destmachine) > 0) {
+            Object tmp = lock1;
+            lock1 = lock2;
+            lock2 = tmp;
+        }
+        synchronized (lock1) {
+            synchronized (lock2) {
+                return doCopy(srcmachine, destmachine, srcfile, destfile,
+                        append);
+            }
+        }
+    }
+
+    private boolean doCopy(String srcmachine, String destmachine,
+            String srcfile, String destfile, boolean append) {
 
         FileAgent srcf, destf = null;
         FileService srcfilep = null, destfilep = null;
@@ -1527,6 +1774,25 @@ final public class CmdService { 	// The final keyword prevents clones
         return cmdp.get(index);
     }
 
+    /**
+     * Obtains the lock object serializing file operations on a host.
+     * File operations on different hosts can run concurrently.
+     * @param machine The host name
+     * @return The lock object for the host
+     */
+    private Object hostLock(String machine) {
+        if (machine == null)
+            machine = "";
+        Object lock = hostLocks.get(machine);
+        if (lock == null) {
+            lock = new Object();
+            Object existing = hostLocks.putIfAbsent(machine, lock);
+            if (existing != null)
+                lock = existing;
+        }
+        return lock;
+    }
+
     private FileAgent findFileAgent(String machine) {
         if (machine == null || machine.length() == 0) {
             throw new IllegalArgumentException(
@@ -1547,9 +1813,12 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param srcfile The file name
      * @return true if the file has been deleted, false otherwise
      */
-    public synchronized boolean delete(String srcmachine, String srcfile) {
+    public boolean delete(String srcmachine, String srcfile) {
         try {
-            return findFileAgent(srcmachine).removeFile(srcfile);
+            FileAgent fileAgent = findFileAgent(srcmachine);
+            synchronized (hostLock(srcmachine)) {
+                return fileAgent.removeFile(srcfile);
+            }
         } catch (Exception ie) {
             logger.severe("CmdService: Could not delete " + srcmachine +
                     ":" + srcfile);
@@ -1566,10 +1835,13 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param filter The file filter to use
      * @return true if akk files selected by the filter has been removed
      */
-    public synchronized boolean delete(String srcmachine, String dir,
+    public boolean delete(String srcmachine, String dir,
             com.sun.faban.harness.FileFilter filter) {
         try {
-            return findFileAgent(srcmachine).removeFiles(dir, filter);
+            FileAgent fileAgent = findFileAgent(srcmachine);
+            synchronized (hostLock(srcmachine)) {
+                return fileAgent.removeFiles(dir, filter);
+            }
         } catch (Exception ie) {
             logger.severe("CmdService: Could not delete files on " +
                     srcmachine + ":" + dir);
@@ -1584,9 +1856,12 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param srcfile The file name
      * @return true if the file has been deleted, false otherwise
      */
-    public synchronized boolean truncate(String srcmachine, String srcfile) {
+    public boolean truncate(String srcmachine, String srcfile) {
         try {
-            return findFileAgent(srcmachine).truncateFile(srcfile);
+            FileAgent fileAgent = findFileAgent(srcmachine);
+            synchronized (hostLock(srcmachine)) {
+                return fileAgent.truncateFile(srcfile);
+            }
         } catch (Exception ie) {
             logger.severe("CmdService: Could not truncate " + srcmachine +
                     ":" + srcfile);
@@ -1605,7 +1880,14 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param stream The stream to copy the content to
      * @return true/false if copy was successful/failed
      */
-    public synchronized boolean copyToStream(String srcmachine, String srcfile,
+    public boolean copyToStream(String srcmachine, String srcfile,
+            OutputStream stream) {
+        synchronized (hostLock(srcmachine)) {
+            return doCopyToStream(srcmachine, srcfile, stream);
+        }
+    }
+
+    private boolean doCopyToStream(String srcmachine, String srcfile,
             OutputStream stream) {
         FileService srcfilep = null;
         byte[] buf = null;
@@ -32,6 +32,7 @@ import com.sun.faban.harness.common.Config;
 import com.sun.faban.harness.common.HostRoles;
 import com.sun.faban.harness.common.Run;
 import com.sun.faban.harness.services.ServiceManager;
+import com.sun.faban.harness.webclient.RunCatalog;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -110,6 +111,7 @@ public class GenericBenchmark {
             logger.log(Level.SEVERE,  "Failed to update run status.", e);
             return;
         }
+        RunCatalog.updateRun(run.getRunId());
 
         // Read in user parameters
         logger.info("START TIME : " + new java.util.Date());
@@ -395,6 +397,7 @@ public class GenericBenchmark {
         } catch (IOException e) {
             logger.log(Level.SEVERE,  "Failed to update run status.", e);
         }
+        RunCatalog.updateRun(run.getRunId());
 
         if(bmw != null) {
             logger.info("Killing benchmark");
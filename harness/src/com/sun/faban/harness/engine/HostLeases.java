@@ -0,0 +1,228 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.engine;
+
+import com.sun.faban.common.NameValuePair;
+import com.sun.faban.harness.ConfigurationException;
+import com.sun.faban.harness.ParamRepository;
+import com.sun.faban.harness.common.BenchmarkDescription;
+import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.common.RunId;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HostLeases keeps track of the hosts used by runs handed out to pollers.
+ * A pollee serves the run queue to a number of pollers, each driving its
+ * own pool of hosts. Runs using disjoint sets of hosts can execute
+ * concurrently on different pollers. A run whose hosts are still leased
+ * to an earlier run stays in the queue until the earlier run is uploaded
+ * back, or its lease expires. The poller renews the lease while the run
+ * executes, so a lease held by a poller that went away expires after
+ * faban.runq.leaseMinutes, default 10. Runs are handed out oldest first. A run may
+ * only overtake older waiting runs if it shares no hosts with them, so
+ * the runs on each pool of hosts are still executed in order.<p>
+ *
+ * Host leases only apply to runs handed out by a pollee. Each harness
+ * still executes one run at a time, as the command and tool services,
+ * the RMI registry, and the log redirection of the RunDaemon are shared
+ * by the whole harness process. Concurrent runs on disjoint host pools
+ * are therefore executed by one poller per pool, all polling the same
+ * pollee.
+ *
+ * @author Akara Sucharitakul
+ */
+class HostLeases {
+
+    /** The time after which a lease not renewed is dropped, in ms. */
+    static final long LEASE_TIMEOUT = Integer.getInteger(
+            "faban.runq.leaseMinutes", 10) * 60000l;
+
+    private static Logger logger =
+            Logger.getLogger(HostLeases.class.getName());
+
+    /** The leases by run id. */
+    private HashMap<String, Lease> leases = new HashMap<String, Lease>();
+
+    /** The hosts of queued runs, by run id. */
+    private HashMap<String, QueuedRun> queued =
+            new HashMap<String, QueuedRun>();
+
+    /**
+     * Selects the next run to hand out from the sorted run queue. The next
+     * run is the oldest run that shares no hosts with leased runs or with
+     * older runs still in the queue.
+     * @param runIds The run ids in the queue, oldest first
+     * @return The run id of the next run, or null if all runs are blocked
+     */
+    synchronized String select(String[] runIds) {
+        expire();
+        if (leases.isEmpty())
+            return runIds[0];
+        queued.keySet().retainAll(Arrays.asList(runIds));
+
+        HashSet<String> blocked = new HashSet<String>();
+        for (Lease lease : leases.values())
+            blocked.addAll(lease.hosts);
+
+        for (String runId : runIds) {
+            Set<String> hosts = getHosts(runId);
+            boolean free = true;
+            for (String host : hosts)
+                if (blocked.contains(host)) {
+                    free = false;
+                    break;
+                }
+            if (free)
+                return runId;
+
+            // The hosts of a waiting run are reserved for it.
+            blocked.addAll(hosts);
+        }
+        return null;
+    }
+
+    /**
+     * Leases the hosts of a run being handed out. This must be called
+     * before the run is removed from the queue.
+     * @param runId The run id
+     */
+    synchronized void acquire(String runId) {
+        Lease lease = new Lease();
+        lease.hosts = getHosts(runId);
+        lease.expiry = System.currentTimeMillis() + LEASE_TIMEOUT;
+        leases.put(runId, lease);
+        queued.remove(runId);
+        logger.fine("Run " + runId + " leased hosts " + lease.hosts);
+    }
+
+    /**
+     * Renews the lease of a run still executing on a poller.
+     * @param runId The run id
+     * @return true if renewed, false if the run holds no lease
+     */
+    synchronized boolean renew(String runId) {
+        Lease lease = leases.get(runId);
+        if (lease == null)
+            return false;
+        lease.expiry = System.currentTimeMillis() + LEASE_TIMEOUT;
+        return true;
+    }
+
+    /**
+     * Releases the hosts leased by a run.
+     * @param runId The run id
+     */
+    synchronized void release(String runId) {
+        if (leases.remove(runId) != null)
+            logger.fine("Run " + runId + " released its hosts.");
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<String, Lease>> iter =
+                leases.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<String, Lease> entry = iter.next();
+            if (entry.getValue().expiry < now) {
+                logger.warning("Host lease for run " + entry.getKey() +
+                               " expired.");
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Obtains the hosts used by a queued run from its parameter file. The
+     * hosts are cached until the parameter file changes.
+     * @param runId The run id
+     * @return The hosts, or an empty set if they cannot be determined
+     */
+    private Set<String> getHosts(String runId) {
+        QueuedRun entry = queued.get(runId);
+        File paramFile = null;
+        try {
+            BenchmarkDescription benchDesc = BenchmarkDescription.
+                    getDescription(new RunId(runId).getBenchName());
+            if (benchDesc != null)
+                paramFile = new File(Config.RUNQ_DIR + runId,
+                                     benchDesc.configFileName);
+        } catch (RuntimeException e) {
+            logger.log(Level.FINE, "Bad run id " + runId, e);
+        }
+        if (paramFile == null || !paramFile.isFile())
+            return entry == null ? new HashSet<String>() : entry.hosts;
+
+        long modTime = paramFile.lastModified();
+        if (entry != null && entry.modTime == modTime)
+            return entry.hosts;
+
+        entry = new QueuedRun();
+        entry.modTime = modTime;
+        entry.hosts = new HashSet<String>();
+        try {
+            ParamRepository par = new ParamRepository(
+                                        paramFile.getAbsolutePath(), false);
+            for (NameValuePair<String> hostRole : par.getHostRoles())
+                entry.hosts.add(hostRole.name.toLowerCase());
+        } catch (ConfigurationException e) {
+            logger.log(Level.WARNING, "Cannot read hosts of run " + runId, e);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Cannot read hosts of run " + runId, e);
+        }
+        queued.put(runId, entry);
+        return entry.hosts;
+    }
+
+    /**
+     * The hosts leased by a run handed out to a poller.
+     */
+    private static class Lease {
+
+        /** The hosts. */
+        Set<String> hosts;
+
+        /** The time the lease expires, in ms. */
+        long expiry;
+    }
+
+    /**
+     * The hosts used by a run still in the queue.
+     */
+    private static class QueuedRun {
+
+        /** The hosts. */
+        Set<String> hosts;
+
+        /** The modification time of the parameter file, in ms. */
+        long modTime;
+    }
+}
@@ -33,6 +33,7 @@ import com.sun.faban.harness.util.FileHelper;
 import com.sun.faban.harness.webclient.RunRetriever;
 import com.sun.faban.harness.webclient.RunUploader;
 
+import com.sun.faban.harness.webclient.RunCatalog;
 import com.sun.faban.harness.webclient.TagEngine;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -43,6 +44,8 @@ import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -55,7 +58,9 @@ import java.util.logging.Logger;
  * the next run for execution and checks the runType file. If it is a benchmark
  * run, it instantiates the GenericBenchmark object to execute the benchmark
  * in a separate thread and waits for it to complete. If it is a command
- * then it uses the runCommand object to execute the same.
+ * then it uses the runCommand object to execute the same. Runs execute one
+ * at a time. In pollee mode, the RunDaemon hands out runs with disjoint
+ * hosts to different pollers through HostLeases.
  *
  * @author Ramesh Ramachandran
  *
@@ -67,6 +72,7 @@ public class RunDaemon implements Runnable {
     volatile boolean keepRunning = true;
     GenericBenchmark gb = null;
     RunQLock  runqLock = null;
+    HostLeases hostLeases = new HostLeases();
     Run currRun = null;
     Logger logger;
 
@@ -102,7 +108,7 @@ public class RunDaemon implements Runnable {
         long age = System.currentTimeMillis() - runqDir.lastModified();
         if (age <= minAge)
             return null;
-        return new NameValuePair<Long>(runId, minAge);
+        return new NameValuePair<Long>(runId, age);
     }
 
     /**
@@ -120,9 +126,32 @@ public class RunDaemon implements Runnable {
         }
 
         Arrays.sort(list, new ComparatorImpl());
+
+        // A pollee hands out runs to pollers driving different hosts.
+        // Only hand out runs whose hosts are not used by other runs.
+        if (Config.daemonMode == Config.DaemonModes.POLLEE)
+            return hostLeases.select(list);
         return list[0];
     }
 
+    /**
+     * Releases the hosts used by a run handed out to a poller, so the
+     * next run on these hosts can be handed out.
+     * @param runId The run id
+     */
+    public void releaseHosts(String runId) {
+        hostLeases.release(runId);
+    }
+
+    /**
+     * Renews the lease on the hosts used by a run handed out to a poller.
+     * @param runId The run id
+     * @return true if renewed, false if the run holds no lease
+     */
+    public boolean renewHosts(String runId) {
+        return hostLeases.renew(runId);
+    }
+
     /**
      * Fetches the next run from the run queue and places it into the output to
      * be executed.
@@ -214,6 +243,8 @@ public class RunDaemon implements Runnable {
                                         runId + '.');
         }
 
+        if (Config.daemonMode == Config.DaemonModes.POLLEE)
+            hostLeases.acquire(runId);
         FileHelper.recursiveDelete(new File(Config.RUNQ_DIR), runId);
         runqLock.releaseLock();
         uploadTags(runId);
@@ -239,6 +270,7 @@ public class RunDaemon implements Runnable {
                 te.add(runId, tagsArray);
             }
             te.save();
+            RunCatalog.updateRun(runId);
         }
 
     /**
@@ -332,10 +364,28 @@ public class RunDaemon implements Runnable {
 
                 logger.info("Starting " + benchName + " run using " + runDir);
 
+                // Keep the hosts leased at the origin while we run.
+                Timer leaseRenewer = null;
+                if (remoteRun) {
+                    final String remoteRunId = run.getRunId();
+                    leaseRenewer = new Timer("LeaseRenewer", true);
+                    leaseRenewer.schedule(new TimerTask() {
+                        public void run() {
+                            RunRetriever.renewLease(remoteRunId);
+                        }
+                    }, RunRetriever.LEASE_RENEW_INTERVAL,
+                       RunRetriever.LEASE_RENEW_INTERVAL);
+                }
+
                 // instantiate, start running the benchmark
                 currRun = run;
                 gb = new GenericBenchmark(currRun);
-                gb.start();
+                try {
+                    gb.start();
+                } finally {
+                    if (leaseRenewer != null)
+                        leaseRenewer.cancel();
+                }
 
                 // We could have done the uploads in GenericBenchmark.
                 // But we fetched the remote run here, so we should return it
@@ -385,6 +385,25 @@ public class RunQ {
         return runDaemon.nextRunAge(minAge);
     }
 
+    /**
+     * Releases the hosts used by a run fetched by a poller. This is called
+     * when the run is uploaded back.
+     * @param runId The run id
+     */
+    public void releaseHosts(String runId) {
+        runDaemon.releaseHosts(runId);
+    }
+
+    /**
+     * Renews the lease on the hosts used by a run fetched by a poller.
+     * The poller renews the lease periodically while the run executes.
+     * @param runId The run id
+     * @return true if renewed, false if the run holds no lease
+     */
+    public boolean renewHosts(String runId) {
+        return runDaemon.renewHosts(runId);
+    }
+
     /**
      * Method to stop the run daemon before unloading
      * Faban Engine servlet.
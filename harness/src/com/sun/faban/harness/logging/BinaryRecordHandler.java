@@ -0,0 +1,303 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.logging;
+
+import com.sun.faban.harness.agent.BinaryLogHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Protocol handler for the binary log records sent by the
+ * BinaryLogHandler. The records are decoded and rendered to the same
+ * XML as the LogHandler would receive from the RemoteLogFormatter, so
+ * the log file stays the same no matter which protocol the agents use.
+ *
+ * @author Akara Sucharitakul
+ */
+public class BinaryRecordHandler implements ProtocolHandler {
+
+    private static Logger logger =
+            Logger.getLogger(BinaryRecordHandler.class.getName());
+
+    private byte[] frameBuffer = new byte[8192];
+    private int frameSize = 0;
+    private ArrayList<String> strings = new ArrayList<String>();
+    private XMLFormatter formatter = new XMLFormatter();
+    private StringBuilder xml = new StringBuilder(8192);
+    private LogWriter logWriter;
+
+    /**
+     * Sets the config object.
+     * @param config The singleton config object
+     */
+    public void setConfig(LogConfig config) {
+        logWriter = config.logWriter;
+    }
+
+    /**
+     * Sets the selection key for subsequent invocations.
+     * @param key The nio selection key
+     */
+    public void setKey(SelectionKey key) {
+        // A new request always starts with a new frame. Drop leftovers
+        // from connections that broke in the middle of a frame.
+        frameSize = 0;
+    }
+
+    /**
+     * Analyzes the buffer and return read active status.
+     * @param buffer The buffer to look at
+     * @param count The number of new bytes in the buffer
+     * @return True if still active, false if done processing
+     */
+    public boolean doProcessRequest(ByteBuffer buffer, int count) {
+        if (count > 0) {
+            buffer.flip();
+            if (frameSize + count > frameBuffer.length) {
+                byte[] newBuffer = new byte[(int) ((frameSize + count) * 1.25)];
+                System.arraycopy(frameBuffer, 0, newBuffer, 0, frameSize);
+                frameBuffer = newBuffer;
+            }
+            buffer.get(frameBuffer, frameSize, count);
+            frameSize += count;
+        }
+
+        int offset = 0;
+        int headerLength = BinaryLogHandler.HEADER_LENGTH;
+        while (frameSize - offset >= headerLength) {
+            for (int i = 0; i < BinaryLogHandler.MAGIC.length; i++)
+                if (frameBuffer[offset + i] != BinaryLogHandler.MAGIC[i]) {
+                    logger.warning("Invalid log frame header, dropping " +
+                            (frameSize - offset) + " bytes.");
+                    frameSize = 0;
+                    return false;
+                }
+            int version = frameBuffer[offset + 4];
+            int length = ((frameBuffer[offset + 5] & 0xff) << 24) |
+                         ((frameBuffer[offset + 6] & 0xff) << 16) |
+                         ((frameBuffer[offset + 7] & 0xff) << 8) |
+                         (frameBuffer[offset + 8] & 0xff);
+            if (frameSize - offset - headerLength < length)
+                break; // Frame not complete.
+            if (version == BinaryLogHandler.VERSION)
+                decodeFrame(offset + headerLength, length);
+            else
+                logger.warning("Unsupported log frame version " + version +
+                        ", dropping " + length + " bytes.");
+            offset += headerLength + length;
+        }
+
+        // Keep the partial frame, if any, at the start of the buffer.
+        frameSize -= offset;
+        if (frameSize > 0 && offset > 0)
+            System.arraycopy(frameBuffer, offset, frameBuffer, 0, frameSize);
+        return frameSize > 0;
+    }
+
+    /**
+     * Decodes a frame and queues the XML of all its records to the
+     * log writer in one piece.
+     * @param offset The offset of the frame body in the frame buffer
+     * @param length The length of the frame body
+     */
+    private void decodeFrame(int offset, int length) {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(frameBuffer, offset, length));
+        strings.clear();
+        xml.setLength(0);
+        try {
+            String host = readString(in);
+            String ident = "<record>\n  <host>" + host + "</host>";
+            while (in.available() > 0) {
+                String record = formatter.format(readRecord(in));
+                xml.append(record.replaceFirst("<record>", ident));
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Corrupt log frame", e);
+        }
+        if (xml.length() > 0) {
+            byte[] bytes = xml.toString().getBytes();
+            if (logWriter.isDebug())
+                logWriter.debug(xml.toString(), true);
+            logWriter.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Reads a log record in the format written by the BinaryLogHandler.
+     * @param in The frame input
+     * @return The reconstructed log record
+     * @throws IOException The frame is corrupt
+     */
+    private LogRecord readRecord(DataInputStream in) throws IOException {
+        long millis = in.readLong();
+        long sequence = in.readLong();
+        String levelName = readString(in);
+        int levelValue = in.readInt();
+        Level level;
+        try {
+            level = Level.parse(levelName);
+            if (level.intValue() != levelValue)
+                level = new RemoteLevel(levelName, levelValue);
+        } catch (IllegalArgumentException e) {
+            level = new RemoteLevel(levelName, levelValue);
+        }
+        LogRecord record = new LogRecord(level, null);
+        record.setMillis(millis);
+        record.setSequenceNumber(sequence);
+        record.setLoggerName(readString(in));
+        record.setSourceClassName(readString(in));
+        record.setSourceMethodName(readString(in));
+        record.setThreadID(in.readInt());
+        record.setMessage(readText(in));
+        if (in.readBoolean()) {
+            RemoteThrowable thrown = new RemoteThrowable(readText(in));
+            StackTraceElement[] frames = new StackTraceElement[in.readInt()];
+            for (int i = 0; i < frames.length; i++) {
+                String className = readString(in);
+                String methodName = readString(in);
+                String fileName = readString(in);
+                frames[i] = new StackTraceElement(className, methodName,
+                        fileName, in.readInt());
+            }
+            thrown.setStackTrace(frames);
+            record.setThrown(thrown);
+        }
+        return record;
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        int idx = readVarInt(in);
+        if (idx == 0)
+            return null;
+        if (idx == strings.size() + 1)
+            strings.add(in.readUTF());
+        else if (idx > strings.size())
+            throw new IOException("Invalid string reference " + idx);
+        return strings.get(idx - 1);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, "UTF-8");
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    /**
+     * Creates and writes the response to the channel. Returns write
+     * active status. This method should return true if and only if
+     * the non-blocking channel cannot take all the response to
+     * be written.
+     * @return True if still active, false if done processing
+     * @exception java.io.IOException Cannot write response to channel
+     */
+    public boolean doProcessResponse() throws IOException {
+        return false;
+    }
+
+    /**
+     * Continues writing the response to the channel. This method
+     * is only called if the initial write did not manage to write
+     * everything to the non-blocking channel.
+     * @return True if still active, false if done processing
+     * @exception java.io.IOException Cannot write response to channel
+     */
+    public boolean doContinueResponse() throws IOException {
+        return false;
+    }
+
+    /**
+     * Tests the handler whether it needs to further process this request.
+     * @return True if the handler still needs to proceed, false if it is done
+     */
+    public boolean requestPending() {
+        return false;
+    }
+
+    /**
+     * A level sent by the agent which is not known on the log server.
+     */
+    static class RemoteLevel extends Level {
+
+        private static final long serialVersionUID = 1L;
+
+        RemoteLevel(String name, int value) {
+            super(name, value);
+        }
+    }
+
+    /**
+     * Stands in for the throwable logged on the agent. It prints just
+     * like the original throwable.
+     */
+    static class RemoteThrowable extends Throwable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String description;
+
+        RemoteThrowable(String description) {
+            this.description = description;
+        }
+
+        /**
+         * Does not fill in the stack trace. The stack trace gets set
+         * from the frames sent by the agent.
+         * @return This throwable
+         */
+        public Throwable fillInStackTrace() {
+            return this;
+        }
+
+        /**
+         * Returns the description of the original throwable.
+         * @return The description
+         */
+        public String toString() {
+            return description;
+        }
+    }
+}
@@ -74,6 +74,18 @@ public class LogConfig {
     /** The read buffer size. */
     public int readBufferSize = 2048;
 
+    /** The size of the log record batches written to the log, in bytes. */
+    public int writeBatchSize = 65536;
+
+    /** The max time records stay queued before written, in ms. */
+    public int writeFlushInterval = 100;
+
+    /** Whether to dump all data read to debug.log. */
+    public boolean debugLog = false;
+
+    /** The log writer. */
+    public LogWriter logWriter = null;
+
     /**
      * Constructs the log server configuration.
      */
@@ -121,6 +133,18 @@ public class LogConfig {
                 if (v != null && v.length() > 0)
                     readBufferSize = Integer.parseInt(v);
 
+                v = xPath.evaluate("writeBatchSize", logServer);
+                if (v != null && v.length() > 0)
+                    writeBatchSize = Integer.parseInt(v);
+
+                v = xPath.evaluate("writeFlushInterval", logServer);
+                if (v != null && v.length() > 0)
+                    writeFlushInterval = Integer.parseInt(v);
+
+                v = xPath.evaluate("debugLog", logServer);
+                if (v != null && v.length() > 0)
+                    debugLog = Boolean.parseBoolean(v);
+
             } catch (Exception e) {
                 logger.log(Level.WARNING, "Error reading harness " +
                                             "configuration file. " +
@@ -23,9 +23,6 @@
  */
 package com.sun.faban.harness.logging;
 
-import com.sun.faban.harness.common.Config;
-
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
@@ -38,6 +35,7 @@ public class LogHandler implements ProtocolHandler {
 
     private FlexBuffer xBuffer;
     private byte[] writeBuffer;
+    private LogWriter logWriter;
 
     /**
      * Sets the config object.
@@ -45,6 +43,7 @@ public class LogHandler implements ProtocolHandler {
      */
     public void setConfig(LogConfig config) {
         xBuffer = new FlexBuffer(config.readBufferSize);
+        logWriter = config.logWriter;
    }
 
     /**
@@ -69,46 +68,24 @@ public class LogHandler implements ProtocolHandler {
             // Get the data from the direct buffer.
             xBuffer.appendDirect(buffer, count);
 
-            /*
-            PrintWriter debug = null;
-
-            try {
-                debug = new PrintWriter(new FileWriter(Config.TMP_DIR +
-                                        "debug.log", true));
-            } catch (IOException e) {
-            }
-            */
             if (!(xBuffer.endsWith("</record>\n")
                 || xBuffer.endsWith("</log>\n"))) { // Log record not closed
-                //debug.println(xBuffer.toString() + " {end of partial read}");
+                if (logWriter.isDebug())
+                    logWriter.debug(xBuffer.toString(), false);
                 return true;
             }
-            try {
-                /*
-                debug.println(xBuffer.toString() + " {end of read}");
-                debug.flush();
-                debug.close();
-                */
+            if (logWriter.isDebug())
+                logWriter.debug(xBuffer.toString(), true);
 
-                // Copy out the whole record in one piece
-                int writeSize = xBuffer.size();
-                if (writeBuffer == null || writeBuffer.length < writeSize)
-                    writeBuffer = new byte[(int) (writeSize * 1.25)];
+            // Copy out the whole record in one piece
+            int writeSize = xBuffer.size();
+            if (writeBuffer == null || writeBuffer.length < writeSize)
+                writeBuffer = new byte[(int) (writeSize * 1.25)];
 
-                xBuffer.getBytes(0, writeBuffer, 0, writeSize);
+            xBuffer.getBytes(0, writeBuffer, 0, writeSize);
 
-                //Open the log file and dump the record/s
-                String logFile = System.getProperty("faban.log.file");
-                if(logFile == null)
-                    logFile = Config.TMP_DIR + "log.xml";
-                FileOutputStream logStream = new FileOutputStream(logFile, true);
-                logStream.write(writeBuffer, 0, writeSize);
-                logStream.flush();
-                logStream.close();
-            } catch(IOException e) {
-                // if (debug != null)
-                //    e.printStackTrace(debug);
-            }
+            // Queue the record/s to the log writer
+            logWriter.write(writeBuffer, 0, writeSize);
             xBuffer.clear();
         }
         // Return false as we don't care which instance of Handler writes the
@@ -92,6 +92,9 @@ public class LogServer extends Thread {
         logger.finer("Service thread pool created.");
         }
 
+        config.logWriter = new LogWriter(config);
+        logger.finer("Log writer created.");
+
         acceptor = new Acceptor(conf, acceptQueue, selector);
         Thread t = new Thread(acceptor);
         t.setName("Acceptor");
@@ -147,6 +150,7 @@ public class LogServer extends Thread {
         }
 
         config.threadPool.shutdown();
+        config.logWriter.close();
 
         logger.info("LogServer Shutdown Complete");
     }
@@ -0,0 +1,284 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.logging;
+
+import com.sun.faban.harness.common.Config;
+
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The log writer appends the log records received by all the log handlers
+ * to the run log. It keeps the log file open and commits the records in
+ * groups. Log handlers just copy their complete records into the pending
+ * batch. A single writer thread writes out the batch when it reaches the
+ * batch size or when the flush interval has passed, whichever is first.
+ * The batches always contain complete records so concurrent writers to the
+ * same file, such as the harness' own FileHandler, will not split them.
+ *
+ * @author Akara Sucharitakul
+ */
+public class LogWriter implements Runnable {
+
+    /** Time after which an idle log file gets closed, in ms. */
+    private static final long IDLE_CLOSE = 60000l;
+
+    private Logger logger = Logger.getLogger(getClass().getName());
+    private int batchSize;
+    private int maxPending;
+    private long flushInterval;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signals the writer thread that a batch is ready. */
+    private final Condition batchReady = lock.newCondition();
+
+    /** Signals the handlers that a batch has been taken or written. */
+    private final Condition batchDone = lock.newCondition();
+
+    private byte[] pending;
+    private int pendingSize = 0;
+    private String pendingFile;
+    private byte[] writing;
+    private boolean writeInProgress = false;
+    private boolean flushRequested = false;
+    private boolean closed = false;
+
+    // Only accessed by the writer thread.
+    private String currentFile;
+    private FileOutputStream logStream;
+    private long lastWrite;
+
+    private PrintWriter debug;
+    private Thread writerThread;
+
+    /**
+     * Constructs and starts the log writer.
+     * @param config The log server configuration
+     */
+    public LogWriter(LogConfig config) {
+        batchSize = config.writeBatchSize;
+        maxPending = 4 * batchSize;
+        flushInterval = config.writeFlushInterval;
+        pending = new byte[batchSize];
+        writing = new byte[batchSize];
+        if (config.debugLog)
+            try {
+                debug = new PrintWriter(new FileWriter(Config.TMP_DIR +
+                                        "debug.log", true));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot open debug log.", e);
+            }
+        writerThread = new Thread(this);
+        writerThread.setName("LogWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues complete log records to be written to the run log.
+     * @param b The buffer containing the records
+     * @param off The offset of the records in the buffer
+     * @param len The length of the records
+     */
+    public void write(byte[] b, int off, int len) {
+        String logFile = System.getProperty("faban.log.file");
+        if (logFile == null)
+            logFile = Config.TMP_DIR + "log.xml";
+
+        lock.lock();
+        try {
+            // Records for a new log file have to wait for the old batch to
+            // get written. Otherwise, we only wait if the writer cannot keep
+            // up with the handlers.
+            while (!closed && pendingSize > 0 &&
+                    (!logFile.equals(pendingFile) ||
+                     pendingSize + len > maxPending)) {
+                flushRequested = true;
+                batchReady.signal();
+                batchDone.awaitUninterruptibly();
+            }
+            if (closed) {
+                logger.warning("Log writer closed, dropping log records.");
+                return;
+            }
+
+            if (pendingSize + len > pending.length) {
+                byte[] newPending = new byte[Math.max(pendingSize + len,
+                                                      2 * pending.length)];
+                System.arraycopy(pending, 0, newPending, 0, pendingSize);
+                pending = newPending;
+            }
+            System.arraycopy(b, off, pending, pendingSize, len);
+            pendingSize += len;
+            pendingFile = logFile;
+            if (pendingSize >= batchSize)
+                batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tests whether the debug log is enabled.
+     * @return true if enabled, false otherwise
+     */
+    public boolean isDebug() {
+        return debug != null;
+    }
+
+    /**
+     * Writes the raw data as read from the socket to the debug log.
+     * This must only be called if the debug log is enabled.
+     * @param s The data read
+     * @param complete Whether the data ends with a complete record
+     */
+    public synchronized void debug(String s, boolean complete) {
+        debug.println(s + (complete ? " {end of read}" :
+                                      " {end of partial read}"));
+        if (complete)
+            debug.flush();
+    }
+
+    /**
+     * Writes out the pending records and waits till they are written.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            while (!closed && (pendingSize > 0 || writeInProgress)) {
+                flushRequested = true;
+                batchReady.signal();
+                batchDone.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes out the pending records and closes the log file.
+     */
+    public void close() {
+        flush();
+        lock.lock();
+        try {
+            closed = true;
+            batchReady.signal();
+            batchDone.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writerThread.join(flushInterval + 1000l);
+        } catch (InterruptedException e) {
+            logger.log(Level.FINE, e.getMessage(), e);
+        }
+        if (debug != null)
+            synchronized (this) {
+                debug.close();
+            }
+    }
+
+    /**
+     * The writer thread takes the pending batch when it is full, when
+     * a flush is requested, or when the flush interval expires and appends
+     * it to the log file.
+     */
+    public void run() {
+        for (;;) {
+            int size;
+            String logFile;
+            lock.lock();
+            try {
+                if (pendingSize < batchSize && !flushRequested && !closed)
+                    try {
+                        batchReady.await(flushInterval, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        logger.log(Level.FINE, e.getMessage(), e);
+                    }
+                flushRequested = false;
+                if (pendingSize == 0) {
+                    if (closed)
+                        break;
+                    if (logStream != null &&
+                            System.currentTimeMillis() - lastWrite > IDLE_CLOSE)
+                        closeLog();
+                    continue;
+                }
+
+                // Swap the buffers so the handlers can keep on queueing.
+                byte[] b = writing;
+                writing = pending;
+                pending = b;
+                size = pendingSize;
+                logFile = pendingFile;
+                pendingSize = 0;
+                writeInProgress = true;
+                batchDone.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                if (!logFile.equals(currentFile)) {
+                    closeLog();
+                    logStream = new FileOutputStream(logFile, true);
+                    currentFile = logFile;
+                }
+                logStream.write(writing, 0, size);
+                lastWrite = System.currentTimeMillis();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error writing log records to " +
+                           logFile, e);
+                closeLog();
+            }
+            lock.lock();
+            try {
+                writeInProgress = false;
+                batchDone.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        closeLog();
+    }
+
+    private void closeLog() {
+        if (logStream != null)
+            try {
+                logStream.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing " + currentFile, e);
+            }
+        logStream = null;
+        currentFile = null;
+    }
+}
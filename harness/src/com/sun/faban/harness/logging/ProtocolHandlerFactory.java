@@ -49,7 +49,8 @@ public class ProtocolHandlerFactory {
 
     private static final byte[][] HEADERS = { "<record>".getBytes(),
                                               "<?xml".getBytes(),
-                                              "</log>".getBytes()};
+                                              "</log>".getBytes(),
+                                              "FBLG".getBytes()};
 
     private static int maxHeaderLength;
 
@@ -63,7 +64,8 @@ public class ProtocolHandlerFactory {
     private static final String[] handlerNames = {
         "com.sun.faban.harness.logging.LogHandler",
         "com.sun.faban.harness.logging.LogHandler",
-        "com.sun.faban.harness.logging.LogHandler"};
+        "com.sun.faban.harness.logging.LogHandler",
+        "com.sun.faban.harness.logging.BinaryRecordHandler"};
 
     private LogConfig config;
     private Logger logger;
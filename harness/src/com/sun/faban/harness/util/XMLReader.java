@@ -23,6 +23,7 @@
  */
 package com.sun.faban.harness.util;
 
+import com.sun.faban.common.FabanNamespaceContext;
 import com.sun.faban.common.NameValuePair;
 import com.sun.faban.common.ParamReader;
 import com.sun.faban.common.Utilities;
@@ -40,13 +41,17 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.*;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,8 +61,33 @@ import java.util.logging.Logger;
 public class XMLReader {
 
     private static Logger logger = Logger.getLogger(XMLReader.class.getName());
+    /** The maximum number of documents and expressions in the caches. */
+    static final int CACHE_SIZE = Integer.getInteger("faban.xml.cacheSize", 64);
+
+    /** The parsed documents, by namespace handling and file. */
+    private static final LinkedHashMap<String, CachedDocument> docCache =
+            new LinkedHashMap<String, CachedDocument>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, CachedDocument> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /**
+     * The compiled expressions for each thread. Compiled expressions
+     * are not thread-safe, so each thread keeps its own.
+     */
+    private static final ThreadLocal<XPathCache> xPathCache =
+            new ThreadLocal<XPathCache>() {
+                @Override
+                protected XPathCache initialValue() {
+                    return new XPathCache();
+                }
+            };
+
     private Document doc;
-    private XPath xPath;
+    private boolean useFabanNS;
     private String file;
     private boolean updated = false;
     private HashMap<Node, ArrayList<NameValuePair<Integer>>> hostPortsTable;
@@ -77,17 +107,74 @@ public class XMLReader {
      * @param warnDeprecated Whether to warn for deprecated Faban elements
      */
     public XMLReader(String file, boolean useFabanNS, boolean warnDeprecated) {
-        if (useFabanNS)
+        if (useFabanNS) {
+            this.file = file;
+            this.useFabanNS = true;
+            doc = load(file, true, warnDeprecated);
+        } else {
+            initLocal(file);
+        }
+    }
+
+    /**
+     * Obtains a private copy of the parsed document. The parsed document
+     * is cached until the file changes, and each reader gets its own
+     * deep copy so readers can modify and save it independently.
+     * @param file The XML file
+     * @param useFabanNS Whether to apply Faban namespaces in this file
+     * @param warnDeprecated Whether to warn for deprecated Faban elements
+     * @return The document
+     */
+    private static Document load(String file, boolean useFabanNS,
+                                 boolean warnDeprecated) {
+        File f = new File(file);
+        String key = (useFabanNS ? "F:" : "L:") + f.getAbsolutePath();
+        long modTime = f.lastModified();
+        long length = f.length();
+        CachedDocument cached;
+        synchronized (docCache) {
+            cached = docCache.get(key);
+        }
+        Document doc = null;
+        if (cached != null && cached.modTime == modTime &&
+                cached.length == length)
+            doc = cached.doc.get();
+        if (doc == null) {
             try {
-                this.file = file;
-                ParamReader reader = new ParamReader(file, warnDeprecated);
-                doc = reader.getDocument();
-                xPath = reader.getXPath();
+                if (useFabanNS) {
+                    doc = new ParamReader(file, warnDeprecated).getDocument();
+                } else {
+                    DocumentBuilder builder = DocumentBuilderFactory.
+                            newInstance().newDocumentBuilder();
+                    doc = builder.parse(f);
+                }
             } catch (Exception e) {
                 throw new XMLException(e.getMessage(), e);
             }
-        else
-            initLocal(file);
+            cached = new CachedDocument();
+            cached.modTime = modTime;
+            cached.length = length;
+            cached.doc = new SoftReference<Document>(doc);
+            synchronized (docCache) {
+                docCache.put(key, cached);
+            }
+        }
+
+        // Even reading a DOM tree is not thread-safe.
+        synchronized (doc) {
+            return (Document) doc.cloneNode(true);
+        }
+    }
+
+    /**
+     * Obtains the compiled form of an XPath expression.
+     * @param xpath The XPath expression
+     * @return The compiled expression
+     * @throws XPathExpressionException The expression is invalid
+     */
+    private XPathExpression compile(String xpath)
+            throws XPathExpressionException {
+        return xPathCache.get().compile(xpath, useFabanNS);
     }
 
     private String completeXPath(String xpath) {
@@ -103,14 +190,7 @@ public class XMLReader {
 
     private void initLocal(String file) {
         this.file = file;
-        try {
-            DocumentBuilder builder = DocumentBuilderFactory.newInstance().
-                    newDocumentBuilder();
-            doc = builder.parse(new File(file));
-            xPath = XPathFactory.newInstance().newXPath();
-        } catch (Exception e) {
-            throw new XMLException(e.getMessage(), e);
-        }
+        doc = load(file, false, false);
     }
 
     /**
@@ -158,7 +238,7 @@ public class XMLReader {
     public Node getNode(String xpath, Node base) {
         Node node = null;
         try {
-            node = (Node) xPath.evaluate(xpath,
+            node = (Node) compile(xpath).evaluate(
                                                 base, XPathConstants.NODE);
         } catch (XPathExpressionException e) {
             logger.log(Level.WARNING, "Error processing XPath expression: " +
@@ -186,7 +266,7 @@ public class XMLReader {
     public NodeList getNodes(String xpath, Node base) {
         NodeList nodes = null;
         try {
-            nodes = (NodeList) xPath.evaluate(xpath,
+            nodes = (NodeList) compile(xpath).evaluate(
                                                 base, XPathConstants.NODESET);
         } catch (XPathExpressionException e) {
             logger.log(Level.WARNING, "Error processing XPath expression: " +
@@ -213,7 +293,7 @@ public class XMLReader {
      */
     public String getValue(String xpath, Node base) {
         try {
-            return xPath.evaluate(xpath, base);
+            return compile(xpath).evaluate(base);
         } catch (XPathExpressionException e) {
             throw new XMLException("Error evaluating " + xpath + ", " +
                                    e.getMessage(), e);
@@ -238,8 +318,8 @@ public class XMLReader {
      */
     public List<String> getValues(String xpath, Node base) {
         try {
-            NodeList nodeList = (NodeList) xPath.evaluate(
-                                xpath, base, XPathConstants.NODESET);
+            NodeList nodeList = (NodeList) compile(xpath).evaluate(
+                                base, XPathConstants.NODESET);
             int length = nodeList.getLength();
             ArrayList<String> vList = new ArrayList<String>();
             for (int i = 0; i < length; i++) {
@@ -289,8 +369,8 @@ public class XMLReader {
      */
     public List<String> getAttributeValues(String xpath, String attribute, Node base) {
         try {
-            NodeList nodeList = (NodeList) xPath.evaluate(xpath + "[@" + attribute + "]",
-                                base, XPathConstants.NODESET);
+            NodeList nodeList = (NodeList) compile(xpath + "[@" + attribute + "]").
+                                evaluate(base, XPathConstants.NODESET);
             int length = nodeList.getLength();
             ArrayList<String> vList = new ArrayList<String>();
             for (int i = 0; i < length; i++) {
@@ -330,8 +410,8 @@ public class XMLReader {
         xpath = completeXPath(xpath);
         
         try {
-            NodeList nodeList = (NodeList) xPath.evaluate(
-                                xpath, doc, XPathConstants.NODESET);
+            NodeList nodeList = (NodeList) compile(xpath).evaluate(
+                                doc, XPathConstants.NODESET);
             int length = nodeList.getLength();
             boolean updated = false;
             for (int i = 0; i < length; i++) {
@@ -462,8 +542,8 @@ public class XMLReader {
         else    //the JXPathContext expects 'params' (which is the variable name returned by XMLFile
             baseXPath = "params" + baseXPath;
         try {
-            NodeList nodeList = (NodeList) xPath.evaluate(
-                                baseXPath, doc, XPathConstants.NODESET);
+            NodeList nodeList = (NodeList) compile(baseXPath).evaluate(
+                                doc, XPathConstants.NODESET);
             int length = nodeList.getLength();
             if (length == 0) {
                 logger.warning("No match for XPath " + baseXPath);
@@ -529,6 +609,14 @@ public class XMLReader {
         StreamResult result = new StreamResult(new File(file).getAbsolutePath());
         transformer.transform(source, result);
 
+        // Do not hand out the old document even if the size and
+        // time stamp do not change.
+        String path = new File(file).getAbsolutePath();
+        synchronized (docCache) {
+            docCache.remove("F:" + path);
+            docCache.remove("L:" + path);
+        }
+
         return true;
     }
 
@@ -540,7 +628,7 @@ public class XMLReader {
         String xPathExpr = "//fa:hostConfig/fa:hostPorts";
         hostPortsTable = new HashMap<Node, ArrayList<NameValuePair<Integer>>>();
         try {
-            NodeList nodeList = (NodeList) xPath.evaluate(xPathExpr, doc,
+            NodeList nodeList = (NodeList) compile(xPathExpr).evaluate(doc,
                                                         XPathConstants.NODESET);
             int entries = nodeList.getLength();
             for (int i = 0; i < entries; i++) {
@@ -642,7 +730,7 @@ public class XMLReader {
             xPathExpr = "params" + xPathExpr;
 
         try {
-            Node hostPortNode = (Node) xPath.evaluate(xPathExpr,
+            Node hostPortNode = (Node) compile(xPathExpr).evaluate(
                                                 doc, XPathConstants.NODE);
             if (hostPortNode != null)
                 hostsPorts = hostPortsTable.get(hostPortNode);
@@ -662,8 +750,8 @@ public class XMLReader {
     public List<NameValuePair<Integer>> getHostPorts(Element roleNode) {
         ArrayList<NameValuePair<Integer>> hostsPorts = null;
         try {
-            Node hostPortNode = (Node) xPath.evaluate(
-                    "fa:hostConfig/fa:hostPorts", roleNode, XPathConstants.NODE);
+            Node hostPortNode = (Node) compile("fa:hostConfig/fa:hostPorts").
+                    evaluate(roleNode, XPathConstants.NODE);
             if (hostPortNode != null)
                 hostsPorts = hostPortsTable.get(hostPortNode);
         } catch (XPathExpressionException e) {
@@ -686,7 +774,7 @@ public class XMLReader {
             xPathExpr = "params" + xPathExpr;
 
         try {
-            nodes = (NodeList) xPath.evaluate(xPathExpr,
+            nodes = (NodeList) compile(xPathExpr).evaluate(
                                                 doc, XPathConstants.NODESET);
         } catch (XPathExpressionException e) {
             logger.log(Level.WARNING, "Error processing XPath expression: " +
@@ -722,4 +810,51 @@ public class XMLReader {
         System.out.println(Boolean.toString(Boolean.valueOf(util.getValue(args[1])).booleanValue()));
 
     }
+
+    /**
+     * A parsed document and the state of the file it was parsed from.
+     */
+    private static class CachedDocument {
+        long modTime;
+        long length;
+        SoftReference<Document> doc;
+    }
+
+    /**
+     * The compiled expressions of one thread, with and without the
+     * Faban namespaces.
+     */
+    private static class XPathCache
+            extends LinkedHashMap<String, XPathExpression> {
+
+        private static final long serialVersionUID = 1L;
+
+        private XPath fabanXPath;
+        private XPath localXPath;
+
+        XPathCache() {
+            super(16, 0.75f, true);
+            XPathFactory factory = XPathFactory.newInstance();
+            fabanXPath = factory.newXPath();
+            fabanXPath.setNamespaceContext(new FabanNamespaceContext());
+            localXPath = factory.newXPath();
+        }
+
+        XPathExpression compile(String xpath, boolean useFabanNS)
+                throws XPathExpressionException {
+            String key = (useFabanNS ? 'F' : 'L') + xpath;
+            XPathExpression expr = get(key);
+            if (expr == null) {
+                expr = (useFabanNS ? fabanXPath : localXPath).compile(xpath);
+                put(key, expr);
+            }
+            return expr;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, XPathExpression> eldest) {
+            return size() > CACHE_SIZE * 4;
+        }
+    }
 }
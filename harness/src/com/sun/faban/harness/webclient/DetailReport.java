@@ -4,12 +4,18 @@
  */
 package com.sun.faban.harness.webclient;
 
+import com.sun.faban.common.ColumnarXan;
+
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class DetailReport {
     ArrayList<Double> timeList = new ArrayList<Double>();
@@ -24,14 +30,129 @@ public class DetailReport {
     boolean hasNextDriver = false;
 
     private static final Double ZERO = new Double(0.0);
+    private static Logger logger =
+            Logger.getLogger(DetailReport.class.getName());
 
     String detFile;
     int numOps = 0;
 
     public DetailReport(String detFile, int targetDriver) throws IOException {
         this.detFile = detFile;
-        processThruput(targetDriver);
-        processResponseTimes(targetDriver);
+        ColumnarXan xan = null;
+        try {
+            xan = ColumnarXan.openCompanion(new File(detFile));
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Cannot use columnar detail for " +
+                    detFile + ", reading text instead.", e);
+        }
+        if (xan != null) {
+            processColumnar(xan, targetDriver);
+        } else {
+            processThruput(targetDriver);
+            processResponseTimes(targetDriver);
+        }
+    }
+
+    /*
+    * Read the throughput, response times, and response time distribution
+    * for the target driver from the memory-mapped columnar detail file.
+    * This yields the same data as the text parsers below.
+    */
+    private void processColumnar(ColumnarXan xan, int targetDriver) {
+        ColumnarXan.Section thruSection = null;
+        ColumnarXan.Section respSection = null;
+        ColumnarXan.Section distSection = null;
+        int driverCount = 0;
+        for (int i = 0; i < xan.getSectionCount(); i++) {
+            ColumnarXan.Section section = xan.getSection(i);
+            String name = section.getName();
+            if (name.endsWith("Throughput")) {
+                if (++driverCount > targetDriver && thruSection != null) {
+                    hasNextDriver = true;
+                    break;
+                }
+            }
+            if (driverCount < targetDriver || section.getHeaders() == null)
+                continue;
+            if (thruSection == null) {
+                if (section.getHeaders().get(0).startsWith("Time (s)"))
+                    thruSection = section;
+            } else if (respSection == null) {
+                if (name.matches(".* Response Times.*"))
+                    respSection = section;
+            } else if (distSection == null) {
+                if (name.matches(
+                        ".* Frequency Distribution of Response Times.*"))
+                    distSection = section;
+            }
+        }
+        if (thruSection == null)
+            return;
+
+        // Process thruput graph
+        List<String> headers = thruSection.getHeaders();
+        operations = headers.subList(1, headers.size()).toArray(
+                                                new String[headers.size() - 1]);
+        opThruList = new ArrayList[operations.length];
+        opAvgThruput = new double[operations.length];
+        int rows = thruSection.getRows();
+        double[] total = new double[rows];
+        timeList = toList(thruSection, 0);
+        for (int j = 0; j < operations.length; j++) {
+            opThruList[j] = toList(thruSection, j + 1);
+            for (int i = 0; i < rows; i++) {
+                double dop = opThruList[j].get(i);
+                opAvgThruput[j] += dop;
+                total[i] += dop;
+            }
+            opAvgThruput[j] /= rows;
+        }
+        thruput = new ArrayList<Double>(rows);
+        for (int i = 0; i < rows; i++)
+            thruput.add(total[i]);
+
+        // Process response time graph
+        if (respSection == null)
+            return;
+        headers = respSection.getHeaders();
+        List<String> opNames = new ArrayList<String>();
+        for (int i = 1; i < headers.size(); i++) {
+            if (!headers.get(i).trim().equals(""))
+                opNames.add(headers.get(i));
+        }
+        operations = opNames.toArray(new String[opNames.size()]);
+        respList = new ArrayList[operations.length];
+        for (int j = 0; j < operations.length; j++)
+            respList[j] = toList(respSection, j + 1);
+
+        // Process response time distribution
+        distRespList = new ArrayList[operations.length];
+        if (distSection == null)
+            return;
+        distTimeList = toList(distSection, 0);
+        int columns = Math.min(operations.length,
+                               distSection.getColumns() - 1);
+        for (int j = 0; j < columns; j++) {
+            distRespList[j] = new ArrayList<Integer>(distSection.getRows());
+            for (int i = 0; i < distSection.getRows(); i++)
+                distRespList[j].add((int) distSection.getDouble(i, j + 1));
+        }
+    }
+
+    private static ArrayList<Double> toList(ColumnarXan.Section section,
+                                            int column) {
+        ArrayList<Double> list = new ArrayList<Double>(section.getRows());
+        if (column >= section.getColumns())
+            return list;
+        if (section.isNumeric(column)) {
+            DoubleBuffer values = section.getDoubles(column);
+            while (values.hasRemaining())
+                list.add(values.get());
+        } else {
+            for (int i = 0; i < section.getRows(); i++)
+                list.add(section.getDouble(i, column));
+        }
+        return list;
     }
 
     /*
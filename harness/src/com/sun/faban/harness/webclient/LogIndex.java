@@ -0,0 +1,210 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The log index maintains a sidecar file next to the log file containing
+ * the byte offset of each log record. The index is brought up to date on
+ * each access by scanning only the part of the log written since the
+ * last access. This allows the log reader to seek straight to the records
+ * to be displayed instead of parsing the whole log from the start.<p>
+ *
+ * The index file starts with the log position scanned so far, followed by
+ * the offsets of all records found, all as big-endian longs.
+ *
+ * @author Akara Sucharitakul
+ */
+class LogIndex {
+
+    /** The suffix appended to the log file name to form the index name. */
+    static final String SUFFIX = ".idx";
+
+    /** The start tag of each log record. */
+    private static final byte[] TAG =
+            { '<', 'r', 'e', 'c', 'o', 'r', 'd', '>' };
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private File logFile;
+    private File indexFile;
+    private long recordCount;
+    private byte[] head;
+
+    private LogIndex(File logFile) {
+        this.logFile = logFile;
+        indexFile = new File(logFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Obtains the index for the given log file, updating the index file
+     * with records appended to the log since the last update.
+     * @param logFile The log file
+     * @return The up to date log index
+     * @throws IOException Error reading the log or writing the index
+     */
+    static LogIndex getInstance(File logFile) throws IOException {
+        LogIndex index = new LogIndex(logFile);
+        // Different requests may update the same index at the same time.
+        synchronized (LogIndex.class) {
+            index.update();
+        }
+        return index;
+    }
+
+    /**
+     * Scans the log from the last scanned position and appends the
+     * offsets of the new records to the index file.
+     * @throws IOException Error reading the log or writing the index
+     */
+    private void update() throws IOException {
+        RandomAccessFile idx = new RandomAccessFile(indexFile, "rw");
+        FileInputStream log = new FileInputStream(logFile);
+        try {
+            FileChannel logChannel = log.getChannel();
+            long logSize = logChannel.size();
+            long scanned = 0l;
+            if (idx.length() >= 8) {
+                scanned = idx.readLong();
+                // The log got truncated or replaced, start over.
+                if (scanned > logSize)
+                    scanned = 0l;
+            }
+            if (scanned == 0l) {
+                idx.setLength(8);
+            } else {
+                // Drop partial writes and records beyond the scanned
+                // position, in case the last update did not complete.
+                long length = idx.length() & ~7l;
+                while (length > 8) {
+                    idx.seek(length - 8);
+                    if (idx.readLong() < scanned)
+                        break;
+                    length -= 8;
+                }
+                idx.setLength(length);
+            }
+
+            ByteBuffer found = ByteBuffer.allocate(BUFFER_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            logChannel.position(scanned);
+            long position = scanned;
+            int matched = 0;
+            idx.seek(idx.length());
+            byte[] bytes = buffer.array();
+            while (logChannel.read(buffer) > 0) {
+                int length = buffer.position();
+                for (int i = 0; i < length; i++) {
+                    byte b = bytes[i];
+                    ++position;
+                    if (b == TAG[matched]) {
+                        if (++matched == TAG.length) {
+                            matched = 0;
+                            if (!found.hasRemaining())
+                                flush(found, idx);
+                            found.putLong(position - TAG.length);
+                        }
+                    } else {
+                        matched = b == TAG[0] ? 1 : 0;
+                    }
+                }
+                buffer.clear();
+            }
+            flush(found, idx);
+
+            // A partially matched tag at the end gets rescanned next time.
+            idx.seek(0);
+            idx.writeLong(position - matched);
+
+            recordCount = idx.length() / 8 - 1;
+
+            // The head is anything preceding the first record.
+            if (recordCount > 0) {
+                idx.seek(8);
+                head = new byte[(int) idx.readLong()];
+                ByteBuffer headBuffer = ByteBuffer.wrap(head);
+                logChannel.position(0);
+                while (headBuffer.hasRemaining())
+                    if (logChannel.read(headBuffer) < 0)
+                        throw new EOFException("Unexpected end of " +
+                                logFile);
+            }
+        } finally {
+            log.close();
+            idx.close();
+        }
+    }
+
+    private static void flush(ByteBuffer found, RandomAccessFile idx)
+            throws IOException {
+        found.flip();
+        FileChannel channel = idx.getChannel();
+        while (found.hasRemaining())
+            channel.write(found);
+        found.clear();
+    }
+
+    /**
+     * Obtains the number of records indexed.
+     * @return The record count
+     */
+    long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Opens a stream reading the log as if the records before the given
+     * record did not exist. The XML header and enclosing element is
+     * retained so the stream can be parsed just like the log itself.
+     * @param recordId The id of the first record to read
+     * @return The input stream
+     * @throws IOException Error opening the log
+     */
+    InputStream openStream(long recordId) throws IOException {
+        if (recordId < 0 || recordId >= recordCount)
+            throw new IndexOutOfBoundsException("Record " + recordId +
+                    " not in log of " + recordCount + " records");
+        long offset;
+        RandomAccessFile idx = new RandomAccessFile(indexFile, "r");
+        try {
+            idx.seek(8 + recordId * 8);
+            offset = idx.readLong();
+        } finally {
+            idx.close();
+        }
+        FileInputStream log = new FileInputStream(logFile);
+        log.getChannel().position(offset);
+        return new SequenceInputStream(new ByteArrayInputStream(head), log);
+    }
+}
@@ -40,6 +40,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A servlet to read the sometimes incomplete log file, complete it, and
@@ -50,6 +52,9 @@ import java.io.InputStream;
  */
 public class LogReader extends HttpServlet {
 
+    private static Logger logger =
+            Logger.getLogger(LogReader.class.getName());
+
     ServletContext ctx;
 
     public void init() throws ServletException {
@@ -75,12 +80,11 @@ public class LogReader extends HttpServlet {
             return;
         }
 
-        String logFilePath = Config.OUT_DIR + runId +
-                File.separator + Config.LOG_FILE;
-        InputStream is = new FileInputStream(logFilePath);
-        if (is == null) {
+        File logFile = new File(Config.OUT_DIR + runId +
+                File.separator + Config.LOG_FILE);
+        if (!logFile.isFile()) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND,
-                    "Logfile " + logFilePath + " not found");
+                    "Logfile " + logFile + " not found");
             return;
         }
 
@@ -100,6 +104,7 @@ public class LogReader extends HttpServlet {
 
         ServletOutputStream out = response.getOutputStream();
         LogParseHandler handler = null;
+        InputStream is = null;
 
         try {
             SAXParserFactory sFact = SAXParserFactory.newInstance();
@@ -115,6 +120,7 @@ public class LogReader extends HttpServlet {
                 handler = new TableHandler(start, request, out, runId);
             else
                 handler = new RecordHandler(start, request, out, runId);
+            is = openLog(logFile, handler);
             parser.parse(is, handler);
             handler.xmlComplete = true; // If we get here, the XML is good.
         } catch (ParserConfigurationException e) {
@@ -128,6 +134,9 @@ public class LogReader extends HttpServlet {
             handler.xmlComplete = false;
         } catch (SAXException e) {
             throw new ServletException(e);
+        } finally {
+            if (is != null)
+                is.close();
         }
 
         response.setContentType("text/html");
@@ -136,4 +145,42 @@ public class LogReader extends HttpServlet {
         out.close();
         response.flushBuffer();
     }
+
+    /**
+     * Opens the log for parsing by the given handler. If the log index is
+     * available, the stream starts at the first record the handler needs
+     * and the handler's record count is set accordingly. Otherwise the
+     * stream starts at the beginning of the log.
+     * @param logFile The log file
+     * @param handler The handler to parse the log
+     * @return The stream to parse
+     * @throws IOException Error opening the log
+     */
+    private InputStream openLog(File logFile, LogParseHandler handler)
+            throws IOException {
+        LogIndex index = null;
+        try {
+            index = LogIndex.getInstance(logFile);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot index " + logFile +
+                    ", reading without index.", e);
+        }
+        if (index == null || index.getRecordCount() == 0)
+            return new FileInputStream(logFile);
+
+        long first = handler.begin;
+        if (handler.end == Long.MAX_VALUE && handler instanceof TableHandler) {
+            TableHandler tableHandler = (TableHandler) handler;
+            // Displaying the end, we only need to fill the buffer.
+            if (tableHandler.displayEnd && tableHandler.logBuffer != null)
+                first = index.getRecordCount() -
+                        tableHandler.logBuffer.capacity();
+        }
+        if (first <= 0)
+            return new FileInputStream(logFile);
+        if (first >= index.getRecordCount())
+            first = index.getRecordCount() - 1;
+        handler.recordCount = first;
+        return index.openStream(first);
+    }
 }
\ No newline at end of file
@@ -486,8 +486,11 @@ public class ResultAction {
             usrEnv = new UserEnv();
             session.setAttribute("usrEnv", usrEnv);
         }
-        SortableTableModel resultTable = RunResult.getResultTable(usrEnv.getSubject(), 5, "DESCENDING");
+        SortableTableModel resultTable = RunResult.getResultTable(
+                usrEnv.getSubject(), 5, "DESCENDING", 0, Results.PAGE_SIZE + 1);
         String feedURL = "/controller/results/feed";
+        request.setAttribute("offset", 0);
+        request.setAttribute("pageSize", Results.PAGE_SIZE);
         request.setAttribute("feedURL", feedURL );
         request.setAttribute("table.model", resultTable);
         return "/resultlist.jsp";
@@ -560,6 +563,7 @@ public class ResultAction {
             Logger.getLogger(ResultAction.class.getName()).
                     log(Level.SEVERE, null, ex);
         }
+        RunCatalog.updateRun(result.runId.toString());
     }
 
     /**
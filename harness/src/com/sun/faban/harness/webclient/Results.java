@@ -54,6 +54,10 @@ public class Results {
     private static SimpleDateFormat formatOrig =
             new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
 
+    /** The number of runs shown on one page of the result list. */
+    static final int PAGE_SIZE = Integer.getInteger("faban.results.pageSize",
+                                                    100);
+
     /**
      * Add/Edit the target to target.xml file
      * @param req
@@ -215,6 +219,14 @@ public class Results {
         if (sortColumn != null && !"".equals(sortColumn)) {
             col = Integer.parseInt(sortColumn);
         }
+        int offset = 0;
+        String offsetParam = req.getParameter("offset");
+        if (offsetParam != null && !"".equals(offsetParam)) {
+            offset = Math.max(0, Integer.parseInt(offsetParam));
+        }
+
+        // We query one extra run to know whether there is a next page.
+        int limit = PAGE_SIZE + 1;
         SortableTableModel resultTable = null;
         boolean tagSearch = false;
         String feedURL = "/controller/results/feed";
@@ -226,9 +238,9 @@ public class Results {
         }
         if (tagSearch) {
             if (col >= 0 && col < 8)
-                resultTable = RunResult.getResultTable(usrEnv.getSubject(), tag, col, sortDirection.trim());
+                resultTable = RunResult.getResultTable(usrEnv.getSubject(), tag, col, sortDirection.trim(), offset, limit);
             else     
-                resultTable = RunResult.getResultTable(usrEnv.getSubject(), tag, 5, "DESCENDING");
+                resultTable = RunResult.getResultTable(usrEnv.getSubject(), tag, 5, "DESCENDING", offset, limit);
             StringTokenizer t = new StringTokenizer(tag, " ,;:");
             StringBuilder b = new StringBuilder(tag.length());
             b.append(feedURL);
@@ -241,11 +253,13 @@ public class Results {
             feedURL = b.toString();
             req.setAttribute("tagInSearch", tag);
         } else if (col >= 0 && col < 8) {
-            resultTable = RunResult.getResultTable(usrEnv.getSubject(), col, sortDirection.trim());
+            resultTable = RunResult.getResultTable(usrEnv.getSubject(), col, sortDirection.trim(), offset, limit);
         } else {
-            resultTable = RunResult.getResultTable(usrEnv.getSubject(), 5, "DESCENDING");
+            resultTable = RunResult.getResultTable(usrEnv.getSubject(), 5, "DESCENDING", offset, limit);
         }
 
+        req.setAttribute("offset", offset);
+        req.setAttribute("pageSize", PAGE_SIZE);
         req.setAttribute("feedURL", feedURL );
         req.setAttribute("table.model", resultTable);
         return "/resultlist.jsp";
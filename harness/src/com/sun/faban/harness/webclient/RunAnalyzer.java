@@ -36,9 +36,21 @@ import org.w3c.dom.NodeList;
 import org.w3c.dom.NamedNodeMap;
 
 import java.io.*;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 /**
@@ -47,8 +59,18 @@ import java.util.logging.Logger;
  * @author Akara Sucharitakul
  */
 public class RunAnalyzer {
-    XMLReader reader;
-    ArrayList<String> rtPercentList[];
+
+    /** The maximum number of runs read concurrently. */
+    static final int ANALYZER_THREADS = Integer.getInteger(
+            "faban.analyzer.threads", Runtime.getRuntime().availableProcessors());
+
+    /** The change in percent beyond which a run is flagged as regressed. */
+    static final double REGRESSION_THRESHOLD = Double.parseDouble(
+            System.getProperty("faban.analyzer.regressionThreshold", "5"));
+
+    /** Data already read from runs, by run and driver. */
+    private static ConcurrentHashMap<String, SoftReference<RunData>> runCache =
+            new ConcurrentHashMap<String, SoftReference<RunData>>();
 
     /**
      * Analysis types.
@@ -200,6 +222,8 @@ public class RunAnalyzer {
         try {
             if (type == Type.COMPARE)
                 compare(runIdStrings, Config.ANALYSIS_DIR + output);
+            else
+                average(runIdStrings, Config.ANALYSIS_DIR + output);
         } catch (IOException ie) {
             FileHelper.recursiveDelete(analysisDir);
             throw new IOException("Failed creating analysis.");
@@ -207,7 +231,9 @@ public class RunAnalyzer {
     }
 
     /*
-    * Process the list of rundirs and print out the comparison report
+    * Process the list of rundirs and print out the comparison report.
+    * The runs are read concurrently, one driver at a time, and then
+    * merged into the report tables in run order.
     * @param runDirs String array
     * @param outDir directory to write output report to
     * @throws IOException if runDir or certain files in it can't be accessed or
@@ -218,278 +244,712 @@ public class RunAnalyzer {
         TextTable infoTable;
         TextTable cpuTable = null;
         PrintWriter p;
-        List<String> cpuList[];
-        int maxThruRows = 0, maxDistRows = 0;
         infoTable = new TextTable(runDirs.length, 4);
         infoTable.setHeader(0, "RunID");
         infoTable.setHeader(1, "Avg. Throughput");
         infoTable.setHeader(2, "Passed");
         infoTable.setHeader(3, "Description");
 
+        ExecutorService executor = newExecutor(runDirs.length);
         p = openOutFile(outFile, "Compare");
+        try {
+            for (int driver = 1, maxDriver = 1; driver <= maxDriver; driver++ ) {
+                RunData[] runs = readRuns(executor, runDirs, driver);
+                RunData run0 = runs[0];
+                if (driver == 1) {
+                    // parse Run Info section of summary file
+                    for (int i = 0; i < runs.length; i++) {
+                        infoTable.setField(i, 0, runs[i].runId);
+                        infoTable.setField(i, 1, runs[i].metric);
+                        infoTable.setField(i, 2, runs[i].passed);
+                        infoTable.setField(i, 3, runs[i].description);
+                    }
+                    p.println("Section: Run Information");
+                    p.println(infoTable.toString());
+                }
+                if (run0.detail.hasNextDriver) {
+                    maxDriver++;
+                }
+                cpuTable = compareDriver(p, runDirs, runs);
+            }
 
-        for (int i = 0; i < runDirs.length; i++) {
-            String sumFile = getSumFile(runDirs[i]);
+            // Print CPU utilization
+            p.println("Section: Average CPU Utilization");
+            p.println(cpuTable.toString());
+        } finally {
+            executor.shutdownNow();
+            p.close();
+        }
+    }
 
-            reader = new XMLReader(sumFile, false, false);
+    /*
+    * Process the list of rundirs and print out the average report. The
+    * runs are read concurrently, one driver at a time, as in compare.
+    * Each interval of a time series is averaged over the runs that still
+    * ran at that interval.
+    * @param runDirs String array
+    * @param outDir directory to write output report to
+    * @throws IOException if runDir or certain files in it can't be accessed or
+    *            file format is incorrect
+    */
+    public void average(String runDirs[], String outDir) throws IOException {
+        String outFile = outDir + File.separator + "average.xan";
+        TextTable cpuTable = null;
+        ExecutorService executor = newExecutor(runDirs.length);
+        PrintWriter p = openOutFile(outFile, "Average");
+        try {
+            for (int driver = 1, maxDriver = 1; driver <= maxDriver; driver++ ) {
+                RunData[] runs = readRuns(executor, runDirs, driver);
+                if (driver == 1) {
+                    TextTable infoTable = new TextTable(runs.length + 1, 4);
+                    infoTable.setHeader(0, "RunID");
+                    infoTable.setHeader(1, "Avg. Throughput");
+                    infoTable.setHeader(2, "Passed");
+                    infoTable.setHeader(3, "Description");
+                    double metricSum = 0d;
+                    int metricCount = 0;
+                    int passedCount = 0;
+                    for (int i = 0; i < runs.length; i++) {
+                        infoTable.setField(i, 0, runs[i].runId);
+                        infoTable.setField(i, 1, runs[i].metric);
+                        infoTable.setField(i, 2, runs[i].passed);
+                        infoTable.setField(i, 3, runs[i].description);
+                        double metric = parse(runs[i].metric);
+                        if (!Double.isNaN(metric)) {
+                            metricSum += metric;
+                            ++metricCount;
+                        }
+                        if ("true".equals(runs[i].passed))
+                            ++passedCount;
+                    }
+                    infoTable.setField(runs.length, 0, "Average");
+                    infoTable.setField(runs.length, 1, metricCount == 0 ?
+                            "-" : format(metricSum / metricCount));
+                    infoTable.setField(runs.length, 2,
+                            passedCount + " of " + runs.length);
+                    infoTable.setField(runs.length, 3, "-");
+                    p.println("Section: Run Information");
+                    p.println(infoTable.toString());
+                    cpuTable = averageCpu(runs);
+                }
+                if (runs[0].detail.hasNextDriver) {
+                    maxDriver++;
+                }
+                averageDriver(p, runs);
+            }
 
-            // parse Run Info section of summary file
-            getRunInfo(runDirs[i], reader, infoTable, i);
-            reader = null;
+            p.println("Section: Average CPU Utilization");
+            p.println(cpuTable.toString());
+        } finally {
+            executor.shutdownNow();
+            p.close();
         }
-        p.println("Section: Run Information");
-        p.println(infoTable.toString());
+    }
 
-        DetailReport detail = null;
-        for (int driver = 1, maxDriver = 1; driver <= maxDriver; driver++ ) {
-            TextTable thruTable, opAvgThruTable = null, opThruTable;
-            TextTable respTable, percentRespTable[] = null, avgRespTable = null;
-            String thruMetric = null, respMetric = null;
-            ArrayList<String> rtAvgList;
-            ArrayList<String> rtPercentNames = null;
-            ArrayList<String> opNames = new ArrayList<String>();
+    /*
+    * Prints the average of one driver across all runs.
+    * @param p The output
+    * @param runs The data read from each run, for this driver
+    */
+    private void averageDriver(PrintWriter p, RunData[] runs)
+            throws IOException {
+        RunData run0 = runs[0];
+        String thruMetric = run0.thruUnit, respMetric = run0.respUnit;
+        ArrayList<String> opNames = run0.opNames;
+        ArrayList<String> rtPercentNames = run0.rtPercentNames;
+
+        // The time axis is taken from the longest run.
+        int rows = 0;
+        List<Double> timeVals = null;
+        for (RunData run : runs) {
+            List<Double> throughput = run.detail.getThruput();
+            if (timeVals == null || throughput.size() > rows) {
+                rows = throughput.size();
+                timeVals = run.detail.getTimes();
+            }
+        }
 
-            ArrayList<Double> thruList[] = new ArrayList[runDirs.length];
-            ArrayList<Double> opThruList[][] = null;
-            ArrayList<Double> timeVals = new ArrayList<Double>();
-            ArrayList<Double> timeDistVals = new ArrayList<Double>();
+        ArrayList<List<Double>> series =
+                new ArrayList<List<Double>>(runs.length);
+        for (RunData run : runs)
+            series.add(run.detail.getThruput());
+        TextTable thruTable = new TextTable(rows, 4);
+        thruTable.setHeader(0, "Time");
+        thruTable.setHeader(1, "Mean");
+        thruTable.setHeader(2, "Min");
+        thruTable.setHeader(3, "Max");
+        double[][] stats = seriesStats(series, rows);
+        for (int i = 0; i < rows; i++) {
+            thruTable.setField(i, 0, timeVals.get(i).toString());
+            for (int j = 0; j < 3; j++)
+                thruTable.setField(i, j + 1, Double.isNaN(stats[j][i]) ?
+                                             "-" : format(stats[j][i]));
+        }
+        p.println("Section: Average Throughput (" + thruMetric + ")");
+        p.println("Display: Line");
+        p.println(thruTable.toString());
+
+        // One row per operation with the averages of the run summaries.
+        TextTable opTable = new TextTable(opNames.size(),
+                                          rtPercentNames.size() + 3);
+        opTable.setHeader(0, "Operation");
+        opTable.setHeader(1, "Throughput (" + thruMetric + ")");
+        opTable.setHeader(2, "Avg. Resp. Time (" + respMetric + ")");
+        for (int k = 0; k < rtPercentNames.size(); k++)
+            opTable.setHeader(k + 3, rtPercentNames.get(k) +
+                              " Percentile Resp. Time (" + respMetric + ")");
+        double[] values = new double[runs.length];
+        for (int j = 0; j < opNames.size(); j++) {
+            opTable.setField(j, 0, opNames.get(j));
+            for (int i = 0; i < runs.length; i++)
+                values[i] = runs[i].detail.getOpAvgThruput(j);
+            opTable.setField(j, 1, formatMean(values));
+            for (int i = 0; i < runs.length; i++)
+                values[i] = parse(valueAt(runs[i].rtAvgList, j));
+            opTable.setField(j, 2, formatMean(values));
+            for (int k = 0; k < rtPercentNames.size(); k++) {
+                for (int i = 0; i < runs.length; i++)
+                    values[i] = runs[i].rtPercentList == null ||
+                            k >= runs[i].rtPercentList.length ? Double.NaN :
+                            parse(valueAt(runs[i].rtPercentList[k], j));
+                opTable.setField(j, k + 3, formatMean(values));
+            }
+        }
+        p.println("Section: Average Per Operation");
+        p.println(opTable.toString());
+
+        for (int k = 0; k < opNames.size(); k++) {
+            series.clear();
+            for (RunData run : runs)
+                series.add(run.detail.getOpRT(k));
+            stats = seriesStats(series, rows);
+            TextTable respTable = new TextTable(rows, 2);
+            respTable.setHeader(0, "Time");
+            respTable.setHeader(1, "Mean");
+            for (int i = 0; i < rows; i++) {
+                respTable.setField(i, 0, timeVals.get(i).toString());
+                respTable.setField(i, 1, Double.isNaN(stats[0][i]) ?
+                                         "-" : format(stats[0][i]));
+            }
+            p.println("Section: Average Response Times for Operation '" +
+                    opNames.get(k) + "' (" + respMetric + ")");
+            p.println("Display: Line");
+            p.println(respTable.toString());
+        }
+    }
 
-            ArrayList<Double> respList[][] = null;
-            ArrayList<Integer> respDistList[][] = null;
+    /*
+    * Computes the mean, min, and max of a number of series for each row.
+    * Runs without a value at a row do not count for that row. Rows
+    * without any value are NaN.
+    * @return The mean, min, and max arrays, in this order
+    */
+    private static double[][] seriesStats(List<List<Double>> series,
+                                          int rows) {
+        double[][] stats = new double[3][rows];
+        for (int i = 0; i < rows; i++) {
+            double sum = 0d;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            int count = 0;
+            for (List<Double> values : series) {
+                if (values == null || i >= values.size())
+                    continue;
+                double value = values.get(i);
+                if (Double.isNaN(value))
+                    continue;
+                sum += value;
+                if (value < min)
+                    min = value;
+                if (value > max)
+                    max = value;
+                ++count;
+            }
+            if (count == 0) {
+                stats[0][i] = stats[1][i] = stats[2][i] = Double.NaN;
+            } else {
+                stats[0][i] = sum / count;
+                stats[1][i] = min;
+                stats[2][i] = max;
+            }
+        }
+        return stats;
+    }
 
-            for (int i = 0; i < runDirs.length; i++) {
-                String detFile = getDetFile(runDirs[i]);
-                detail = new DetailReport(detFile, driver);
-                List<Double> throughput = detail.getThruput();
-                List<Double> distVals = detail.getTimesDist();
-                if (i == 0) {
-                    maxThruRows = throughput.size();
-                    maxDistRows = distVals.size();
-                }
-                if (throughput.size() > maxThruRows) {
-                    maxThruRows = throughput.size();
-                }
-                if (distVals.size() > maxDistRows) {
-                    maxDistRows = distVals.size();
-                }
+    /*
+    * Formats the mean of the values that are numbers, or a dash if none.
+    */
+    private static String formatMean(double[] values) {
+        double sum = 0d;
+        int count = 0;
+        for (double value : values)
+            if (!Double.isNaN(value)) {
+                sum += value;
+                ++count;
             }
+        return count == 0 ? "-" : format(sum / count);
+    }
 
-            for (int i = 0; i < runDirs.length; i++) {
-                String sumFile = getSumFile(runDirs[i]);
-                String detFile = getDetFile(runDirs[i]);
-                reader = new XMLReader(sumFile, false, false);
-
-                // parse throughput section of detail.xan
-                detail = new DetailReport(detFile, driver);
-                thruList[i] = detail.getThruput();
-                timeVals = detail.getTimes();
-                timeDistVals = detail.getTimesDist(maxDistRows);
-
-                // read the metric from the first file
-                if (i == 0) {
-                    respMetric = getRespUnit(reader, driver);
-                    thruMetric = getThruUnit(reader, driver);
+    /*
+    * Averages the CPU utilization of each host across the runs. Runs
+    * not using a host do not count for that host.
+    */
+    private static TextTable averageCpu(RunData[] runs) {
+        LinkedHashMap<String, double[]> hosts =
+                new LinkedHashMap<String, double[]>();
+        for (RunData run : runs)
+            for (ArrayList<String> hostUtil : run.cpuList) {
+                double util = parse(hostUtil.get(1));
+                if (Double.isNaN(util))
+                    continue;
+                double[] sum = hosts.get(hostUtil.get(0));
+                if (sum == null) {
+                    sum = new double[2];
+                    hosts.put(hostUtil.get(0), sum);
                 }
+                sum[0] += util;
+                ++sum[1];
+            }
+        TextTable table = new TextTable(hosts.size(), 3);
+        table.setHeader(0, "Host");
+        table.setHeader(1, "Avg. CPU Util. (%)");
+        table.setHeader(2, "Runs");
+        int row = 0;
+        for (Map.Entry<String, double[]> host : hosts.entrySet()) {
+            double[] sum = host.getValue();
+            table.setField(row, 0, host.getKey());
+            table.setField(row, 1, format(sum[0] / sum[1]));
+            table.setField(row, 2, String.valueOf((int) sum[1]));
+            ++row;
+        }
+        return table;
+    }
 
-                // Now get the response times
-                rtAvgList = new ArrayList<String>();
-                rtPercentNames = new ArrayList<String>();
-                try {
-                    getResponseTimes(reader, opNames, rtAvgList, rtPercentNames, driver);
-                } catch (IOException ie) {
-                    throw new IOException(ie.getMessage() + " : " + sumFile);
-                }
+    /*
+    * Creates the thread pool used to read the runs.
+    */
+    private static ExecutorService newExecutor(int runs) {
+        return Executors.newFixedThreadPool(
+                Math.max(1, Math.min(ANALYZER_THREADS, runs)),
+                new ThreadFactory() {
+                    int count = 0;
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "RunAnalyzer-" + count++);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
 
-                // Get cpu util.
-                cpuList = getCpuUtil(Config.OUT_DIR + runDirs[i]);
+    /*
+    * Prints the comparison of one driver across all runs.
+    * @param p The output
+    * @param runDirs The run directories
+    * @param runs The data read from each run, for this driver
+    * @return The CPU utilization table
+    */
+    private TextTable compareDriver(PrintWriter p, String[] runDirs,
+                                    RunData[] runs) throws IOException {
+        TextTable thruTable, opAvgThruTable, opThruTable;
+        TextTable respTable, percentRespTable[], avgRespTable, cpuTable;
+        RunData run0 = runs[0];
+        String thruMetric = run0.thruUnit, respMetric = run0.respUnit;
+        ArrayList<String> opNames = run0.opNames;
+        ArrayList<String> rtPercentNames = run0.rtPercentNames;
+
+        // The time axes are taken from the longest run.
+        int maxThruRows = 0, maxDistRows = 0;
+        List<Double> timeVals = null;
+        List<Double> timeDistVals = null;
+        for (RunData run : runs) {
+            List<Double> throughput = run.detail.getThruput();
+            List<Double> distVals = run.detail.getTimesDist();
+            if (timeVals == null || throughput.size() > maxThruRows) {
+                maxThruRows = throughput.size();
+                timeVals = run.detail.getTimes();
+            }
+            if (timeDistVals == null || distVals.size() > maxDistRows) {
+                maxDistRows = distVals.size();
+                timeDistVals = distVals;
+            }
+        }
 
-                if (i == 0) {
-                    if (detail.hasNextDriver) {
-                        maxDriver++;
-                    }
-                    respList = new ArrayList[runDirs.length][opNames.size()];
-                    respDistList = new ArrayList[runDirs.length][opNames.size()];
-
-                    // thru. table on a per operation basis
-                    opAvgThruTable = new TextTable(runDirs.length, opNames.size() + 1);
-                    opAvgThruTable.setHeader(0, "RunID");
-
-                    opThruList = new ArrayList[runDirs.length][opNames.size()];
-
-                    /*
-                     * We have the following types of RT tables:
-                     * a) Avg. RT which simply has one row per run listing avg RT. of each operation
-                     * b) nth Percentile RT tables - same info as above
-                     * c) Detailed RT - one table per operation listing RT over time
-                     */
-                    avgRespTable = new TextTable(runDirs.length, opNames.size() + 1);
-                    avgRespTable.setHeader(0, "RunID");
-
-                    //percentile resp. tables (e.g. 90th, 99th)
-                    percentRespTable = new TextTable[rtPercentNames.size()];
-                    for (int j = 0; j < rtPercentNames.size(); j++) {
-                        percentRespTable[j] = new TextTable(runDirs.length, opNames.size() + 1);
-                        percentRespTable[j].setHeader(0, "RunID");
-                    }
+        // thru. table on a per operation basis
+        opAvgThruTable = new TextTable(runDirs.length, opNames.size() + 1);
+        opAvgThruTable.setHeader(0, "RunID");
 
-                    for (int j = 0; j < opNames.size(); j++) {
-                        opAvgThruTable.setHeader(j + 1, opNames.get(j));
-                        avgRespTable.setHeader(j + 1, opNames.get(j));
-                        for (int k = 0; k < rtPercentNames.size(); k++) {
-                            percentRespTable[k].setHeader(j + 1, opNames.get(j));
-                        }
-                    }
+        /*
+         * We have the following types of RT tables:
+         * a) Avg. RT which simply has one row per run listing avg RT. of each operation
+         * b) nth Percentile RT tables - same info as above
+         * c) Detailed RT - one table per operation listing RT over time
+         */
+        avgRespTable = new TextTable(runDirs.length, opNames.size() + 1);
+        avgRespTable.setHeader(0, "RunID");
+
+        //percentile resp. tables (e.g. 90th, 99th)
+        percentRespTable = new TextTable[rtPercentNames.size()];
+        for (int j = 0; j < rtPercentNames.size(); j++) {
+            percentRespTable[j] = new TextTable(runDirs.length, opNames.size() + 1);
+            percentRespTable[j].setHeader(0, "RunID");
+        }
 
-                    /*** CPU info is tough for comparison. The hosts may not be the same */
-                    // CPU info. We print 1 row per RunID with each col. being cpu% for one host
-                    cpuTable = new TextTable(runDirs.length, cpuList.length + 1);
-                    cpuTable.setHeader(0, "RunID");
-                    for (int j = 0; j < cpuList.length; j++) {
-                        cpuTable.setHeader(j + 1, cpuList[j].get(0));    // hostname
-                    }
-                }
-                // Get avg. thruput per operation
-                opAvgThruTable.setField(i, 0, runDirs[i]);
-                avgRespTable.setField(i, 0, runDirs[i]);
-                for (int j = 0; j < opNames.size(); j++) {
-                    opAvgThruTable.setField(i, j + 1, String.format("%4.3f", detail.getOpAvgThruput(j)));
-                    opThruList[i][j] = detail.getOpThruput(j);
-                    respList[i][j] = detail.getOpRT(j);
-                    respDistList[i][j] = detail.getOpRTDist(j);
-                    avgRespTable.setField(i, j + 1, rtAvgList.get(j));
-                    for (int k = 0; k < rtPercentNames.size(); k++) {
-                        percentRespTable[k].setField(i, 0, runDirs[i]);
-                        percentRespTable[k].setField(i, j + 1, rtPercentList[k].get(j));
-                    }
+        for (int j = 0; j < opNames.size(); j++) {
+            opAvgThruTable.setHeader(j + 1, opNames.get(j));
+            avgRespTable.setHeader(j + 1, opNames.get(j));
+            for (int k = 0; k < rtPercentNames.size(); k++) {
+                percentRespTable[k].setHeader(j + 1, opNames.get(j));
+            }
+        }
+
+        /*** CPU info is tough for comparison. The hosts may not be the same */
+        // CPU info. We print 1 row per RunID with each col. being cpu% for one host
+        cpuTable = new TextTable(runDirs.length, run0.cpuList.length + 1);
+        cpuTable.setHeader(0, "RunID");
+        for (int j = 0; j < run0.cpuList.length; j++) {
+            cpuTable.setHeader(j + 1, run0.cpuList[j].get(0));    // hostname
+        }
+
+        for (int i = 0; i < runs.length; i++) {
+            RunData run = runs[i];
+            // Get avg. thruput per operation
+            opAvgThruTable.setField(i, 0, runDirs[i]);
+            avgRespTable.setField(i, 0, runDirs[i]);
+            for (int j = 0; j < opNames.size(); j++) {
+                opAvgThruTable.setField(i, j + 1, String.format("%4.3f", run.detail.getOpAvgThruput(j)));
+                avgRespTable.setField(i, j + 1, valueAt(run.rtAvgList, j));
+                for (int k = 0; k < rtPercentNames.size(); k++) {
+                    percentRespTable[k].setField(i, 0, runDirs[i]);
+                    percentRespTable[k].setField(i, j + 1,
+                            run.rtPercentList == null ||
+                            k >= run.rtPercentList.length ? "-" :
+                            valueAt(run.rtPercentList[k], j));
                 }
+            }
+
+            cpuTable.setField(i, 0, runDirs[i]);
+            int hosts = Math.min(run.cpuList.length, run0.cpuList.length);
+            for (int j = 0; j < hosts; j++) {
+                cpuTable.setField(i, j + 1, run.cpuList[j].get(1));  // avg. util
+            }
+        }
+
+        // Create the thruput tables. We create it with the largest #rows
+        thruTable = new TextTable(maxThruRows, runDirs.length + 1); //1st col is time
+        thruTable.setHeader(0, "Time");
+        for (int i = 0; i < timeVals.size(); i++)
+            thruTable.setField(i, 0, timeVals.get(i).toString());
+
+        for (int i = 0; i < runDirs.length; i++) {
+            thruTable.setHeader(i + 1, runDirs[i]);
+            fillColumn(thruTable, i + 1, runs[i].detail.getThruput(), maxThruRows);
+        }
+        p.println("Section: Overall Throughput (" + thruMetric + ")");
+        p.println("Display: Line");
+        p.println(thruTable.toString());
 
-                cpuTable.setField(i, 0, runDirs[i]);
-                for (int j = 0; j < cpuList.length; j++) {
-                    cpuTable.setField(i, j + 1, cpuList[j].get(1));  // avg. util
+        p.println("Section: Throughput Percentiles Across Runs (" + thruMetric + ")");
+        p.println("Display: Line");
+        p.println(percentileBands(runs, timeVals, maxThruRows).toString());
+
+        p.println("Section: Summary Throughput Per Operation (" + thruMetric + ")");
+        p.println(opAvgThruTable.toString());
+
+        // Print detailed thruput only if more than one operation as otherwise overall thruput is same as detail
+        if (opNames.size() > 1) {
+            for (int k = 0; k < opNames.size(); k++) {
+                p.println("Section: Detailed Throughput For  Operation '" +
+                        opNames.get(k) + "' (" + thruMetric + ")");
+                p.println("Display: Line");
+                opThruTable = new TextTable(maxThruRows, runDirs.length + 1);
+                opThruTable.setHeader(0, "Time");
+                for (int i = 0; i < timeVals.size(); i++)
+                    opThruTable.setField(i, 0, timeVals.get(i).toString());
+
+                for (int i = 0; i < runDirs.length; i++) {
+                    opThruTable.setHeader(i + 1, runDirs[i]);
+                    fillColumn(opThruTable, i + 1,
+                               runs[i].detail.getOpThruput(k), maxThruRows);
                 }
+                p.println(opThruTable.toString());
             }
-            // Create the thruput tables. We create it with the largest #rows
-            thruTable = new TextTable(maxThruRows, runDirs.length + 1); //1st col is time
-            thruTable.setHeader(0, "Time");
+        }
+
+        p.println("Section: Average Response Times (" + respMetric + ")");
+        p.println(avgRespTable.toString());
+
+        // Print nth percentile RT info
+        for (int j = 0; j < rtPercentNames.size(); j++) {
+            p.println("Section: " + rtPercentNames.get(j) + " Percentile Response Times (" + respMetric + ")");
+            p.println(percentRespTable[j].toString());
+        }
+
+        p.println("Section: Regression Check Against " + runDirs[0]);
+        p.println(regressionCheck(runDirs, runs).toString());
+
+        for (int k = 0; k < opNames.size(); k++) {
+            p.println("Section: Average Response Times for Operation '" +
+                    opNames.get(k) + "' (" + respMetric + ")");
+            p.println("Display: Line");
+            respTable = new TextTable(maxThruRows, runDirs.length + 1);
+            respTable.setHeader(0, "Time");
+
+            // Set time column for all rows
             for (int i = 0; i < timeVals.size(); i++)
-                thruTable.setField(i, 0, timeVals.get(i).toString());
+                respTable.setField(i, 0, timeVals.get(i).toString());
 
             for (int i = 0; i < runDirs.length; i++) {
-                thruTable.setHeader(i + 1, runDirs[i]);
-                int j;
-                for (j = 0; j < thruList[i].size(); j++) {
-                    thruTable.setField(j, i + 1, thruList[i].get(j).toString());
-                }
-                int rem = timeVals.size() - thruList[i].size();
-                // Fill remaning timevals with dash - null value for .xan
-                for (; rem > 0; rem--) {
-                    thruTable.setField(j++, i + 1, "-");
-                }
+                respTable.setHeader(i + 1, runDirs[i]);
+                fillColumn(respTable, i + 1, runs[i].detail.getOpRT(k),
+                           maxThruRows);
             }
-            p.println("Section: Overall Throughput (" + thruMetric + ")");
+            p.println(respTable.toString());
+        }
+
+        // Print distribution of response times
+        for (int k = 0; k < opNames.size(); k++) {
+            p.println("Section: Distribution of Response Times for Operation '" +
+                    opNames.get(k) + "' (" + respMetric + ")");
             p.println("Display: Line");
-            p.println(thruTable.toString());
-
-            p.println("Section: Summary Throughput Per Operation (" + thruMetric + ")");
-            p.println(opAvgThruTable.toString());
-
-            // Print detailed thruput only if more than one operation as otherwise overall thruput is same as detail
-            if (opNames.size() > 1) {
-                for (int k = 0; k < opNames.size(); k++) {
-                    p.println("Section: Detailed Throughput For  Operation '" +
-                            opNames.get(k) + "' (" + thruMetric + ")");
-                    p.println("Display: Line");
-                    opThruTable = new TextTable(maxThruRows, runDirs.length + 1);
-                    opThruTable.setHeader(0, "Time");
-                    for (int i = 0; i < timeVals.size(); i++)
-                        opThruTable.setField(i, 0, timeVals.get(i).toString());
-
-                    for (int i = 0; i < runDirs.length; i++) {
-                        opThruTable.setHeader(i + 1, runDirs[i]);
-                        int j;
-                        for (j = 0; j < opThruList[i][k].size(); j++) {
-                            opThruTable.setField(j, i + 1, opThruList[i][k].get(j).toString());
-                        }
-                        // Fill with dash for remaining time intervals (if any)
-                        int rem = timeVals.size() - opThruList[i][k].size();
-                        for (; rem > 0; rem--) {
-                            opThruTable.setField(j++, i + 1, "-");
-                        }
-                    }
-                    p.println(opThruTable.toString());
-                }
+            respTable = new TextTable(maxDistRows, runDirs.length + 1);
+            respTable.setHeader(0, "Time");
+
+            // Set time column for all rows
+            for (int i = 0; i < timeDistVals.size(); i++)
+                respTable.setField(i, 0, timeDistVals.get(i).toString());
+
+            for (int i = 0; i < runDirs.length; i++) {
+                respTable.setHeader(i + 1, runDirs[i]);
+                fillColumn(respTable, i + 1, runs[i].detail.getOpRTDist(k),
+                           maxDistRows);
             }
+            p.println(respTable.toString());
+        }
+        return cpuTable;
+    }
 
-            p.println("Section: Average Response Times (" + respMetric + ")");
-            p.println(avgRespTable.toString());
+    /*
+    * Obtains a value from a list, or dash if the run does not have it.
+    */
+    private static String valueAt(List<String> values, int idx) {
+        if (values == null || idx >= values.size())
+            return "-";
+        return values.get(idx);
+    }
+
+    /*
+    * Fills a table column with a series. Fill remaining rows with dash -
+    * null value for .xan
+    */
+    private static void fillColumn(TextTable table, int column,
+                                   List<? extends Number> values, int rows) {
+        int j = 0;
+        if (values != null)
+            for (; j < values.size() && j < rows; j++)
+                table.setField(j, column, values.get(j).toString());
+        for (; j < rows; j++)
+            table.setField(j, column, "-");
+    }
 
-            // Print nth percentile RT info
-            for (int j = 0; j < rtPercentList.length; j++) {
-                p.println("Section: " + rtPercentNames.get(j) + " Percentile Response Times (" + respMetric + ")");
-                p.println(percentRespTable[j].toString());
+    /*
+    * Computes the min, 10th, 50th, 90th percentile, and max of the overall
+    * throughput across all runs, for each time interval. Runs that ended
+    * before an interval do not count for that interval.
+    */
+    private static TextTable percentileBands(RunData[] runs,
+                                             List<Double> timeVals, int rows) {
+        TextTable table = new TextTable(rows, 6);
+        table.setHeader(0, "Time");
+        table.setHeader(1, "Min");
+        table.setHeader(2, "10th");
+        table.setHeader(3, "Median");
+        table.setHeader(4, "90th");
+        table.setHeader(5, "Max");
+        double[] values = new double[runs.length];
+        for (int i = 0; i < rows; i++) {
+            int count = 0;
+            for (RunData run : runs) {
+                List<Double> thruput = run.detail.getThruput();
+                if (i < thruput.size())
+                    values[count++] = thruput.get(i);
             }
+            Arrays.sort(values, 0, count);
+            table.setField(i, 0, timeVals.get(i).toString());
+            table.setField(i, 1, format(values[0]));
+            table.setField(i, 2, format(percentile(values, count, 10d)));
+            table.setField(i, 3, format(percentile(values, count, 50d)));
+            table.setField(i, 4, format(percentile(values, count, 90d)));
+            table.setField(i, 5, format(values[count - 1]));
+        }
+        return table;
+    }
 
-            for (int k = 0; k < opNames.size(); k++) {
-                p.println("Section: Average Response Times for Operation '" +
-                        opNames.get(k) + "' (" + respMetric + ")");
-                p.println("Display: Line");
-                respTable = new TextTable(maxThruRows, runDirs.length + 1);
-                respTable.setHeader(0, "Time");
+    /*
+    * Obtains the nearest-rank percentile of the first count sorted values.
+    */
+    static double percentile(double[] sorted, int count, double pct) {
+        int rank = (int) Math.ceil(pct / 100d * count);
+        return sorted[Math.max(rank, 1) - 1];
+    }
 
-                // Set time column for all rows
-                for (int i = 0; i < timeVals.size(); i++)
-                    respTable.setField(i, 0, timeVals.get(i).toString());
+    private static String format(double value) {
+        return String.format("%.3f", value);
+    }
 
-                for (int i = 0; i < runDirs.length; i++) {
-                    respTable.setHeader(i + 1, runDirs[i]);
-                    int j;
-                    for (j = 0; j < respList[i][k].size(); j++) {
-                        respTable.setField(j, i + 1, respList[i][k].get(j).toString());
-                    }
-                    int rem = timeVals.size() - respList[i][k].size();
-                    for (; rem > 0; rem--) {
-                        respTable.setField(j++, i + 1, "-");
-                    }
-                }
-                p.println(respTable.toString());
+    /*
+    * Compares each run to the first run. A run is flagged as regressed if
+    * its average throughput dropped, or the average response time of any
+    * operation rose, by more than the regression threshold percentage.
+    */
+    private static TextTable regressionCheck(String[] runDirs,
+                                             RunData[] runs) {
+        TextTable table = new TextTable(runs.length, 4);
+        table.setHeader(0, "RunID");
+        table.setHeader(1, "Throughput Change (%)");
+        table.setHeader(2, "Max Avg. Resp. Time Change (%)");
+        table.setHeader(3, "Regressed");
+        double baseThruput = mean(runs[0].detail.getThruput());
+        for (int i = 0; i < runs.length; i++) {
+            double thruChange = change(baseThruput,
+                                       mean(runs[i].detail.getThruput()));
+            double respChange = Double.NaN;
+            int ops = Math.min(runs[0].rtAvgList.size(),
+                               runs[i].rtAvgList.size());
+            for (int j = 0; j < ops; j++) {
+                double c = change(parse(runs[0].rtAvgList.get(j)),
+                                  parse(runs[i].rtAvgList.get(j)));
+                if (Double.isNaN(respChange) || c > respChange)
+                    respChange = c;
             }
+            boolean regressed = thruChange < -REGRESSION_THRESHOLD ||
+                                respChange > REGRESSION_THRESHOLD;
+            table.setField(i, 0, runDirs[i]);
+            table.setField(i, 1, Double.isNaN(thruChange) ? "-" :
+                                 String.format("%.2f", thruChange));
+            table.setField(i, 2, Double.isNaN(respChange) ? "-" :
+                                 String.format("%.2f", respChange));
+            table.setField(i, 3, String.valueOf(regressed));
+        }
+        return table;
+    }
 
-            // Print distribution of response times
-            for (int k = 0; k < opNames.size(); k++) {
-                p.println("Section: Distribution of Response Times for Operation '" +
-                        opNames.get(k) + "' (" + respMetric + ")");
-                p.println("Display: Line");
-                respTable = new TextTable(maxDistRows, runDirs.length + 1);
-                respTable.setHeader(0, "Time");
+    private static double mean(List<Double> values) {
+        if (values.isEmpty())
+            return Double.NaN;
+        double sum = 0d;
+        for (double value : values)
+            sum += value;
+        return sum / values.size();
+    }
 
-                // Set time column for all rows
-                for (int i = 0; i < timeDistVals.size(); i++)
-                    respTable.setField(i, 0, timeDistVals.get(i).toString());
+    private static double change(double base, double value) {
+        if (base == 0d)
+            return Double.NaN;
+        return (value - base) * 100d / base;
+    }
 
-                for (int i = 0; i < runDirs.length; i++) {
-                    respTable.setHeader(i + 1, runDirs[i]);
-                    int j;
-                    for (j = 0; j < respDistList[i][k].size(); j++) {
-                        respTable.setField(j, i + 1, respDistList[i][k].get(j).toString());
-                    }
-                    int rem = timeDistVals.size() - respDistList[i][k].size();
-                    for (; rem > 0; rem--) {
-                        respTable.setField(j++, i + 1, "-");
-                    }
+    private static double parse(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (RuntimeException e) {
+            return Double.NaN; // Null or not a number.
+        }
+    }
+
+    /*
+    * Reads all runs for one driver concurrently.
+    */
+    private RunData[] readRuns(ExecutorService executor, String[] runDirs,
+                               final int driver) throws IOException {
+        evictCleared();
+        ArrayList<Future<RunData>> futures =
+                new ArrayList<Future<RunData>>(runDirs.length);
+        for (final String runDir : runDirs) {
+            futures.add(executor.submit(new Callable<RunData>() {
+                public RunData call() throws IOException {
+                    return readRun(runDir, driver);
                 }
-                p.println(respTable.toString());
-            }
-            first = true;
-            maxDistRows = 0;
-            maxThruRows = 0;
+            }));
         }
+        RunData[] runs = new RunData[runDirs.length];
+        try {
+            for (int i = 0; i < runs.length; i++)
+                runs[i] = futures.get(i).get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted reading runs.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("Error reading runs.", cause);
+        } finally {
+            for (Future<RunData> future : futures)
+                future.cancel(true);
+        }
+        return runs;
+    }
+
+    /*
+    * Removes the cache entries whose data got collected.
+    */
+    private static void evictCleared() {
+        for (Iterator<Map.Entry<String, SoftReference<RunData>>> iter =
+                runCache.entrySet().iterator(); iter.hasNext();)
+            if (iter.next().getValue().get() == null)
+                iter.remove();
+    }
+
+    /*
+    * Reads the data for one driver of a run. The data is cached, so
+    * re-analyzing with more runs added only reads the new runs. The
+    * cached data is valid as long as none of the files it is read
+    * from changed and no CPU stats files got added or removed.
+    */
+    RunData readRun(String runDir, int driver) throws IOException {
+        String sumFile = getSumFile(runDir);
+        String detFile = getDetFile(runDir);
+        long modTime = Math.max(new File(sumFile).lastModified(),
+                                new File(detFile).lastModified());
+        modTime = Math.max(modTime, new File(Config.OUT_DIR + runDir,
+                                             "run.xml").lastModified());
+        File[] cpuFiles = getVmstatXanFile(Config.OUT_DIR + runDir);
+        int cpuFileCount = cpuFiles == null ? 0 : cpuFiles.length;
+        for (int i = 0; i < cpuFileCount; i++)
+            modTime = Math.max(modTime, cpuFiles[i].lastModified());
+        String key = runDir + '#' + driver;
+        SoftReference<RunData> ref = runCache.get(key);
+        RunData run = ref == null ? null : ref.get();
+        if (run != null && run.modTime == modTime &&
+                run.cpuFileCount == cpuFileCount)
+            return run;
+
+        run = new RunData();
+        run.modTime = modTime;
+        run.cpuFileCount = cpuFileCount;
+        XMLReader reader = new XMLReader(sumFile, false, false);
+        getRunInfo(runDir, reader, run);
+        try {
+            run.respUnit = getRespUnit(reader, driver);
+            run.thruUnit = getThruUnit(reader, driver);
+        } catch (IndexOutOfBoundsException e) {
+            // Unit not available, leave as null.
+        }
+
+        // Now get the response times
+        try {
+            getResponseTimes(reader, run, driver);
+        } catch (IOException ie) {
+            throw new IOException(ie.getMessage() + " : " + sumFile);
+        }
+        reader = null;
 
-        // Print CPU utilization
-        p.println("Section: Average CPU Utilization");
-        p.println(cpuTable.toString());
+        // Get cpu util.
+        run.cpuList = getCpuUtil(Config.OUT_DIR + runDir);
 
-        p.close();
-        return;
+        // parse throughput section of detail.xan
+        run.detail = new DetailReport(detFile, driver);
+        runCache.put(key, new SoftReference<RunData>(run));
+        return run;
     }
 
     PrintWriter openOutFile(String file, String type) throws IOException {
@@ -549,15 +1009,19 @@ public class RunAnalyzer {
         return (unit);
     }
 
-    private boolean first = true;
     /**
     * @method getResponseTimes
-    * @param List opnames - list to add operation names to
-    * @param List rtAvgList - list to add avg. RT
-    * @param List rt90List - list to add 90% RT
+    * @param XMLReader reader - the summary of the run
+    * @param RunData run - the run data to add operation names, avg. and
+    *                      percentile RT to
+    * @param int driver - the driver
     */
-    void getResponseTimes(XMLReader reader, List opNames, List rtAvgList, List rtPercentNames, int driver)
+    void getResponseTimes(XMLReader reader, RunData run, int driver)
             throws IOException {
+        List<String> opNames = run.opNames;
+        List<String> rtAvgList = run.rtAvgList;
+        List<String> rtPercentNames = run.rtPercentNames;
+        ArrayList<String> rtPercentList[] = null;
         Element root = reader.getRootNode();
 
         Node operationsNode = reader.getNode("driverSummary["+driver+"]/responseTimes", root);
@@ -571,7 +1035,7 @@ public class RunAnalyzer {
 
         for (int j = 0; j < ops.getLength(); j++) {
             Element op = (Element) ops.item(j);
-            if (first) { // Add names only first time
+            { // Add operation names
                 NamedNodeMap attrList = op.getAttributes();
                 for (int k = 0; k < attrList.getLength(); k++) {
                     if (attrList.item(k).getNodeType()
@@ -613,7 +1077,7 @@ public class RunAnalyzer {
                                         rtPercentNames.add(attr.getNodeValue());
                                         rtPercentList[l] = new ArrayList<String>();
                                     }
-                                    rtPercentList[l].add(p.getNodeValue());
+                                    rtPercentList[l].add(p.getTextContent());
                                 }
                             }
                         }
@@ -624,18 +1088,18 @@ public class RunAnalyzer {
                 // just ignore. No data will get added
             }
         }
-        first = false;
+        run.rtPercentList = rtPercentList;
     }
 
     /*
     * parse Run Info from summary file
-    * This method parses global run information and sets the TextTable elements appropriately
-    * @param String wlchar.xan file
-    * @param TextTable where values need to be entered
-    * @param int idx into TextTable for this runid
+    * This method parses global run information and sets it in the run data
+    * @param String runDir
+    * @param XMLReader for summary.xml of this run
+    * @param RunData where values need to be entered
     */
 
-    private void getRunInfo(String runDir, XMLReader sumReader, TextTable t, int idx) throws IOException {
+    private void getRunInfo(String runDir, XMLReader sumReader, RunData run) throws IOException {
         String runFile = Config.OUT_DIR + runDir + File.separator + "run.xml";
         XMLReader r = new XMLReader(runFile, true, false);
         String description = r.getValue("fh:description");
@@ -645,10 +1109,10 @@ public class RunAnalyzer {
         //List<String> m = sumReader.getAttributeValues("benchSummary/metric", "unit");
         //String metric = m.get(0);
         String passed = sumReader.getValue("benchSummary/passed");
-        t.setField(idx, 0, runId);
-        t.setField(idx, 1, metricVal);
-        t.setField(idx, 2, passed);
-        t.setField(idx, 3, description);
+        run.runId = runId;
+        run.metric = metricVal;
+        run.passed = passed;
+        run.description = description;
     }
 
     /*
@@ -706,6 +1170,27 @@ public class RunAnalyzer {
     }
 
 
+    /**
+     * The data read from one run for one driver. Runs are read into
+     * these concurrently, then merged into the report.
+     */
+    static class RunData {
+        long modTime;
+        int cpuFileCount;
+        String runId;
+        String metric;
+        String passed;
+        String description;
+        String thruUnit;
+        String respUnit;
+        DetailReport detail;
+        ArrayList<String> opNames = new ArrayList<String>();
+        ArrayList<String> rtAvgList = new ArrayList<String>();
+        ArrayList<String> rtPercentNames = new ArrayList<String>();
+        ArrayList<String> rtPercentList[];
+        ArrayList<String> cpuList[];
+    }
+
     /*
      * @param args the command line arguments which should be the list of runDirs
      */
@@ -0,0 +1,577 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import com.sun.faban.common.SortDirection;
+import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.common.RunId;
+import com.sun.faban.harness.security.AccessController;
+
+import javax.security.auth.Subject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The run catalog keeps the summary fields of all runs in the output
+ * directory, so the result list and feeds do not need to read each run
+ * from disk. The catalog is serialized to $FABAN/config/runcatalog.ser and
+ * maintained incrementally as runs start, finish, get uploaded, edited, or
+ * deleted. Runs added or removed behind our back are picked up when the
+ * modification time of the output directory changes.<br>
+ * Queries go through per-column sorted views of the catalog so the cost
+ * of a query depends on the page size, not on the number of runs.
+ *
+ * @author Akara Sucharitakul
+ */
+public class RunCatalog implements Serializable {
+
+    private static final long serialVersionUID = 20101018L;
+
+    /** The number of sortable columns in the result table. */
+    static final int COLUMNS = 8;
+
+    private static Logger logger = Logger.getLogger(RunCatalog.class.getName());
+    private static RunCatalog instance = null;
+
+    HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    private long outDirModTime;
+    private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+    private final Lock wlock = rwl.writeLock();
+    private final Lock rlock = rwl.readLock();
+
+    /** The ascending sorted views by column, rebuilt on demand. */
+    private transient Entry[][] views;
+
+    /**
+     * Creates the singleton instance of the run catalog, reads it from the
+     * serialized catalog if available. Otherwise, or if the serialized
+     * catalog cannot be read for any reason, it will re-index.
+     * @return The run catalog
+     * @throws java.io.IOException Error reading from the file
+     * @throws java.lang.ClassNotFoundException Error loading RunCatalog class
+     */
+    private static RunCatalog createInstance()
+            throws IOException, ClassNotFoundException {
+        File serFile = new File(Config.CONFIG_DIR + "/runcatalog.ser");
+        RunCatalog catalog = null;
+        if (serFile.exists()) {
+            ObjectInputStream in = null;
+            try {
+                in = new ObjectInputStream(new FileInputStream(serFile));
+                catalog = (RunCatalog) in.readObject();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Cannot read runcatalog.ser, " +
+                        "ignoring.", e);
+                catalog = null;
+            } finally {
+                if (in != null)
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Error closing " + serFile, e);
+                    }
+            }
+        }
+
+        if (catalog == null) {
+            logger.info("Indexing results in " + Config.OUT_DIR);
+            catalog = new RunCatalog();
+        }
+        catalog.sync();
+        return catalog;
+    }
+
+    /**
+     * Obtains the singleton instance of the run catalog.
+     * @return The singleton instance of the run catalog
+     * @throws java.io.IOException Error reading the catalog
+     * @throws java.lang.ClassNotFoundException Error creating the singleton
+     */
+    public static RunCatalog getInstance()
+            throws IOException, ClassNotFoundException {
+        // Same double-check as in TagEngine. Good enough for first access.
+        if (instance == null) {
+            synchronized (RunCatalog.class) {
+                if (instance == null)
+                    instance = createInstance();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Re-reads a run into the catalog and saves the catalog. This is the
+     * hook called whenever a run changes. Errors are logged but not thrown
+     * as the catalog should never stand in the way of running benchmarks.
+     * @param runId The id of the run
+     */
+    public static void updateRun(String runId) {
+        try {
+            RunCatalog catalog = getInstance();
+            catalog.update(runId);
+            catalog.save();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Error updating run catalog for run " +
+                    runId, e);
+        }
+    }
+
+    /**
+     * Private constructor. Nobody should ever construct RunCatalog.
+     */
+    private RunCatalog() {
+    }
+
+    /**
+     * Serializes the run catalog to file. It is located at
+     * $FABAN/config/runcatalog.ser. The catalog is written to a temporary
+     * file first and renamed, so a failed save never leaves a truncated
+     * catalog behind.
+     */
+    public synchronized void save() {
+        File filename = new File(Config.CONFIG_DIR + "/runcatalog.ser");
+        File tmpFile = null;
+        boolean written = false;
+        rlock.lock();
+        try {
+            tmpFile = File.createTempFile("runcatalog", ".tmp",
+                                          filename.getParentFile());
+            ObjectOutputStream out = new ObjectOutputStream(
+                                            new FileOutputStream(tmpFile));
+            try {
+                out.writeObject(this);
+            } finally {
+                out.close();
+            }
+            written = true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error saving run catalog.", e);
+        } finally {
+            rlock.unlock();
+        }
+        if (tmpFile == null)
+            return;
+        if (!written) {
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(filename)) {
+            filename.delete();
+            if (!tmpFile.renameTo(filename)) {
+                tmpFile.delete();
+                logger.warning("Error saving run catalog. Cannot rename " +
+                               tmpFile + " to " + filename);
+            }
+        }
+    }
+
+    /**
+     * Brings the catalog in line with the run directories in the output
+     * directory. Only the directory names are listed. Runs are read only
+     * if they are not yet in the catalog. This is a no-op unless the
+     * modification time of the output directory changed.
+     */
+    private void sync() {
+        File outDir = new File(Config.OUT_DIR);
+        long modTime = outDir.lastModified();
+        if (modTime == outDirModTime)
+            return;
+
+        String[] names = outDir.list();
+        if (names == null)
+            return;
+        HashSet<String> runIds = new HashSet<String>(names.length);
+        for (String name : names)
+            if (new File(outDir, name).isDirectory())
+                runIds.add(name);
+
+        ArrayList<String> added = new ArrayList<String>();
+        ArrayList<String> removed = new ArrayList<String>();
+        rlock.lock();
+        try {
+            for (String runId : runIds)
+                if (!entries.containsKey(runId))
+                    added.add(runId);
+            for (String runId : entries.keySet())
+                if (!runIds.contains(runId))
+                    removed.add(runId);
+        } finally {
+            rlock.unlock();
+        }
+
+        // Read the new runs outside the lock, there may be many.
+        ArrayList<Entry> newEntries = new ArrayList<Entry>(added.size());
+        for (String runId : added) {
+            Entry entry = read(runId);
+            if (entry != null)
+                newEntries.add(entry);
+        }
+
+        removeTags(removed);
+
+        wlock.lock();
+        try {
+            for (String runId : removed)
+                entries.remove(runId);
+            for (Entry entry : newEntries)
+                entries.put(entry.runId, entry);
+            outDirModTime = modTime;
+            if (removed.size() > 0 || newEntries.size() > 0)
+                views = null;
+        } finally {
+            wlock.unlock();
+        }
+        if (removed.size() > 0 || added.size() > 0)
+            save();
+    }
+
+    /**
+     * Reads a run from disk into a new catalog entry.
+     * @param runId The id of the run
+     * @return The entry, or null if the run cannot be read
+     */
+    private static Entry read(String runId) {
+        try {
+            RunResult result = RunResult.load(new RunId(runId));
+            if (result != null)
+                return result.toEntry();
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Cannot read result dir " + runId, e);
+        }
+        return null;
+    }
+
+    /**
+     * Re-reads a run from disk into the catalog. The run is removed from
+     * the catalog if it no longer exists.
+     * @param runId The id of the run
+     */
+    public void update(String runId) {
+        Entry entry = read(runId);
+        wlock.lock();
+        try {
+            if (entry == null)
+                entries.remove(runId);
+            else
+                entries.put(runId, entry);
+            views = null;
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    /**
+     * Removes a run from the catalog.
+     * @param runId The id of the run
+     */
+    public void removeRun(String runId) {
+        wlock.lock();
+        try {
+            if (entries.remove(runId) != null)
+                views = null;
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    /**
+     * Obtains the catalog entry of a run.
+     * @param runId The id of the run
+     * @return The entry, or null if the run is not in the catalog
+     */
+    Entry get(String runId) {
+        rlock.lock();
+        try {
+            return entries.get(runId);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    /**
+     * Queries one page of runs from the catalog. The entries in the page
+     * are checked against the run directory and re-read if the run changed
+     * on disk.
+     * @param user The authenticated subject, if any
+     * @param runIds The runs to select from, or null for all runs
+     * @param skipAnalysis Whether to leave out analysis results
+     * @param column The sort column, as in the result table
+     * @param direction The sort direction
+     * @param offset The number of matching runs to skip
+     * @param limit The maximum number of runs to return
+     * @return The page of run results
+     */
+    List<RunResult> query(Subject user, Set<String> runIds,
+                          boolean skipAnalysis, int column,
+                          SortDirection direction, int offset, int limit) {
+        sync();
+        if (runIds != null)
+            pruneTags(runIds);
+        Entry[] view = getView(column);
+        ArrayList<Entry> page = new ArrayList<Entry>(
+                                            Math.min(limit, view.length));
+        boolean descending = direction == SortDirection.DESCENDING;
+        int skip = offset;
+        for (int i = 0; i < view.length && page.size() < limit; i++) {
+            Entry entry = view[descending ? view.length - 1 - i : i];
+            if (runIds != null && !runIds.contains(entry.runId))
+                continue;
+            if (skipAnalysis && entry.runId.contains("analysis"))
+                continue;
+            if (!AccessController.isViewAllowed(user, entry.runId))
+                continue;
+            if (skip > 0) {
+                --skip;
+                continue;
+            }
+            page.add(entry);
+        }
+
+        boolean changed = false;
+        ArrayList<String> gone = new ArrayList<String>();
+        ArrayList<RunResult> results = new ArrayList<RunResult>(page.size());
+        for (Entry entry : page) {
+            File resultDir = new File(Config.OUT_DIR, entry.runId);
+            if (resultDir.lastModified() > entry.modTime ||
+                    !resultDir.isDirectory()) {
+                String runId = entry.runId;
+                update(runId);
+                changed = true;
+                entry = get(runId);
+                if (entry == null) {
+                    if (!resultDir.isDirectory())
+                        gone.add(runId);
+                    continue;
+                }
+            }
+            results.add(new RunResult(entry));
+        }
+        removeTags(gone);
+        if (changed)
+            save();
+        return results;
+    }
+
+    /**
+     * Removes the tagged runs whose run directories no longer exist from
+     * the tag engine. Runs in the catalog exist as of the last sync.
+     * @param runIds The tagged run ids
+     */
+    private void pruneTags(Set<String> runIds) {
+        ArrayList<String> gone = new ArrayList<String>();
+        rlock.lock();
+        try {
+            for (String runId : runIds)
+                if (!entries.containsKey(runId) &&
+                        !new File(Config.OUT_DIR, runId).isDirectory())
+                    gone.add(runId);
+        } finally {
+            rlock.unlock();
+        }
+        removeTags(gone);
+    }
+
+    /**
+     * Removes runs from the tag engine and saves it.
+     * @param runIds The ids of the removed runs
+     */
+    private static void removeTags(List<String> runIds) {
+        if (runIds.isEmpty())
+            return;
+        try {
+            TagEngine tagEngine = TagEngine.getInstance();
+            for (String runId : runIds)
+                tagEngine.removeRun(runId);
+            tagEngine.save();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Cannot remove runs " + runIds +
+                    " from tag engine.", e);
+        }
+    }
+
+    /**
+     * Obtains the ascending sorted view for a column, building it if needed.
+     * @param column The sort column
+     * @return The sorted view
+     */
+    private Entry[] getView(int column) {
+        if (column < 0 || column >= COLUMNS)
+            column = 5;
+        rlock.lock();
+        try {
+            Entry[][] views = this.views;
+            if (views != null && views[column] != null)
+                return views[column];
+        } finally {
+            rlock.unlock();
+        }
+        wlock.lock();
+        try {
+            if (views == null)
+                views = new Entry[COLUMNS][];
+            Entry[] view = views[column];
+            if (view == null) {
+                view = entries.values().toArray(new Entry[entries.size()]);
+                Arrays.sort(view, new ColumnComparator(column));
+                views[column] = view;
+            }
+            return view;
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    /**
+     * Orders entries by the value shown in a result table column. Run ids,
+     * scales, metrics, and dates compare by value, the other columns
+     * by their text.
+     */
+    static class ColumnComparator implements Comparator<Entry> {
+
+        int column;
+
+        ColumnComparator(int column) {
+            this.column = column;
+        }
+
+        public int compare(Entry a, Entry b) {
+            int c;
+            switch (column) {
+                case 0 : c = a.runIdKey().compareTo(b.runIdKey()); break;
+                case 3 : c = a.scaleKey().compareTo(b.scaleKey()); break;
+                case 4 : c = a.metricKey().compareTo(b.metricKey()); break;
+                case 5 : c = Long.valueOf(a.dateTime).compareTo(b.dateTime);
+                         break;
+                default: c = a.textKey(column).compareTo(b.textKey(column));
+            }
+            if (c == 0)
+                c = a.runId.compareTo(b.runId);
+            return c;
+        }
+    }
+
+    /**
+     * The summary of a run as kept in the catalog.
+     */
+    static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 20101018L;
+
+        String runId;
+        long modTime;
+        String description;
+        String result;
+        String resultLink;
+        String scaleName;
+        String scale;
+        String scaleUnit;
+        String metricText;
+        Double metricValue;
+        String metricUnit;
+        String status;
+        String logLink;
+        long dateTime;
+        String submitter;
+        String[] tags;
+
+        private transient RunId id;
+
+        /**
+         * Obtains the sort key of the run id column.
+         * @return The parsed run id
+         */
+        RunId runIdKey() {
+            if (id == null)
+                id = new RunId(runId);
+            return id;
+        }
+
+        /**
+         * Obtains the sort key of the scale column.
+         * @return The scale, or Integer.MIN_VALUE if it is not a number
+         */
+        Integer scaleKey() {
+            try {
+                return Integer.valueOf(Integer.parseInt(scale));
+            } catch (NumberFormatException e) {
+                return Integer.MIN_VALUE;
+            }
+        }
+
+        /**
+         * Obtains the sort key of the metric column.
+         * @return The metric value, or -1 if there is no metric
+         */
+        Double metricKey() {
+            if (metricText == null || metricValue == null)
+                return -1d;
+            return metricValue;
+        }
+
+        /**
+         * Obtains the sort key of a text column. The keys match the
+         * values the result table sorts on.
+         * @param column The column
+         * @return The sort key
+         */
+        String textKey(int column) {
+            switch (column) {
+                case 1 : if (description == null ||
+                                description.length() == 0)
+                             return "UNAVAILABLE";
+                         return description;
+                case 2 : if (result != null)
+                             return result;
+                         if (status != null)
+                             return status;
+                         return RunResult.NOT_AVAILABLE;
+                case 6 : return submitter == null ? "&nbsp;" : submitter;
+                case 7 : if (tags == null || tags.length == 0)
+                             return "&nbsp;";
+                         StringBuilder b = new StringBuilder();
+                         for (String tag : tags)
+                             b.append(tag).append(' ');
+                         b.setLength(b.length() - 1);
+                         return b.toString();
+                default: return runId;
+            }
+        }
+    }
+}
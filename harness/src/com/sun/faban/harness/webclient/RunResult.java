@@ -60,7 +60,7 @@ public class RunResult {
      * 6 character string with all lower case 'z' is after any other
      * possible status string or result string in the collation sequence.
      */
-    private static final String NOT_AVAILABLE = "zzzzzz";
+    static final String NOT_AVAILABLE = "zzzzzz";
     private static final String[] EMPTY_ARRAY = new String[0];
     private static final int FEED_LIMIT = 25;
 
@@ -153,10 +153,80 @@ public class RunResult {
         return null;
     }
 
+    /**
+     * Reads a run from disk without going through the result cache. This
+     * is used for indexing runs into the run catalog.
+     * @param runId The run id of the run
+     * @return A freshly read result, or null if the run is not found
+     */
+    static RunResult load(RunId runId) {
+        if (!runId.getResultDir().isDirectory())
+            return null;
+        RunResult result = new RunResult(runId);
+        try {
+            result.refresh();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, runId.toString() +
+                    ": Error reading run.", e);
+            result.description = "Error reading this result";
+        }
+        return result;
+    }
+
     private RunResult(RunId runId) {
         this.runId = runId;
     }
 
+    /**
+     * Constructs a result from its run catalog entry.
+     * @param entry The catalog entry
+     */
+    RunResult(RunCatalog.Entry entry) {
+        runId = new RunId(entry.runId);
+        modTime = entry.modTime;
+        description = entry.description;
+        result = entry.result;
+        resultLink = entry.resultLink;
+        scaleName = entry.scaleName;
+        scale = entry.scale;
+        scaleUnit = entry.scaleUnit;
+        metric.text = entry.metricText;
+        metric.value = entry.metricValue;
+        metricUnit = entry.metricUnit;
+        status = entry.status;
+        logLink = entry.logLink;
+        if (entry.dateTime != 0l)
+            dateTime = new Date(entry.dateTime);
+        submitter = entry.submitter;
+        tags = entry.tags;
+    }
+
+    /**
+     * Creates the run catalog entry for this result.
+     * @return The catalog entry
+     */
+    synchronized RunCatalog.Entry toEntry() {
+        RunCatalog.Entry entry = new RunCatalog.Entry();
+        entry.runId = runId.toString();
+        entry.modTime = modTime;
+        entry.description = description;
+        entry.result = result;
+        entry.resultLink = resultLink;
+        entry.scaleName = scaleName;
+        entry.scale = scale;
+        entry.scaleUnit = scaleUnit;
+        entry.metricText = metric.text;
+        entry.metricValue = metric.value;
+        entry.metricUnit = metricUnit;
+        entry.status = status;
+        entry.logLink = logLink;
+        if (dateTime != null)
+            entry.dateTime = dateTime.getTime();
+        entry.submitter = submitter;
+        entry.tags = tags;
+        return entry;
+    }
+
     private synchronized void refresh() {
 
         File resultDir = runId.getResultDir();
@@ -380,35 +450,36 @@ public class RunResult {
     public static SortableTableModel getResultTable(Subject user, String tags,
             int column, String sortDirection)
             throws IOException {
+        return getResultTable(user, tags, column, sortDirection, 0,
+                              Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns one page of the SortableTableModel with tag search.
+     * @param user The authenticated subject, if any
+     * @param tags The tags to search for
+     * @param column The sort column id
+     * @param sortDirection The sort direction
+     * @param offset The number of runs to skip
+     * @param limit The maximum number of runs in the table
+     * @return The SortableTableModel representing this table
+     * @throws java.io.IOException Error reading the tag engine or catalog
+     */
+    public static SortableTableModel getResultTable(Subject user, String tags,
+            int column, String sortDirection, int offset, int limit)
+            throws IOException {
         TagEngine tagEngine;
+        RunCatalog catalog;
         try {
             tagEngine = TagEngine.getInstance();
+            catalog = RunCatalog.getInstance();
         } catch (ClassNotFoundException ex) {
             logger.log(Level.SEVERE, "Cannot find tag engine class", ex);
             throw new IOException("Cannot find tag engine class", ex);
         }
         Set<String> runIds = tagEngine.search(tags);
-        ArrayList<RunResult> resultList =
-                new ArrayList<RunResult>(runIds.size());
-        for (String runid : runIds) {
-            try {
-                RunId runId = new RunId(runid);
-                if (!AccessController.isViewAllowed(user, runid))
-                    continue;
-                RunResult res = getInstance(runId);
-                if (res == null){
-                    try{                        
-                        tagEngine.removeRun(runid);
-                        tagEngine.save();
-                    } catch (Exception e) {
-                        logger.log(Level.WARNING, "Cannot remove run " + runid, e);
-                    }
-                } else
-                    resultList.add(res);
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Cannot read result dir " + runid, e);
-            }
-        }
+        List<RunResult> resultList = catalog.query(user, runIds, false, column,
+                SortDirection.valueOf(sortDirection), offset, limit);
         return generateTable(resultList, column, sortDirection);
     }
 
@@ -421,29 +492,30 @@ public class RunResult {
      */
     public static SortableTableModel getResultTable(Subject user, int column,
                                                     String sortDirection) {
+        return getResultTable(user, column, sortDirection, 0,
+                              Integer.MAX_VALUE);
+    }
 
-        File[] dirs = new File(Config.OUT_DIR).listFiles();
-        ArrayList<RunResult> runs = new ArrayList<RunResult>(dirs.length);
-        for (File runDir : dirs) {
-            if (!runDir.isDirectory()) {
-                continue;
-            }
-            String runIdS = runDir.getName();
-            try {
-                if (!AccessController.isViewAllowed(user, runIdS) || runIdS.contains("analysis")) {
-                    continue;
-                }
-                RunId runId = new RunId(runIdS);
-                RunResult result = getInstance0(runId);
-                if (result == null) {
-                    continue;
-                }
-                runs.add(result);
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Cannot read result dir " + runIdS, 
-                                                                            e);
-            }
+    /**
+     * Returns one page of the SortableTableModel.
+     * @param user The authenticated subject, if any
+     * @param column The sort column id
+     * @param sortDirection The sort direction
+     * @param offset The number of runs to skip
+     * @param limit The maximum number of runs in the table
+     * @return The SortableTableModel representing this table
+     */
+    public static SortableTableModel getResultTable(Subject user, int column,
+                                String sortDirection, int offset, int limit) {
+        RunCatalog catalog;
+        try {
+            catalog = RunCatalog.getInstance();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Cannot read run catalog", e);
+            return null;
         }
+        List<RunResult> runs = catalog.query(user, null, true, column,
+                SortDirection.valueOf(sortDirection), offset, limit);
         return generateTable(runs, column, sortDirection);
     }
 
@@ -707,18 +779,22 @@ public class RunResult {
     public boolean delete(String runIdStr) {
         RunId runId = new RunId(runIdStr);
         File f = runId.getResultDir();
+        boolean deleted = true;
         if (f.isDirectory()) {
-            return(FileHelper.recursiveDelete(f));
+            deleted = FileHelper.recursiveDelete(f);
         }
-        return(true);
+        RunCatalog.updateRun(runIdStr);
+        return deleted;
     }
 
      private static HashMap<String, String> getAchievedMetricForTarget(String tags)
             throws IOException {
         HashMap<String, String> achievedMetricMap = new HashMap<String, String>();
         TagEngine tagEngine;
+        RunCatalog catalog;
         try {
             tagEngine = TagEngine.getInstance();
+            catalog = RunCatalog.getInstance();
         } catch (ClassNotFoundException ex) {
             logger.log(Level.SEVERE, "Cannot find tag engine class", ex);
             throw new IOException("Cannot find tag engine class", ex);
@@ -728,10 +804,10 @@ public class RunResult {
         String achievedMetricUnit = " ";
         for (String runid : runIds) {
             try {
-                RunId runId = new RunId(runid);
-                RunResult res = getInstance(runId);
-                if (res != null && achievedMetric < res.metric.value){
-                    achievedMetric = res.metric.value;
+                RunCatalog.Entry res = catalog.get(runid);
+                if (res != null && res.metricValue != null &&
+                        achievedMetric < res.metricValue){
+                    achievedMetric = res.metricValue;
                     achievedMetricUnit = res.metricUnit;
                 }
             } catch (Exception e) {
@@ -992,7 +1068,8 @@ public class RunResult {
 
             link = "/controller/results/location/" + runId;
 
-            date = result.dateTime.getTime();
+            if (result.dateTime != null)
+                date = result.dateTime.getTime();
             if (result.tags == null)
                 tags = EMPTY_ARRAY;
             else
@@ -1006,27 +1083,15 @@ public class RunResult {
      * @return List<FeedRecord>.
      */
     public static List<FeedRecord> getFeeds(Subject user) {
-
-        File[] dirs = new File(Config.OUT_DIR).listFiles();
-        ArrayList<FeedRecord> feedList = new ArrayList<FeedRecord>(dirs.length);
-        RunResult result0 = null;
-        for (File runDir : dirs) {
-            if (!runDir.isDirectory())
-                continue;
-            String runIdS = runDir.getName();
-            try {
-                RunId runId = new RunId(runIdS);
-                if (!AccessController.isViewAllowed(user, runIdS))
-                    continue;
-                result0 = getInstance0(runId);
-                FeedRecord feedRecord = new FeedRecord(runId, result0);
-                feedList.add(feedRecord);
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Cannot read result dir " + runIdS,
-                                                                            e);
-            }
+        RunCatalog catalog;
+        try {
+            catalog = RunCatalog.getInstance();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Cannot read run catalog", e);
+            return new ArrayList<FeedRecord>();
         }
-        return sortAndLimit(feedList);
+        return toFeeds(catalog.query(user, null, false, 5,
+                SortDirection.DESCENDING, 0, FEED_LIMIT));
     }
 
     /**
@@ -1040,35 +1105,24 @@ public class RunResult {
             throws IOException {
 
         TagEngine tagEngine;
+        RunCatalog catalog;
         try {
             tagEngine = TagEngine.getInstance();
+            catalog = RunCatalog.getInstance();
         } catch (ClassNotFoundException ex) {
             logger.log(Level.SEVERE, "Cannot find tag engine class", ex);
             throw new IOException("Cannot find tag engine class", ex);
         }
         Set<String> runIds = tagEngine.search(tags);
+        return toFeeds(catalog.query(user, runIds, false, 5,
+                SortDirection.DESCENDING, 0, FEED_LIMIT));
+    }
+
+    private static List<FeedRecord> toFeeds(List<RunResult> results) {
         ArrayList<FeedRecord> feedList =
-                                new ArrayList<FeedRecord>(runIds.size());
-        RunResult res = null;
-        boolean runRemoved = false;
-        for (String runid : runIds) {
-            try {
-                RunId runId = new RunId(runid);
-                if (!AccessController.isViewAllowed(user, runid))
-                    continue;
-                res = getInstance(runId);
-                if (res == null){
-                    tagEngine.removeRun(runid);
-                    runRemoved = true;
-                }
-                FeedRecord feedRecord = new FeedRecord(runId, res);
-                feedList.add(feedRecord);
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Cannot read result dir " + runid, e);
-            }
-        }
-        if (runRemoved)
-            tagEngine.save();
+                                new ArrayList<FeedRecord>(results.size());
+        for (RunResult result : results)
+            feedList.add(new FeedRecord(result.runId, result));
         return sortAndLimit(feedList);
     }
 
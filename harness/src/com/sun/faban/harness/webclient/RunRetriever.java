@@ -26,6 +26,7 @@ package com.sun.faban.harness.webclient;
 import com.sun.faban.common.NameValuePair;
 import com.sun.faban.harness.common.Config;
 import com.sun.faban.harness.common.Run;
+import com.sun.faban.harness.common.RunId;
 import com.sun.faban.harness.engine.RunEntryException;
 import com.sun.faban.harness.engine.RunQ;
 import com.sun.faban.harness.util.FileHelper;
@@ -51,6 +52,9 @@ public class RunRetriever extends HttpServlet {
 
     static final String SERVLET_PATH = "pollrun";
 
+    /** The interval a poller renews the host lease of a run, in ms. */
+    public static final long LEASE_RENEW_INTERVAL = 60000l;
+
     private static Logger logger = Logger.getLogger(
             RunRetriever.class.getName());
 
@@ -95,6 +99,14 @@ public class RunRetriever extends HttpServlet {
             nextRunAge(Long.parseLong(v), response);
             return;
         }
+        v = request.getParameter("renew");
+        if (v != null) {
+            if (RunQ.getHandle().renewHosts(v))
+                response.setStatus(HttpServletResponse.SC_OK);
+            else
+                response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return;
+        }
         v = request.getParameter("runid");
         if (v != null) {
             try {
@@ -168,29 +180,40 @@ public class RunRetriever extends HttpServlet {
 
         // Jar up the run.
         File jarFile = null;
-        jarFile = jar(nextRun);
+        try {
+            jarFile = jar(nextRun);
 
-        // Send the run jar to the output stream
-        long length = jarFile.length();
-        int bufferSize = 1024 * 1024 * 128; // 128MB buffer limit
-        if (length < bufferSize)
-            bufferSize = (int) length;
+            // Send the run jar to the output stream
+            long length = jarFile.length();
+            int bufferSize = 1024 * 1024 * 128; // 128MB buffer limit
+            if (length < bufferSize)
+                bufferSize = (int) length;
 
-        byte[] buffer = new byte[bufferSize];
+            byte[] buffer = new byte[bufferSize];
 
-        response.setStatus(HttpServletResponse.SC_OK);
-        response.setContentType("application/java-archive");
-        OutputStream out = response.getOutputStream();
-        FileInputStream jarIn = new FileInputStream(jarFile);
-        int readSize = 0;
-        while ((readSize = jarIn.read(buffer)) != -1)
-            out.write(buffer, 0, readSize);
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/java-archive");
+            OutputStream out = response.getOutputStream();
+            FileInputStream jarIn = new FileInputStream(jarFile);
+            try {
+                int readSize = 0;
+                while ((readSize = jarIn.read(buffer)) != -1)
+                    out.write(buffer, 0, readSize);
+            } finally {
+                jarIn.close();
+            }
 
-        out.flush();
-        out.close();
+            out.flush();
+            out.close();
+        } catch (IOException e) {
+            // The poller will not run it, free the hosts for other runs.
+            RunQ.getHandle().releaseHosts(nextRun.getRunId());
+            throw e;
+        }
 
         // Update status locally
         nextRun.updateStatus(Run.RECEIVED);
+        RunCatalog.updateRun(nextRun.getRunId());
 
         // Clear tmp file
         jarFile.delete();
@@ -271,6 +294,63 @@ public class RunRetriever extends HttpServlet {
         return tmpDir;
     }
 
+    /**
+     * Client side method to renew the host lease of a run fetched from a
+     * pollee, while it executes. This method does nothing if the run is
+     * local. Failures are logged, the lease expires if not renewed.
+     * @param runId The local id of the run
+     */
+    public static void renewLease(String runId) {
+        File originFile = new File(Config.OUT_DIR + runId + File.separator +
+                                   "META-INF" + File.separator + "origin");
+        if (!originFile.isFile())
+            return;
+        try {
+            RunId origRun = new RunId(
+                    FileHelper.readStringFromFile(originFile).trim());
+            Config.HostInfo host = null;
+            for (int i = 0; i < Config.pollHosts.length; i++)
+                if (origRun.getHostName().equals(Config.pollHosts[i].name)) {
+                    host = Config.pollHosts[i];
+                    break;
+                }
+            if (host == null) {
+                logger.warning("Origin host of run " + runId + " not found.");
+                return;
+            }
+            URL target = new URL(host.url, SERVLET_PATH);
+            HttpURLConnection c;
+            if (host.proxyHost != null)
+                c = (HttpURLConnection) target.openConnection(
+                        new Proxy(Proxy.Type.HTTP, new InetSocketAddress(
+                        host.proxyHost, host.proxyPort)));
+            else
+                c = (HttpURLConnection) target.openConnection();
+            c.setRequestMethod("POST");
+            c.setConnectTimeout(2000);
+            c.setDoOutput(true);
+            PrintWriter out = new PrintWriter(c.getOutputStream());
+            out.write("host=" + Config.FABAN_HOST + "&key=" + host.key +
+                      "&renew=" + origRun.getBenchName() + '.' +
+                      origRun.getRunSeq());
+            out.flush();
+            out.close();
+            int responseCode = c.getResponseCode();
+            if (responseCode == HttpServletResponse.SC_NO_CONTENT)
+                logger.warning("Host lease of run " + runId + " at " +
+                        host.name + " is gone.");
+            else if (responseCode != HttpServletResponse.SC_OK)
+                logger.warning("Renewing host lease of run " + runId +
+                        " got response code " + responseCode);
+            c.disconnect();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error renewing host lease of run " +
+                       runId + '.', e);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Bad origin of run " + runId + '.', e);
+        }
+    }
+
     private static NameValuePair<Long> poll(Config.HostInfo host, long minAge)
             throws IOException {
 
@@ -25,6 +25,7 @@ package com.sun.faban.harness.webclient;
 
 import com.sun.faban.harness.common.Config;
 import com.sun.faban.harness.common.RunId;
+import com.sun.faban.harness.engine.RunQ;
 import org.apache.commons.fileupload.DiskFileUpload;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileUploadException;
@@ -206,6 +207,10 @@ public class RunUploader extends HttpServlet {
                 runId = runTmp.getName();
             }
 
+            // The poller is done with the run, even if we fail to copy it.
+            if (origin)
+                RunQ.getHandle().releaseHosts(runId);
+
             if (recursiveCopy(runTmp, new File(Config.OUT_DIR, runId))) {
                 uploadFile.delete();
                 recursiveDelete(runTmp);
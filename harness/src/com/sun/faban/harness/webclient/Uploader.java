@@ -213,6 +213,7 @@ public class Uploader {
                 te.add(runId, new String[0]);
             }
             te.save();
+            RunCatalog.updateRun(runId);
         }
 
         /**
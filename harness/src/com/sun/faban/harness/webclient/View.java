@@ -116,6 +116,7 @@ public class View {
                 }
             }
         }
+        reader.close();
         return xan;
     }
 
@@ -41,8 +41,21 @@
     String tagInSearch = (String)request.getAttribute("tagInSearch");
     String sortDirection = "DESCENDING";
     //String sort = "<img src=/img/sort_desc.gif></img>";
+    Integer offsetAttr = (Integer) request.getAttribute("offset");
+    Integer pageSizeAttr = (Integer) request.getAttribute("pageSize");
+    int offset = offsetAttr == null ? 0 : offsetAttr.intValue();
+    int pageSize = pageSizeAttr == null ? Integer.MAX_VALUE : pageSizeAttr.intValue();
+    boolean hasMore = false;
     int rows;
     if (resultTable != null && (rows = resultTable.rows()) > 0) {
+        // The table holds one more run than the page if there is a next page.
+        if (rows > pageSize) {
+            rows = pageSize;
+            hasMore = true;
+        }
+        String pageLink = "/controller/results/list?sortColumn=" + resultTable.getSortColumn() + "&sortDirection=" + resultTable.getSortDirection();
+        if (tagInSearch != null && tagInSearch.length() > 0)
+            pageLink += "&inputtag=" + URLEncoder.encode(tagInSearch.trim(), "UTF-8");
     %>
 <html>
     <head>
@@ -151,6 +164,14 @@
      </tbody>
      </table>
      <br/>
+     <center>
+    <%  if (offset > 0) { %>
+         <a href="<%= pageLink %>&offset=<%= Math.max(0, offset - pageSize) %>" target="main">&lt;&lt; Previous</a>&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;
+    <%  }
+        if (hasMore) { %>
+         <a href="<%= pageLink %>&offset=<%= offset + pageSize %>" target="main">Next &gt;&gt;</a>
+    <%  } %>
+     </center>
      <br/>
      <center>
      <input type="submit" name="process" value="Delete">&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;
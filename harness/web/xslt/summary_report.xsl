@@ -252,6 +252,44 @@
                         </tbody>
                     </table><br></br>
                     </xsl:if>
+                    <xsl:if test="intendedResponseTimes">
+                    <h3>Response Times from Intended Invoke Time
+                        <xsl:if test="intendedResponseTimes/@unit">
+                            (<xsl:value-of select="intendedResponseTimes/@unit"/>)
+                        </xsl:if>
+                    </h3>
+                    <table border="0" cellpadding="4" cellspacing="3"
+                        style="padding: 2px; border: 2px solid #cccccc; text-align: center; width: 100%;">
+                        <tbody>
+                            <tr style="vertical-align: top;">
+                                <th class="header" style="text-align: left;">Type</th>
+                                <th class="header">Avg</th>
+                                <th class="header">Max</th>
+                                <xsl:for-each select="intendedResponseTimes/operation[1]/percentile">
+                                    <th class="header"><xsl:value-of select="@nth"/><xsl:value-of select="@suffix"/>%</th>
+                                </xsl:for-each>
+                            </tr>
+                            <xsl:for-each select="intendedResponseTimes/operation">
+                                <tr>
+                                    <xsl:choose>
+                                        <xsl:when test="(position() mod 2 = 1)">
+                                            <xsl:attribute name="class">even</xsl:attribute>
+                                        </xsl:when>
+                                        <xsl:otherwise>
+                                            <xsl:attribute name="class">odd</xsl:attribute>
+                                        </xsl:otherwise>
+                                    </xsl:choose>
+                                    <td class="tablecell" style="text-align: left;"><xsl:value-of select="@name"/></td>
+                                    <td class="tablecell"><xsl:value-of select="avg"/></td>
+                                    <td class="tablecell"><xsl:value-of select="max"/></td>
+                                    <xsl:for-each select="percentile">
+                                        <td class="tablecell"><xsl:value-of select="."/></td>
+                                    </xsl:for-each>
+                                </tr>
+                            </xsl:for-each>
+                        </tbody>
+                    </table><br></br>
+                    </xsl:if>
                     <xsl:if test="delayTimes">
                     <h3>Cycle/Think Times (seconds)</h3>
                     <table border="0" cellpadding="4" cellspacing="3"
@@ -447,6 +485,28 @@
                             </table>
                         </xsl:if>
                     </xsl:if>
+                    <xsl:if test="wakeupLateness">
+                        <h3>Timer Wakeup Lateness</h3>
+                        <table border="0" cellpadding="2" cellspacing="2">
+                            <tbody>
+                                <tr>
+                                    <td>Number of wakeups</td>
+                                    <td>=</td>
+                                    <td><xsl:value-of select="wakeupLateness/count"/></td>
+                                </tr>
+                                <tr>
+                                    <td>Avg. lateness (<xsl:value-of select="wakeupLateness/@unit"/>)</td>
+                                    <td>=</td>
+                                    <td><xsl:value-of select="wakeupLateness/avg"/></td>
+                                </tr>
+                                <tr>
+                                    <td>Max. lateness (<xsl:value-of select="wakeupLateness/@unit"/>)</td>
+                                    <td>=</td>
+                                    <td><xsl:value-of select="wakeupLateness/max"/></td>
+                                </tr>
+                            </tbody>
+                        </table>
+                    </xsl:if>
                 </xsl:for-each>
                 <br></br>
                 <hr style="border: 1px solid #cccccc;"></hr>
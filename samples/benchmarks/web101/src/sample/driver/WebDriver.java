@@ -124,7 +124,7 @@ public class WebDriver {
     )
     public void doMyOperation1() throws IOException {
         logger.finest("Accessing " + url1);
-        http.fetchURL(url1);
+        http.readURL(url1);
         if (ctx.isTxSteadyState())
             contentStats.sumContentSize[ctx.getOperationId()] +=
                                                         http.getContentSize();
@@ -141,7 +141,7 @@ public class WebDriver {
     )
     public void doMyOperation2() throws IOException {
         logger.finest("Accessing " + url2);
-        http.fetchURL(url2);
+        http.readURL(url2);
         if (ctx.isTxSteadyState())
             contentStats.sumContentSize[ctx.getOperationId()] +=
                                                         http.getContentSize();
@@ -158,7 +158,7 @@ public class WebDriver {
     )
     public void doMyOperation3() throws IOException {
         logger.finest("Accessing " + url3);
-        http.fetchURL(url3);
+        http.readURL(url3);
         if (ctx.isTxSteadyState())
             contentStats.sumContentSize[ctx.getOperationId()] +=
                                                         http.getContentSize();